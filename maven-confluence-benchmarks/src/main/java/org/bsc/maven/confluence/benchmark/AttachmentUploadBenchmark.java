@@ -0,0 +1,146 @@
+package org.bsc.maven.confluence.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.swizzle.confluence.Attachment;
+import org.codehaus.swizzle.confluence.Confluence;
+import org.codehaus.swizzle.confluence.ConfluenceFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Attachment upload: whole content in memory (byte[]) vs streaming.
+ *
+ * The upload goes to a local sink that discards the request body, so the figures
+ * are about the client side. Run it with the gc profiler to see the allocated
+ * bytes per upload (gc.alloc.rate.norm):
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar AttachmentUpload -prof gc
+ * </pre>
+ *
+ * with a small heap (e.g. <code>-jvmArgs -Xmx64m</code>) the byte[] variant fails
+ * with OutOfMemoryError on the bigger sizes while the streaming one doesn't.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AttachmentUploadBenchmark {
+
+    static final byte[] RESPONSE = (
+            "<?xml version=\"1.0\"?><methodResponse><params><param><value><struct>" +
+            "<member><name>id</name><value>1</value></member>" +
+            "</struct></value></param></params></methodResponse>").getBytes();
+
+    /**
+     * attachment size in MB
+     */
+    @Param({"1", "16", "64"})
+    public int size;
+
+    HttpServer server;
+    Confluence confluence;
+    File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/rpc/xmlrpc", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final InputStream is = exchange.getRequestBody();
+                final byte[] buffer = new byte[8192];
+                while( is.read(buffer) != -1 ) {
+                    // discard
+                }
+                exchange.getResponseHeaders().add("Content-Type", "text/xml");
+                exchange.sendResponseHeaders(200, RESPONSE.length);
+                final OutputStream os = exchange.getResponseBody();
+                os.write(RESPONSE);
+                os.close();
+            }
+        });
+        server.start();
+
+        confluence = ConfluenceFactory.createInstanceVersion3x(
+                String.format("http://localhost:%d", server.getAddress().getPort()), null);
+
+        file = File.createTempFile("attachment", ".bin");
+        file.deleteOnExit();
+
+        final Random random = new Random(size);
+        final byte[] block = new byte[1024 * 1024];
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            for( int i = 0 ; i < size ; ++i ) {
+                random.nextBytes(block);
+                os.write(block);
+            }
+        }
+        finally {
+            os.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        file.delete();
+    }
+
+    Attachment newAttachment() {
+        final Attachment a = new Attachment();
+        a.setFileName(file.getName());
+        a.setContentType("application/octet-stream");
+        return a;
+    }
+
+    @Benchmark
+    public Attachment byteArray() throws Exception {
+        final InputStream is = new FileInputStream(file);
+        try {
+            return confluence.addAttachment(1L, newAttachment(), IOUtils.toByteArray(is));
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    @Benchmark
+    public Attachment stream() throws Exception {
+        final InputStream is = new FileInputStream(file);
+        try {
+            return confluence.addAttachment(1L, newAttachment(), is);
+        }
+        finally {
+            is.close();
+        }
+    }
+
+}
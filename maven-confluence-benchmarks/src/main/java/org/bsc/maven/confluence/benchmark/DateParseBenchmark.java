@@ -0,0 +1,98 @@
+package org.bsc.maven.confluence.benchmark;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.codehaus.swizzle.confluence.Attachment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of a <code>getDate</code> on a string field ({@link Attachment#getCreated()}):
+ * the former parser, that tries the layouts in order throwing a ParseException
+ * per miss, vs the shape driven one.
+ *
+ * The former parser shares the formats between threads, so it is measured on a
+ * single thread only.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar DateParse -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DateParseBenchmark {
+
+    static final SimpleDateFormat[] LEGACY_FORMATS = {
+        new SimpleDateFormat("EEE MMM d HH:mm:ss z yyyy", Locale.US), new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z", Locale.US),
+        new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S", Locale.US), new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SZ", Locale.US), new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S", Locale.US),
+        new SimpleDateFormat("yyyy-MM-dd HH:mm:ssZ", Locale.US), new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US),
+        new SimpleDateFormat("yyyy-MM-dd HH:mmZ", Locale.US),
+        new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.US),
+        new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SZ", Locale.US), new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.S", Locale.US), new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US),
+        new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US), new SimpleDateFormat("yyyy-MM-dd'T'HH:mmZ", Locale.US), new SimpleDateFormat("yyyy-MM-dd'T'HH:mm", Locale.US),
+        new SimpleDateFormat("yyyy-MM-dd", Locale.US), new SimpleDateFormat("yyyyMMdd", Locale.US)
+    };
+
+    /**
+     * value of the <code>created</code> field
+     */
+    @Param({"Tue May 10 10:20:30 GMT 2016", "2016-05-10 10:20:30", "2016-05-10T10:20:30"})
+    public String created;
+
+    Map<String,Object> data;
+
+    @Setup
+    public void setup() {
+        data = Collections.<String,Object>singletonMap("created", created);
+    }
+
+    /**
+     * the former MapObject.toDate
+     */
+    static Date legacyToDate( String value ) {
+        ParseException notParsable = null;
+        for( int i = 0; i < LEGACY_FORMATS.length; i++ ) {
+            try {
+                return LEGACY_FORMATS[i].parse(value);
+            } catch (ParseException e) {
+                notParsable = e;
+            }
+        }
+        return new Date();
+    }
+
+    @Benchmark
+    public Date legacy() {
+        return legacyToDate( created );
+    }
+
+    @Benchmark
+    public Date getCreated() {
+        return new Attachment(data).getCreated();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Date getCreatedConcurrent() {
+        return new Attachment(data).getCreated();
+    }
+}
@@ -0,0 +1,417 @@
+package org.bsc.maven.confluence.benchmark;
+
+import biz.source_code.miniTemplator.MiniTemplator;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.settings.Settings;
+import org.bsc.json.Json;
+import org.bsc.markdown.MarkdownToWikiEngines;
+import org.bsc.maven.confluence.fake.FakeConfluenceServer;
+import org.bsc.maven.confluence.plugin.AbstractConfluenceSiteMojo;
+import org.bsc.maven.plugin.confluence.ConfluenceUtils;
+import org.bsc.maven.reporting.model.Site;
+import org.codehaus.swizzle.confluence.CallListener;
+import org.codehaus.swizzle.confluence.CallStatistics;
+import org.codehaus.swizzle.confluence.Confluence;
+import org.codehaus.swizzle.confluence.Page;
+
+/**
+ * End to end deploy throughput: a synthetic site ({@link SyntheticSite}) is published by the deploy
+ * mojo against an in-process {@link FakeConfluenceServer} with an injected latency.
+ *
+ * Each run reports the wall time, the confluence calls (per command and per page), the bytes sent
+ * and received and the peak heap. Runs after the first one update an already published site, so they
+ * measure the incremental deploy when it is enabled.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.bsc.maven.confluence.benchmark.DeployThroughput \
+ *      layout=model pages=200 depth=3 attachments=2 attachmentSize=16384 markdown=0.5 \
+ *      latency=5 threads=4 runs=2 incremental=true out=deploy.json
+ * </pre>
+ *
+ * Options (name=value):
+ * <ul>
+ * <li>layout: model (site.xml, default) or folder</li>
+ * <li>pages, depth, attachments, attachmentSize, markdown, paragraphs, seed: the synthetic site</li>
+ * <li>latency, maxLatency: latency in ms of each request of the server</li>
+ * <li>runs: number of deploys of the same site (default 1)</li>
+ * <li>threads, multicall, compression, compressionThreshold, incremental, connectionPool, maxParsingTime, markdownEngine: the deploy parameters</li>
+ * <li>dir: working directory (default a temp one), out: json report file (default stdout), verbose: mojo log</li>
+ * </ul>
+ *
+ * The home page is generated from its template only: the project information sections of
+ * the deploy goal need a maven build and are left out.
+ */
+public class DeployThroughput {
+
+    static final String SPACE_KEY = "BENCH";
+    static final String PARENT_PAGE = "Home";
+
+    /**
+     * deploy goal of a project packaging without the project information sections
+     */
+    static class DeployMojo extends AbstractConfluenceSiteMojo {
+
+        private volatile CallStatistics statistics;
+
+        CallStatistics getStatistics() {
+            return statistics;
+        }
+
+        @Override
+        protected List<CallListener> getCallListeners(CallStatistics statistics) {
+            this.statistics = statistics;
+            return super.getCallListeners(statistics);
+        }
+
+        @Override
+        public void execute() throws MojoExecutionException {
+
+            loadUserInfoFromSettings();
+
+            Site site = null;
+
+            if (isSiteDescriptorValid()) {
+                site = super.createFromModel();
+
+                // don't measure the folder layout in place of the requested one
+                if (site == null) {
+                    throw new MojoExecutionException(String.format("site descriptor [%s] can't be loaded!", getSiteDescriptor()));
+                }
+            }
+
+            if (site != null) {
+                site.setBasedir(getSiteDescriptor());
+                if (site.getHome().getName() != null) {
+                    setTitle(site.getHome().getName());
+                } else {
+                    site.getHome().setName(getTitle());
+                }
+            } else {
+                site = super.createFromFolder();
+            }
+
+            super.initTemplateProperties();
+
+            final String title = getTitle();
+            final String wiki;
+            try {
+                final MiniTemplator t = new MiniTemplator.Builder()
+                        .setSkipUndefinedVars(true)
+                        .build(Site.processUri(site.getHome().getUri(), getCharset(), getMarkdownEngine()), getCharset());
+
+                super.addStdProperties(t);
+
+                wiki = t.generateOutput();
+
+            } catch (Exception e) {
+                throw new MojoExecutionException("error loading template", e);
+            }
+
+            final Site.Page home = site.getHome();
+
+            super.confluenceExecute(new ConfluenceTask() {
+
+                @Override
+                public void execute(Confluence confluence) throws Exception {
+
+                    Page confluencePage = ConfluenceUtils.getOrCreatePage(confluence, getSpaceKey(), getParentPageTitle(), title);
+
+                    confluencePage = storePage(confluence, null, confluencePage, wiki);
+
+                    addLabels(confluence, confluencePage, home.getComputedLabels());
+
+                    generateChildren(confluence, home, confluencePage, getSpaceKey(), title, title);
+
+                    saveDeployState();
+                }
+            });
+        }
+    }
+
+    /**
+     * mojo log without the info and debug messages
+     */
+    static class QuietLog extends SystemStreamLog {
+
+        @Override
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        @Override
+        public void debug(CharSequence content) {
+        }
+
+        @Override
+        public void debug(CharSequence content, Throwable error) {
+        }
+
+        @Override
+        public void debug(Throwable error) {
+        }
+
+        @Override
+        public void info(CharSequence content) {
+        }
+
+        @Override
+        public void info(CharSequence content, Throwable error) {
+        }
+
+        @Override
+        public void info(Throwable error) {
+        }
+    }
+
+    private final Map<String, String> options;
+    private String folderFileExt;
+
+    DeployThroughput(Map<String, String> options) {
+        this.options = options;
+    }
+
+    String option(String name, String defaultValue) {
+        final String value = options.get(name);
+        return (value == null) ? defaultValue : value;
+    }
+
+    int intOption(String name, int defaultValue) {
+        return Integer.parseInt(option(name, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * set a mojo parameter as the plugin container does
+     *
+     * @param target
+     * @param name
+     * @param value
+     */
+    static void setParameter(Object target, String name, Object value) {
+        for (Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+            try {
+                final Field f = c.getDeclaredField(name);
+                f.setAccessible(true);
+                f.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                // look up the super class
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(String.format("parameter [%s] can't be set!", name), e);
+            }
+        }
+        throw new IllegalArgumentException(String.format("parameter [%s] not found!", name));
+    }
+
+    DeployMojo newMojo(FakeConfluenceServer server, File basedir, File source, boolean model) {
+        final DeployMojo mojo = new DeployMojo();
+
+        if (!Boolean.parseBoolean(option("verbose", "false"))) {
+            mojo.setLog(new QuietLog());
+        }
+
+        final MavenProject project = new MavenProject();
+        project.setGroupId("org.bsc.maven");
+        project.setArtifactId("synthetic-site");
+        project.setVersion("1.0");
+        project.setName("synthetic site");
+
+        final int threads = intOption("threads", 1);
+
+        setParameter(mojo, "project", project);
+        setParameter(mojo, "mavenSettings", new Settings());
+        setParameter(mojo, "endPoint", server.getEndPoint());
+        setParameter(mojo, "spaceKey", SPACE_KEY);
+        setParameter(mojo, "parentPageTitle", PARENT_PAGE);
+        setParameter(mojo, "username", "admin");
+        setParameter(mojo, "password", "admin");
+        setParameter(mojo, "title", "Synthetic Home");
+        setParameter(mojo, "encoding", "UTF-8");
+        setParameter(mojo, "wikiFilesExt", model ? SyntheticSite.WIKI_EXT : folderFileExt);
+        setParameter(mojo, "templateWiki", model ? new File(basedir, "template.wiki") : source);
+        setParameter(mojo, "attachmentFolder", new File(basedir, "attachments"));
+        setParameter(mojo, "childrenFolder", new File(basedir, "children"));
+        setParameter(mojo, "siteDescriptor", model ? source : new File(basedir, "site.xml"));
+        setParameter(mojo, "deployState", new File(basedir, "confluence-deploy-state.json"));
+        setParameter(mojo, "incremental", Boolean.parseBoolean(option("incremental", "false")));
+        setParameter(mojo, "publishThreads", threads);
+        setParameter(mojo, "connectionPool", Boolean.parseBoolean(option("connectionPool", String.valueOf(threads > 1))));
+        setParameter(mojo, "multicallBatchSize", intOption("multicall", 0));
+        setParameter(mojo, "compression", Boolean.parseBoolean(option("compression", "false")));
+        setParameter(mojo, "compressionThreshold", intOption("compressionThreshold", -1));
+        setParameter(mojo, "maxParsingTime", Long.parseLong(option("maxParsingTime", "2000")));
+        setParameter(mojo, "markdownEngine", option("markdownEngine", MarkdownToWikiEngines.DEFAULT));
+
+        return mojo;
+    }
+
+    /**
+     *
+     * @return the sum of the peak usage of the heap pools since the last reset
+     */
+    static long peakHeap() {
+        long result = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                result += pool.getPeakUsage().getUsed();
+            }
+        }
+        return result;
+    }
+
+    static void resetPeakHeap() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     *
+     * @return the report of the runs
+     * @throws Exception
+     */
+    Map<String, Object> execute() throws Exception {
+
+        final String layout = option("layout", "model");
+        final boolean model = "model".equals(layout);
+        if (!model && !"folder".equals(layout)) {
+            throw new IllegalArgumentException(String.format("layout [%s] is not supported! Valid values are: model, folder", layout));
+        }
+
+        final SyntheticSite generator = new SyntheticSite(
+                intOption("pages", 100),
+                intOption("depth", 3),
+                intOption("attachments", 1),
+                intOption("attachmentSize", 8 * 1024),
+                Double.parseDouble(option("markdown", "0.5")),
+                intOption("paragraphs", 10),
+                Long.parseLong(option("seed", "1")));
+
+        final File basedir = (options.containsKey("dir"))
+                ? new File(options.get("dir"))
+                : new File(System.getProperty("java.io.tmpdir"), "synthetic-site-" + System.currentTimeMillis());
+
+        final File source = model ? generator.writeModel(basedir) : generator.writeFolder(basedir);
+        folderFileExt = generator.getFolderFileExt();
+
+        final Map<String, Object> site = new LinkedHashMap<String, Object>();
+        site.put("layout", layout);
+        site.put("dir", basedir.getPath());
+        site.put("pages", intOption("pages", 100));
+        site.put("markdownPages", generator.getMarkdownPages());
+        site.put("attachments", generator.getAttachments());
+
+        final Map<String, Object> report = new LinkedHashMap<String, Object>();
+        report.put("options", new TreeMap<String, String>(options));
+        report.put("site", site);
+
+        final FakeConfluenceServer server = new FakeConfluenceServer(0, Math.max(8, intOption("threads", 1) * 2));
+        server.start();
+        try {
+            server.getStore().addSpace(SPACE_KEY, PARENT_PAGE);
+
+            final long minLatency = Long.parseLong(option("latency", "0"));
+            server.setLatency(minLatency, Long.parseLong(option("maxLatency", String.valueOf(minLatency))));
+
+            final List<Object> runs = new ArrayList<Object>();
+            final int count = intOption("runs", 1);
+
+            for (int i = 0; i < count; ++i) {
+                runs.add(run(server, basedir, source, model));
+            }
+            report.put("runs", runs);
+
+        } finally {
+            server.stop();
+        }
+        return report;
+    }
+
+    private Map<String, Object> run(FakeConfluenceServer server, File basedir, File source, boolean model) throws Exception {
+
+        final DeployMojo mojo = newMojo(server, basedir, source, model);
+
+        server.resetCounters();
+        resetPeakHeap();
+
+        final long start = System.nanoTime();
+
+        mojo.execute();
+
+        final long elapsed = System.nanoTime() - start;
+
+        final int pages = server.getStore().getPageCount() - 1; // the parent page
+
+        final CallStatistics.Command total = mojo.getStatistics().getTotal();
+
+        final Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("wallTimeMs", elapsed / 1000000L);
+        result.put("pagesPerSecond", (elapsed > 0) ? pages * 1e9 / elapsed : 0);
+        result.put("remotePages", pages);
+        result.put("calls", total.getCount());
+        result.put("callsPerPage", (pages > 0) ? (double) total.getCount() / pages : 0);
+        result.put("httpRequests", server.getRequestCount());
+        result.put("errors", total.getErrors());
+        result.put("bytesSent", total.getRequestBytes());
+        result.put("bytesReceived", total.getResponseBytes());
+        result.put("peakHeapBytes", peakHeap());
+        result.put("serverCalls", new TreeMap<String, Long>(server.getCallCounts()));
+        return result;
+    }
+
+    /**
+     *
+     * @param args options as name=value
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+
+        final Map<String, String> options = new LinkedHashMap<String, String>();
+        for (String arg : args) {
+            final int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException(String.format("option [%s] is not valid! Use name=value. Options: %s", arg, Arrays.toString(args)));
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        final Map<String, Object> report = new DeployThroughput(options).execute();
+
+        final String out = options.get("out");
+        if (out == null) {
+            System.out.println(Json.stringify(report));
+            return;
+        }
+
+        final Writer w = new OutputStreamWriter(new FileOutputStream(out), "UTF-8");
+        try {
+            Json.write(report, w);
+        } finally {
+            w.close();
+        }
+        System.out.println(String.format("deploy report written to [%s]", out));
+    }
+}
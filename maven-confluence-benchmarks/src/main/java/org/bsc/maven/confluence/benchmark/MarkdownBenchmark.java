@@ -0,0 +1,123 @@
+package org.bsc.maven.confluence.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import org.bsc.markdown.PegDownProcessorPool;
+import org.bsc.markdown.ToConfluenceSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pegdown.PegDownProcessor;
+import org.pegdown.ast.Node;
+import org.pegdown.ast.RootNode;
+
+/**
+ * Markdown to wiki conversion of a <code>.md</code> page, as done by <code>Site.processMarkdown</code>:
+ * <ul>
+ * <li>parse: {@link PegDownProcessor#parseMarkdown(char[])} with a reused processor</li>
+ * <li>serialize: {@link ToConfluenceSerializer} over an already parsed document</li>
+ * <li>processMarkdown: a new processor, parse and serialize to the encoded wiki</li>
+ * <li>processMarkdownPooled: as processMarkdown with a processor of the shared pool, as each page does now</li>
+ * </ul>
+ *
+ * The processor isn't thread safe, so each thread has its own state.
+ * {@link MarkdownEngineBenchmark} compares the pegdown engine with the commonmark one.
+ * Use the gc profiler for the allocation rate and a result file to compare the runs:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar Markdown -prof gc -rf json -rff markdown.json
+ * </pre>
+ *
+ * On java 9+ pegdown (parboiled) needs <code>-jvmArgsAppend --add-opens=java.base/java.lang=ALL-UNNAMED</code>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MarkdownBenchmark {
+
+    @Param({
+        "README.md",
+        "getting_started.md",
+        "TEST1.md",
+        MarkdownCorpus.SYNTHETIC_LISTS,
+        MarkdownCorpus.SYNTHETIC_TABLES,
+        MarkdownCorpus.SYNTHETIC_CODE
+    })
+    public String document;
+
+    char[] contents;
+    PegDownProcessor processor;
+    PegDownProcessorPool pool;
+    RootNode root;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        contents = MarkdownCorpus.load(document).toCharArray();
+
+        processor = new PegDownProcessor(ToConfluenceSerializer.extensions());
+        root = processor.parseMarkdown(contents);
+
+        pool = PegDownProcessorPool.shared(ToConfluenceSerializer.extensions(), PegDownProcessorPool.DEFAULT_MAX_PARSING_TIME);
+    }
+
+    static ToConfluenceSerializer newSerializer() {
+        return newSerializer(new StringBuilder(4 * 1024));
+    }
+
+    static ToConfluenceSerializer newSerializer( Appendable out ) {
+        return new ToConfluenceSerializer(out) {
+
+            @Override
+            protected void notImplementedYet(Node node) {
+                // measure the supported nodes only
+            }
+        };
+    }
+
+    @Benchmark
+    public RootNode parse() {
+        return processor.parseMarkdown(contents);
+    }
+
+    @Benchmark
+    public String serialize() {
+        final ToConfluenceSerializer ser = newSerializer();
+        root.accept(ser);
+        return ser.toString();
+    }
+
+    @Benchmark
+    public byte[] processMarkdown() throws IOException {
+        return toWiki(new PegDownProcessor(ToConfluenceSerializer.extensions()).parseMarkdown(contents));
+    }
+
+    @Benchmark
+    public byte[] processMarkdownPooled() throws IOException {
+        return toWiki(pool.parse(contents, document));
+    }
+
+    private byte[] toWiki( RootNode node ) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(contents.length + contents.length / 4 + 64);
+        final Writer w = new OutputStreamWriter(buffer, "UTF-8");
+
+        newSerializer(w).serialize(node);
+        w.close();
+
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,131 @@
+package org.bsc.maven.confluence.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Markdown documents of the benchmarks: the corpora of the core tests
+ * (copied under <code>markdown/</code> at build time) and synthetic documents
+ * that stress the serializer (deep lists, big tables, many fenced code blocks).
+ */
+final class MarkdownCorpus {
+
+    static final String SYNTHETIC_LISTS = "synthetic-lists";
+    static final String SYNTHETIC_TABLES = "synthetic-tables";
+    static final String SYNTHETIC_CODE = "synthetic-code";
+
+    private MarkdownCorpus() {
+    }
+
+    /**
+     *
+     * @param name a resource under <code>markdown/</code> or one of the synthetic documents
+     * @return the document text
+     * @throws IOException
+     */
+    static String load( String name ) throws IOException {
+        if( SYNTHETIC_LISTS.equals(name) ) {
+            return deepLists(5, 4);
+        }
+        if( SYNTHETIC_TABLES.equals(name) ) {
+            return bigTable(500, 8);
+        }
+        if( SYNTHETIC_CODE.equals(name) ) {
+            return codeBlocks(200, 12);
+        }
+
+        final InputStream is = MarkdownCorpus.class.getClassLoader().getResourceAsStream("markdown/" + name);
+        if( is == null ) {
+            throw new IOException(String.format("markdown document [%s] not found!", name));
+        }
+        try {
+            final Reader r = new InputStreamReader(is, "UTF-8");
+            final StringBuilder sb = new StringBuilder(8 * 1024);
+            final char[] buffer = new char[4096];
+            int n;
+            while( (n = r.read(buffer)) != -1 ) {
+                sb.append(buffer, 0, n);
+            }
+            return sb.toString();
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    /**
+     *
+     * @param depth nesting levels
+     * @param items items per level
+     * @return bullet and ordered lists nested <code>depth</code> times (items^depth leaves)
+     */
+    static String deepLists( int depth, int items ) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("# Deep lists\n\n");
+        list(sb, 0, depth, items);
+        return sb.toString();
+    }
+
+    private static void list( StringBuilder sb, int level, int depth, int items ) {
+        for( int i = 1 ; i <= items ; ++i ) {
+            for( int l = 0 ; l < level ; ++l ) {
+                sb.append("    ");
+            }
+            sb.append( ( level % 2 == 0 ) ? "* " : i + ". " )
+              .append("item **").append(level).append('.').append(i).append("** with `code` and a [link](http://example.com/")
+              .append(i).append(")\n");
+
+            if( level + 1 < depth ) {
+                list(sb, level + 1, depth, items);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param rows
+     * @param cols
+     * @return a table of the given size
+     */
+    static String bigTable( int rows, int cols ) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("# Big table\n\n|");
+        for( int c = 0 ; c < cols ; ++c ) {
+            sb.append(" column ").append(c).append(" |");
+        }
+        sb.append("\n|");
+        for( int c = 0 ; c < cols ; ++c ) {
+            sb.append("----------|");
+        }
+        sb.append('\n');
+        for( int r = 0 ; r < rows ; ++r ) {
+            sb.append('|');
+            for( int c = 0 ; c < cols ; ++c ) {
+                sb.append( ( c % 3 == 0 ) ? " *cell* " : " cell " ).append(r).append('.').append(c).append(" |");
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     *
+     * @param blocks number of fenced code blocks
+     * @param lines lines per block
+     * @return paragraphs and fenced code blocks
+     */
+    static String codeBlocks( int blocks, int lines ) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("# Code blocks\n\n");
+        for( int b = 0 ; b < blocks ; ++b ) {
+            sb.append("Paragraph ").append(b).append(" before the _code_.\n\n```java\n");
+            for( int l = 0 ; l < lines ; ++l ) {
+                sb.append("    final int value").append(l).append(" = compute(").append(b).append(", ").append(l).append("); // [").append(l).append("]\n");
+            }
+            sb.append("```\n\n");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package org.bsc.maven.confluence.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import org.bsc.markdown.MarkdownToWikiEngine;
+import org.bsc.markdown.MarkdownToWikiEngines;
+import org.bsc.markdown.PegDownProcessorPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Markdown to wiki conversion of a <code>.md</code> page with each {@link MarkdownToWikiEngine},
+ * as selected by the <code>markdownEngine</code> parameter of the mojo: parse and serialize to the encoded wiki.
+ *
+ * The engines are thread safe, so the state is shared by the threads:
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar MarkdownEngine -t 4 -prof gc -rf json -rff engines.json
+ * </pre>
+ *
+ * See {@link MarkdownBenchmark} for the pegdown options on java 9+
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MarkdownEngineBenchmark {
+
+    @Param({
+        "pegdown",
+        "commonmark"
+    })
+    public String engine;
+
+    @Param({
+        "README.md",
+        "getting_started.md",
+        "TEST1.md",
+        MarkdownCorpus.SYNTHETIC_LISTS,
+        MarkdownCorpus.SYNTHETIC_TABLES,
+        MarkdownCorpus.SYNTHETIC_CODE
+    })
+    public String document;
+
+    char[] contents;
+    MarkdownToWikiEngine markdownEngine;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        contents = MarkdownCorpus.load(document).toCharArray();
+
+        markdownEngine = MarkdownToWikiEngines.get(engine, PegDownProcessorPool.DEFAULT_MAX_PARSING_TIME);
+    }
+
+    @Benchmark
+    public byte[] toWiki() throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(contents.length + contents.length / 4 + 64);
+        final Writer w = new OutputStreamWriter(buffer, "UTF-8");
+
+        markdownEngine.toWiki(contents, document, w);
+        w.close();
+
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,144 @@
+package org.bsc.maven.confluence.benchmark;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.codehaus.swizzle.confluence.Confluence;
+import org.codehaus.swizzle.confluence.PageSummary;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion of a <code>getPages</code>/<code>getDescendents</code> sized result
+ * into {@link PageSummary} objects: reflective eager conversion (the former
+ * <code>Confluence.toList</code>) vs the registered factories with the lazy list.
+ *
+ * The client answers from memory, so only the conversion is measured.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar ResultList -prof gc
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResultListBenchmark {
+
+    /**
+     * number of pages returned
+     */
+    @Param({"1000", "50000"})
+    public int pages;
+
+    Object[] vector;
+    Confluence confluence;
+    String middleTitle;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        vector = new Object[pages];
+
+        for( int i = 0 ; i < pages ; ++i ) {
+            final Map<String,Object> page = new HashMap<String,Object>();
+            page.put("id", String.valueOf(1000000 + i));
+            page.put("space", "DOC");
+            page.put("parentId", String.valueOf(1000000 + i / 10));
+            page.put("title", "Page " + i);
+            page.put("url", "http://localhost:8080/display/DOC/Page+" + i);
+            page.put("permissions", "0");
+            vector[i] = page;
+        }
+        middleTitle = "Page " + (pages / 2);
+
+        final XmlRpcClient client = new XmlRpcClient() {
+
+            @Override
+            public Object execute(String pMethodName, Object[] pParams) throws XmlRpcException {
+                return vector;
+            }
+        };
+
+        confluence = new Confluence(client) {};
+    }
+
+    /**
+     * the former conversion: a reflective construction (and a map copy) per element
+     */
+    static List<PageSummary> toListReflective( Object[] vector ) throws Exception {
+        final List<PageSummary> list = new ArrayList<PageSummary>(vector.length);
+
+        final Constructor<PageSummary> constructor = PageSummary.class.getConstructor(Map.class);
+        for( int i = 0; i < vector.length; i++ ) {
+            list.add( constructor.newInstance( (Map) vector[i] ) );
+        }
+        return list;
+    }
+
+    @Benchmark
+    public int reflectiveReadAll() throws Exception {
+        int result = 0;
+        for( PageSummary p : toListReflective(vector) ) {
+            result += p.getTitle().length();
+        }
+        return result;
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public int lazyReadAll() throws Exception {
+        int result = 0;
+        for( PageSummary p : (List<PageSummary>) confluence.getPages("DOC") ) {
+            result += p.getTitle().length();
+        }
+        return result;
+    }
+
+    @Benchmark
+    public PageSummary reflectiveFind() throws Exception {
+        for( PageSummary p : toListReflective(vector) ) {
+            if( middleTitle.equals(p.getTitle()) ) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public PageSummary lazyFind() throws Exception {
+        for( PageSummary p : (List<PageSummary>) confluence.getPages("DOC") ) {
+            if( middleTitle.equals(p.getTitle()) ) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public int reflectiveSize() throws Exception {
+        return toListReflective(vector).size();
+    }
+
+    @Benchmark
+    public int lazySize() throws Exception {
+        return confluence.getPages("DOC").size();
+    }
+}
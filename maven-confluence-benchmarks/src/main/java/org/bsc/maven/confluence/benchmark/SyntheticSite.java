@@ -0,0 +1,330 @@
+package org.bsc.maven.confluence.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generator of synthetic sites to publish:
+ *
+ * <ul>
+ * <li>model: a <code>site.xml</code> descriptor with its pages and attachments. Each page can be markdown or wiki</li>
+ * <li>folder: the layout read by <code>createFromFolder</code> (<code>template.wiki</code>, <code>attachments</code>,
+ * <code>children</code>)</li>
+ * </ul>
+ *
+ * The folder layout has two levels at most (a sub folder of a section is read as its attachments),
+ * one file extension for all the pages and attachments only on the home and on the sections.
+ */
+final class SyntheticSite {
+
+    static final String NAMESPACE = "https://github.com/bsorrentino/maven-confluence-plugin";
+
+    static final String WIKI_EXT = ".wiki";
+    static final String MARKDOWN_EXT = ".md";
+
+    /**
+     * a generated page
+     */
+    static final class Page {
+        final String name;
+        final boolean markdown;
+        final List<Page> children = new ArrayList<Page>();
+
+        Page(String name, boolean markdown) {
+            this.name = name;
+            this.markdown = markdown;
+        }
+    }
+
+    private final int pages;
+    private final int depth;
+    private final int attachmentsPerPage;
+    private final int attachmentSize;
+    private final double markdownRatio;
+    private final int paragraphs;
+    private final Random random;
+
+    private int markdownPages;
+    private int attachments;
+
+    /**
+     *
+     * @param pages number of pages (home excluded)
+     * @param depth levels of the tree under the home
+     * @param attachmentsPerPage
+     * @param attachmentSize size in bytes of each attachment
+     * @param markdownRatio fraction [0..1] of markdown pages
+     * @param paragraphs paragraphs of each page
+     * @param seed
+     */
+    SyntheticSite(int pages, int depth, int attachmentsPerPage, int attachmentSize, double markdownRatio, int paragraphs, long seed) {
+        if( pages < 0 ) {
+            throw new IllegalArgumentException("pages is negative!");
+        }
+        if( depth < 1 ) {
+            throw new IllegalArgumentException("depth is less than 1!");
+        }
+        if( markdownRatio < 0 || markdownRatio > 1 ) {
+            throw new IllegalArgumentException("markdownRatio is not in [0..1]!");
+        }
+        this.pages = pages;
+        this.depth = depth;
+        this.attachmentsPerPage = Math.max(0, attachmentsPerPage);
+        this.attachmentSize = Math.max(0, attachmentSize);
+        this.markdownRatio = markdownRatio;
+        this.paragraphs = Math.max(1, paragraphs);
+        this.random = new Random(seed);
+    }
+
+    /**
+     *
+     * @return markdown pages of the last generated site
+     */
+    int getMarkdownPages() {
+        return markdownPages;
+    }
+
+    /**
+     *
+     * @return attachments of the last generated site
+     */
+    int getAttachments() {
+        return attachments;
+    }
+
+    /**
+     * pages are added breadth first with a fan out that spreads them over all the levels
+     *
+     * @param maxDepth
+     * @return the home page
+     */
+    private Page newTree( int maxDepth ) {
+        markdownPages = 0;
+        attachments = 0;
+
+        final Page home = new Page("Synthetic Home", false);
+
+        int fanOut = 1;
+        while( capacity(fanOut, maxDepth) < pages ) {
+            ++fanOut;
+        }
+
+        List<Page> level = new ArrayList<Page>();
+        level.add(home);
+
+        int count = 0;
+        while( count < pages ) {
+            final List<Page> next = new ArrayList<Page>();
+
+            for( Page parent : level ) {
+                for( int i = 0 ; i < fanOut && count < pages ; ++i ) {
+                    // spread the markdown pages evenly
+                    final boolean markdown = Math.floor((count + 1) * markdownRatio) > Math.floor(count * markdownRatio);
+                    if( markdown ) {
+                        ++markdownPages;
+                    }
+                    final Page child = new Page(String.format("page-%05d", ++count), markdown);
+                    parent.children.add(child);
+                    next.add(child);
+                }
+            }
+            level = next;
+        }
+        return home;
+    }
+
+    private static long capacity( int fanOut, int depth ) {
+        long result = 0;
+        long level = 1;
+        for( int d = 0 ; d < depth ; ++d ) {
+            level *= fanOut;
+            result += level;
+        }
+        return result;
+    }
+
+    /**
+     * write a site descriptor and its sources
+     *
+     * @param basedir
+     * @return the site descriptor
+     * @throws IOException
+     */
+    File writeModel( File basedir ) throws IOException {
+        final Page home = newTree(depth);
+
+        final File pagesDir = new File(basedir, "pages");
+        final File attachmentsDir = new File(basedir, "attachments");
+        pagesDir.mkdirs();
+        attachmentsDir.mkdirs();
+
+        final StringBuilder xml = new StringBuilder(256 * (pages + 1));
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+           .append("<bsc:site xmlns:bsc=\"").append(NAMESPACE).append("\">\n");
+
+        writeText(new File(basedir, "home.wiki"), wikiPage(home.name));
+        xml.append("  <home name=\"").append(home.name).append("\" uri=\"home.wiki\">\n");
+        writeModelAttachments(xml, "    ", attachmentsDir, "home");
+        writeModelChildren(xml, "    ", home, pagesDir, attachmentsDir);
+        xml.append("  </home>\n")
+           .append("  <label>synthetic</label>\n")
+           .append("</bsc:site>\n");
+
+        final File descriptor = new File(basedir, "site.xml");
+        writeText(descriptor, xml.toString());
+        return descriptor;
+    }
+
+    private void writeModelChildren( StringBuilder xml, String indent, Page parent, File pagesDir, File attachmentsDir ) throws IOException {
+        for( Page child : parent.children ) {
+            final String file = child.name + (child.markdown ? MARKDOWN_EXT : WIKI_EXT);
+
+            writeText(new File(pagesDir, file), child.markdown ? markdownPage(child.name) : wikiPage(child.name));
+
+            xml.append(indent).append("<child name=\"").append(child.name).append("\" uri=\"pages/").append(file).append("\">\n");
+            writeModelAttachments(xml, indent + "  ", attachmentsDir, child.name);
+            writeModelChildren(xml, indent + "  ", child, pagesDir, attachmentsDir);
+            xml.append(indent).append("</child>\n");
+        }
+    }
+
+    private void writeModelAttachments( StringBuilder xml, String indent, File attachmentsDir, String folder ) throws IOException {
+        if( attachmentsPerPage == 0 ) {
+            return;
+        }
+        final File dir = new File(attachmentsDir, folder);
+        dir.mkdirs();
+
+        for( int i = 0 ; i < attachmentsPerPage ; ++i ) {
+            final String name = String.format("data-%02d.bin", i);
+            writeAttachment(new File(dir, name));
+
+            xml.append(indent)
+               .append("<attachment name=\"").append(name)
+               .append("\" uri=\"attachments/").append(folder).append('/').append(name)
+               .append("\" contentType=\"application/octet-stream\" version=\"0\"/>\n");
+        }
+    }
+
+    /**
+     *
+     * @return the file extension of the pages in the folder layout
+     */
+    String getFolderFileExt() {
+        return ( markdownRatio >= 0.5 ) ? MARKDOWN_EXT : WIKI_EXT;
+    }
+
+    /**
+     * write the folder layout
+     *
+     * @param basedir
+     * @return the home template (<code>template.wiki</code>)
+     * @throws IOException
+     */
+    File writeFolder( File basedir ) throws IOException {
+        final Page home = newTree(Math.min(depth, 2));
+
+        final String ext = getFolderFileExt();
+        final boolean markdown = MARKDOWN_EXT.equals(ext);
+        markdownPages = markdown ? pages : 0;
+
+        final File template = new File(basedir, "template.wiki");
+        writeText(template, wikiPage(home.name));
+
+        writeFolderAttachments(new File(basedir, "attachments"));
+
+        final File children = new File(basedir, "children");
+        children.mkdirs();
+
+        for( Page child : home.children ) {
+            if( child.children.isEmpty() ) {
+                writeText(new File(children, child.name + ext), markdown ? markdownPage(child.name) : wikiPage(child.name));
+                continue;
+            }
+            // section
+            final File section = new File(children, child.name);
+            section.mkdirs();
+            writeText(new File(section, template.getName()), wikiPage(child.name));
+            writeFolderAttachments(new File(section, "attachments"));
+
+            for( Page leaf : child.children ) {
+                writeText(new File(section, leaf.name + ext), markdown ? markdownPage(leaf.name) : wikiPage(leaf.name));
+            }
+        }
+        return template;
+    }
+
+    private void writeFolderAttachments( File dir ) throws IOException {
+        if( attachmentsPerPage == 0 ) {
+            return;
+        }
+        dir.mkdirs();
+
+        for( int i = 0 ; i < attachmentsPerPage ; ++i ) {
+            final String name = String.format("data-%02d.bin", i);
+            writeAttachment(new File(dir, name));
+        }
+    }
+
+    private String wikiPage( String title ) {
+        final StringBuilder sb = new StringBuilder(paragraphs * 256);
+        sb.append("h1. ").append(title).append("\n\n");
+        sb.append("{toc}\n\n");
+        for( int p = 0 ; p < paragraphs ; ++p ) {
+            sb.append("h2. Section ").append(p).append("\n\n")
+              .append("Paragraph ").append(p).append(" of ${childTitle} with *bold*, _italic_ and {{code}} text. ")
+              .append("See [the home|").append(title).append("] for details.\n\n")
+              .append("* item one\n* item two\n** nested item\n\n")
+              .append("||key||value||\n|").append(p).append('|').append(random.nextInt()).append("|\n\n")
+              .append("{code:java}\nfinal int value = compute(").append(p).append(");\n{code}\n\n");
+        }
+        return sb.toString();
+    }
+
+    private String markdownPage( String title ) {
+        final StringBuilder sb = new StringBuilder(paragraphs * 256);
+        sb.append("# ").append(title).append("\n\n");
+        for( int p = 0 ; p < paragraphs ; ++p ) {
+            sb.append("## Section ").append(p).append("\n\n")
+              .append("Paragraph ").append(p).append(" with **bold**, _italic_ and `code` text. ")
+              .append("See [the home](http://example.com/").append(p).append(") for details.\n\n")
+              .append("* item one\n* item two\n    * nested item\n\n")
+              .append("| key | value |\n|-----|-------|\n| ").append(p).append(" | ").append(random.nextInt()).append(" |\n\n")
+              .append("```java\nfinal int value = compute(").append(p).append(");\n```\n\n");
+        }
+        return sb.toString();
+    }
+
+    private void writeAttachment( File file ) throws IOException {
+        final byte[] data = new byte[attachmentSize];
+        random.nextBytes(data);
+        ++attachments;
+
+        final OutputStream os = new FileOutputStream(file);
+        try {
+            os.write(data);
+        }
+        finally {
+            os.close();
+        }
+    }
+
+    private static void writeText( File file, String text ) throws IOException {
+        file.getParentFile().mkdirs();
+
+        final Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            w.write(text);
+        }
+        finally {
+            w.close();
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package org.bsc.json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader/writer.
+ *
+ * Objects are mapped to {@link Map} (insertion ordered), arrays to {@link List},
+ * numbers to {@link Long} or {@link Double}, plus {@link String}, {@link Boolean} and null.
+ */
+public class Json {
+
+    private Json() {
+    }
+
+    /**
+     *
+     * @param value
+     * @return json representation of the value
+     */
+    public static String stringify( Object value ) {
+        final StringBuilder result = new StringBuilder(256);
+        try {
+            write( value, result );
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // never happens with StringBuilder
+        }
+        return result.toString();
+    }
+
+    /**
+     *
+     * @param value Map, Collection, array, CharSequence, Number, Boolean or null
+     * @param out
+     * @throws IOException
+     */
+    public static void write( Object value, Appendable out ) throws IOException {
+
+        if( value == null ) {
+            out.append("null");
+        }
+        else if( value instanceof CharSequence ) {
+            writeString( (CharSequence)value, out );
+        }
+        else if( value instanceof Number || value instanceof Boolean ) {
+            out.append( String.valueOf(value) );
+        }
+        else if( value instanceof Map ) {
+            out.append('{');
+            boolean first = true;
+            for( Object o : ((Map)value).entrySet() ) {
+                final Map.Entry e = (Map.Entry) o;
+                if( !first ) out.append(',');
+                writeString( String.valueOf(e.getKey()), out );
+                out.append(':');
+                write( e.getValue(), out );
+                first = false;
+            }
+            out.append('}');
+        }
+        else if( value instanceof Collection ) {
+            out.append('[');
+            boolean first = true;
+            for( Object o : (Collection)value ) {
+                if( !first ) out.append(',');
+                write( o, out );
+                first = false;
+            }
+            out.append(']');
+        }
+        else if( value instanceof Object[] ) {
+            out.append('[');
+            final Object[] array = (Object[]) value;
+            for( int i = 0 ; i < array.length ; ++i ) {
+                if( i > 0 ) out.append(',');
+                write( array[i], out );
+            }
+            out.append(']');
+        }
+        else {
+            writeString( String.valueOf(value), out );
+        }
+    }
+
+    private static void writeString( CharSequence s, Appendable out ) throws IOException {
+        out.append('"');
+        for( int i = 0 ; i < s.length() ; ++i ) {
+            final char c = s.charAt(i);
+            switch( c ) {
+                case '"':   out.append("\\\""); break;
+                case '\\':  out.append("\\\\"); break;
+                case '\n':  out.append("\\n"); break;
+                case '\r':  out.append("\\r"); break;
+                case '\t':  out.append("\\t"); break;
+                case '\b':  out.append("\\b"); break;
+                case '\f':  out.append("\\f"); break;
+                default:
+                    if( c < 0x20 ) {
+                        out.append(String.format("\\u%04x", (int)c));
+                    }
+                    else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     *
+     * @param text
+     * @return the parsed value
+     * @throws IllegalArgumentException if the text isn't valid json
+     */
+    public static Object parse( CharSequence text ) {
+        if( text == null ) {
+            throw new IllegalArgumentException("text is null!");
+        }
+        final Parser p = new Parser(text);
+        final Object result = p.value();
+        p.skipBlanks();
+        if( p.pos < text.length() ) {
+            throw p.error("unexpected content");
+        }
+        return result;
+    }
+
+    private static class Parser {
+        final CharSequence text;
+        int pos = 0;
+
+        Parser(CharSequence text) {
+            this.text = text;
+        }
+
+        IllegalArgumentException error( String msg ) {
+            return new IllegalArgumentException(String.format("invalid json: %s at position %d", msg, pos));
+        }
+
+        void skipBlanks() {
+            while( pos < text.length() && Character.isWhitespace(text.charAt(pos)) ) {
+                ++pos;
+            }
+        }
+
+        char next() {
+            skipBlanks();
+            if( pos >= text.length() ) {
+                throw error("unexpected end");
+            }
+            return text.charAt(pos);
+        }
+
+        void expect( char c ) {
+            if( next() != c ) {
+                throw error(String.format("'%c' expected", c));
+            }
+            ++pos;
+        }
+
+        boolean consume( String literal ) {
+            if( pos + literal.length() <= text.length() &&
+                text.subSequence(pos, pos + literal.length()).toString().equals(literal) ) {
+                pos += literal.length();
+                return true;
+            }
+            return false;
+        }
+
+        Object value() {
+            final char c = next();
+
+            switch( c ) {
+                case '{': return object();
+                case '[': return array();
+                case '"': return string();
+                default:
+                    if( consume("null") ) return null;
+                    if( consume("true") ) return Boolean.TRUE;
+                    if( consume("false") ) return Boolean.FALSE;
+                    return number();
+            }
+        }
+
+        Map<String,Object> object() {
+            expect('{');
+            final Map<String,Object> result = new LinkedHashMap<String,Object>();
+            if( next() == '}' ) {
+                ++pos;
+                return result;
+            }
+            do {
+                if( next() != '"' ) {
+                    throw error("name expected");
+                }
+                final String name = string();
+                expect(':');
+                result.put(name, value());
+            }
+            while( nextIs(',') );
+            expect('}');
+            return result;
+        }
+
+        List<Object> array() {
+            expect('[');
+            final List<Object> result = new ArrayList<Object>();
+            if( next() == ']' ) {
+                ++pos;
+                return result;
+            }
+            do {
+                result.add(value());
+            }
+            while( nextIs(',') );
+            expect(']');
+            return result;
+        }
+
+        boolean nextIs( char c ) {
+            if( next() == c ) {
+                ++pos;
+                return true;
+            }
+            return false;
+        }
+
+        String string() {
+            expect('"');
+            final StringBuilder result = new StringBuilder();
+            while( pos < text.length() ) {
+                final char c = text.charAt(pos++);
+                if( c == '"' ) {
+                    return result.toString();
+                }
+                if( c != '\\' ) {
+                    result.append(c);
+                    continue;
+                }
+                if( pos >= text.length() ) {
+                    break;
+                }
+                final char e = text.charAt(pos++);
+                switch( e ) {
+                    case 'n': result.append('\n'); break;
+                    case 'r': result.append('\r'); break;
+                    case 't': result.append('\t'); break;
+                    case 'b': result.append('\b'); break;
+                    case 'f': result.append('\f'); break;
+                    case 'u':
+                        if( pos + 4 > text.length() ) {
+                            throw error("invalid unicode escape");
+                        }
+                        try {
+                            result.append((char) Integer.parseInt(text.subSequence(pos, pos + 4).toString(), 16));
+                        }
+                        catch( NumberFormatException ex ) {
+                            throw error("invalid unicode escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        result.append(e);
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        Number number() {
+            final int start = pos;
+            boolean decimal = false;
+            while( pos < text.length() ) {
+                final char c = text.charAt(pos);
+                if( c == '.' || c == 'e' || c == 'E' ) {
+                    decimal = true;
+                }
+                else if( !(Character.isDigit(c) || c == '-' || c == '+') ) {
+                    break;
+                }
+                ++pos;
+            }
+            if( start == pos ) {
+                throw error("value expected");
+            }
+            final String n = text.subSequence(start, pos).toString();
+            try {
+                return ( decimal ) ? (Number)Double.valueOf(n) : (Number)Long.valueOf(n);
+            }
+            catch( NumberFormatException ex ) {
+                throw error(String.format("invalid number [%s]", n));
+            }
+        }
+    }
+}
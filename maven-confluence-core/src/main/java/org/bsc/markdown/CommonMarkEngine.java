@@ -0,0 +1,1846 @@
+package org.bsc.markdown;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+
+/**
+ * Engine with a CommonMark style parser: the blocks are recognized line by line and the inlines
+ * with the delimiter stack of the CommonMark spec, so the conversion time is linear with the
+ * document size (times the nesting of quotes and lists) and it never backtracks or times out.
+ * Quotes and lists are nested up to 16 levels, the deeper markers are kept as text.
+ *
+ * The wiki is written with the same rules of {@link ToConfluenceSerializer}, so the engines can be
+ * swapped without changing the published pages. Supported: headings (atx and setext), paragraphs,
+ * block quotes with the special panels (note, warning, info, tip, jira), bullet and ordered lists,
+ * fenced and indented code, tables, thematic breaks, emphasis, strong, strikethrough, code spans,
+ * inline and reference links, images, autolinks, hard breaks and escapes. Html is dropped.
+ *
+ * Where the dialects differ the CommonMark rules apply (a list or a table row needs its marker,
+ * a list can interrupt a paragraph, unclosed emphasis stays as text, references are resolved),
+ * except for the block quotes separated only by blank lines that are merged as pegdown does.
+ */
+public class CommonMarkEngine implements MarkdownToWikiEngine {
+
+    public static final String NAME = "commonmark";
+
+    private enum Kind {
+        DOCUMENT, PARAGRAPH, HEADING, QUOTE, BULLET_LIST, ORDERED_LIST, ITEM, CODE_BLOCK, THEMATIC_BREAK,
+        TABLE, HEAD_ROW, ROW, CELL,
+        TEXT, CODE, EMPH, STRONG, STRIKE, LINK, IMAGE, AUTOLINK, BREAK
+    }
+
+    /**
+     * node of the document. The children are a linked list, so the inlines can be wrapped in place
+     */
+    private static final class Node {
+        final Kind kind;
+        /** text, code, destination or raw inline content */
+        String literal;
+        /** title of a link or language of a code block */
+        String title;
+        /** heading level or emphasis char */
+        int level;
+        boolean tight;
+        /** a blank line separates two children */
+        boolean blankBetween;
+
+        Node parent, first, last, prev, next;
+
+        Node( Kind kind ) {
+            this.kind = kind;
+        }
+
+        Node( Kind kind, String literal ) {
+            this.kind = kind;
+            this.literal = literal;
+        }
+
+        void append( Node child ) {
+            child.unlink();
+            child.parent = this;
+            if( last == null ) {
+                first = last = child;
+            }
+            else {
+                last.next = child;
+                child.prev = last;
+                last = child;
+            }
+        }
+
+        void insertAfter( Node sibling ) {
+            sibling.unlink();
+            sibling.parent = parent;
+            sibling.prev = this;
+            sibling.next = next;
+            if( next != null ) {
+                next.prev = sibling;
+            }
+            else if( parent != null ) {
+                parent.last = sibling;
+            }
+            next = sibling;
+        }
+
+        void unlink() {
+            if( prev != null ) {
+                prev.next = next;
+            }
+            else if( parent != null ) {
+                parent.first = next;
+            }
+            if( next != null ) {
+                next.prev = prev;
+            }
+            else if( parent != null ) {
+                parent.last = prev;
+            }
+            parent = prev = next = null;
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // BLOCKS
+    ///////////////////////////////////////////////////////////////////////
+
+    private static final Pattern ATX_HEADING = Pattern.compile("^(#{1,6})(?:[ \t]+(.*?))??(?:[ \t]+#+)?[ \t]*$");
+    private static final Pattern SETEXT_UNDERLINE = Pattern.compile("^(?:=+|-+)[ \t]*$");
+    private static final Pattern FENCE = Pattern.compile("^(`{3,}|~{3,})[ \t]*(.*)$");
+    private static final Pattern BULLET = Pattern.compile("^([-+*])(?=[ \t]|$)");
+    private static final Pattern ORDERED = Pattern.compile("^([0-9]{1,9})([.)])(?=[ \t]|$)");
+    private static final Pattern REFERENCE = Pattern.compile("^\\[((?:[^\\]\\\\]|\\\\.){1,999})\\]:[ \t]*(<[^<>\n]*>|\\S+)(?:[ \t]+(\"(?:[^\"\\\\]|\\\\.)*\"|'(?:[^'\\\\]|\\\\.)*'|\\((?:[^()\\\\]|\\\\.)*\\)))?[ \t]*$");
+
+    private static final Pattern HTML_BLOCK_1 = Pattern.compile("^<(?:script|pre|style|textarea)(?:\\s|>|$)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern HTML_BLOCK_1_END = Pattern.compile("</(?:script|pre|style|textarea)>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern HTML_BLOCK_6 = Pattern.compile("^</?(?:address|article|aside|base|basefont|blockquote|body|caption|center|col|colgroup|dd|details|dialog|dir|div|dl|dt|fieldset|figcaption|figure|footer|form|frame|frameset|h[1-6]|head|header|hr|html|iframe|legend|li|link|main|menu|menuitem|nav|noframes|ol|optgroup|option|p|param|section|source|summary|table|tbody|td|tfoot|th|thead|title|tr|track|ul)(?:\\s|/?>|$)", Pattern.CASE_INSENSITIVE);
+
+    private static final String TAG_NAME = "[A-Za-z][A-Za-z0-9-]*";
+    private static final String ATTRIBUTE = "(?:\\s+[A-Za-z_:][A-Za-z0-9_.:-]*(?:\\s*=\\s*(?:[^\"'=<>`\\x00-\\x20]+|'[^']*'|\"[^\"]*\"))?)";
+    private static final String OPEN_TAG = "<" + TAG_NAME + ATTRIBUTE + "{0,64}\\s*/?>";
+    private static final String CLOSE_TAG = "</" + TAG_NAME + "\\s*>";
+
+    private static final Pattern HTML_BLOCK_7 = Pattern.compile("^(?:" + OPEN_TAG + "|" + CLOSE_TAG + ")[ \t]*$");
+    private static final Pattern HTML_TAG = Pattern.compile(OPEN_TAG + "|" + CLOSE_TAG);
+
+    /** html constructs (comment, processing instruction, cdata, declaration) and their end */
+    private static final String[] HTML_CONSTRUCTS = { "<!--", "<?", "<![CDATA[", "<!" };
+    private static final Pattern[] HTML_CONSTRUCTS_END = {
+        Pattern.compile("-->"), Pattern.compile("\\?>"), Pattern.compile("\\]\\]>"), Pattern.compile(">")
+    };
+
+    /** max nesting of quotes and lists */
+    private static final int MAX_NESTING = 16;
+
+    /** max nesting of the parentheses in a link destination */
+    private static final int MAX_PARENTHESES = 32;
+
+    /** max length of a link label */
+    private static final int MAX_LABEL = 999;
+
+    private static final Pattern AUTOLINK_URI = Pattern.compile("<([A-Za-z][A-Za-z0-9.+-]{1,31}:[^<>\\x00-\\x20]*)>");
+    private static final Pattern AUTOLINK_EMAIL = Pattern.compile("<([a-zA-Z0-9.!#$%&'*+/=?^_`{|}~-]+@[a-zA-Z0-9](?:[a-zA-Z0-9-]{0,61}[a-zA-Z0-9])?(?:\\.[a-zA-Z0-9](?:[a-zA-Z0-9-]{0,61}[a-zA-Z0-9])?)*)>");
+
+    private static final String[] SPECIAL_PANELS = { "note", "warning", "info", "tip", "jira" };
+
+    /**
+     * parser of a document. References are collected by the block phase and resolved by the inline one
+     */
+    private static final class Parser {
+
+        final Map<String,String[]> references = new HashMap<String,String[]>();
+        /** quotes and lists that enclose the blocks being parsed */
+        int depth = 0;
+
+        Node parse( char[] source ) {
+            final List<String> lines = new ArrayList<String>();
+
+            int start = 0;
+            for( int i = 0 ; i < source.length ; ++i ) {
+                final char c = source[i];
+                if( c == '\n' || c == '\r' ) {
+                    lines.add(new String(source, start, i - start));
+                    if( c == '\r' && i + 1 < source.length && source[i + 1] == '\n' ) {
+                        ++i;
+                    }
+                    start = i + 1;
+                }
+            }
+            if( start < source.length ) {
+                lines.add(new String(source, start, source.length - start));
+            }
+
+            final Node document = new Node(Kind.DOCUMENT);
+            parseBlocks(document, lines);
+            parseInlines(document);
+            return document;
+        }
+
+        /**
+         * parse the lines (already stripped by the enclosing containers) as children of the container
+         */
+        void parseBlocks( Node container, List<String> lines ) {
+            final int n = lines.size();
+            boolean blank = false;
+            int i = 0;
+
+            while( i < n ) {
+                final String line = lines.get(i);
+
+                if( isBlank(line) ) {
+                    blank = true;
+                    ++i;
+                    continue;
+                }
+                if( blank && container.first != null ) {
+                    container.blankBetween = true;
+                }
+                blank = false;
+
+                final int indent = indent(line);
+                final boolean nesting = depth < MAX_NESTING;
+
+                if( indent >= 4 ) {
+                    i = parseIndentedCode(container, lines, i);
+                    continue;
+                }
+
+                final String rest = fromColumn(line, indent);
+
+                if( isFenceStart(rest) ) {
+                    i = parseFencedCode(container, lines, i, indent);
+                    continue;
+                }
+
+                final Matcher heading = ATX_HEADING.matcher(rest);
+                if( heading.matches() ) {
+                    final Node h = new Node(Kind.HEADING, heading.group(2) == null ? "" : heading.group(2));
+                    h.level = heading.group(1).length();
+                    container.append(h);
+                    ++i;
+                    continue;
+                }
+
+                if( isThematicBreak(rest) ) {
+                    container.append(new Node(Kind.THEMATIC_BREAK));
+                    ++i;
+                    continue;
+                }
+
+                if( nesting && rest.charAt(0) == '>' ) {
+                    i = parseQuote(container, lines, i);
+                    continue;
+                }
+
+                if( rest.charAt(0) == '<' ) {
+                    final int end = parseHtml(lines, i, rest, false);
+                    if( end > i ) {
+                        i = end;
+                        continue;
+                    }
+                }
+
+                if( nesting && isListItemStart(rest) ) {
+                    i = parseList(container, lines, i);
+                    continue;
+                }
+
+                if( i + 1 < n && rest.indexOf('|') >= 0 && isTableDelimiter(lines.get(i + 1).trim()) ) {
+                    final int end = parseTable(container, lines, i);
+                    if( end > i ) {
+                        i = end;
+                        continue;
+                    }
+                }
+
+                i = parseParagraph(container, lines, i);
+            }
+        }
+
+        int parseIndentedCode( Node container, List<String> lines, int i ) {
+            final StringBuilder text = new StringBuilder();
+            int lastContent = i;
+            int j = i;
+            for( ; j < lines.size() ; ++j ) {
+                final String l = lines.get(j);
+                if( !isBlank(l) ) {
+                    if( indent(l) < 4 ) {
+                        break;
+                    }
+                    lastContent = j;
+                }
+            }
+            // trailing blank lines are not part of the code
+            for( int k = i ; k <= lastContent ; ++k ) {
+                text.append(fromColumn(lines.get(k), 4)).append('\n');
+            }
+            container.append(new Node(Kind.CODE_BLOCK, text.toString()));
+            return lastContent + 1;
+        }
+
+        int parseFencedCode( Node container, List<String> lines, int i, int indent ) {
+            final Matcher m = FENCE.matcher(fromColumn(lines.get(i), indent));
+            m.matches();
+            final String fence = m.group(1);
+            final String info = m.group(2).trim();
+
+            final StringBuilder text = new StringBuilder();
+            int j = i + 1;
+            for( ; j < lines.size() ; ++j ) {
+                final String l = lines.get(j);
+                if( indent(l) < 4 && isFenceEnd(fromColumn(l, indent(l)), fence) ) {
+                    ++j;
+                    break;
+                }
+                text.append(fromColumn(l, Math.min(indent, indent(l)))).append('\n');
+            }
+
+            final Node code = new Node(Kind.CODE_BLOCK, text.toString());
+            final int space = info.indexOf(' ');
+            code.title = unescape( space < 0 ? info : info.substring(0, space) );
+            container.append(code);
+            return j;
+        }
+
+        int parseQuote( Node container, List<String> lines, int i ) {
+            final List<String> content = new ArrayList<String>();
+            final int n = lines.size();
+            int j = i;
+
+            while( j < n ) {
+                final String l = lines.get(j);
+                final int indent = indent(l);
+                final String rest = ( indent < 4 ) ? fromColumn(l, indent) : null;
+
+                if( rest != null && rest.length() > 0 && rest.charAt(0) == '>' ) {
+                    content.add(stripQuoteMarker(l, indent));
+                    ++j;
+                    continue;
+                }
+                if( isBlank(l) ) {
+                    // quotes separated by blank lines are merged
+                    int k = j;
+                    while( k < n && isBlank(lines.get(k)) ) {
+                        ++k;
+                    }
+                    if( k < n && indent(lines.get(k)) < 4 && fromColumn(lines.get(k), indent(lines.get(k))).startsWith(">") ) {
+                        for( ; j < k ; ++j ) {
+                            content.add("");
+                        }
+                        continue;
+                    }
+                    break;
+                }
+                // lazy continuation of a paragraph
+                if( !content.isEmpty() && isParagraphLine(content.get(content.size() - 1)) && !interruptsParagraph(l) ) {
+                    content.add(l);
+                    ++j;
+                    continue;
+                }
+                break;
+            }
+
+            final Node quote = new Node(Kind.QUOTE);
+            ++depth;
+            parseBlocks(quote, content);
+            --depth;
+            container.append(quote);
+            return j;
+        }
+
+        /**
+         *
+         * @return index of the line after the html block or the given index if it doesn't start one
+         */
+        int parseHtml( List<String> lines, int i, String rest, boolean inParagraph ) {
+            Pattern end = null;
+
+            if( HTML_BLOCK_1.matcher(rest).find() ) {
+                end = HTML_BLOCK_1_END;
+            }
+            else if( htmlConstruct(rest, 0) >= 0 ) {
+                end = HTML_CONSTRUCTS_END[htmlConstruct(rest, 0)];
+            }
+            else if( !HTML_BLOCK_6.matcher(rest).find() && (inParagraph || !HTML_BLOCK_7.matcher(rest).matches()) ) {
+                return i;
+            }
+
+            if( inParagraph ) {
+                return i + 1;
+            }
+
+            int j = i;
+            if( end != null ) {
+                while( j < lines.size() ) {
+                    if( end.matcher(lines.get(j++)).find() ) {
+                        break;
+                    }
+                }
+            }
+            else {
+                while( j < lines.size() && !isBlank(lines.get(j)) ) {
+                    ++j;
+                }
+            }
+            return j;
+        }
+
+        int parseList( Node container, List<String> lines, int i ) {
+            final int n = lines.size();
+            final String first = fromColumn(lines.get(i), indent(lines.get(i)));
+            final Matcher bullet = BULLET.matcher(first);
+            final boolean ordered = !bullet.find();
+            final char type = ordered ? ordered(first) : bullet.group(1).charAt(0);
+
+            final Node list = new Node( ordered ? Kind.ORDERED_LIST : Kind.BULLET_LIST );
+            list.tight = true;
+
+            int j = i;
+            while( j < n ) {
+                final String line = lines.get(j);
+                final int indent = indent(line);
+                if( indent >= 4 ) {
+                    break;
+                }
+                final String rest = fromColumn(line, indent);
+                if( !isListItemStart(rest) || isThematicBreak(rest) ) {
+                    break;
+                }
+                final Matcher b = BULLET.matcher(rest);
+                if( ordered ? (b.find() || ordered(rest) != type) : (!b.find() || b.group(1).charAt(0) != type) ) {
+                    break;
+                }
+
+                // item content offset
+                final int marker = ordered ? rest.indexOf(type) + 1 : 1;
+                final int afterMarker = indent(rest.substring(marker)) ;
+                final boolean emptyFirst = isBlank(rest.substring(marker));
+                final int offset = indent + marker + ( (afterMarker >= 5 || emptyFirst) ? 1 : afterMarker );
+
+                final List<String> content = new ArrayList<String>();
+                content.add( emptyFirst ? "" : fromColumn(line, offset) );
+
+                int blanks = 0;
+                ++j;
+                while( j < n ) {
+                    final String l = lines.get(j);
+                    if( isBlank(l) ) {
+                        ++blanks;
+                        ++j;
+                        continue;
+                    }
+                    if( indent(l) >= offset ) {
+                        for( ; blanks > 0 ; --blanks ) {
+                            content.add("");
+                        }
+                        content.add(fromColumn(l, offset));
+                        ++j;
+                        continue;
+                    }
+                    // lazy continuation of a paragraph
+                    if( blanks == 0
+                            && isParagraphLine(content.get(content.size() - 1))
+                            && !interruptsParagraph(l)
+                            && !isListItemStart(fromColumn(l, indent(l))) ) {
+                        content.add(l);
+                        ++j;
+                        continue;
+                    }
+                    break;
+                }
+
+                final Node item = new Node(Kind.ITEM);
+                ++depth;
+                parseBlocks(item, content);
+                --depth;
+                list.append(item);
+
+                if( item.blankBetween ) {
+                    list.tight = false;
+                }
+                if( blanks > 0 ) {
+                    if( j < n && isSibling(lines.get(j), ordered, type) ) {
+                        list.tight = false;
+                    }
+                    else {
+                        // the blank lines close the list
+                        j -= blanks;
+                        break;
+                    }
+                }
+            }
+
+            container.append(list);
+            return j;
+        }
+
+        private boolean isSibling( String line, boolean ordered, char type ) {
+            final int indent = indent(line);
+            if( indent >= 4 ) {
+                return false;
+            }
+            final String rest = fromColumn(line, indent);
+            if( !isListItemStart(rest) || isThematicBreak(rest) ) {
+                return false;
+            }
+            final Matcher b = BULLET.matcher(rest);
+            return ordered ? (!b.find() && ordered(rest) == type) : (b.find() && b.group(1).charAt(0) == type);
+        }
+
+        int parseTable( Node container, List<String> lines, int i ) {
+            final List<String> header = cells(lines.get(i));
+            final List<String> delimiter = cells(lines.get(i + 1));
+            if( header.size() != delimiter.size() ) {
+                return i;
+            }
+
+            final Node table = new Node(Kind.TABLE);
+            table.append(row(Kind.HEAD_ROW, header));
+
+            int j = i + 2;
+            for( ; j < lines.size() ; ++j ) {
+                final String l = lines.get(j);
+                if( isBlank(l) || l.indexOf('|') < 0 || interruptsParagraph(l) ) {
+                    break;
+                }
+                table.append(row(Kind.ROW, cells(l)));
+            }
+            container.append(table);
+            return j;
+        }
+
+        private Node row( Kind kind, List<String> cells ) {
+            final Node row = new Node(kind);
+            for( String c : cells ) {
+                row.append(new Node(Kind.CELL, c));
+            }
+            return row;
+        }
+
+        /**
+         * split a row on the pipes that are not escaped. The leading spaces of a cell are
+         * dropped while the trailing ones become a single space
+         */
+        private List<String> cells( String line ) {
+            final List<String> result = new ArrayList<String>();
+            String s = line.trim();
+            if( s.startsWith("|") ) {
+                s = s.substring(1);
+            }
+            if( s.endsWith("|") && !s.endsWith("\\|") ) {
+                s = s.substring(0, s.length() - 1);
+            }
+
+            final StringBuilder cell = new StringBuilder();
+            for( int k = 0 ; k <= s.length() ; ++k ) {
+                final char c = ( k < s.length() ) ? s.charAt(k) : '|';
+                if( c == '\\' && k + 1 < s.length() && s.charAt(k + 1) == '|' ) {
+                    cell.append('|');
+                    ++k;
+                    continue;
+                }
+                if( c != '|' ) {
+                    cell.append(c);
+                    continue;
+                }
+                final String value = cell.toString().trim();
+                final boolean trailing = cell.length() > 0 && isSpace(cell.charAt(cell.length() - 1));
+                result.add( trailing ? value + ' ' : value );
+                cell.setLength(0);
+            }
+            return result;
+        }
+
+        int parseParagraph( Node container, List<String> lines, int i ) {
+            final StringBuilder text = new StringBuilder(stripLeading(lines.get(i)));
+
+            int j = i + 1;
+            int level = 0;
+            for( ; j < lines.size() ; ++j ) {
+                final String l = lines.get(j);
+                if( isBlank(l) ) {
+                    break;
+                }
+                if( indent(l) < 4 && SETEXT_UNDERLINE.matcher(fromColumn(l, indent(l))).matches() ) {
+                    level = ( l.trim().charAt(0) == '=' ) ? 1 : 2;
+                    ++j;
+                    break;
+                }
+                if( interruptsParagraph(l) ) {
+                    break;
+                }
+                text.append('\n').append(stripLeading(l));
+            }
+
+            final String content = references(text.toString());
+            if( content.isEmpty() ) {
+                return j;
+            }
+
+            if( level > 0 ) {
+                final Node h = new Node(Kind.HEADING, content.trim());
+                h.level = level;
+                container.append(h);
+            }
+            else {
+                container.append(new Node(Kind.PARAGRAPH, content));
+            }
+            return j;
+        }
+
+        /**
+         * collect the link reference definitions at the start of a paragraph
+         *
+         * @return the paragraph without the definitions
+         */
+        private String references( String paragraph ) {
+            if( !paragraph.startsWith("[") ) {
+                return paragraph;
+            }
+            int start = 0;
+            while( start < paragraph.length() && paragraph.charAt(start) == '[' ) {
+                int end = paragraph.indexOf('\n', start);
+                if( end < 0 ) {
+                    end = paragraph.length();
+                }
+                final Matcher m = REFERENCE.matcher(paragraph.substring(start, end));
+                if( !m.matches() ) {
+                    break;
+                }
+                final String label = normalizeLabel(m.group(1));
+                if( !label.isEmpty() && !references.containsKey(label) ) {
+                    String destination = m.group(2);
+                    if( destination.startsWith("<") ) {
+                        destination = destination.substring(1, destination.length() - 1);
+                    }
+                    final String title = m.group(3);
+                    references.put(label, new String[] {
+                            unescape(destination),
+                            ( title == null ) ? "" : unescape(title.substring(1, title.length() - 1))
+                    });
+                }
+                start = Math.min(end + 1, paragraph.length());
+            }
+            return paragraph.substring(start);
+        }
+
+        private boolean isParagraphLine( String line ) {
+            if( isBlank(line) || indent(line) >= 4 ) {
+                return false;
+            }
+            final String rest = fromColumn(line, indent(line));
+            return !( interruptsParagraph(line) || isListItemStart(rest) || rest.charAt(0) == '<' || rest.indexOf('|') >= 0 );
+        }
+
+        /**
+         *
+         * @param line
+         * @return true if the line starts a block that ends an open paragraph
+         */
+        private boolean interruptsParagraph( String line ) {
+            final int indent = indent(line);
+            if( indent >= 4 || isBlank(line) ) {
+                return false;
+            }
+            final String rest = fromColumn(line, indent);
+            final char c = rest.charAt(0);
+
+            if( c == '>' ) {
+                return true;
+            }
+            if( c == '#' && ATX_HEADING.matcher(rest).matches() ) {
+                return true;
+            }
+            if( (c == '`' || c == '~') && isFenceStart(rest) ) {
+                return true;
+            }
+            if( isThematicBreak(rest) ) {
+                return true;
+            }
+            if( c == '<' && parseHtml(null, 0, rest, true) > 0 ) {
+                return true;
+            }
+            // a list interrupts a paragraph only with a not empty item (starting from 1 if ordered)
+            final Matcher b = BULLET.matcher(rest);
+            if( b.find() ) {
+                return !isBlank(rest.substring(1));
+            }
+            final Matcher o = ORDERED.matcher(rest);
+            if( o.find() ) {
+                return "1".equals(o.group(1)) && !isBlank(rest.substring(o.end()));
+            }
+            return false;
+        }
+
+        ///////////////////////////////////////////////////////////////////
+        // INLINES
+        ///////////////////////////////////////////////////////////////////
+
+        void parseInlines( Node node ) {
+            for( Node child = node.first ; child != null ; child = child.next ) {
+                switch( child.kind ) {
+                case PARAGRAPH:
+                case HEADING:
+                case CELL:
+                    new InlineParser(references, child.literal).parse(child);
+                    child.literal = null;
+                    break;
+                case CODE_BLOCK:
+                case THEMATIC_BREAK:
+                    break;
+                default:
+                    parseInlines(child);
+                }
+            }
+        }
+    }
+
+    /**
+     * delimiter run of emphasis or strikethrough
+     */
+    private static final class Delimiter {
+        final Node node;
+        final char c;
+        final int originalLength;
+        int length;
+        final boolean canOpen;
+        final boolean canClose;
+        Delimiter prev, next;
+
+        Delimiter( Node node, char c, int length, boolean canOpen, boolean canClose ) {
+            this.node = node;
+            this.c = c;
+            this.length = this.originalLength = length;
+            this.canOpen = canOpen;
+            this.canClose = canClose;
+        }
+    }
+
+    /**
+     * opening bracket of a link or image
+     */
+    private static final class Bracket {
+        final Node node;
+        /** position after the bracket */
+        final int index;
+        final boolean image;
+        final Bracket prev;
+        final Delimiter previousDelimiter;
+        boolean active = true;
+
+        Bracket( Node node, int index, boolean image, Bracket prev, Delimiter previousDelimiter ) {
+            this.node = node;
+            this.index = index;
+            this.image = image;
+            this.prev = prev;
+            this.previousDelimiter = previousDelimiter;
+        }
+    }
+
+    /**
+     * inline parser of a block content (CommonMark spec, appendix "process emphasis")
+     */
+    private static final class InlineParser {
+        final Map<String,String[]> references;
+        final String s;
+        int pos;
+        Node block;
+        Delimiter lastDelimiter;
+        Bracket lastBracket;
+        final StringBuilder text = new StringBuilder();
+        /** no closing backtick run of the given length after the current position */
+        final boolean[] noBackticks = new boolean[256];
+        /** no end of the html construct after the current position */
+        final boolean[] noHtmlEnd = new boolean[HTML_CONSTRUCTS.length];
+
+        InlineParser( Map<String,String[]> references, String s ) {
+            this.references = references;
+            this.s = s;
+        }
+
+        void parse( Node block ) {
+            this.block = block;
+            final int n = s.length();
+
+            while( pos < n ) {
+                final char c = s.charAt(pos);
+                switch( c ) {
+                case '\n':
+                    lineBreak();
+                    break;
+                case '\\':
+                    backslash();
+                    break;
+                case '`':
+                    backticks();
+                    break;
+                case '*':
+                case '_':
+                case '~':
+                    delimiters(c);
+                    break;
+                case '[':
+                    flush();
+                    lastBracket = new Bracket(textNode("["), pos + 1, false, lastBracket, lastDelimiter);
+                    ++pos;
+                    break;
+                case '!':
+                    if( pos + 1 < n && s.charAt(pos + 1) == '[' ) {
+                        flush();
+                        lastBracket = new Bracket(textNode("!["), pos + 2, true, lastBracket, lastDelimiter);
+                        pos += 2;
+                    }
+                    else {
+                        appendText(c);
+                        ++pos;
+                    }
+                    break;
+                case ']':
+                    closeBracket();
+                    break;
+                case '<':
+                    angleBracket();
+                    break;
+                default:
+                    appendText(c);
+                    ++pos;
+                }
+            }
+            flush();
+            processEmphasis(null);
+            mergeText(block);
+        }
+
+        private void appendText( char c ) {
+            // runs of spaces are collapsed
+            if( c == ' ' && text.length() > 0 && text.charAt(text.length() - 1) == ' ' ) {
+                return;
+            }
+            text.append(c);
+        }
+
+        private void appendText( String value ) {
+            for( int i = 0 ; i < value.length() ; ++i ) {
+                appendText(value.charAt(i));
+            }
+        }
+
+        private void flush() {
+            if( text.length() > 0 ) {
+                block.append(new Node(Kind.TEXT, text.toString()));
+                text.setLength(0);
+            }
+        }
+
+        private Node textNode( String value ) {
+            final Node node = new Node(Kind.TEXT, value);
+            block.append(node);
+            return node;
+        }
+
+        private void lineBreak() {
+            int spaces = 0;
+            while( text.length() > 0 && text.charAt(text.length() - 1) == ' ' ) {
+                text.setLength(text.length() - 1);
+                ++spaces;
+            }
+            // the spaces are collapsed, so a hard break is recognized on the source
+            int k = pos - 1;
+            while( k >= 0 && s.charAt(k) == ' ' ) {
+                --k;
+            }
+            if( pos - 1 - k >= 2 ) {
+                flush();
+                block.append(new Node(Kind.BREAK));
+            }
+            else {
+                appendText(' ');
+            }
+            ++pos;
+            while( pos < s.length() && isSpace(s.charAt(pos)) ) {
+                ++pos;
+            }
+        }
+
+        private void backslash() {
+            final int n = s.length();
+            if( pos + 1 < n && s.charAt(pos + 1) == '\n' ) {
+                flush();
+                block.append(new Node(Kind.BREAK));
+                pos += 2;
+                return;
+            }
+            if( pos + 1 < n && isAsciiPunctuation(s.charAt(pos + 1)) ) {
+                final char c = s.charAt(pos + 1);
+                // an escaped bracket stays escaped in the wiki, otherwise it would start a link
+                if( c == '[' || c == ']' ) {
+                    appendText('\\');
+                }
+                appendText(c);
+                pos += 2;
+                return;
+            }
+            appendText('\\');
+            ++pos;
+        }
+
+        private void backticks() {
+            final int n = s.length();
+            final int start = pos;
+            while( pos < n && s.charAt(pos) == '`' ) {
+                ++pos;
+            }
+            final int length = pos - start;
+
+            if( length < noBackticks.length && !noBackticks[length] ) {
+                int k = pos;
+                while( k < n ) {
+                    if( s.charAt(k) != '`' ) {
+                        ++k;
+                        continue;
+                    }
+                    final int closeStart = k;
+                    while( k < n && s.charAt(k) == '`' ) {
+                        ++k;
+                    }
+                    if( k - closeStart == length ) {
+                        String code = s.substring(pos, closeStart).replace('\n', ' ');
+                        if( code.length() > 2 && code.charAt(0) == ' ' && code.charAt(code.length() - 1) == ' ' && !code.trim().isEmpty() ) {
+                            code = code.substring(1, code.length() - 1);
+                        }
+                        flush();
+                        block.append(new Node(Kind.CODE, code));
+                        pos = k;
+                        return;
+                    }
+                }
+                noBackticks[length] = true;
+            }
+            appendText(s.substring(start, pos));
+        }
+
+        private void delimiters( char c ) {
+            final int n = s.length();
+            final int start = pos;
+            while( pos < n && s.charAt(pos) == c ) {
+                ++pos;
+            }
+            final int length = pos - start;
+
+            final char before = ( start == 0 ) ? '\n' : s.charAt(start - 1);
+            final char after = ( pos >= n ) ? '\n' : s.charAt(pos);
+
+            final boolean beforeSpace = Character.isWhitespace(before);
+            final boolean afterSpace = Character.isWhitespace(after);
+            final boolean beforePunctuation = isPunctuation(before);
+            final boolean afterPunctuation = isPunctuation(after);
+
+            final boolean leftFlanking = !afterSpace && (!afterPunctuation || beforeSpace || beforePunctuation);
+            final boolean rightFlanking = !beforeSpace && (!beforePunctuation || afterSpace || afterPunctuation);
+
+            final boolean canOpen;
+            final boolean canClose;
+            if( c == '_' ) {
+                canOpen = leftFlanking && (!rightFlanking || beforePunctuation);
+                canClose = rightFlanking && (!leftFlanking || afterPunctuation);
+            }
+            else {
+                canOpen = leftFlanking;
+                canClose = rightFlanking;
+            }
+
+            flush();
+            final Node node = textNode(s.substring(start, pos));
+            if( !canOpen && !canClose ) {
+                return;
+            }
+            final Delimiter d = new Delimiter(node, c, length, canOpen, canClose);
+            d.prev = lastDelimiter;
+            if( lastDelimiter != null ) {
+                lastDelimiter.next = d;
+            }
+            lastDelimiter = d;
+        }
+
+        private void closeBracket() {
+            ++pos;
+            final Bracket opener = lastBracket;
+            if( opener == null ) {
+                appendText(']');
+                return;
+            }
+            if( !opener.active ) {
+                lastBracket = opener.prev;
+                appendText(']');
+                return;
+            }
+
+            final int afterBracket = pos;
+            String destination = null;
+            String title = null;
+
+            if( pos < s.length() && s.charAt(pos) == '(' ) {
+                final String[] inline = inlineLink();
+                if( inline != null ) {
+                    destination = inline[0];
+                    title = inline[1];
+                }
+                else {
+                    pos = afterBracket;
+                }
+            }
+
+            if( destination == null ) {
+                String label = null;
+                if( pos < s.length() && s.charAt(pos) == '[' ) {
+                    final int close = labelEnd(pos + 1);
+                    if( close > 0 ) {
+                        label = s.substring(pos + 1, close);
+                        if( label.trim().isEmpty() ) {
+                            label = null;
+                        }
+                        pos = close + 1;
+                    }
+                }
+                if( label == null && afterBracket - 1 - opener.index <= MAX_LABEL ) {
+                    label = s.substring(opener.index, afterBracket - 1);
+                }
+                final String[] reference = ( label != null ) ? references.get(normalizeLabel(label)) : null;
+                if( reference != null ) {
+                    destination = reference[0];
+                    title = reference[1];
+                }
+                else {
+                    pos = afterBracket;
+                }
+            }
+
+            if( destination == null ) {
+                lastBracket = opener.prev;
+                appendText(']');
+                return;
+            }
+
+            flush();
+            final Node link = new Node( opener.image ? Kind.IMAGE : Kind.LINK, destination );
+            link.title = title;
+
+            Node child = opener.node.next;
+            while( child != null ) {
+                final Node next = child.next;
+                link.append(child);
+                child = next;
+            }
+            block.append(link);
+
+            processEmphasis(opener.previousDelimiter);
+            mergeText(link);
+            opener.node.unlink();
+            lastBracket = opener.prev;
+
+            // links can't contain other links. The openers before an inactive one are inactive too
+            if( !opener.image ) {
+                for( Bracket b = lastBracket ; b != null ; b = b.prev ) {
+                    if( !b.image ) {
+                        if( !b.active ) {
+                            break;
+                        }
+                        b.active = false;
+                    }
+                }
+            }
+        }
+
+        /**
+         * the label of a reference link ends at the first <code>]</code> within {@link #MAX_LABEL} chars
+         * and can't contain <code>[</code>
+         *
+         * @param start index after the <code>[</code>
+         * @return index of the <code>]</code> or -1
+         */
+        private int labelEnd( int start ) {
+            final int end = Math.min(s.length(), start + MAX_LABEL + 1);
+            for( int k = start ; k < end ; ++k ) {
+                final char c = s.charAt(k);
+                if( c == ']' ) {
+                    return k;
+                }
+                if( c == '[' ) {
+                    return -1;
+                }
+                if( c == '\\' ) {
+                    ++k;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * parse <code>(destination "title")</code> from the current position
+         *
+         * @return destination and title or null
+         */
+        private String[] inlineLink() {
+            final int n = s.length();
+            int k = skipSpaces(pos + 1);
+
+            final String destination;
+            if( k < n && s.charAt(k) == '<' ) {
+                final int end = k + 1;
+                int e = end;
+                while( e < n && s.charAt(e) != '>' && s.charAt(e) != '<' && s.charAt(e) != '\n' ) {
+                    if( s.charAt(e) == '\\' ) {
+                        ++e;
+                    }
+                    ++e;
+                }
+                if( e >= n || s.charAt(e) != '>' ) {
+                    return null;
+                }
+                destination = s.substring(end, e);
+                k = e + 1;
+            }
+            else {
+                final int start = k;
+                int depth = 0;
+                while( k < n ) {
+                    final char c = s.charAt(k);
+                    if( c == '\\' && k + 1 < n && isAsciiPunctuation(s.charAt(k + 1)) ) {
+                        k += 2;
+                        continue;
+                    }
+                    if( c == '(' ) {
+                        if( ++depth > MAX_PARENTHESES ) {
+                            return null;
+                        }
+                    }
+                    else if( c == ')' ) {
+                        if( depth == 0 ) {
+                            break;
+                        }
+                        --depth;
+                    }
+                    else if( Character.isWhitespace(c) || Character.isISOControl(c) ) {
+                        break;
+                    }
+                    ++k;
+                }
+                if( depth != 0 ) {
+                    return null;
+                }
+                destination = s.substring(start, k);
+            }
+
+            final int beforeTitle = k;
+            k = skipSpaces(k);
+            String title = "";
+            if( k < n && k > beforeTitle && (s.charAt(k) == '"' || s.charAt(k) == '\'' || s.charAt(k) == '(') ) {
+                final char close = ( s.charAt(k) == '(' ) ? ')' : s.charAt(k);
+                int e = k + 1;
+                while( e < n && s.charAt(e) != close ) {
+                    if( s.charAt(e) == '\\' ) {
+                        ++e;
+                    }
+                    ++e;
+                }
+                if( e >= n ) {
+                    return null;
+                }
+                title = unescape(s.substring(k + 1, e));
+                k = skipSpaces(e + 1);
+            }
+            if( k >= n || s.charAt(k) != ')' ) {
+                return null;
+            }
+            pos = k + 1;
+            return new String[] { unescape(destination), title };
+        }
+
+        private int skipSpaces( int k ) {
+            int lines = 0;
+            while( k < s.length() && Character.isWhitespace(s.charAt(k)) ) {
+                if( s.charAt(k) == '\n' && ++lines > 1 ) {
+                    break;
+                }
+                ++k;
+            }
+            return k;
+        }
+
+        private void angleBracket() {
+            Matcher m = AUTOLINK_URI.matcher(s).region(pos, s.length());
+            if( m.lookingAt() ) {
+                flush();
+                block.append(new Node(Kind.AUTOLINK, m.group(1)));
+                pos = m.end();
+                return;
+            }
+            m = AUTOLINK_EMAIL.matcher(s).region(pos, s.length());
+            if( m.lookingAt() ) {
+                flush();
+                block.append(new Node(Kind.AUTOLINK, "mailto:" + m.group(1)));
+                pos = m.end();
+                return;
+            }
+            // html is dropped
+            final int construct = htmlConstruct(s, pos);
+            if( construct >= 0 ) {
+                if( !noHtmlEnd[construct] ) {
+                    final Matcher e = HTML_CONSTRUCTS_END[construct].matcher(s);
+                    if( e.find(pos + 2) ) {
+                        pos = e.end();
+                        return;
+                    }
+                    noHtmlEnd[construct] = true;
+                }
+            }
+            else {
+                m = HTML_TAG.matcher(s).region(pos, s.length());
+                if( m.lookingAt() ) {
+                    pos = m.end();
+                    return;
+                }
+            }
+            appendText('<');
+            ++pos;
+        }
+
+        /**
+         * wrap the text between the matching delimiters above the bottom in emphasis nodes
+         */
+        private void processEmphasis( Delimiter bottom ) {
+            // openers bottom by char, can open and closer length % 3
+            final Map<String,Delimiter> openersBottom = new HashMap<String,Delimiter>();
+
+            Delimiter closer = null;
+            for( Delimiter d = lastDelimiter ; d != null && d != bottom ; d = d.prev ) {
+                closer = d;
+            }
+
+            while( closer != null ) {
+                if( !closer.canClose ) {
+                    closer = closer.next;
+                    continue;
+                }
+                final String key = String.valueOf(closer.c) + closer.canOpen + (closer.originalLength % 3);
+                final Delimiter floor = openersBottom.containsKey(key) ? openersBottom.get(key) : bottom;
+
+                Delimiter opener = closer.prev;
+                boolean found = false;
+                while( opener != null && opener != bottom && opener != floor ) {
+                    if( opener.c == closer.c && opener.canOpen ) {
+                        if( closer.c == '~' ) {
+                            found = opener.length >= 2 && closer.length >= 2;
+                        }
+                        else {
+                            found = !( (opener.canClose || closer.canOpen)
+                                    && (opener.originalLength + closer.originalLength) % 3 == 0
+                                    && !(opener.originalLength % 3 == 0 && closer.originalLength % 3 == 0) );
+                        }
+                        if( found ) {
+                            break;
+                        }
+                    }
+                    opener = opener.prev;
+                }
+
+                if( !found ) {
+                    openersBottom.put(key, closer.prev);
+                    final Delimiter next = closer.next;
+                    if( !closer.canOpen ) {
+                        removeDelimiter(closer);
+                    }
+                    closer = next;
+                    continue;
+                }
+
+                final int use = ( closer.length >= 2 && opener.length >= 2 ) ? 2 : 1;
+                opener.length -= use;
+                closer.length -= use;
+                opener.node.literal = opener.node.literal.substring(use);
+                closer.node.literal = closer.node.literal.substring(use);
+
+                final Node emphasis;
+                if( closer.c == '~' ) {
+                    emphasis = new Node(Kind.STRIKE);
+                }
+                else {
+                    emphasis = new Node( use == 2 ? Kind.STRONG : Kind.EMPH );
+                    emphasis.level = closer.c;
+                }
+
+                Node child = opener.node.next;
+                while( child != null && child != closer.node ) {
+                    final Node next = child.next;
+                    emphasis.append(child);
+                    child = next;
+                }
+                opener.node.insertAfter(emphasis);
+
+                // the delimiters between opener and closer can't match anymore
+                while( closer.prev != opener ) {
+                    removeDelimiter(closer.prev);
+                }
+
+                if( opener.length == 0 ) {
+                    opener.node.unlink();
+                    removeDelimiter(opener);
+                }
+                if( closer.length == 0 ) {
+                    final Delimiter next = closer.next;
+                    closer.node.unlink();
+                    removeDelimiter(closer);
+                    closer = next;
+                }
+            }
+
+            while( lastDelimiter != null && lastDelimiter != bottom ) {
+                removeDelimiter(lastDelimiter);
+            }
+        }
+
+        private void removeDelimiter( Delimiter d ) {
+            if( d.prev != null ) {
+                d.prev.next = d.next;
+            }
+            if( d.next != null ) {
+                d.next.prev = d.prev;
+            }
+            else {
+                lastDelimiter = d.prev;
+            }
+        }
+
+        /**
+         * merge the adjacent text nodes and collapse the spaces across them
+         */
+        private static void mergeText( Node parent ) {
+            final StringBuilder sb = new StringBuilder();
+            Node child = parent.first;
+            while( child != null ) {
+                if( child.first != null ) {
+                    mergeText(child);
+                }
+                if( child.kind != Kind.TEXT ) {
+                    child = child.next;
+                    continue;
+                }
+                sb.setLength(0);
+                Node next = child.next;
+                while( next != null && next.kind == Kind.TEXT ) {
+                    if( sb.length() == 0 ) {
+                        sb.append(child.literal);
+                    }
+                    final String value = next.literal;
+                    final boolean collapse = sb.length() > 0 && sb.charAt(sb.length() - 1) == ' ' && value.startsWith(" ");
+                    sb.append(value, collapse ? 1 : 0, value.length());
+                    final Node merged = next;
+                    next = next.next;
+                    merged.unlink();
+                }
+                if( sb.length() > 0 ) {
+                    child.literal = sb.toString();
+                }
+                if( child.literal.isEmpty() ) {
+                    child.unlink();
+                }
+                child = next;
+            }
+        }
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // UTILITIES
+    ///////////////////////////////////////////////////////////////////////
+
+    private static boolean isSpace( char c ) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static boolean isBlank( String line ) {
+        for( int i = 0 ; i < line.length() ; ++i ) {
+            if( !isSpace(line.charAt(i)) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String stripLeading( String line ) {
+        int i = 0;
+        while( i < line.length() && isSpace(line.charAt(i)) ) {
+            ++i;
+        }
+        return line.substring(i);
+    }
+
+    /**
+     *
+     * @param line
+     * @return columns of the leading whitespace, with tab stops of 4
+     */
+    private static int indent( String line ) {
+        int column = 0;
+        for( int i = 0 ; i < line.length() ; ++i ) {
+            final char c = line.charAt(i);
+            if( c == ' ' ) {
+                ++column;
+            }
+            else if( c == '\t' ) {
+                column += 4 - (column % 4);
+            }
+            else {
+                break;
+            }
+        }
+        return column;
+    }
+
+    /**
+     *
+     * @param line
+     * @param column
+     * @return the line from the given column. A tab across the column is replaced by its remaining spaces
+     */
+    private static String fromColumn( String line, int column ) {
+        int c = 0;
+        for( int i = 0 ; i < line.length() ; ++i ) {
+            if( c >= column ) {
+                return line.substring(i);
+            }
+            final char ch = line.charAt(i);
+            if( ch == '\t' ) {
+                final int next = c + 4 - (c % 4);
+                if( next > column ) {
+                    final StringBuilder sb = new StringBuilder();
+                    for( int k = column ; k < next ; ++k ) {
+                        sb.append(' ');
+                    }
+                    return sb.append(line, i + 1, line.length()).toString();
+                }
+                c = next;
+            }
+            else {
+                ++c;
+            }
+        }
+        return "";
+    }
+
+    private static String stripQuoteMarker( String line, int indent ) {
+        final String rest = fromColumn(line, indent);
+        final String content = fromColumn(rest.substring(1), 0);
+        if( content.length() > 0 && content.charAt(0) == '\t' ) {
+            return fromColumn(rest.substring(1), 1);
+        }
+        return ( content.length() > 0 && content.charAt(0) == ' ' ) ? content.substring(1) : content;
+    }
+
+    /**
+     *
+     * @return index of the html construct (comment, processing instruction, cdata or declaration)
+     * that starts at the given position or -1
+     */
+    private static int htmlConstruct( String s, int start ) {
+        for( int i = 0 ; i < HTML_CONSTRUCTS.length ; ++i ) {
+            if( s.startsWith(HTML_CONSTRUCTS[i], start) ) {
+                // a declaration starts with a letter
+                if( i == HTML_CONSTRUCTS.length - 1 && !(start + 2 < s.length() && Character.isLetter(s.charAt(start + 2))) ) {
+                    return -1;
+                }
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     *
+     * @param rest line without the leading spaces
+     * @return true if it is made by three or more <code>*</code>, <code>-</code> or <code>_</code>,
+     * optionally separated by spaces or tabs
+     */
+    private static boolean isThematicBreak( String rest ) {
+        if( rest.isEmpty() ) {
+            return false;
+        }
+        final char marker = rest.charAt(0);
+        if( marker != '*' && marker != '-' && marker != '_' ) {
+            return false;
+        }
+        int count = 0;
+        for( int i = 0 ; i < rest.length() ; ++i ) {
+            final char c = rest.charAt(i);
+            if( c == marker ) {
+                ++count;
+            }
+            else if( !isSpace(c) ) {
+                return false;
+            }
+        }
+        return count >= 3;
+    }
+
+    /**
+     *
+     * @param line trimmed line
+     * @return true if it is the delimiter row of a table: cells of <code>-</code>, optionally
+     * aligned by <code>:</code>, separated by <code>|</code>
+     */
+    private static boolean isTableDelimiter( String line ) {
+        int start = 0;
+        int end = line.length();
+        if( start < end && line.charAt(start) == '|' ) {
+            ++start;
+        }
+        if( end > start && line.charAt(end - 1) == '|' ) {
+            --end;
+        }
+        if( start >= end ) {
+            return false;
+        }
+        int cell = start;
+        for( int i = start ; i <= end ; ++i ) {
+            if( i == end || line.charAt(i) == '|' ) {
+                if( !isDelimiterCell(line, cell, i) ) {
+                    return false;
+                }
+                cell = i + 1;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isDelimiterCell( String line, int start, int end ) {
+        int i = start;
+        while( i < end && isSpace(line.charAt(i)) ) {
+            ++i;
+        }
+        if( i < end && line.charAt(i) == ':' ) {
+            ++i;
+        }
+        final int dashes = i;
+        while( i < end && line.charAt(i) == '-' ) {
+            ++i;
+        }
+        if( i == dashes ) {
+            return false;
+        }
+        if( i < end && line.charAt(i) == ':' ) {
+            ++i;
+        }
+        while( i < end && isSpace(line.charAt(i)) ) {
+            ++i;
+        }
+        return i == end;
+    }
+
+    private static boolean isListItemStart( String rest ) {
+        return BULLET.matcher(rest).find() || ORDERED.matcher(rest).find();
+    }
+
+    private static char ordered( String rest ) {
+        final Matcher m = ORDERED.matcher(rest);
+        return m.find() ? m.group(2).charAt(0) : 0;
+    }
+
+    private static boolean isFenceStart( String rest ) {
+        final Matcher m = FENCE.matcher(rest);
+        return m.matches() && !( m.group(1).charAt(0) == '`' && m.group(2).indexOf('`') >= 0 );
+    }
+
+    private static boolean isFenceEnd( String rest, String fence ) {
+        int i = 0;
+        while( i < rest.length() && rest.charAt(i) == fence.charAt(0) ) {
+            ++i;
+        }
+        return i >= fence.length() && isBlank(rest.substring(i));
+    }
+
+    private static String normalizeLabel( String label ) {
+        return label.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isAsciiPunctuation( char c ) {
+        return (c >= '!' && c <= '/') || (c >= ':' && c <= '@') || (c >= '[' && c <= '`') || (c >= '{' && c <= '~');
+    }
+
+    private static boolean isPunctuation( char c ) {
+        if( isAsciiPunctuation(c) ) {
+            return true;
+        }
+        switch( Character.getType(c) ) {
+        case Character.CONNECTOR_PUNCTUATION:
+        case Character.DASH_PUNCTUATION:
+        case Character.START_PUNCTUATION:
+        case Character.END_PUNCTUATION:
+        case Character.INITIAL_QUOTE_PUNCTUATION:
+        case Character.FINAL_QUOTE_PUNCTUATION:
+        case Character.OTHER_PUNCTUATION:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    private static String unescape( String value ) {
+        if( value.indexOf('\\') < 0 ) {
+            return value;
+        }
+        final StringBuilder sb = new StringBuilder(value.length());
+        for( int i = 0 ; i < value.length() ; ++i ) {
+            final char c = value.charAt(i);
+            if( c == '\\' && i + 1 < value.length() && isAsciiPunctuation(value.charAt(i + 1)) ) {
+                sb.append(value.charAt(++i));
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // WIKI
+    ///////////////////////////////////////////////////////////////////////
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void toWiki( char[] source, String name, Appendable out ) throws IOException {
+        if( source == null ) {
+            throw new IllegalArgumentException("source is null!");
+        }
+        if( out == null ) {
+            throw new IllegalArgumentException("out is null!");
+        }
+        render(new Parser().parse(source), out);
+    }
+
+    private void renderChildren( Node node, Appendable out ) throws IOException {
+        for( Node child = node.first ; child != null ; child = child.next ) {
+            render(child, out);
+        }
+    }
+
+    private void render( Node node, Appendable out ) throws IOException {
+        switch( node.kind ) {
+        case DOCUMENT:
+        case ITEM:
+        case TABLE:
+            renderChildren(node, out);
+            break;
+        case PARAGRAPH:
+            renderChildren(node, out);
+            // the paragraphs of a tight list are inlined in the items
+            if( !(node.parent.kind == Kind.ITEM && node.parent.parent.tight) ) {
+                out.append('\n');
+            }
+            break;
+        case HEADING:
+            out.append(format("h%s. ", node.level));
+            renderChildren(node, out);
+            out.append('\n');
+            break;
+        case QUOTE:
+            renderQuote(node, out);
+            break;
+        case BULLET_LIST:
+        case ORDERED_LIST:
+            out.append('\n');
+            for( Node item = node.first ; item != null ; item = item.next ) {
+                out.append( node.kind == Kind.BULLET_LIST ? "* " : "# " );
+                render(item, out);
+                out.append('\n');
+            }
+            out.append('\n');
+            break;
+        case CODE_BLOCK:
+            renderCode(node, out);
+            break;
+        case THEMATIC_BREAK:
+            out.append('\n');
+            break;
+        case HEAD_ROW:
+            out.append("||");
+            for( Node cell = node.first ; cell != null ; cell = cell.next ) {
+                renderChildren(cell, out);
+                out.append("||");
+            }
+            out.append('\n');
+            break;
+        case ROW:
+            out.append('|');
+            for( Node cell = node.first ; cell != null ; cell = cell.next ) {
+                renderChildren(cell, out);
+                out.append('|');
+            }
+            out.append('\n');
+            break;
+        case TEXT:
+            out.append(node.literal);
+            break;
+        case CODE:
+            if( node.literal.split("\n").length == 1 ) {
+                out.append("{{").append(node.literal).append("}}").append('\n');
+            }
+            else {
+                out.append("{code}").append('\n').append(node.literal).append("{code}").append('\n');
+            }
+            break;
+        case EMPH:
+            out.append( node.level == '_' ? '_' : '*' );
+            renderChildren(node, out);
+            out.append( node.level == '_' ? '_' : '*' );
+            break;
+        case STRONG:
+            out.append('*');
+            renderChildren(node, out);
+            out.append('*');
+            break;
+        case STRIKE:
+            out.append('-');
+            renderChildren(node, out);
+            out.append('-');
+            break;
+        case LINK:
+            out.append('[');
+            renderChildren(node, out);
+            out.append(format("|%s|%s]", node.literal, node.title));
+            break;
+        case IMAGE:
+            renderImage(node, out);
+            break;
+        case AUTOLINK:
+            out.append('[').append(node.literal).append(']');
+            break;
+        case BREAK:
+            out.append('\n');
+            break;
+        default:
+            renderChildren(node, out);
+        }
+    }
+
+    private void renderQuote( Node node, Appendable out ) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        renderChildren(node, sb);
+        final String text = sb.toString();
+
+        if( text.split("\n").length == 1 ) {
+            out.append('\n').append("bq. ").append(text).append('\n');
+            return;
+        }
+
+        final String panel = specialPanel(node);
+        if( panel != null ) {
+            final Node paragraph = node.first;
+            final StringBuilder title = new StringBuilder();
+            for( Node child = paragraph.first.next ; child != null ; child = child.next ) {
+                render(child, title);
+            }
+            out.append(format("{%s:title=%s}", panel, title.toString().trim()));
+            renderChildren(node.last, out);
+            out.append(format("{%s}", panel)).append('\n');
+            return;
+        }
+
+        out.append('\n')
+           .append("{quote}")
+           .append('\n')
+           .append(text)
+           .append('\n')
+           .append("{quote}")
+           .append('\n');
+    }
+
+    /**
+     * a quote made by a paragraph that starts with a strong <code>Note:</code> (or warning, info, tip, jira)
+     * followed by a nested quote
+     *
+     * @return the panel or null
+     */
+    private static String specialPanel( Node quote ) {
+        final Node paragraph = quote.first;
+        if( paragraph == null || paragraph.next != quote.last || quote.last.kind != Kind.QUOTE ) {
+            return null;
+        }
+        if( paragraph.kind != Kind.PARAGRAPH || paragraph.first == null || paragraph.first.kind != Kind.STRONG ) {
+            return null;
+        }
+        final Node text = paragraph.first.first;
+        if( text == null || text.kind != Kind.TEXT ) {
+            return null;
+        }
+        for( String panel : SPECIAL_PANELS ) {
+            if( (panel + ":").equalsIgnoreCase(text.literal) ) {
+                return panel;
+            }
+        }
+        return null;
+    }
+
+    private void renderCode( Node node, Appendable out ) throws IOException {
+        final String text = node.literal;
+
+        if( text.split("\n").length == 1 ) {
+            out.append("{noformat}").append(text).append("{noformat}").append('\n');
+            return;
+        }
+        if( node.title == null || node.title.isEmpty() ) {
+            out.append("{noformat}").append('\n').append(text).append('\n').append("{noformat}").append('\n');
+            return;
+        }
+        out.append(format("{code:%s}", node.title)).append('\n').append(text).append('\n').append("{code}").append('\n');
+    }
+
+    /**
+     * a relative image is written with its alternate text, that is the name of an attachment
+     */
+    private void renderImage( Node node, Appendable out ) throws IOException {
+        try {
+            final java.net.URI uri = new java.net.URI(node.literal);
+
+            if( !uri.isAbsolute() && (uri.getScheme() == null || uri.getScheme().isEmpty()) ) {
+                final Node text = firstText(node);
+                if( text != null ) {
+                    out.append(format("!%s!", text.literal));
+                    return;
+                }
+            }
+        }
+        catch( URISyntaxException ex ) {
+            // written as is
+        }
+        out.append(format("!%s!", node.literal));
+    }
+
+    private static Node firstText( Node node ) {
+        for( Node child = node.first ; child != null ; child = child.next ) {
+            if( child.kind == Kind.TEXT ) {
+                return child;
+            }
+            final Node result = firstText(child);
+            if( result != null ) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "CommonMarkEngine";
+    }
+}
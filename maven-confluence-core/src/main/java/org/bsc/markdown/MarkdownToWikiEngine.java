@@ -0,0 +1,29 @@
+package org.bsc.markdown;
+
+import java.io.IOException;
+
+/**
+ * Converter of a markdown document in confluence wiki.
+ *
+ * An engine is shared by the whole build, so it must be thread safe.
+ * Besides the built in engines (see {@link MarkdownToWikiEngines}) others can be
+ * plugged declaring them in <code>META-INF/services/org.bsc.markdown.MarkdownToWikiEngine</code>
+ */
+public interface MarkdownToWikiEngine {
+
+    /**
+     *
+     * @return name used to select the engine
+     */
+    String getName();
+
+    /**
+     *
+     * @param source markdown
+     * @param name name of the document, used in the errors
+     * @param out output of the wiki
+     * @throws IOException if the document can't be converted or the output fails
+     */
+    void toWiki( char[] source, String name, Appendable out ) throws IOException;
+
+}
@@ -0,0 +1,51 @@
+package org.bsc.markdown;
+
+import java.util.ServiceLoader;
+
+/**
+ * Lookup of the markdown engines:
+ *
+ * <ul>
+ * <li>{@value PegDownEngine#NAME}: {@link PegDownEngine}, the default</li>
+ * <li>{@value CommonMarkEngine#NAME}: {@link CommonMarkEngine}</li>
+ * <li>the engines declared in <code>META-INF/services/org.bsc.markdown.MarkdownToWikiEngine</code></li>
+ * </ul>
+ */
+public final class MarkdownToWikiEngines {
+
+    public static final String DEFAULT = PegDownEngine.NAME;
+
+    private MarkdownToWikiEngines() {
+    }
+
+    /**
+     *
+     * @param name name of the engine (case insensitive)
+     * @param maxParsingTime max parsing time of a document in milliseconds (pegdown only)
+     * @return the engine
+     * @throws IllegalArgumentException if there isn't an engine with the given name
+     */
+    public static MarkdownToWikiEngine get( String name, long maxParsingTime ) {
+        if( name == null ) {
+            throw new IllegalArgumentException("name is null!");
+        }
+
+        if( PegDownEngine.NAME.equalsIgnoreCase(name) ) {
+            return new PegDownEngine( PegDownProcessorPool.shared(ToConfluenceSerializer.extensions(), maxParsingTime) );
+        }
+        if( CommonMarkEngine.NAME.equalsIgnoreCase(name) ) {
+            return new CommonMarkEngine();
+        }
+
+        for( MarkdownToWikiEngine engine : ServiceLoader.load(MarkdownToWikiEngine.class) ) {
+            if( name.equalsIgnoreCase(engine.getName()) ) {
+                return engine;
+            }
+        }
+
+        throw new IllegalArgumentException(String.format("markdown engine [%s] is not supported! Use [%s] or [%s]",
+                name,
+                PegDownEngine.NAME,
+                CommonMarkEngine.NAME));
+    }
+}
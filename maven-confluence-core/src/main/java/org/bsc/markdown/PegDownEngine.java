@@ -0,0 +1,71 @@
+package org.bsc.markdown;
+
+import java.io.IOException;
+import org.pegdown.ast.Node;
+import org.pegdown.ast.RootNode;
+
+/**
+ * Engine that parses the markdown with pegdown and writes the wiki with {@link ToConfluenceSerializer}.
+ *
+ * The nodes not supported by the serializer fail the conversion with their position.
+ */
+public class PegDownEngine implements MarkdownToWikiEngine {
+
+    public static final String NAME = "pegdown";
+
+    private final PegDownProcessorPool processors;
+
+    /**
+     * uses the pool shared by the build with the default max parsing time
+     */
+    public PegDownEngine() {
+        this( PegDownProcessorPool.shared(ToConfluenceSerializer.extensions(), PegDownProcessorPool.DEFAULT_MAX_PARSING_TIME) );
+    }
+
+    /**
+     *
+     * @param processors pool used to parse the markdown
+     */
+    public PegDownEngine( PegDownProcessorPool processors ) {
+        if( processors == null ) {
+            throw new IllegalArgumentException("processors is null!");
+        }
+        this.processors = processors;
+    }
+
+    public PegDownProcessorPool getProcessors() {
+        return processors;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void toWiki( final char[] source, String name, Appendable out ) throws IOException {
+
+        final RootNode root = processors.parse(source, name);
+
+        final ToConfluenceSerializer ser = new ToConfluenceSerializer(out) {
+
+            @Override
+            protected void notImplementedYet(Node node) {
+
+                final int lc[] = ToConfluenceSerializer.lineAndColFromNode(new String(source), node);
+                throw new UnsupportedOperationException(String.format("Node [%s] not supported yet. line=[%d] col=[%d]",
+                        node.getClass().getSimpleName(),
+                        lc[0],
+                        lc[1]));
+            }
+
+        };
+
+        ser.serialize(root);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PegDownEngine %s", processors);
+    }
+}
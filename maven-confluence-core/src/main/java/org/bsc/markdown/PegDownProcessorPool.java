@@ -0,0 +1,182 @@
+package org.bsc.markdown;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.pegdown.ParsingTimeoutException;
+import org.pegdown.PegDownProcessor;
+import org.pegdown.ast.RootNode;
+
+/**
+ * Pool of pegdown processors.
+ *
+ * A processor is expensive to build (parser class generation and rule tree) and it isn't thread
+ * safe, so the processors are reused and each parsing borrows one. The pools are shared by the
+ * whole build (see {@link #shared(int, long)}) and their first processor is warmed up.
+ *
+ * Pegdown can backtrack for a long time on some inputs: the parsing of a document is limited
+ * by the max parsing time of the pool.
+ */
+public class PegDownProcessorPool {
+
+    public static final long DEFAULT_MAX_PARSING_TIME = PegDownProcessor.DEFAULT_MAX_PARSING_TIME;
+
+    private static final ConcurrentMap<String,PegDownProcessorPool> SHARED = new ConcurrentHashMap<String,PegDownProcessorPool>();
+
+    private static final char[] WARM_UP = (
+            "# Title\n\n" +
+            "Paragraph with **strong**, _emphasis_, `code` and a [link](http://example.com \"title\").\n\n" +
+            "* item\n    1. nested\n\n" +
+            "> quote\n\n" +
+            "| a | b |\n|---|---|\n| 1 | 2 |\n\n" +
+            "```java\nint a = 0;\n```\n").toCharArray();
+
+    /**
+     *
+     * @param extensions pegdown extensions
+     * @param maxParsingTime max parsing time of a document in milliseconds
+     * @return the pool shared by the build, warmed up on its creation
+     */
+    public static PegDownProcessorPool shared( int extensions, long maxParsingTime ) {
+        final String key = extensions + ":" + maxParsingTime;
+
+        PegDownProcessorPool result = SHARED.get(key);
+
+        if( result == null ) {
+            final PegDownProcessorPool pool = new PegDownProcessorPool(extensions, maxParsingTime);
+
+            result = SHARED.putIfAbsent(key, pool);
+
+            if( result == null ) {
+                pool.warmUp(1);
+                result = pool;
+            }
+        }
+        return result;
+    }
+
+    private final int extensions;
+    private final long maxParsingTime;
+    private final Queue<PegDownProcessor> idle = new ConcurrentLinkedQueue<PegDownProcessor>();
+    private final AtomicInteger created = new AtomicInteger();
+
+    /**
+     *
+     * @param extensions pegdown extensions
+     * @param maxParsingTime max parsing time of a document in milliseconds
+     */
+    public PegDownProcessorPool( int extensions, long maxParsingTime ) {
+        if( maxParsingTime <= 0 ) {
+            throw new IllegalArgumentException("maxParsingTime is not positive!");
+        }
+        this.extensions = extensions;
+        this.maxParsingTime = maxParsingTime;
+    }
+
+    public int getExtensions() {
+        return extensions;
+    }
+
+    public long getMaxParsingTime() {
+        return maxParsingTime;
+    }
+
+    /**
+     *
+     * @return number of processors built by the pool
+     */
+    public int getCreated() {
+        return created.get();
+    }
+
+    private PegDownProcessor newProcessor() {
+        created.incrementAndGet();
+        return new PegDownProcessor(extensions, maxParsingTime);
+    }
+
+    /**
+     * build the given number of processors and parse a sample document with each of them
+     *
+     * @param processors
+     */
+    public void warmUp( int processors ) {
+        for( int i = idle.size() ; i < processors ; ++i ) {
+            final PegDownProcessor p = newProcessor();
+            try {
+                p.parseMarkdown(WARM_UP);
+            }
+            catch( RuntimeException e ) {
+                // a cold parser can exceed a tight max parsing time
+                if( !isTimeout(e) ) {
+                    throw e;
+                }
+            }
+            idle.offer(p);
+        }
+    }
+
+    /**
+     *
+     * @param source markdown
+     * @param name name of the document, used in the errors
+     * @return the parsed document
+     * @throws IOException if the document has not been parsed within the max parsing time
+     */
+    public RootNode parse( char[] source, String name ) throws IOException {
+        if( source == null ) {
+            throw new IllegalArgumentException("source is null!");
+        }
+
+        PegDownProcessor p = idle.poll();
+        if( p == null ) {
+            p = newProcessor();
+        }
+
+        final RootNode result;
+        try {
+            result = p.parseMarkdown(source);
+        }
+        catch( RuntimeException e ) {
+            if( isTimeout(e) ) {
+                idle.offer(p);
+                throw timeout(name);
+            }
+            // the processor state is unknown
+            throw e;
+        }
+
+        idle.offer(p);
+
+        if( result == null ) {
+            throw timeout(name);
+        }
+        return result;
+    }
+
+    private IOException timeout( String name ) {
+        return new IOException(String.format("markdown [%s] has not been parsed within [%d] ms! Simplify the document or raise the max parsing time",
+                name,
+                maxParsingTime));
+    }
+
+    private static boolean isTimeout( Throwable e ) {
+        for( Throwable t = e ; t != null ; t = t.getCause() ) {
+            if( t instanceof ParsingTimeoutException ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PegDownProcessorPool extensions [%d] maxParsingTime [%d] created [%d] idle [%d]",
+                extensions,
+                maxParsingTime,
+                created.get(),
+                idle.size());
+    }
+}
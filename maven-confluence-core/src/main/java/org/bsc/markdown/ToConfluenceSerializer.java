@@ -43,6 +43,7 @@ import org.pegdown.ast.VerbatimNode;
 import org.pegdown.ast.Visitor;
 import org.pegdown.ast.WikiLinkNode;
 
+import java.io.IOException;
 import java.net.URISyntaxException;
 
 import static java.lang.String.format;
@@ -59,7 +60,56 @@ import static java.lang.String.format;
  */
 public abstract class ToConfluenceSerializer implements Visitor {
 
-    private StringBuilder _buffer = new StringBuilder( 500 * 1024 );
+    /**
+     * wraps the error of the output to cross the visit methods
+     */
+    private static class OutputException extends RuntimeException {
+
+        OutputException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+
+    /**
+     * output of the wiki
+     */
+    private static final class Output {
+        private final Appendable out;
+
+        Output(Appendable out) {
+            this.out = out;
+        }
+
+        public Output append( char c ) {
+            try {
+                out.append(c);
+            } catch (IOException e) {
+                throw new OutputException(e);
+            }
+            return this;
+        }
+
+        public Output append( CharSequence s ) {
+            try {
+                out.append(s);
+            } catch (IOException e) {
+                throw new OutputException(e);
+            }
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return out.toString();
+        }
+    }
+
+    private Output _buffer;
 
     private final java.util.Stack<Node> nodeStack = new java.util.Stack<Node>();
 
@@ -120,6 +170,44 @@ public abstract class ToConfluenceSerializer implements Visitor {
         return new int[] {line,col};
     }
 
+    /**
+     * the wiki is collected in memory and returned by {@link #toString()}
+     */
+    protected ToConfluenceSerializer() {
+        this( new StringBuilder( 4 * 1024 ) );
+    }
+
+    /**
+     * the wiki is written to the given output while the document is visited
+     *
+     * @param out
+     */
+    protected ToConfluenceSerializer( Appendable out ) {
+        if( out == null ) {
+            throw new IllegalArgumentException("out is null!");
+        }
+        _buffer = new Output(out);
+    }
+
+    /**
+     * visit the document writing the wiki to the output
+     *
+     * @param root
+     * @throws IOException error writing the output
+     */
+    public void serialize( RootNode root ) throws IOException {
+        try {
+            root.accept(this);
+        }
+        catch( OutputException e ) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     *
+     * @return the wiki collected by the default constructor
+     */
     @Override
     public String toString() {
         return _buffer.toString();
@@ -131,8 +219,8 @@ public abstract class ToConfluenceSerializer implements Visitor {
 
         final StringBuilder _sb = new StringBuilder();
 
-        final StringBuilder _original = _buffer;
-        _buffer = _sb;
+        final Output _original = _buffer;
+        _buffer = new Output(_sb);
         try {
             closure.f(null);
         }
@@ -572,7 +660,13 @@ public abstract class ToConfluenceSerializer implements Visitor {
 
     @Override
     public void visit(SpecialTextNode stn) {
-        _buffer.append(stn.getText());
+        final String text = stn.getText();
+
+        // an escaped bracket (\[ or \]) stays escaped in the wiki, otherwise it would start a link
+        if( ("[".equals(text) || "]".equals(text)) && stn.getEndIndex() - stn.getStartIndex() == 2 ) {
+            _buffer.append('\\');
+        }
+        _buffer.append(text);
     }
 
 
@@ -0,0 +1,182 @@
+package org.bsc.maven.plugin.confluence;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * SHA-256 digest and size of an attachment content.
+ *
+ * Local files are read through a {@link FileChannel} into a direct buffer, other
+ * sources through their stream. The digest is recorded in the remote attachment
+ * comment (see {@link #toComment(String, String)}) so that it can be checked
+ * without downloading the attachment.
+ */
+public class AttachmentDigest {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String COMMENT_PREFIX = "[sha256:";
+
+    private static final Pattern COMMENT_DIGEST = Pattern.compile("\\s*\\[sha256:([0-9a-f]{64})\\]");
+
+    private final String value;
+    private final long size;
+
+    public AttachmentDigest(String value, long size) {
+        if( value == null ) {
+            throw new IllegalArgumentException("value is null!");
+        }
+        this.value = value;
+        this.size = size;
+    }
+
+    /**
+     *
+     * @return hex encoded SHA-256
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     *
+     * @return content size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s (%d bytes)", value, size);
+    }
+
+    private static MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(ContentDigest.ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     *
+     * @param file
+     * @return digest of the file content
+     * @throws IOException
+     */
+    public static AttachmentDigest of( java.io.File file ) throws IOException {
+        if( file == null ) {
+            throw new IllegalArgumentException("file is null!");
+        }
+
+        final MessageDigest md = newMessageDigest();
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        final FileInputStream fis = new FileInputStream(file);
+        try {
+            final FileChannel channel = fis.getChannel();
+
+            long size = 0;
+            int len;
+            while( (len = channel.read(buffer)) != -1 ) {
+                buffer.flip();
+                md.update(buffer);
+                buffer.clear();
+                size += len;
+            }
+
+            return new AttachmentDigest( ContentDigest.toHex(md.digest()), size );
+        }
+        finally {
+            fis.close();
+        }
+    }
+
+    /**
+     *
+     * @param is stream to read. It is not closed
+     * @return digest of the stream content
+     * @throws IOException
+     */
+    public static AttachmentDigest of( InputStream is ) throws IOException {
+        if( is == null ) {
+            throw new IllegalArgumentException("is is null!");
+        }
+
+        final MessageDigest md = newMessageDigest();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+
+        long size = 0;
+        int len;
+        while( (len = is.read(buffer)) != -1 ) {
+            md.update(buffer, 0, len);
+            size += len;
+        }
+
+        return new AttachmentDigest( ContentDigest.toHex(md.digest()), size );
+    }
+
+    /**
+     *
+     * @param uri file uri or url
+     * @return digest of the content
+     * @throws IOException
+     */
+    public static AttachmentDigest of( java.net.URI uri ) throws IOException {
+        if( uri == null ) {
+            throw new IllegalArgumentException("uri is null!");
+        }
+
+        if( "file".equals(uri.getScheme()) ) {
+            return of( new java.io.File(uri) );
+        }
+
+        final InputStream is = uri.toURL().openStream();
+        try {
+            return of( is );
+        }
+        finally {
+            is.close();
+        }
+    }
+
+    /**
+     *
+     * @param comment attachment comment
+     * @return the digest recorded in the comment or null
+     */
+    public static String fromComment( String comment ) {
+        if( comment == null ) {
+            return null;
+        }
+        final Matcher m = COMMENT_DIGEST.matcher(comment);
+
+        return ( m.find() ) ? m.group(1) : null;
+    }
+
+    /**
+     *
+     * @param comment attachment comment
+     * @param digest
+     * @return the comment with the given digest (replacing the previous one, if any)
+     */
+    public static String toComment( String comment, String digest ) {
+        final String text = ( comment == null ) ? "" : COMMENT_DIGEST.matcher(comment).replaceAll("");
+
+        if( digest == null ) {
+            return text;
+        }
+
+        return ( text.length() == 0 ) ?
+                COMMENT_PREFIX + digest + "]" :
+                text + " " + COMMENT_PREFIX + digest + "]";
+    }
+}
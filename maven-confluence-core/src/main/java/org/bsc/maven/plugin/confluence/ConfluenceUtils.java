@@ -1,7 +1,5 @@
 package org.bsc.maven.plugin.confluence;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.net.MalformedURLException;
 import java.util.Collections;
@@ -189,39 +187,48 @@ public class ConfluenceUtils {
 
 	public static boolean addAttchment( Confluence confluence, Page page, Attachment attachment, java.net.URL source ) throws Exception {
 
-		addAttchment(  confluence, page, attachment, source.openStream() );
+		final java.io.InputStream is = source.openStream();
+		try {
+			addAttchment(  confluence, page, attachment, is );
+		}
+		finally {
+			is.close();
+		}
 
 		return true;
 	}
 
 	public static boolean addAttchment( Confluence confluence, Page page, Attachment attachment, java.io.File source ) throws Exception {
 
-		addAttchment(  confluence, page, attachment, new FileInputStream( source ));
+		final java.io.InputStream is = new FileInputStream( source );
+		try {
+			addAttchment(  confluence, page, attachment, is );
+		}
+		finally {
+			is.close();
+		}
 
 		return true;
 	}
         
+	/**
+	 * upload the attachment streaming its content. The stream is not closed
+	 *
+	 * @param confluence
+	 * @param page
+	 * @param attachment
+	 * @param source
+	 * @throws Exception
+	 */
 	public static void addAttchment( Confluence confluence, Page page, Attachment attachment, java.io.InputStream source ) throws Exception {
 
                 if( page.getId() == null ) {
                     throw new IllegalStateException("PageId is null. Attachment cannot be added!");
                 }
-		BufferedInputStream fis = new BufferedInputStream(source, 4096 );
-		ByteArrayOutputStream baos = new ByteArrayOutputStream( );
-
-		byte [] readbuf = new byte[4096];
-
-		int len;
-
-		while( (len=fis.read(readbuf))==readbuf.length ) {
-			baos.write(readbuf, 0, len);
-		}
-		if( len> 0 ) baos.write(readbuf, 0, len);
 
 		attachment.setPageId( page.getId() );
                 
-		confluence.addAttachment( new Long(page.getId()), attachment, baos.toByteArray() );
-
+		confluence.addAttachment( Long.parseLong(page.getId()), attachment, source );
 
 	}
         
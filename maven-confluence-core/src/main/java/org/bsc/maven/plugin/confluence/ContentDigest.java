@@ -0,0 +1,79 @@
+package org.bsc.maven.plugin.confluence;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.regex.Pattern;
+
+/**
+ * Digest of page contents used to detect unchanged pages.
+ *
+ * The content is normalized before hashing (line terminators, trailing blanks
+ * and trailing empty lines) so that irrelevant differences don't force a store.
+ */
+public class ContentDigest {
+
+    public static final String ALGORITHM = "SHA-256";
+
+    private static final Pattern TRAILING_BLANKS = Pattern.compile("[ \t]+(?=\n)");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentDigest() {
+    }
+
+    /**
+     *
+     * @param content
+     * @return normalized content
+     */
+    public static String normalize( String content ) {
+        if( null==content ) return "";
+
+        String result = content.replace("\r\n", "\n").replace('\r', '\n');
+
+        result = TRAILING_BLANKS.matcher(result).replaceAll("");
+
+        int end = result.length();
+        while( end > 0 && Character.isWhitespace(result.charAt(end-1)) ) {
+            --end;
+        }
+
+        return result.substring(0, end);
+    }
+
+    /**
+     *
+     * @param content
+     * @return hex encoded SHA-256 of the normalized content
+     */
+    public static String digest( String content ) {
+        try {
+            final MessageDigest md = MessageDigest.getInstance(ALGORITHM);
+
+            return toHex( md.digest( normalize(content).getBytes("UTF-8")) );
+
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     *
+     * @param bytes
+     * @return lower case hex representation
+     */
+    public static String toHex( byte[] bytes ) {
+        final char[] result = new char[bytes.length * 2];
+
+        for( int i = 0 ; i < bytes.length ; ++i ) {
+            final int b = bytes[i] & 0xFF;
+            result[i*2] = HEX[b >>> 4];
+            result[i*2+1] = HEX[b & 0x0F];
+        }
+        return new String(result);
+    }
+
+}
@@ -0,0 +1,252 @@
+package org.bsc.maven.plugin.confluence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.codehaus.swizzle.confluence.Confluence;
+import org.codehaus.swizzle.confluence.Label;
+
+/**
+ * Keeps the labels of a page in sync applying only the difference between the
+ * remote labels and the wanted ones.
+ *
+ * The remote labels are read once per page ({@link Confluence#getLabelsById(long)}).
+ * Only the labels previously set by the plugin (the <i>managed</i> ones) are removed
+ * when they are not wanted anymore, the ones added by hand are left untouched.
+ *
+ * If an {@link Executor} is given the add/remove calls of a page are issued concurrently.
+ */
+public class LabelSynchronizer {
+
+    /**
+     * labels to add and to remove
+     */
+    public static class Delta {
+        final Set<String> toAdd = new TreeSet<String>();
+        final Set<String> toRemove = new TreeSet<String>();
+
+        public Set<String> getToAdd() {
+            return Collections.unmodifiableSet(toAdd);
+        }
+
+        public Set<String> getToRemove() {
+            return Collections.unmodifiableSet(toRemove);
+        }
+
+        public boolean isEmpty() {
+            return toAdd.isEmpty() && toRemove.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return String.format("add %s remove %s", toAdd, toRemove);
+        }
+    }
+
+    private final Confluence confluence;
+    private final Executor executor;
+
+    private final AtomicInteger labelsAdded = new AtomicInteger();
+    private final AtomicInteger labelsRemoved = new AtomicInteger();
+
+    /**
+     *
+     * @param confluence
+     */
+    public LabelSynchronizer(Confluence confluence) {
+        this(confluence, null);
+    }
+
+    /**
+     *
+     * @param confluence
+     * @param executor used to apply the delta concurrently. If null the calls are sequential
+     */
+    public LabelSynchronizer(Confluence confluence, Executor executor) {
+        if( confluence == null ) {
+            throw new IllegalArgumentException("confluence is null!");
+        }
+        this.confluence = confluence;
+        this.executor = executor;
+    }
+
+    /**
+     * labels are case insensitive on confluence (they are stored in lower case)
+     *
+     * @param label
+     * @return normalized label or null if it is blank
+     */
+    public static String normalize( String label ) {
+        if( label == null ) {
+            return null;
+        }
+        final String result = label.trim().toLowerCase(Locale.ENGLISH);
+
+        return ( result.length() == 0 ) ? null : result;
+    }
+
+    private static Set<String> normalize( Collection<String> labels ) {
+        final Set<String> result = new TreeSet<String>();
+
+        if( labels != null ) {
+            for( String l : labels ) {
+                final String n = normalize(l);
+                if( n != null ) {
+                    result.add(n);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @param current remote labels
+     * @param wanted labels that the page must have
+     * @param managed labels set by the plugin on a previous deploy (may be null)
+     * @return labels to add and to remove
+     */
+    public static Delta diff( Collection<String> current, Collection<String> wanted, Collection<String> managed ) {
+
+        final Set<String> _current = normalize(current);
+        final Set<String> _wanted = normalize(wanted);
+
+        final Delta result = new Delta();
+
+        for( String l : _wanted ) {
+            if( !_current.contains(l) ) {
+                result.toAdd.add(l);
+            }
+        }
+        for( String l : normalize(managed) ) {
+            if( _current.contains(l) && !_wanted.contains(l) ) {
+                result.toRemove.add(l);
+            }
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @param pageId
+     * @return names of the remote labels
+     * @throws Exception
+     */
+    public Set<String> getLabels( String pageId ) throws Exception {
+        final List<?> labels = confluence.getLabelsById( Long.parseLong(pageId) );
+
+        final Set<String> result = new TreeSet<String>();
+
+        for( Object l : labels ) {
+            final String n = normalize( ((Label)l).getName() );
+            if( n != null ) {
+                result.add(n);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * make the page labels match the wanted ones
+     *
+     * @param pageId
+     * @param wanted labels that the page must have
+     * @param managed labels set by the plugin on a previous deploy (may be null)
+     * @return the applied delta
+     * @throws Exception
+     */
+    public Delta synchronize( String pageId, Collection<String> wanted, Collection<String> managed ) throws Exception {
+        if( pageId == null ) {
+            throw new IllegalArgumentException("pageId is null!");
+        }
+
+        final Delta delta = diff( getLabels(pageId), wanted, managed );
+
+        if( delta.isEmpty() ) {
+            return delta;
+        }
+
+        final long objectId = Long.parseLong(pageId);
+
+        final List<Callable<Boolean>> calls = new ArrayList<Callable<Boolean>>( delta.toAdd.size() + delta.toRemove.size() );
+
+        for( final String label : delta.toAdd ) {
+            calls.add( new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws Exception {
+                    final boolean result = confluence.addLabelByName(label, objectId);
+                    labelsAdded.incrementAndGet();
+                    return result;
+                }
+            });
+        }
+        for( final String label : delta.toRemove ) {
+            calls.add( new Callable<Boolean>() {
+
+                @Override
+                public Boolean call() throws Exception {
+                    final boolean result = confluence.removeLabelByName(label, objectId);
+                    labelsRemoved.incrementAndGet();
+                    return result;
+                }
+            });
+        }
+
+        if( executor == null || calls.size() == 1 ) {
+            for( Callable<Boolean> c : calls ) {
+                c.call();
+            }
+            return delta;
+        }
+
+        final List<FutureTask<Boolean>> tasks = new ArrayList<FutureTask<Boolean>>(calls.size());
+        for( Callable<Boolean> c : calls ) {
+            final FutureTask<Boolean> task = new FutureTask<Boolean>(c);
+            tasks.add(task);
+            executor.execute(task);
+        }
+
+        Exception error = null;
+        for( FutureTask<Boolean> task : tasks ) {
+            try {
+                task.get();
+            }
+            catch( ExecutionException e ) {
+                if( error == null ) {
+                    error = ( e.getCause() instanceof Exception ) ? (Exception)e.getCause() : e;
+                }
+            }
+        }
+        if( error != null ) {
+            throw error;
+        }
+
+        return delta;
+    }
+
+    /**
+     *
+     * @return number of labels added since the creation
+     */
+    public int getLabelsAdded() {
+        return labelsAdded.get();
+    }
+
+    /**
+     *
+     * @return number of labels removed since the creation
+     */
+    public int getLabelsRemoved() {
+        return labelsRemoved.get();
+    }
+}
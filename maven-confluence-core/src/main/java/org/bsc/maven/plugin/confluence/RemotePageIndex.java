@@ -0,0 +1,379 @@
+package org.bsc.maven.plugin.confluence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.codehaus.swizzle.confluence.Confluence;
+import org.codehaus.swizzle.confluence.ConfluenceRest;
+import org.codehaus.swizzle.confluence.Page;
+import org.codehaus.swizzle.confluence.PageSummary;
+
+/**
+ * In memory index of the remote page tree under a root page.
+ *
+ * The whole subtree is loaded once through a single {@link Confluence#getDescendents(String)}
+ * call, so the title lookups done before each store are answered from memory
+ * instead of a <code>getPage</code> plus a <code>getChildren</code> scan.
+ *
+ * The index is kept in sync by storing/removing pages through it. It is thread safe.
+ *
+ * Titles are unique within a space so they are used as lookup key.
+ *
+ * With the {@link ConfluenceRest} backend the existing pages are read a whole level
+ * at time ({@link Confluence#getChildrenPages(String)}), so the deploy costs a
+ * request per tree level instead of one per page. Its listing returns also the
+ * version of each page (see {@link #getVersion(String)}).
+ */
+public class RemotePageIndex {
+
+    private final Confluence confluence;
+    private final String spaceKey;
+    private final String rootId;
+
+    private final ConcurrentMap<String,PageSummary> pagesById = new ConcurrentHashMap<String,PageSummary>();
+    private final ConcurrentMap<String,String> idsByTitle = new ConcurrentHashMap<String,String>();
+    /**
+     * remote versions, when the listing returns them (REST backend)
+     */
+    private final ConcurrentMap<String,Integer> versionsById = new ConcurrentHashMap<String,Integer>();
+    /**
+     * pages (with content) read along with their siblings and not yet taken, by parent id
+     */
+    private final ConcurrentMap<String,ConcurrentMap<String,Page>> prefetched = new ConcurrentHashMap<String,ConcurrentMap<String,Page>>();
+
+    /**
+     *
+     * @param confluence
+     * @param root page that is the root of the indexed tree
+     * @return
+     * @throws Exception
+     */
+    @SuppressWarnings("unchecked")
+    public static RemotePageIndex load( Confluence confluence, Page root ) throws Exception {
+        if( null==confluence ) throw new IllegalArgumentException("confluence instance is null");
+        if( null==root ) throw new IllegalArgumentException("root is null");
+        if( null==root.getId() ) throw new IllegalArgumentException("root has not been stored yet");
+
+        final RemotePageIndex result = new RemotePageIndex(confluence, root);
+
+        final List<PageSummary> descendents = confluence.getDescendents(root.getId());
+
+        if( descendents != null ) {
+            for( PageSummary summary : descendents ) {
+                result.put(summary);
+                result.putVersion(summary.getId(), summary.toMap().get("version"));
+            }
+        }
+
+        return result;
+    }
+
+    private RemotePageIndex( Confluence confluence, Page root ) {
+        this.confluence = confluence;
+        this.spaceKey = root.getSpace();
+        this.rootId = root.getId();
+
+        put(toSummary(root));
+        putVersion(rootId, root.getVersion());
+    }
+
+    public final Confluence getConfluence() {
+        return confluence;
+    }
+
+    public final String getSpaceKey() {
+        return spaceKey;
+    }
+
+    public final String getRootId() {
+        return rootId;
+    }
+
+    /**
+     *
+     * @return number of indexed pages (root included)
+     */
+    public int size() {
+        return pagesById.size();
+    }
+
+    public PageSummary getPageById( String pageId ) {
+        if( null==pageId ) return null;
+        return pagesById.get(pageId);
+    }
+
+    /**
+     *
+     * @param pageId
+     * @return the remote version of the page, or -1 if it is unknown (e.g. not returned by the listing)
+     */
+    public int getVersion( String pageId ) {
+        if( null==pageId ) return -1;
+        final Integer result = versionsById.get(pageId);
+
+        return ( result == null ) ? -1 : result;
+    }
+
+    public PageSummary getPageByTitle( String title ) {
+        if( null==title ) return null;
+        final String id = idsByTitle.get(title);
+
+        return ( id == null ) ? null : pagesById.get(id);
+    }
+
+    /**
+     *
+     * @param parentPageId
+     * @return the indexed children of the given page
+     */
+    public List<PageSummary> getChildren( String parentPageId ) {
+        if( null==parentPageId ) return Collections.emptyList();
+
+        final List<PageSummary> result = new ArrayList<PageSummary>();
+
+        for( PageSummary summary : pagesById.values() ) {
+            if( parentPageId.equals(summary.getParentId())) {
+                result.add(summary);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * same as {@link ConfluenceUtils#findPageByTitle(Confluence, String, String)} without remote calls
+     *
+     * @param parentPageId
+     * @param title
+     * @return
+     */
+    public PageSummary findPageByTitle( String parentPageId, String title ) {
+
+        final PageSummary result = getPageByTitle(title);
+
+        if( result != null && result.getParentId() != null && result.getParentId().equals(parentPageId) ) {
+            return result;
+        }
+        return null;
+    }
+
+    /**
+     * same as {@link ConfluenceUtils#getOrCreatePage(Confluence, String, String, String)}.
+     * Only the existing page is fetched remotely (to get its current version and content).
+     *
+     * @param parentPageTitle
+     * @param title
+     * @return
+     * @throws Exception
+     */
+    public Page getOrCreatePage( String parentPageTitle, String title ) throws Exception {
+
+        final PageSummary parentPage = getPageByTitle(parentPageTitle);
+
+        if( parentPage == null ) { // parent outside the indexed tree
+            return ConfluenceUtils.getOrCreatePage(confluence, spaceKey, parentPageTitle, title);
+        }
+
+        return getOrCreatePage( parentPage, title );
+    }
+
+    /**
+     * same as {@link ConfluenceUtils#getOrCreatePage(Confluence, Page, String)}.
+     * Only the existing page is fetched remotely (to get its current version and content).
+     *
+     * @param parentPage
+     * @param title
+     * @return
+     * @throws Exception
+     */
+    public Page getOrCreatePage( PageSummary parentPage, String title ) throws Exception {
+        if( null==parentPage ) throw new IllegalArgumentException("parentPage is null");
+
+        final PageSummary pageSummary = findPageByTitle(parentPage.getId(), title);
+
+        Page result;
+
+        if( null!=pageSummary ) {
+            result = fetchPage(pageSummary);
+        }
+        else {
+            result = new Page(Collections.EMPTY_MAP);
+            result.setSpace(parentPage.getSpace());
+            result.setParentId(parentPage.getId());
+            result.setTitle(title);
+        }
+
+        return result;
+    }
+
+    /**
+     * read the page remotely. With the REST backend all its siblings are read at the
+     * same time and kept until they are requested
+     *
+     * @param summary
+     * @return
+     * @throws Exception
+     */
+    private Page fetchPage( PageSummary summary ) throws Exception {
+
+        if( !(confluence instanceof ConfluenceRest) || summary.getParentId() == null ) {
+            return confluence.getPage(summary.getId());
+        }
+
+        ConcurrentMap<String,Page> siblings = prefetched.get(summary.getParentId());
+
+        if( siblings == null ) {
+            siblings = new ConcurrentHashMap<String,Page>();
+
+            for( Page page : confluence.getChildrenPages(summary.getParentId()) ) {
+                siblings.put(page.getId(), page);
+            }
+
+            final ConcurrentMap<String,Page> previous = prefetched.putIfAbsent(summary.getParentId(), siblings);
+            if( previous != null ) {
+                siblings = previous;
+            }
+        }
+
+        final Page result = siblings.remove(summary.getId());
+
+        return ( result != null ) ? result : confluence.getPage(summary.getId());
+    }
+
+    private void evict( PageSummary summary ) {
+        if( summary == null || summary.getParentId() == null ) return;
+
+        final ConcurrentMap<String,Page> siblings = prefetched.get(summary.getParentId());
+
+        if( siblings != null ) {
+            siblings.remove(summary.getId());
+        }
+    }
+
+    /**
+     * store the page and update the index
+     *
+     * @param page
+     * @return the stored page
+     * @throws Exception
+     */
+    public Page storePage( Page page ) throws Exception {
+        if( null==page ) throw new IllegalArgumentException("page is null");
+
+        final PageSummary previous = getPageById(page.getId());
+
+        final Page result = confluence.storePage(page);
+
+        evict(previous);
+        if( previous != null && !previous.getTitle().equals(result.getTitle()) ) {
+            idsByTitle.remove(previous.getTitle(), previous.getId());
+        }
+        put(toSummary(result));
+        putVersion(result.getId(), result.getVersion());
+
+        return result;
+    }
+
+    /**
+     * same as {@link ConfluenceUtils#removePage(Confluence, String, String, String)} without remote lookups
+     *
+     * @param parentPageTitle
+     * @param title
+     * @return true if the page has been found and removed
+     * @throws Exception
+     */
+    public boolean removePage( String parentPageTitle, String title ) throws Exception {
+
+        final PageSummary parentPage = getPageByTitle(parentPageTitle);
+
+        if( parentPage == null ) { // parent outside the indexed tree
+            return ConfluenceUtils.removePage(confluence, spaceKey, parentPageTitle, title);
+        }
+
+        final PageSummary pageSummary = findPageByTitle(parentPage.getId(), title);
+
+        if( pageSummary == null ) {
+            return false;
+        }
+
+        removePage(pageSummary.getId());
+        return true;
+    }
+
+    /**
+     * remove the page and update the index. As confluence does, the children of the
+     * removed page are moved under its parent
+     *
+     * @param pageId
+     * @throws Exception
+     */
+    public void removePage( String pageId ) throws Exception {
+        if( null==pageId ) throw new IllegalArgumentException("pageId is null");
+
+        confluence.removePage(pageId);
+
+        final PageSummary removed = pagesById.remove(pageId);
+
+        if( removed == null ) {
+            return;
+        }
+        evict(removed);
+        prefetched.remove(pageId);
+        versionsById.remove(pageId);
+        idsByTitle.remove(removed.getTitle(), pageId);
+
+        for( PageSummary child : getChildren(pageId) ) {
+            child.setParentId(removed.getParentId());
+        }
+    }
+
+    private void put( PageSummary summary ) {
+        pagesById.put(summary.getId(), summary);
+        idsByTitle.put(summary.getTitle(), summary.getId());
+    }
+
+    /**
+     *
+     * @param pageId
+     * @param version version as read from the page fields. Missing or 0 means unknown
+     */
+    private void putVersion( String pageId, Object version ) {
+        if( pageId == null ) return;
+
+        int value = 0;
+        try {
+            value = ( version == null ) ? 0 : Integer.parseInt(String.valueOf(version));
+        }
+        catch( NumberFormatException e ) {
+            // unknown
+        }
+
+        if( value > 0 ) {
+            versionsById.put(pageId, value);
+        }
+        else {
+            versionsById.remove(pageId);
+        }
+    }
+
+    /**
+     * summary copy of the page (without content)
+     *
+     * @param page
+     * @return
+     */
+    private static PageSummary toSummary( Page page ) {
+        final PageSummary result = new PageSummary(new HashMap());
+
+        result.setId(page.getId());
+        result.setSpace(page.getSpace());
+        result.setParentId(page.getParentId());
+        result.setTitle(page.getTitle());
+        result.setUrl(page.getUrl());
+
+        return result;
+    }
+
+}
@@ -0,0 +1,70 @@
+package org.bsc.ssl;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import javax.net.ssl.SSLSocketFactory;
+import org.apache.commons.httpclient.ConnectTimeoutException;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+import org.apache.commons.httpclient.protocol.SecureProtocolSocketFactory;
+
+/**
+ * Adapt a {@link SSLSocketFactory} to the commons-httpclient socket factory
+ * so the pooled transport honours the same certificate policy of the default one.
+ */
+public class SSLProtocolSocketFactory implements SecureProtocolSocketFactory {
+
+    private final SSLSocketFactory factory;
+
+    public SSLProtocolSocketFactory(final SSLSocketFactory factory) {
+        if (factory == null) {
+            throw new IllegalArgumentException("factory is null!");
+        }
+        this.factory = factory;
+    }
+
+    @Override
+    public Socket createSocket(final Socket socket, final String host, final int port, final boolean autoClose) throws IOException, UnknownHostException {
+        return factory.createSocket(socket, host, port, autoClose);
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port, final InetAddress localAddress, final int localPort) throws IOException, UnknownHostException {
+        return factory.createSocket(host, port, localAddress, localPort);
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port, final InetAddress localAddress, final int localPort, final HttpConnectionParams params) throws IOException, UnknownHostException, ConnectTimeoutException {
+        final int timeout = (params != null) ? params.getConnectionTimeout() : 0;
+
+        if (timeout == 0) {
+            return createSocket(host, port, localAddress, localPort);
+        }
+
+        final Socket socket = factory.createSocket();
+        socket.bind(new InetSocketAddress(localAddress, localPort));
+        try {
+            socket.connect(new InetSocketAddress(host, port), timeout);
+        } catch (java.net.SocketTimeoutException e) {
+            throw new ConnectTimeoutException(String.format("connect to [%s:%d] timed out", host, port), e);
+        }
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port) throws IOException, UnknownHostException {
+        return factory.createSocket(host, port);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return (obj instanceof SSLProtocolSocketFactory) && ((SSLProtocolSocketFactory) obj).factory.equals(factory);
+    }
+
+    @Override
+    public int hashCode() {
+        return factory.hashCode();
+    }
+}
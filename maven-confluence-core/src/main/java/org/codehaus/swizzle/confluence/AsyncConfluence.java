@@ -0,0 +1,292 @@
+package org.codehaus.swizzle.confluence;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous facade over a logged in {@link Confluence} instance.
+ *
+ * Each operation is submitted to a bounded executor and returns a {@link Result}
+ * so independent calls can be fanned out and dependent ones chained through
+ * {@link #then(Result, Task)} without blocking a worker thread.
+ *
+ * The wrapped instance is shared by all the workers, so it should use the
+ * pooled transport (see {@link Confluence.ConnectionPoolInfo}) with at least
+ * as many connections per host as threads.
+ */
+public class AsyncConfluence {
+
+    /**
+     * unit of work executed on the wrapped confluence instance
+     *
+     * @param <R> result type
+     * @param <P> parameter type (the result of the previous step if chained)
+     */
+    public interface Task<R,P> {
+
+        R execute( Confluence confluence, P p ) throws Exception;
+    }
+
+    /**
+     * Future that notifies its listeners on completion
+     *
+     * @param <T>
+     */
+    public static class Result<T> extends FutureTask<T> {
+
+        private final java.util.List<Runnable> listeners = new java.util.ArrayList<Runnable>(2);
+        private boolean completed = false;
+
+        Result(Callable<T> callable) {
+            super(callable);
+        }
+
+        /**
+         * the listener is run once the result is completed (immediately if it already is)
+         *
+         * @param listener
+         */
+        public void addListener( Runnable listener ) {
+            synchronized( listeners ) {
+                if( !completed ) {
+                    listeners.add(listener);
+                    return;
+                }
+            }
+            listener.run();
+        }
+
+        @Override
+        protected void done() {
+            final Runnable[] toRun;
+            synchronized( listeners ) {
+                completed = true;
+                toRun = listeners.toArray( new Runnable[listeners.size()]);
+                listeners.clear();
+            }
+            for( Runnable listener : toRun ) {
+                listener.run();
+            }
+        }
+
+    }
+
+    private final Confluence confluence;
+    private final ExecutorService executor;
+
+    /**
+     *
+     * @param confluence logged in instance
+     * @param threads max number of concurrent calls
+     * @param queueSize max number of pending calls. Once reached the caller runs the call itself
+     */
+    public AsyncConfluence( Confluence confluence, int threads, int queueSize ) {
+        if( confluence == null ) {
+            throw new IllegalArgumentException("confluence is null!");
+        }
+        if( threads < 1 ) {
+            throw new IllegalArgumentException("threads must be greater than 0!");
+        }
+        if( queueSize < 1 ) {
+            throw new IllegalArgumentException("queueSize must be greater than 0!");
+        }
+        this.confluence = confluence;
+
+        final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(queueSize),
+                new ThreadFactory() {
+                    final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        final Thread t = new Thread(r, String.format("confluence-async-%d", count.incrementAndGet()));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                },
+                new RejectedExecutionHandler() {
+
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // queue full or chained call completed after shutdown: run it on the caller
+                        r.run();
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+
+        this.executor = pool;
+    }
+
+    /**
+     *
+     * @param confluence
+     * @param threads
+     */
+    public AsyncConfluence( Confluence confluence, int threads ) {
+        this( confluence, threads, 1024 );
+    }
+
+    public final Confluence getConfluence() {
+        return confluence;
+    }
+
+    /**
+     * wait for the completion of the submitted calls and release the worker threads
+     *
+     * @param timeout
+     * @param unit
+     * @return true if all the calls have been completed before the timeout
+     * @throws InterruptedException
+     */
+    public boolean shutdown( long timeout, TimeUnit unit ) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     *
+     * @param <R>
+     * @param task
+     * @return
+     */
+    public <R> Result<R> submit( final Task<R,Void> task ) {
+        final Result<R> result = new Result<R>( new Callable<R>() {
+
+            @Override
+            public R call() throws Exception {
+                return task.execute(confluence, null);
+            }
+        });
+        executor.execute(result);
+        return result;
+    }
+
+    /**
+     * schedule the task as soon as the source is completed. If the source fails
+     * the task isn't executed and the result fails with the same cause.
+     *
+     * @param <R>
+     * @param <P>
+     * @param source
+     * @param task
+     * @return
+     */
+    public <R,P> Result<R> then( final Result<P> source, final Task<R,P> task ) {
+        if( source == null ) {
+            throw new IllegalArgumentException("source is null!");
+        }
+
+        final Result<R> result = new Result<R>( new Callable<R>() {
+
+            @Override
+            public R call() throws Exception {
+                final P p;
+                try {
+                    p = source.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if( cause instanceof Exception ) {
+                        throw (Exception) cause;
+                    }
+                    throw e;
+                }
+                return task.execute(confluence, p);
+            }
+        });
+
+        final Executor _executor = executor;
+        source.addListener( new Runnable() {
+
+            @Override
+            public void run() {
+                _executor.execute(result);
+            }
+        });
+
+        return result;
+    }
+
+    public Result<Page> getPage( final String pageId ) {
+        return submit( new Task<Page,Void>() {
+
+            @Override
+            public Page execute(Confluence confluence, Void p) throws Exception {
+                return confluence.getPage(pageId);
+            }
+        });
+    }
+
+    public Result<Page> getPage( final String spaceKey, final String pageTitle ) {
+        return submit( new Task<Page,Void>() {
+
+            @Override
+            public Page execute(Confluence confluence, Void p) throws Exception {
+                return confluence.getPage(spaceKey, pageTitle);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    public Result<List<PageSummary>> getChildren( final String pageId ) {
+        return submit( new Task<List<PageSummary>,Void>() {
+
+            @Override
+            public List<PageSummary> execute(Confluence confluence, Void p) throws Exception {
+                return confluence.getChildren(pageId);
+            }
+        });
+    }
+
+    public Result<Page> storePage( final Page page ) {
+        return submit( new Task<Page,Void>() {
+
+            @Override
+            public Page execute(Confluence confluence, Void p) throws Exception {
+                return confluence.storePage(page);
+            }
+        });
+    }
+
+    public Result<Attachment> addAttachment( final long contentId, final Attachment attachment, final byte[] attachmentData ) {
+        return submit( new Task<Attachment,Void>() {
+
+            @Override
+            public Attachment execute(Confluence confluence, Void p) throws Exception {
+                return confluence.addAttachment(contentId, attachment, attachmentData);
+            }
+        });
+    }
+
+    public Result<Boolean> addLabelByName( final String labelName, final long objectId ) {
+        return submit( new Task<Boolean,Void>() {
+
+            @Override
+            public Boolean execute(Confluence confluence, Void p) throws Exception {
+                return confluence.addLabelByName(labelName, objectId);
+            }
+        });
+    }
+
+    public Result<Void> removePage( final String pageId ) {
+        return submit( new Task<Void,Void>() {
+
+            @Override
+            public Void execute(Confluence confluence, Void p) throws Exception {
+                confluence.removePage(pageId);
+                return null;
+            }
+        });
+    }
+
+}
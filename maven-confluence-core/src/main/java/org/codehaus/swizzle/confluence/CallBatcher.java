@@ -0,0 +1,256 @@
+package org.codehaus.swizzle.confluence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.xmlrpc.XmlRpcException;
+
+/**
+ * Groups the independent calls made by concurrent threads in a single
+ * <code>system.multicall</code> request.
+ *
+ * The first call of a window waits up to <code>maxDelay</code> millis for other calls,
+ * the window is closed early when <code>maxBatchSize</code> calls are queued.
+ * The caller that closes the window sends the request, the results and the faults
+ * are given back to each caller. A window with a single call is sent as is.
+ */
+final class CallBatcher {
+
+    /**
+     * sends a request
+     */
+    interface Transport {
+
+        /**
+         *
+         * @param methodName
+         * @param params
+         * @param idempotent true if the request can be safely repeated
+         * @return the call result
+         * @throws XmlRpcException
+         */
+        Object execute( String methodName, Object[] params, boolean idempotent ) throws XmlRpcException;
+    }
+
+    static final String MULTICALL = "system.multicall";
+
+    private static class Pending {
+        final String methodName;
+        final Object[] params;
+        final boolean idempotent;
+
+        private Object result;
+        private XmlRpcException error;
+        private boolean done = false;
+
+        Pending(String methodName, Object[] params, boolean idempotent) {
+            this.methodName = methodName;
+            this.params = params;
+            this.idempotent = idempotent;
+        }
+
+        synchronized void complete( Object result, XmlRpcException error ) {
+            this.result = result;
+            this.error = error;
+            this.done = true;
+            notifyAll();
+        }
+
+        synchronized Object get() throws XmlRpcException {
+            boolean interrupted = false;
+            try {
+                while( !done ) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true; // the call is already queued, its result must be waited
+                    }
+                }
+            }
+            finally {
+                if( interrupted ) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if( error != null ) {
+                throw error;
+            }
+            return result;
+        }
+    }
+
+    private static class Batch {
+        final List<Pending> calls = new ArrayList<Pending>();
+        boolean closed = false;
+    }
+
+    private final Transport transport;
+    private final int maxBatchSize;
+    private final long maxDelay;
+
+    private Batch current = null;
+
+    /**
+     *
+     * @param transport
+     * @param maxBatchSize max number of calls in a request
+     * @param maxDelay max time (millis) the first call of a window waits for the others
+     */
+    CallBatcher( Transport transport, int maxBatchSize, long maxDelay ) {
+        if( transport == null ) {
+            throw new IllegalArgumentException("transport is null!");
+        }
+        if( maxBatchSize < 2 ) {
+            throw new IllegalArgumentException("maxBatchSize must be greater than 1!");
+        }
+        if( maxDelay < 0 ) {
+            throw new IllegalArgumentException("maxDelay must not be negative!");
+        }
+        this.transport = transport;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay;
+    }
+
+    int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * queue the call and wait for its result
+     *
+     * @param methodName
+     * @param params
+     * @param idempotent
+     * @return the call result
+     * @throws XmlRpcException the call fault or the request error
+     */
+    Object execute( String methodName, Object[] params, boolean idempotent ) throws XmlRpcException {
+
+        final Pending pending = new Pending(methodName, params, idempotent);
+        final Batch batch;
+        boolean send = false;
+
+        synchronized( this ) {
+            final boolean first = ( current == null );
+            if( first ) {
+                current = new Batch();
+            }
+            batch = current;
+            batch.calls.add(pending);
+
+            if( batch.calls.size() >= maxBatchSize ) {
+                send = close(batch);
+            }
+            else if( first ) {
+                final long deadline = System.currentTimeMillis() + maxDelay;
+                long remaining = maxDelay;
+
+                try {
+                    while( !batch.closed && remaining > 0 ) {
+                        wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt(); // send now
+                }
+                if( !batch.closed ) {
+                    send = close(batch);
+                }
+            }
+        }
+
+        if( send ) {
+            send(batch.calls);
+        }
+        return pending.get();
+    }
+
+    private boolean close( Batch batch ) {
+        batch.closed = true;
+        if( current == batch ) {
+            current = null;
+        }
+        notifyAll();
+        return true;
+    }
+
+    private void send( List<Pending> calls ) {
+
+        if( calls.size() == 1 ) {
+            final Pending p = calls.get(0);
+            try {
+                p.complete( transport.execute(p.methodName, p.params, p.idempotent), null );
+            } catch (XmlRpcException e) {
+                p.complete( null, e );
+            } catch (RuntimeException e) {
+                p.complete( null, new XmlRpcException(e.getMessage(), e) );
+            }
+            return;
+        }
+
+        final Object[] requests = new Object[calls.size()];
+        boolean idempotent = true;
+
+        for( int i = 0 ; i < requests.length ; ++i ) {
+            final Pending p = calls.get(i);
+            requests[i] = newRequest(p.methodName, p.params);
+            idempotent &= p.idempotent;
+        }
+
+        final Object[] results;
+        try {
+            results = (Object[]) transport.execute(MULTICALL, new Object[] { requests }, idempotent);
+        } catch (XmlRpcException e) {
+            for( Pending p : calls ) {
+                p.complete( null, e );
+            }
+            return;
+        } catch (RuntimeException e) {
+            final XmlRpcException error = new XmlRpcException(e.getMessage(), e);
+            for( Pending p : calls ) {
+                p.complete( null, error );
+            }
+            return;
+        }
+
+        for( int i = 0 ; i < calls.size() ; ++i ) {
+            final Pending p = calls.get(i);
+            final Object r = ( results != null && i < results.length ) ? results[i] : null;
+
+            if( r instanceof Object[] && ((Object[]) r).length == 1 ) {
+                p.complete( ((Object[]) r)[0], null );
+            }
+            else if( r instanceof Map ) {
+                p.complete( null, toFault((Map) r) );
+            }
+            else {
+                p.complete( null, new XmlRpcException(String.format("invalid multicall result for [%s]", p.methodName)) );
+            }
+        }
+    }
+
+    /**
+     *
+     * @param methodName
+     * @param params
+     * @return the multicall entry of the call
+     */
+    static Map<String,Object> newRequest( String methodName, Object[] params ) {
+        final Map<String,Object> result = new HashMap<String,Object>(4);
+        result.put("methodName", methodName);
+        result.put("params", params);
+        return result;
+    }
+
+    private static XmlRpcException toFault( Map fault ) {
+        final Object code = fault.get("faultCode");
+
+        return new XmlRpcException( (code instanceof Number) ? ((Number) code).intValue() : 0,
+                                    String.valueOf(fault.get("faultString")) );
+    }
+}
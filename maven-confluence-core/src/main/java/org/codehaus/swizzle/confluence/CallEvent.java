@@ -0,0 +1,131 @@
+package org.codehaus.swizzle.confluence;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A completed remote call
+ */
+public class CallEvent {
+
+    private final String servicePrefix;
+    private final String command;
+    private final long duration;
+    private final long requestBytes;
+    private final long responseBytes;
+    private final long requestContentBytes;
+    private final long responseContentBytes;
+    private final Throwable error;
+    private final List<String> notices;
+
+    /**
+     * event of a call whose payloads aren't compressed
+     */
+    public CallEvent(String servicePrefix, String command, long duration, long requestBytes, long responseBytes, Throwable error) {
+        this(servicePrefix, command, duration, requestBytes, responseBytes, requestBytes, responseBytes, error);
+    }
+
+    public CallEvent(String servicePrefix, String command, long duration, long requestBytes, long responseBytes,
+                     long requestContentBytes, long responseContentBytes, Throwable error) {
+        this(servicePrefix, command, duration, requestBytes, responseBytes, requestContentBytes, responseContentBytes, error,
+             Collections.<String>emptyList());
+    }
+
+    public CallEvent(String servicePrefix, String command, long duration, long requestBytes, long responseBytes,
+                     long requestContentBytes, long responseContentBytes, Throwable error, List<String> notices) {
+        this.servicePrefix = servicePrefix;
+        this.command = command;
+        this.duration = duration;
+        this.requestBytes = requestBytes;
+        this.responseBytes = responseBytes;
+        this.requestContentBytes = requestContentBytes;
+        this.responseContentBytes = responseContentBytes;
+        this.error = error;
+        this.notices = ( notices == null ) ? Collections.<String>emptyList() : Collections.unmodifiableList(notices);
+    }
+
+    /**
+     *
+     * @return service prefix (e.g. confluence1.)
+     */
+    public String getServicePrefix() {
+        return servicePrefix;
+    }
+
+    /**
+     *
+     * @return command without the service prefix
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     *
+     * @return call duration (nanos), retries included
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     *
+     * @return bytes sent on the wire (all the attempts)
+     */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     *
+     * @return bytes received on the wire (all the attempts)
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    /**
+     *
+     * @return bytes of the requests before the compression (all the attempts)
+     */
+    public long getRequestContentBytes() {
+        return requestContentBytes;
+    }
+
+    /**
+     *
+     * @return bytes of the responses after the decompression (all the attempts)
+     */
+    public long getResponseContentBytes() {
+        return responseContentBytes;
+    }
+
+    /**
+     *
+     * @return the failure or null if the call succeeded
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    /**
+     *
+     * @return changes of the client state during the call (e.g. session renewed, compression switched off)
+     */
+    public List<String> getNotices() {
+        return notices;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%s %d ms sent [%d] received [%d]%s",
+                servicePrefix, command,
+                duration / 1000000L,
+                requestBytes, responseBytes,
+                (error != null) ? " failed: " + error.getMessage() : "");
+    }
+}
@@ -0,0 +1,12 @@
+package org.codehaus.swizzle.confluence;
+
+/**
+ * Listener notified at the end of each remote call (see {@link Confluence#addCallListener(CallListener)}).
+ *
+ * It is called on the thread that made the call, so it must be fast and thread safe.
+ * Exceptions thrown by the listener are ignored.
+ */
+public interface CallListener {
+
+    void callCompleted( CallEvent event );
+}
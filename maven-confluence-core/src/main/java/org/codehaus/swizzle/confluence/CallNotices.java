@@ -0,0 +1,52 @@
+package org.codehaus.swizzle.confluence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Notices of the client on the current thread (e.g. session renewed, compression switched off),
+ * reported to the {@link CallListener}s with the event of the call in progress.
+ *
+ * A notice raised outside a call is reported with the next call of the same thread.
+ */
+final class CallNotices {
+
+    private static final ThreadLocal<List<String>> _CURRENT = new ThreadLocal<List<String>>();
+
+    private CallNotices() {
+    }
+
+    /**
+     * start collecting the notices of a call on the current thread
+     */
+    static void begin() {
+        if( _CURRENT.get() == null ) {
+            _CURRENT.set( new ArrayList<String>(1) );
+        }
+    }
+
+    /**
+     *
+     * @param notice
+     */
+    static void add( String notice ) {
+        List<String> notices = _CURRENT.get();
+        if( notices == null ) {
+            notices = new ArrayList<String>(1);
+            _CURRENT.set(notices);
+        }
+        notices.add(notice);
+    }
+
+    /**
+     * stop collecting on the current thread
+     *
+     * @return notices raised since {@link #begin()}
+     */
+    static List<String> end() {
+        final List<String> result = _CURRENT.get();
+        _CURRENT.remove();
+        return ( result == null || result.isEmpty() ) ? Collections.<String>emptyList() : result;
+    }
+}
@@ -0,0 +1,443 @@
+package org.codehaus.swizzle.confluence;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcHttpTransportException;
+
+/**
+ * Resilience policy applied to each remote call.
+ *
+ * <ul>
+ * <li><b>rate limiter</b>: token bucket of <code>requestsPerSecond</code> (burst of one second)
+ *  plus at most <code>maxInFlight</code> concurrent calls</li>
+ * <li><b>retry</b>: transport failures (I/O errors, HTTP 5xx/429) are retried, with a jittered
+ * exponential backoff, for the idempotent calls (reads). Other calls are retried only when
+ * the request surely didn't reach the server (connection refused/timed out, HTTP 429/503).
+ * Faults returned by confluence are never retried</li>
+ * <li><b>circuit breaker</b>: after <code>failureThreshold</code> consecutive transport failures
+ * the calls are paused for <code>openTime</code>, then a single trial call is let through;
+ * if it succeeds the calls are resumed, otherwise they are paused again</li>
+ * </ul>
+ *
+ * An instance holds the state of the limiter and of the breaker, so it must be shared by all
+ * the clients of the same server.
+ */
+public class CallPolicy {
+
+    /**
+     * a remote call
+     */
+    interface Call {
+
+        Object execute() throws XmlRpcException;
+    }
+
+    /**
+     * counters snapshot
+     */
+    public static class Counters {
+        final public long calls;
+        final public long retries;
+        final public long throttled;
+        final public long circuitOpenings;
+
+        Counters(long calls, long retries, long throttled, long circuitOpenings) {
+            this.calls = calls;
+            this.retries = retries;
+            this.throttled = throttled;
+            this.circuitOpenings = circuitOpenings;
+        }
+
+        /**
+         *
+         * @param start an earlier snapshot of the same policy
+         * @return the counters since the given snapshot
+         */
+        public Counters since( Counters start ) {
+            if( start == null ) {
+                return this;
+            }
+            return new Counters(calls - start.calls,
+                                retries - start.retries,
+                                throttled - start.throttled,
+                                circuitOpenings - start.circuitOpenings);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("CallPolicy: calls [%d] retries [%d] throttled [%d] circuit openings [%d]",
+                    calls, retries, throttled, circuitOpenings);
+        }
+    }
+
+    /**
+     * max requests per second. 0 means unlimited
+     */
+    final public double requestsPerSecond;
+    /**
+     * max concurrent calls. 0 means unlimited
+     */
+    final public int maxInFlight;
+    /**
+     * max number of retries of a failed call. 0 disable the retry
+     */
+    final public int maxRetries;
+    /**
+     * backoff (millis) before the first retry. It doubles at each retry
+     */
+    final public long initialBackoff;
+    /**
+     * max backoff (millis)
+     */
+    final public long maxBackoff;
+    /**
+     * consecutive transport failures that open the circuit. 0 disable the breaker
+     */
+    final public int failureThreshold;
+    /**
+     * time (millis) the calls are paused once the circuit is open
+     */
+    final public long openTime;
+
+    private final Semaphore inFlight;
+    private final Random random = new Random();
+
+    // token bucket
+    private double tokens;
+    private long lastRefill;
+
+    // circuit breaker
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openUntil = 0;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong openings = new AtomicLong();
+
+    public CallPolicy(double requestsPerSecond, int maxInFlight, int maxRetries, long initialBackoff, long maxBackoff, int failureThreshold, long openTime) {
+        if( requestsPerSecond < 0 ) {
+            throw new IllegalArgumentException("requestsPerSecond must be positive or 0!");
+        }
+        if( maxInFlight < 0 ) {
+            throw new IllegalArgumentException("maxInFlight must be positive or 0!");
+        }
+        if( maxRetries < 0 ) {
+            throw new IllegalArgumentException("maxRetries must be positive or 0!");
+        }
+        if( failureThreshold < 0 ) {
+            throw new IllegalArgumentException("failureThreshold must be positive or 0!");
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        this.maxInFlight = maxInFlight;
+        this.maxRetries = maxRetries;
+        this.initialBackoff = Math.max(0, initialBackoff);
+        this.maxBackoff = Math.max(this.initialBackoff, maxBackoff);
+        this.failureThreshold = failureThreshold;
+        this.openTime = Math.max(0, openTime);
+
+        this.inFlight = (maxInFlight > 0) ? new Semaphore(maxInFlight, true) : null;
+        this.tokens = Math.max(1.0, requestsPerSecond);
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     *
+     * @param call
+     * @param idempotent true if the call can be safely repeated
+     * @param replayable false if the request cannot be sent again (e.g. streamed content)
+     * @return the call result
+     * @throws XmlRpcException
+     */
+    Object execute( Call call, boolean idempotent, boolean replayable ) throws XmlRpcException {
+
+        for( int attempt = 0 ;; ++attempt ) {
+
+            boolean trial = false;
+            boolean settled = false;
+            try {
+                try {
+                    trial = beforeCall();
+                    acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new XmlRpcException("call interrupted", e);
+                }
+
+                calls.incrementAndGet();
+
+                try {
+                    final Object result = call.execute();
+                    settled = true;
+                    succeeded();
+                    return result;
+                }
+                catch( XmlRpcException e ) {
+                    settled = true;
+
+                    final boolean transportFailure = isTransportFailure(e);
+
+                    if( transportFailure ) {
+                        failed();
+                    }
+                    else {
+                        succeeded(); // the server has answered
+                    }
+
+                    final boolean retry = replayable &&
+                                          attempt < maxRetries &&
+                                          transportFailure &&
+                                          (idempotent || isNotProcessed(e));
+                    if( !retry ) {
+                        throw e;
+                    }
+                }
+                catch( RuntimeException e ) {
+                    settled = true;
+                    succeeded(); // not a transport failure
+                    throw e;
+                }
+                finally {
+                    if( inFlight != null ) {
+                        inFlight.release();
+                    }
+                }
+            }
+            finally {
+                if( trial && !settled ) {
+                    // interrupted before the call or Error: don't leave the other callers waiting the trial
+                    trialAbandoned();
+                }
+            }
+
+            retries.incrementAndGet();
+
+            try {
+                Thread.sleep( backoff(attempt) );
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new XmlRpcException("call interrupted", e);
+            }
+        }
+    }
+
+    /**
+     *
+     * @param attempt 0 based
+     * @return wait time (millis) before the next attempt: half of the exponential delay plus a random part
+     */
+    long backoff( int attempt ) {
+        final long delay = Math.min( maxBackoff, initialBackoff << Math.min(attempt, 30) );
+
+        if( delay <= 1 ) {
+            return delay;
+        }
+        final long half = delay / 2;
+        final long jitter;
+        synchronized( random ) {
+            jitter = (long) (random.nextDouble() * (delay - half));
+        }
+        return half + jitter;
+    }
+
+    /**
+     * rate limiter: take a token and an in-flight permit
+     */
+    private void acquire() throws InterruptedException {
+
+        if( requestsPerSecond > 0 ) {
+            synchronized( this ) {
+                boolean waited = false;
+                while( true ) {
+                    final long now = System.nanoTime();
+                    final double capacity = Math.max(1.0, requestsPerSecond);
+
+                    tokens = Math.min( capacity, tokens + (now - lastRefill) * requestsPerSecond / 1e9 );
+                    lastRefill = now;
+
+                    if( tokens >= 1.0 ) {
+                        tokens -= 1.0;
+                        break;
+                    }
+                    waited = true;
+                    final long waitMillis = (long) Math.ceil( (1.0 - tokens) * 1000.0 / requestsPerSecond );
+                    wait( Math.max(1, waitMillis) );
+                }
+                if( waited ) {
+                    throttled.incrementAndGet();
+                }
+            }
+        }
+
+        if( inFlight != null ) {
+            inFlight.acquire();
+        }
+    }
+
+    /**
+     * circuit breaker: wait while the circuit is open
+     *
+     * @return true if the caller has got the trial call, that must be settled
+     */
+    private synchronized boolean beforeCall() throws InterruptedException {
+
+        if( failureThreshold == 0 ) {
+            return false;
+        }
+
+        while( true ) {
+            switch( state ) {
+                case CLOSED:
+                    return false;
+                case OPEN:
+                    final long now = System.currentTimeMillis();
+                    if( now < openUntil ) {
+                        wait( openUntil - now );
+                        break;
+                    }
+                    state = State.HALF_OPEN; // let a trial call through
+                    return true;
+                case HALF_OPEN:
+                    wait(); // trial call in progress
+                    break;
+            }
+        }
+    }
+
+    private synchronized void succeeded() {
+        if( failureThreshold == 0 ) {
+            return;
+        }
+        failures = 0;
+        if( state != State.CLOSED ) {
+            state = State.CLOSED;
+            notifyAll();
+        }
+    }
+
+    private synchronized void failed() {
+        if( failureThreshold == 0 ) {
+            return;
+        }
+        ++failures;
+        if( state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold) ) {
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + openTime;
+            openings.incrementAndGet();
+            notifyAll();
+        }
+    }
+
+    /**
+     * the outcome of the trial call is unknown: back to open, the next caller gets the trial
+     */
+    private synchronized void trialAbandoned() {
+        if( state == State.HALF_OPEN ) {
+            state = State.OPEN;
+            notifyAll();
+        }
+    }
+
+    private static Throwable cause( XmlRpcException e ) {
+        return ( e.linkedException != null ) ? e.linkedException : e.getCause();
+    }
+
+    /**
+     *
+     * @param e
+     * @return true if the call failed before getting an answer from confluence
+     */
+    static boolean isTransportFailure( XmlRpcException e ) {
+        if( e instanceof XmlRpcHttpTransportException ) {
+            final int status = ((XmlRpcHttpTransportException)e).getStatusCode();
+            return status >= 500 || status == 429;
+        }
+        for( Throwable t = cause(e) ; t != null ; t = t.getCause() ) {
+            if( t instanceof IOException ) {
+                return true;
+            }
+            if( t instanceof XmlRpcException ) {
+                return isTransportFailure((XmlRpcException) t);
+            }
+            if( t.getCause() == t ) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     *
+     * @param e
+     * @return true if the request surely hasn't been processed by the server
+     */
+    static boolean isNotProcessed( XmlRpcException e ) {
+        if( e instanceof XmlRpcHttpTransportException ) {
+            final int status = ((XmlRpcHttpTransportException)e).getStatusCode();
+            return status == 503 || status == 429;
+        }
+        for( Throwable t = cause(e) ; t != null ; t = t.getCause() ) {
+            if( t instanceof ConnectException ) {
+                return true;
+            }
+            // commons-httpclient ConnectTimeoutException and java.net "connect timed out"
+            if( t instanceof InterruptedIOException &&
+                (t.getClass().getSimpleName().startsWith("Connect") ||
+                 String.valueOf(t.getMessage()).startsWith("connect timed out")) ) {
+                return true;
+            }
+            if( t instanceof XmlRpcException ) {
+                return isNotProcessed((XmlRpcException) t);
+            }
+            if( t.getCause() == t ) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     *
+     * @return number of calls delayed by the rate limiter
+     */
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    /**
+     *
+     * @return number of times the circuit has been opened
+     */
+    public long getCircuitOpenings() {
+        return openings.get();
+    }
+
+    /**
+     *
+     * @return current counters
+     */
+    public Counters getCounters() {
+        return new Counters(calls.get(), retries.get(), throttled.get(), openings.get());
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(getCounters());
+    }
+}
@@ -0,0 +1,329 @@
+package org.codehaus.swizzle.confluence;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import org.bsc.json.Json;
+
+/**
+ * Per command statistics of the remote calls: count, errors, latency percentiles
+ * and bytes sent/received, on the wire and before the compression (content).
+ *
+ * Latencies are recorded in a log-linear histogram (16 sub buckets per power of two,
+ * about 6% of precision) so the memory used doesn't depend on the number of calls.
+ */
+public class CallStatistics implements CallListener {
+
+    public static final String TOTAL = "TOTAL";
+
+    /**
+     * latency histogram (microseconds)
+     */
+    static class Histogram {
+        static final int SUB_BUCKET_BITS = 4;
+        static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        final long[] counts = new long[ (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS ];
+        long total = 0;
+        long max = 0;
+
+        static int indexOf( long value ) {
+            if( value < SUB_BUCKETS ) {
+                return (int) Math.max(0, value);
+            }
+            final int exponent = 63 - Long.numberOfLeadingZeros(value);
+            final int sub = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        /**
+         * @return the highest value of the bucket
+         */
+        static long upperBoundOf( int index ) {
+            if( index < SUB_BUCKETS ) {
+                return index;
+            }
+            final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            final int sub = index % SUB_BUCKETS;
+            final long lower = ((long)(SUB_BUCKETS + sub)) << (exponent - SUB_BUCKET_BITS);
+
+            return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+
+        void record( long value ) {
+            ++counts[indexOf(value)];
+            ++total;
+            max = Math.max(max, value);
+        }
+
+        void add( Histogram other ) {
+            for( int i = 0 ; i < counts.length ; ++i ) {
+                counts[i] += other.counts[i];
+            }
+            total += other.total;
+            max = Math.max(max, other.max);
+        }
+
+        /**
+         *
+         * @param percentile (0-100]
+         * @return value under which the given percentage of the recorded values fall
+         */
+        long valueAt( double percentile ) {
+            if( total == 0 ) {
+                return 0;
+            }
+            final long target = Math.max(1, (long) Math.ceil( total * percentile / 100.0 ));
+
+            long count = 0;
+            for( int i = 0 ; i < counts.length ; ++i ) {
+                count += counts[i];
+                if( count >= target ) {
+                    return Math.min( upperBoundOf(i), max );
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * statistics of a single command
+     */
+    public static class Command {
+        private final String name;
+        private final Histogram latency = new Histogram();
+        private long count;
+        private long errors;
+        private long requestBytes;
+        private long responseBytes;
+        private long requestContentBytes;
+        private long responseContentBytes;
+        private long totalTime;
+
+        Command(String name) {
+            this.name = name;
+        }
+
+        synchronized void record( CallEvent event ) {
+            ++count;
+            if( event.isFailed() ) {
+                ++errors;
+            }
+            requestBytes += event.getRequestBytes();
+            responseBytes += event.getResponseBytes();
+            requestContentBytes += event.getRequestContentBytes();
+            responseContentBytes += event.getResponseContentBytes();
+            totalTime += event.getDuration();
+            latency.record( event.getDuration() / 1000L );
+        }
+
+        synchronized void add( Command other ) {
+            synchronized( other ) {
+                count += other.count;
+                errors += other.errors;
+                requestBytes += other.requestBytes;
+                responseBytes += other.responseBytes;
+                requestContentBytes += other.requestContentBytes;
+                responseContentBytes += other.responseContentBytes;
+                totalTime += other.totalTime;
+                latency.add(other.latency);
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getErrors() {
+            return errors;
+        }
+
+        public synchronized long getRequestBytes() {
+            return requestBytes;
+        }
+
+        public synchronized long getResponseBytes() {
+            return responseBytes;
+        }
+
+        /**
+         *
+         * @return request bytes before the compression
+         */
+        public synchronized long getRequestContentBytes() {
+            return requestContentBytes;
+        }
+
+        /**
+         *
+         * @return response bytes after the decompression
+         */
+        public synchronized long getResponseContentBytes() {
+            return responseContentBytes;
+        }
+
+        /**
+         *
+         * @return wire/content size of requests and responses (1 if nothing is compressed)
+         */
+        public synchronized double getCompressionRatio() {
+            final long content = requestContentBytes + responseContentBytes;
+
+            return ( content == 0 ) ? 1.0 : (double)(requestBytes + responseBytes) / content;
+        }
+
+        /**
+         *
+         * @return sum of the call durations (millis)
+         */
+        public synchronized double getTotalTime() {
+            return totalTime / 1e6;
+        }
+
+        /**
+         *
+         * @param percentile (0-100]
+         * @return latency (millis)
+         */
+        public synchronized double getLatency( double percentile ) {
+            return latency.valueAt(percentile) / 1e3;
+        }
+
+        /**
+         *
+         * @return max latency (millis)
+         */
+        public synchronized double getMaxLatency() {
+            return latency.max / 1e3;
+        }
+    }
+
+    private final Map<String,Command> commands = new TreeMap<String,Command>();
+
+    @Override
+    public void callCompleted(CallEvent event) {
+        Command c;
+        synchronized( commands ) {
+            c = commands.get(event.getCommand());
+            if( c == null ) {
+                c = new Command(event.getCommand());
+                commands.put(event.getCommand(), c);
+            }
+        }
+        c.record(event);
+    }
+
+    /**
+     *
+     * @return statistics of each command, sorted by name
+     */
+    public List<Command> getCommands() {
+        synchronized( commands ) {
+            return new ArrayList<Command>(commands.values());
+        }
+    }
+
+    /**
+     *
+     * @return statistics of all the commands
+     */
+    public Command getTotal() {
+        final Command result = new Command(TOTAL);
+        for( Command c : getCommands() ) {
+            result.add(c);
+        }
+        return result;
+    }
+
+    private List<Command> rows() {
+        final List<Command> result = getCommands();
+        result.add(getTotal());
+        return result;
+    }
+
+    /**
+     *
+     * @return summary table (fixed width columns)
+     */
+    public String toTable() {
+        final StringBuilder sb = new StringBuilder(1024);
+        final String format = "%-28s %8s %7s %10s %10s %10s %10s %12s %12s %6s%n";
+
+        sb.append(String.format(format, "command", "calls", "errors", "p50 ms", "p95 ms", "p99 ms", "total ms", "sent", "received", "ratio"));
+
+        for( Command c : rows() ) {
+            sb.append(String.format(Locale.ENGLISH, format,
+                    c.getName(),
+                    c.getCount(),
+                    c.getErrors(),
+                    String.format(Locale.ENGLISH, "%.1f", c.getLatency(50)),
+                    String.format(Locale.ENGLISH, "%.1f", c.getLatency(95)),
+                    String.format(Locale.ENGLISH, "%.1f", c.getLatency(99)),
+                    String.format(Locale.ENGLISH, "%.0f", c.getTotalTime()),
+                    c.getRequestBytes(),
+                    c.getResponseBytes(),
+                    String.format(Locale.ENGLISH, "%.2f", c.getCompressionRatio())));
+        }
+        return sb.toString();
+    }
+
+    /**
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeCsv( Appendable out ) throws IOException {
+        out.append("command,calls,errors,p50_ms,p95_ms,p99_ms,max_ms,total_ms,request_bytes,response_bytes,request_content_bytes,response_content_bytes\n");
+
+        for( Command c : rows() ) {
+            out.append(String.format(Locale.ENGLISH, "%s,%d,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%d,%d,%d,%d\n",
+                    c.getName(),
+                    c.getCount(),
+                    c.getErrors(),
+                    c.getLatency(50),
+                    c.getLatency(95),
+                    c.getLatency(99),
+                    c.getMaxLatency(),
+                    c.getTotalTime(),
+                    c.getRequestBytes(),
+                    c.getResponseBytes(),
+                    c.getRequestContentBytes(),
+                    c.getResponseContentBytes()));
+        }
+    }
+
+    /**
+     *
+     * @param out
+     * @throws IOException
+     */
+    public void writeJson( Appendable out ) throws IOException {
+        final Map<String,Object> root = new LinkedHashMap<String,Object>();
+
+        for( Command c : rows() ) {
+            final Map<String,Object> m = new LinkedHashMap<String,Object>();
+            m.put("calls", c.getCount());
+            m.put("errors", c.getErrors());
+            m.put("p50", c.getLatency(50));
+            m.put("p95", c.getLatency(95));
+            m.put("p99", c.getLatency(99));
+            m.put("max", c.getMaxLatency());
+            m.put("totalTime", c.getTotalTime());
+            m.put("requestBytes", c.getRequestBytes());
+            m.put("responseBytes", c.getResponseBytes());
+            m.put("requestContentBytes", c.getRequestContentBytes());
+            m.put("responseContentBytes", c.getResponseContentBytes());
+            root.put(c.getName(), m);
+        }
+        Json.write(root, out);
+    }
+}
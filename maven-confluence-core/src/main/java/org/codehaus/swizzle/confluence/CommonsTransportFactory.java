@@ -0,0 +1,185 @@
+package org.codehaus.swizzle.confluence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientException;
+import org.apache.xmlrpc.client.XmlRpcCommonsTransport;
+import org.apache.xmlrpc.client.XmlRpcCommonsTransportFactory;
+import org.apache.xmlrpc.client.XmlRpcHttpClientConfig;
+import org.apache.xmlrpc.client.XmlRpcHttpTransportException;
+import org.apache.xmlrpc.client.XmlRpcTransport;
+import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
+import org.xml.sax.SAXException;
+
+/**
+ * Commons-httpclient transport factory that reports the bytes sent and received
+ * to {@link PayloadCounter} and drops the connection of a response whose parsing has been
+ * stopped ({@link StreamingTypeFactory}).
+ *
+ * If a {@link PayloadCompression} is set the payloads are negotiated gzip encoded (see {@link PayloadExchange}).
+ */
+class CommonsTransportFactory extends XmlRpcCommonsTransportFactory {
+
+    static class Transport extends XmlRpcCommonsTransport {
+
+        private final PayloadExchange payload;
+
+        Transport(XmlRpcCommonsTransportFactory pFactory) {
+            super(pFactory);
+            payload = new PayloadExchange( ( pFactory instanceof CommonsTransportFactory )
+                    ? ((CommonsTransportFactory) pFactory).compression
+                    : null );
+        }
+
+        @Override
+        public Object sendRequest(XmlRpcRequest pRequest) throws XmlRpcException {
+            payload.start(pRequest);
+            try {
+                return super.sendRequest(pRequest);
+            } catch (XmlRpcHttpTransportException e) {
+                payload.failed(e);
+                throw e;
+            }
+        }
+
+        /**
+         * when the host is set on the client configuration (see {@link Confluence#setHost}) the
+         * request path is relative, so its protocol is used instead of the globally registered one
+         */
+        @Override
+        protected PostMethod newPostMethod(XmlRpcHttpClientConfig pConfig) {
+            if( client.getHostConfiguration().getHost() == null ) {
+                return super.newPostMethod(pConfig);
+            }
+            return new PostMethod(pConfig.getServerURL().getFile());
+        }
+
+        @Override
+        protected void initHttpHeaders(XmlRpcRequest pRequest) throws XmlRpcClientException {
+            super.initHttpHeaders(pRequest);
+
+            if( payload.isAcceptingGzip() ) {
+                setRequestHeader("Accept-Encoding", PayloadCompression.GZIP);
+            }
+        }
+
+        @Override
+        protected ReqWriter newReqWriter(XmlRpcRequest pRequest) throws XmlRpcException, IOException, SAXException {
+            if( !payload.isNegotiating() ) {
+                final ReqWriter w = super.newReqWriter(pRequest);
+
+                return new ReqWriter() {
+
+                    @Override
+                    public void write(OutputStream pStream) throws XmlRpcException, IOException, SAXException {
+                        w.write(PayloadCounter.countingContent(pStream));
+                    }
+                };
+            }
+
+            final ReqWriter xml = new ReqWriterImpl(pRequest) {};
+
+            if( !isUsingByteArrayOutput((XmlRpcHttpClientConfig) pRequest.getConfig()) ) {
+                if( payload.startStreamed() ) {
+                    setRequestHeader("Content-Encoding", PayloadCompression.GZIP);
+                }
+                return new ReqWriter() {
+
+                    @Override
+                    public void write(OutputStream pStream) throws XmlRpcException, IOException, SAXException {
+                        xml.write(payload.requestContent(pStream));
+                    }
+                };
+            }
+
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            xml.write(content);
+
+            final byte[] body = payload.requestBody(content);
+            final int length = content.size();
+
+            if( payload.isCompressed() ) {
+                setRequestHeader("Content-Encoding", PayloadCompression.GZIP);
+            }
+            setContentLength(body.length);
+
+            return new ReqWriter() {
+
+                @Override
+                public void write(OutputStream pStream) throws XmlRpcException, IOException, SAXException {
+                    try {
+                        pStream.write(body);
+                        PayloadCounter.contentSent(length);
+                    } finally {
+                        pStream.close();
+                    }
+                }
+            };
+        }
+
+        @Override
+        protected Object readResponse(XmlRpcStreamRequestConfig pConfig, InputStream pStream) throws XmlRpcException {
+            final Object result = super.readResponse(pConfig, payload.responseContent(pStream, isResponseGzipCompressed(pConfig)));
+
+            payload.responseRead();
+
+            return result;
+        }
+
+        @Override
+        protected void writeRequest(final ReqWriter pWriter) throws XmlRpcException {
+            super.writeRequest(new ReqWriter() {
+
+                @Override
+                public void write(OutputStream pStream) throws XmlRpcException, IOException, SAXException {
+                    pWriter.write(PayloadCounter.counting(pStream));
+                }
+            });
+        }
+
+        @Override
+        protected InputStream getInputStream() throws XmlRpcException {
+            return payload.responseWire(super.getInputStream());
+        }
+
+        @Override
+        protected void close() throws XmlRpcClientException {
+            // don't read the rest of a response not wanted anymore just to reuse the connection
+            if( method != null && StreamingTypeFactory.isStopped() ) {
+                method.abort();
+            }
+            super.close();
+        }
+
+    }
+
+    private volatile PayloadCompression compression;
+
+    CommonsTransportFactory(XmlRpcClient pClient) {
+        super(pClient);
+    }
+
+    /**
+     *
+     * @param compression gzip negotiation of the next requests. If null the payloads are sent and asked plain
+     */
+    void setCompression(PayloadCompression compression) {
+        this.compression = compression;
+    }
+
+    PayloadCompression getCompression() {
+        return compression;
+    }
+
+    @Override
+    public XmlRpcTransport getTransport() {
+        return new Transport(this);
+    }
+
+}
@@ -5,25 +5,26 @@ import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.protocol.Protocol;
+import org.bsc.ssl.SSLProtocolSocketFactory;
 import org.apache.xmlrpc.XmlRpcException;
 import org.apache.xmlrpc.client.XmlRpcClient;
 import org.apache.xmlrpc.client.XmlRpcClientConfigImpl;
 import org.apache.xmlrpc.client.XmlRpcClientException;
 import org.apache.xmlrpc.client.XmlRpcCommonsTransportFactory;
 
-import javax.naming.directory.SearchResult;
-import java.awt.Label;
-import java.lang.reflect.Constructor;
 import java.net.MalformedURLException;
 import java.net.Proxy;
 import java.net.Proxy.Type;
 import java.net.ProxySelector;
 import java.net.URISyntaxException;
-import java.security.Permission;
+import javax.net.ssl.HttpsURLConnection;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @version $Revision$ $Date$
@@ -54,12 +55,107 @@ public class Confluence {
 
   }
 
+  /**
+   * settings of the keep-alive connection pool
+   *
+   * @see HttpConnectionPool
+   */
+  public static class ConnectionPoolInfo {
+    final public int maxConnectionsPerHost;
+    final public int maxTotalConnections;
+    /**
+     * time (millis) after that an idle connection is closed. 0 disable the eviction
+     */
+    final public long idleTimeout;
+    /**
+     * connect timeout (millis). 0 means infinite
+     */
+    final public int connectionTimeout;
+    /**
+     * socket read timeout (millis). 0 means infinite
+     */
+    final public int socketTimeout;
+
+    public ConnectionPoolInfo(int maxConnectionsPerHost, int maxTotalConnections, long idleTimeout, int connectionTimeout, int socketTimeout) {
+      this.maxConnectionsPerHost = maxConnectionsPerHost;
+      this.maxTotalConnections = maxTotalConnections;
+      this.idleTimeout = idleTimeout;
+      this.connectionTimeout = connectionTimeout;
+      this.socketTimeout = socketTimeout;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ConnectionPoolInfo)) {
+        return false;
+      }
+      final ConnectionPoolInfo other = (ConnectionPoolInfo) o;
+
+      return maxConnectionsPerHost == other.maxConnectionsPerHost &&
+             maxTotalConnections == other.maxTotalConnections &&
+             idleTimeout == other.idleTimeout &&
+             connectionTimeout == other.connectionTimeout &&
+             socketTimeout == other.socketTimeout;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = maxConnectionsPerHost;
+      result = 31 * result + maxTotalConnections;
+      result = 31 * result + (int) (idleTimeout ^ (idleTimeout >>> 32));
+      result = 31 * result + connectionTimeout;
+      result = 31 * result + socketTimeout;
+      return result;
+    }
+
+  }
+
   private final XmlRpcClient client;
-  private String token;
+  private volatile String token;
+  private String username;
+  private String password;
   protected boolean sendRawData;
 
+  private HttpConnectionPool connectionPool;
+  /**
+   * shared with the copies of this instance, so the pool lease is released once
+   */
+  private AtomicBoolean connectionPoolReleased = new AtomicBoolean(false);
+
   private java.lang.ref.SoftReference<ServerInfo> serverInfoCache = null;
 
+  private XmlRpcClientConfigImpl streamingConfig = null;
+
+  private CallPolicy callPolicy = null;
+
+  private final List<CallListener> listeners;
+
+  private volatile CallBatcher batcher = null;
+
+  private volatile PayloadCompression compression = null;
+
+  /**
+   * sends the batched requests through the call policy and the listeners
+   */
+  private final CallBatcher.Transport batchTransport = new CallBatcher.Transport() {
+
+    @Override
+    public Object execute(final String methodName, final Object[] params, boolean idempotent) throws XmlRpcException {
+      final int dot = methodName.indexOf('.') + 1;
+
+      return invoke(methodName.substring(0, dot), methodName.substring(dot), idempotent, true, new CallPolicy.Call() {
+
+        @Override
+        public Object execute() throws XmlRpcException {
+          return client.execute(methodName, params);
+        }
+      });
+    }
+  };
+
 /*    
     protected Confluence(String endpoint) throws MalformedURLException {
         this(new XmlRpcClient());
@@ -80,14 +176,14 @@ public class Confluence {
     }
 */
 
-  private boolean isNullOrEmpty(String v) {
+  static boolean isNullOrEmpty(String v) {
     if (v == null) {
       return true;
     }
     return (v.trim().length() == 0);
   }
 
-  private boolean isProxyEnabled(final ProxyInfo proxyInfo, final java.net.URI serviceURI) {
+  static boolean isProxyEnabled(final ProxyInfo proxyInfo, final java.net.URI serviceURI) {
 
     if (proxyInfo == null || isNullOrEmpty(proxyInfo.host)) {
       return false;
@@ -125,7 +221,38 @@ public class Confluence {
     return result;
   }
 
+  /**
+   * set the service host on the commons-httpclient configuration. The https connections use the
+   * socket factory of {@link HttpsURLConnection} (see {@link org.bsc.ssl.SSLCertificateInfo}),
+   * the protocol is given to this client only instead of being registered for the whole JVM.
+   * The requests must then use a path relative to the host.
+   *
+   * @param httpClient
+   * @param serviceURI
+   */
+  static void setHost(final HttpClient httpClient, final java.net.URI serviceURI) {
+    final HostConfiguration hostConfiguration = httpClient.getHostConfiguration();
+
+    if ("https".equalsIgnoreCase(serviceURI.getScheme())) {
+      final Protocol https = new Protocol("https", new SSLProtocolSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory()), 443);
+
+      hostConfiguration.setHost(serviceURI.getHost(), serviceURI.getPort(), https);
+    } else {
+      hostConfiguration.setHost(serviceURI.getHost(), serviceURI.getPort(), serviceURI.getScheme());
+    }
+  }
+
   protected Confluence(String endpoint, ProxyInfo proxyInfo) throws URISyntaxException, MalformedURLException {
+    this(endpoint, proxyInfo, null);
+  }
+
+  /**
+   *
+   * @param endpoint
+   * @param proxyInfo
+   * @param poolInfo if not null all the calls share a keep-alive connection pool
+   */
+  protected Confluence(String endpoint, ProxyInfo proxyInfo, ConnectionPoolInfo poolInfo) throws URISyntaxException, MalformedURLException {
     this(new XmlRpcClient());
     if (endpoint.endsWith("/")) {
       endpoint = endpoint.substring(0, endpoint.length() - 1);
@@ -143,42 +270,210 @@ public class Confluence {
     clientConfig.setEnabledForExtensions(true); // add this to support attachment upload
 
     client.setConfig(clientConfig);
+    client.setTypeFactory(new StreamingTypeFactory(client));
+
+    final boolean proxyEnabled = isProxyEnabled(proxyInfo, serviceURI);
+
+    if (poolInfo == null && !proxyEnabled) {
+      client.setTransportFactory(new SunHttpTransportFactory(client));
+      return;
+    }
 
-    if (isProxyEnabled(proxyInfo, serviceURI)) {
+    final HttpClient httpClient;
+    final XmlRpcCommonsTransportFactory transportFactory;
 
-      final XmlRpcCommonsTransportFactory transportFactory = new XmlRpcCommonsTransportFactory(client);
+    if (poolInfo != null) {
+      connectionPool = HttpConnectionPool.acquire(poolInfo);
+
+      httpClient = connectionPool.newHttpClient();
+      transportFactory = connectionPool.newTransportFactory(client, httpClient);
+    } else {
+      httpClient = new HttpClient();
+      transportFactory = new CommonsTransportFactory(client);
+      transportFactory.setHttpClient(httpClient);
+    }
 
-      final HttpClient httpClient = new HttpClient();
-      final HostConfiguration hostConfiguration = httpClient.getHostConfiguration();
-      hostConfiguration.setProxy(proxyInfo.host, proxyInfo.port);
-      hostConfiguration.setHost(serviceURI.getHost(), serviceURI.getPort(), serviceURI.toURL().getProtocol());
+    setHost(httpClient, serviceURI);
+
+    if (proxyEnabled) {
+
+      httpClient.getHostConfiguration().setProxy(proxyInfo.host, proxyInfo.port);
 
       if (!isNullOrEmpty(proxyInfo.userName) && !isNullOrEmpty(proxyInfo.password)) {
         Credentials cred = new UsernamePasswordCredentials(proxyInfo.userName, proxyInfo.password);
         httpClient.getState().setProxyCredentials(AuthScope.ANY, cred);
       }
-
-      transportFactory.setHttpClient(httpClient);
-      client.setTransportFactory(transportFactory);
     }
+
+    client.setTransportFactory(transportFactory);
   }
 
   // Would have been nicer to have a constructor with clientConfig and optionally a transport
   // but there's a circular dependency between an XmlRpcClient and TransportFactory
   protected Confluence(XmlRpcClient client) {
     this.client = client;
+    this.listeners = new CopyOnWriteArrayList<CallListener>();
     token = ""; // empty token allows anonymous access
   }
 
   protected Confluence(Confluence c) {
     this.client = c.client;
+    this.connectionPool = c.connectionPool;
+    this.connectionPoolReleased = c.connectionPoolReleased;
+    this.callPolicy = c.callPolicy;
+    this.listeners = c.listeners;
+    this.compression = c.compression;
     token = c.token; // empty token allows anonymous access
+    username = c.username;
+    password = c.password;
+  }
+
+  /**
+   *
+   * @return the keep-alive connection pool used by this instance or null if it isn't pooled
+   */
+  public HttpConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
+  /**
+   *
+   * @return the resilience policy applied to the calls or null
+   */
+  public CallPolicy getCallPolicy() {
+    return callPolicy;
+  }
+
+  /**
+   *
+   * @param callPolicy rate limiting, retry and circuit breaking of the calls. If null each call is made once
+   */
+  public void setCallPolicy(CallPolicy callPolicy) {
+    this.callPolicy = callPolicy;
+  }
+
+  /**
+   * the listeners are shared with the instances that wrap this one
+   *
+   * @param listener notified at the end of each remote call
+   */
+  public void addCallListener(CallListener listener) {
+    if (listener == null) {
+      throw new IllegalArgumentException("listener is null!");
+    }
+    listeners.add(listener);
+  }
+
+  public void removeCallListener(CallListener listener) {
+    listeners.remove(listener);
+  }
+
+  private void fireCallCompleted(String servicePrefix, String command, long duration, long[] bytes, Throwable error, List<String> notices) {
+    if (listeners.isEmpty()) {
+      return;
+    }
+    final CallEvent event = new CallEvent(servicePrefix, command, duration, bytes[0], bytes[1], bytes[2], bytes[3], error, notices);
+
+    for (CallListener l : listeners) {
+      try {
+        l.callCompleted(event);
+      } catch (RuntimeException e) {
+        // ignored, see CallListener
+      }
+    }
   }
 
   protected String getServicePrefix() {
     return SERVICE_PREFIX_1;
   }
 
+  /**
+   * the calls made at the same time by different threads are sent together in a
+   * <code>system.multicall</code> request. Streamed calls, login and logout are always sent alone.
+   * It must be called after the login
+   *
+   * @param maxBatchSize max number of calls in a request. If less than 2 the batching is disabled
+   * @param maxDelay max time (millis) a call waits for others to be sent with
+   *
+   * @return false if the server doesn't support multicall, the calls are sent one by one.
+   * The reason is reported as a notice of the next call
+   */
+  public boolean enableMulticall(int maxBatchSize, long maxDelay) {
+    if (maxBatchSize < 2 || !isMulticallSupported()) {
+      batcher = null;
+      return false;
+    }
+    batcher = new CallBatcher(batchTransport, maxBatchSize, maxDelay);
+    return true;
+  }
+
+  /**
+   * @return true if the calls are batched
+   */
+  public boolean isMulticallEnabled() {
+    return batcher != null;
+  }
+
+  /**
+   * @return true if the server answers to a <code>system.multicall</code> request
+   */
+  private boolean isMulticallSupported() {
+    final Object[] requests = {
+      CallBatcher.newRequest(getServicePrefix() + "getServerInfo", new Object[]{token})
+    };
+    try {
+      final Object result = batchTransport.execute(CallBatcher.MULTICALL, new Object[]{requests}, true);
+
+      return (result instanceof Object[]) &&
+             ((Object[]) result).length == 1 &&
+             (((Object[]) result)[0] instanceof Object[]);
+    } catch (XmlRpcException e) {
+      CallNotices.add(String.format("multicall is not supported - %s", e.getMessage()));
+      return false;
+    } catch (RuntimeException e) {
+      CallNotices.add(String.format("multicall is not supported - %s", e.getMessage()));
+      return false;
+    }
+  }
+
+  /**
+   * the responses are asked gzip encoded and the requests larger than the threshold are sent gzip encoded.
+   * The commands whose payloads don't shrink enough are switched back to plain payloads
+   *
+   * @param requestThreshold min size (bytes) of a compressed request. If negative only the responses are compressed
+   *                         (not every server decodes a gzip encoded request)
+   */
+  public void enableCompression(int requestThreshold) {
+    setCompression(new PayloadCompression(requestThreshold));
+  }
+
+  public void disableCompression() {
+    setCompression(null);
+  }
+
+  /**
+   * @return true if the payloads are negotiated gzip encoded
+   */
+  public boolean isCompressionEnabled() {
+    return compression != null;
+  }
+
+  PayloadCompression getCompression() {
+    return compression;
+  }
+
+  private void setCompression(PayloadCompression compression) {
+    this.compression = compression;
+
+    final Object factory = client.getTransportFactory();
+
+    if (factory instanceof CommonsTransportFactory) {
+      ((CommonsTransportFactory) factory).setCompression(compression);
+    } else if (factory instanceof SunHttpTransportFactory) {
+      ((SunHttpTransportFactory) factory).setCompression(compression);
+    }
+  }
+
   public boolean willSendRawData() {
     return sendRawData;
   }
@@ -187,18 +482,79 @@ public class Confluence {
     this.sendRawData = sendRawData;
   }
 
+  /**
+   * the credentials are kept to log in again when the session expires
+   */
   public void login(String username, String password) throws SwizzleException, ConfluenceException {
     token = (String) call("login", username, password);
+
+    synchronized (this) {
+      this.username = username;
+      this.password = password;
+    }
+  }
+
+  /**
+   * log in again if the expired token is still the current one
+   *
+   * @param expiredToken token refused by the server
+   *
+   * @return true if there is a new token
+   */
+  private synchronized boolean relogin(Object expiredToken) {
+    if (username == null) {
+      return false;
+    }
+    if (!token.equals(expiredToken)) {
+      return true; // already renewed by another call
+    }
+    try {
+      CallNotices.add("confluence session expired - login again"); // reported with the login call
+      token = (String) call("login", username, password);
+      return true;
+    } catch (SwizzleException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @param e
+   *
+   * @return true if the server has refused the token (e.g. session timeout)
+   */
+  static boolean isSessionExpired(XmlRpcException e) {
+    final String message = e.getMessage();
+
+    return message != null &&
+           (message.contains("InvalidSessionException") || message.contains("session expired"));
   }
 
   /**
    * remove this token from the list of logged in tokens. Returns true if the user was logged out, false if they were
    * not logged in in the first place (we don't really need this return, but void
-   * seems to kill XML-RPC for me)
+   * seems to kill XML-RPC for me). The connection pool lease is released in any case (see {@link HttpConnectionPool})
    */
   public boolean logout() throws SwizzleException, ConfluenceException {
-    Boolean value = (Boolean) call("logout");
-    return value.booleanValue();
+    synchronized (this) {
+      username = null;
+      password = null;
+    }
+    try {
+      Boolean value = (Boolean) call("logout");
+      return value.booleanValue();
+    } finally {
+      releaseConnectionPool();
+    }
+  }
+
+  /**
+   * release the connection pool lease of this instance (and of its copies). The pool is shut
+   * down when no other instance uses it
+   */
+  protected void releaseConnectionPool() {
+    if (connectionPool != null && connectionPoolReleased.compareAndSet(false, true)) {
+      connectionPool.release();
+    }
   }
 
   /**
@@ -273,6 +629,17 @@ public class Confluence {
     return toList(vector, PageSummary.class);
   }
 
+  /**
+   * like {@link #getPages(String)} but each {@link PageSummary} is passed to the handler as soon as it is
+   * read from the response, so the memory used doesn't depend on the number of pages.
+   *
+   * @param spaceKey
+   * @param handler returns false to stop reading the pages
+   */
+  public void getPages(String spaceKey, ResultHandler<? super PageSummary> handler) throws SwizzleException, ConfluenceException {
+    stream(PageSummary.class, handler, "getPages", spaceKey);
+  }
+
   /**
    * returns a single Page
    */
@@ -327,6 +694,22 @@ public class Confluence {
     return toList(vector, PageSummary.class);
   }
 
+  /**
+   * returns all the direct children of this page with their content.
+   * Over XML-RPC it costs a call per child, the REST backend reads them in a single listing.
+   *
+   * @see ConfluenceRest#getChildrenPages(String)
+   */
+  public List<Page> getChildrenPages(String pageId) throws SwizzleException, ConfluenceException {
+    final List<PageSummary> children = getChildren(pageId);
+    final List<Page> result = new ArrayList<Page>(children.size());
+
+    for (PageSummary child : children) {
+      result.add(getPage(child.getId()));
+    }
+    return result;
+  }
+
   /**
    * returns all the descendents (as {@link PageSummary} instances) of this page (children, children's children etc).
    */
@@ -335,6 +718,17 @@ public class Confluence {
     return toList(vector, PageSummary.class);
   }
 
+  /**
+   * like {@link #getDescendents(String)} but each {@link PageSummary} is passed to the handler as soon as it is
+   * read from the response.
+   *
+   * @param pageId
+   * @param handler returns false to stop reading the pages
+   */
+  public void getDescendents(String pageId, ResultHandler<? super PageSummary> handler) throws SwizzleException, ConfluenceException {
+    stream(PageSummary.class, handler, "getDescendents", pageId);
+  }
+
   /**
    * returns all the {@link Comment}s for this page.
    */
@@ -438,6 +832,32 @@ public class Confluence {
     return new Attachment(data);
   }
 
+  /**
+   * add a new attachment to a content entity object reading its data from the given stream.
+   * The data is base64 encoded while the request is sent (chunked), so the memory used doesn't
+   * depend on the size of the attachment. The stream is not closed.
+   */
+  public Attachment addAttachment(long contentId, Attachment attachment, java.io.InputStream attachmentData) throws SwizzleException,
+    ConfluenceException {
+    if (attachmentData == null) {
+      throw new IllegalArgumentException("attachmentData is null!");
+    }
+    Object[] args = {new Long(contentId), attachment, attachmentData};
+    Map data = (Map) call(getStreamingConfig(), getServicePrefix(), "addAttachment", args);
+    return new Attachment(data);
+  }
+
+  /**
+   * configuration that doesn't buffer the request to compute its length
+   */
+  private synchronized XmlRpcClientConfigImpl getStreamingConfig() {
+    if (streamingConfig == null) {
+      streamingConfig = ((XmlRpcClientConfigImpl) client.getClientConfig()).cloneMe();
+      streamingConfig.setContentLengthOptional(true);
+    }
+    return streamingConfig;
+  }
+
   /**
    * remove an attachment from a content entity object.
    */
@@ -501,6 +921,18 @@ public class Confluence {
     return toList(vector, SearchResult.class);
   }
 
+  /**
+   * like {@link #search(String, int)} but each {@link SearchResult} is passed to the handler as soon as it is
+   * read from the response.
+   *
+   * @param query
+   * @param maxResults
+   * @param handler returns false to stop reading the results
+   */
+  public void search(String query, int maxResults, ResultHandler<? super SearchResult> handler) throws SwizzleException, ConfluenceException {
+    stream(SearchResult.class, handler, "search", query, Integer.valueOf(maxResults));
+  }
+
   /**
    * Returns a list of {@link SearchResult}s like the previous search, but you can optionally limit your search by
    * adding parameters to the parameter map. If you do not include a parameter, the
@@ -936,24 +1368,54 @@ public class Confluence {
     return value.booleanValue();
   }
 
-  private List toList(Object[] vector, Class type) throws SwizzleException {
-    try {
-      List list = new ArrayList(vector.length);
-
-      Constructor constructor = type.getConstructor(new Class[]{Map.class});
-      for (int i = 0; i < vector.length; i++) {
-        Map data = (Map) vector[i];
-        Object object = constructor.newInstance(new Object[]{data});
-        list.add(object);
+  /**
+   * call a command that returns an array, passing each element to the handler while the response is parsed
+   *
+   * @param type
+   * @param handler
+   * @param command
+   * @param args
+   * @throws SwizzleException
+   * @throws ConfluenceException
+   */
+  private <T> void stream(Class<T> type, final ResultHandler<? super T> handler, String command, Object... args) throws SwizzleException, ConfluenceException {
+    if (handler == null) {
+      throw new IllegalArgumentException("handler is null!");
+    }
+    final MapObjectFactory<T> factory = MapObjectFactory.of(type);
+    final Exception[] error = {null};
+
+    StreamingTypeFactory.attach(new StreamingTypeFactory.ArraySink() {
+
+      @Override
+      public boolean element(Object element) throws Exception {
+        try {
+          return handler.handle(factory.newInstance((Map) element));
+        } catch (Exception e) {
+          error[0] = e;
+          return false;
+        }
       }
+    });
+    try {
+      call(command, args);
+    } finally {
+      StreamingTypeFactory.detach();
+    }
 
-      return list;
-
-    } catch (Exception e) {
-      throw new SwizzleException(e);
+    if (error[0] instanceof SwizzleException) {
+      throw (SwizzleException) error[0];
     }
+    if (error[0] != null) {
+      throw new SwizzleException(error[0].getMessage(), error[0]);
+    }
+  }
+
+  private List toList(Object[] vector, Class type) throws SwizzleException {
+    return new MapObjectList(vector, MapObjectFactory.of(type));
   }
 
+
   private Object call(String command) throws SwizzleException, ConfluenceException {
     Object[] args = {};
     return call(command, args);
@@ -985,6 +1447,33 @@ public class Confluence {
     return call(getServicePrefix(), command, args);
   }
 
+  /**
+   * @param command
+   *
+   * @return true if the command only reads, so it can be safely repeated
+   */
+  private static boolean isIdempotent(String command) {
+    return command.startsWith("get") ||
+           command.startsWith("search") ||
+           command.startsWith("has") ||
+           command.equals("login") ||
+           command.equals("renderContent");
+  }
+
+  /**
+   * @param args
+   *
+   * @return false if an argument is a stream, it is consumed by the first attempt
+   */
+  private static boolean isReplayable(Object[] args) {
+    for (Object arg : args) {
+      if (arg instanceof java.io.InputStream) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Force use of service prefix
    * Need for fix issue 29
@@ -998,6 +1487,21 @@ public class Confluence {
    * @throws SwizzleException
    */
   private Object call(String servicePrefix, String command, Object[] args) throws SwizzleException {
+    return call((XmlRpcClientConfigImpl) null, servicePrefix, command, args);
+  }
+
+  /**
+   *
+   * @param config request configuration. If null the client one is used
+   * @param servicePrefix
+   * @param command
+   * @param args
+   *
+   * @return
+   *
+   * @throws SwizzleException
+   */
+  private Object call(final XmlRpcClientConfigImpl config, String servicePrefix, String command, Object[] args) throws SwizzleException {
     for (int i = 0; i < args.length; i++) {
       Object arg = args[i];
       if (arg instanceof MapObject) {
@@ -1017,13 +1521,99 @@ public class Confluence {
     } else {
       vector = args;
     }
+    final String methodName = servicePrefix + command;
+    final Object[] params = vector;
+
+    final CallPolicy.Call call = new CallPolicy.Call() {
+
+      @Override
+      public Object execute() throws XmlRpcException {
+        return (config == null)
+                ? client.execute(methodName, params)
+                : client.execute(config, methodName, params);
+      }
+    };
+
+    // a streamed response cannot be read again
+    final boolean replayable = isReplayable(args) && !StreamingTypeFactory.isAttached();
+
+    final CallBatcher batcher = this.batcher;
+    final boolean batched = batcher != null &&
+                            config == null &&
+                            replayable &&
+                            !command.equals("login") &&
+                            !command.equals("logout");
+
+    for (int attempt = 0; ; ++attempt) {
+      try {
+        return (batched)
+                ? batcher.execute(methodName, params, isIdempotent(command))
+                : invoke(servicePrefix, command, replayable, call);
+      } catch (XmlRpcClientException e) {
+        if (StreamingTypeFactory.isStopped(e)) {
+          return new Object[0];
+        }
+        throw new SwizzleException(e.getMessage(), e.linkedException);
+      } catch (XmlRpcException e) {
+        // the fault comes before any result, so a streamed call can be repeated too
+        final boolean renewable = attempt == 0 &&
+                                  params != args &&
+                                  !command.equals("logout") &&
+                                  isReplayable(args) &&
+                                  isSessionExpired(e);
+
+        if (renewable && relogin(params[0])) {
+          params[0] = token;
+          continue;
+        }
+        // the failure is reported to the listeners with the event of the call (see CallEvent#getError)
+        throw new ConfluenceException(e.getMessage(), e.linkedException);
+      }
+    }
+  }
+
+  /**
+   * run a remote call through the call policy, notifying the listeners at the end
+   *
+   * @param servicePrefix
+   * @param command
+   * @param replayable false if the request cannot be sent again
+   * @param call
+   *
+   * @return
+   *
+   * @throws XmlRpcException
+   */
+  Object invoke(String servicePrefix, String command, boolean replayable, CallPolicy.Call call) throws XmlRpcException {
+    return invoke(servicePrefix, command, isIdempotent(command), replayable, call);
+  }
+
+  /**
+   * @param idempotent true if the call can be safely repeated
+   *
+   * @see #invoke(String, String, boolean, CallPolicy.Call)
+   */
+  Object invoke(String servicePrefix, String command, boolean idempotent, boolean replayable, CallPolicy.Call call) throws XmlRpcException {
+    final long start = System.nanoTime();
+    Throwable error = null;
+
+    PayloadCounter.begin();
+    CallNotices.begin();
+
     try {
-      return client.execute(servicePrefix + command, vector);
-    } catch (XmlRpcClientException e) {
-      throw new SwizzleException(e.getMessage(), e.linkedException);
+      return (callPolicy == null)
+              ? call.execute()
+              : callPolicy.execute(call, idempotent, replayable);
     } catch (XmlRpcException e) {
-      System.out.println(String.format("RPC ERROR - %s [%s]", servicePrefix, command));
-      throw new ConfluenceException(e.getMessage(), e.linkedException);
+      if (!StreamingTypeFactory.isStopped(e)) {
+        error = e;
+      }
+      throw e;
+    } catch (RuntimeException e) {
+      error = e;
+      throw e;
+    } finally {
+      fireCallCompleted(servicePrefix, command, System.nanoTime() - start, PayloadCounter.end(), error, CallNotices.end());
     }
   }
 }
@@ -26,6 +26,10 @@ public class Confluence2 extends Confluence {
     protected Confluence2(String endpoint, ProxyInfo proxyInfo) throws MalformedURLException, URISyntaxException {
         super(endpoint, proxyInfo);
     }
+
+    protected Confluence2(String endpoint, ProxyInfo proxyInfo, ConnectionPoolInfo poolInfo) throws MalformedURLException, URISyntaxException {
+        super(endpoint, proxyInfo, poolInfo);
+    }
     
     
 
@@ -18,24 +18,138 @@ public class ConfluenceFactory {
     
     public static Confluence createInstanceVersion3x( String url, Confluence.ProxyInfo proxyInfo ) throws MalformedURLException, URISyntaxException {
         
-        return new Confluence( url, proxyInfo );
+        return createInstanceVersion3x( url, proxyInfo, null );
+        
+    }
+
+    public static Confluence createInstanceVersion3x( String url, Confluence.ProxyInfo proxyInfo, Confluence.ConnectionPoolInfo poolInfo ) throws MalformedURLException, URISyntaxException {
+        
+        return new Confluence( url, proxyInfo, poolInfo );
         
     }
 
     public static Confluence createInstanceVersion4x( String url, Confluence.ProxyInfo proxyInfo ) throws MalformedURLException, URISyntaxException {
         
-        return new Confluence2( url, proxyInfo );
+        return createInstanceVersion4x( url, proxyInfo, null );
+        
+    }
+
+    public static Confluence createInstanceVersion4x( String url, Confluence.ProxyInfo proxyInfo, Confluence.ConnectionPoolInfo poolInfo ) throws MalformedURLException, URISyntaxException {
+        
+        return new Confluence2( url, proxyInfo, poolInfo );
         
     }
 
     public static Confluence createInstanceDetectingVersion( String url, Confluence.ProxyInfo proxyInfo, String login, String password ) throws MalformedURLException, SwizzleException, URISyntaxException {
         
-        Confluence c = new Confluence(url, proxyInfo);
-        c.login(login, password);
+        return createInstanceDetectingVersion( url, proxyInfo, null, login, password );
+        
+    }
+
+    public static Confluence createInstanceDetectingVersion( String url, Confluence.ProxyInfo proxyInfo, Confluence.ConnectionPoolInfo poolInfo, String login, String password ) throws MalformedURLException, SwizzleException, URISyntaxException {
         
-        ServerInfo info = c.getServerInfo();
+        return createInstanceDetectingVersion( url, proxyInfo, poolInfo, null, login, password );
         
-        return ( info.getMajorVersion() < 4  ) ? c : new Confluence2( c );
+    }
+
+    /**
+     * 
+     * @param url
+     * @param proxyInfo
+     * @param poolInfo
+     * @param callPolicy applied to all the calls, login included. It can be null
+     * @param login
+     * @param password
+     * @return
+     * @throws MalformedURLException
+     * @throws SwizzleException
+     * @throws URISyntaxException 
+     */
+    public static Confluence createInstanceDetectingVersion( String url, Confluence.ProxyInfo proxyInfo, Confluence.ConnectionPoolInfo poolInfo, CallPolicy callPolicy, String login, String password ) throws MalformedURLException, SwizzleException, URISyntaxException {
+        
+        return createInstanceDetectingVersion( url, proxyInfo, poolInfo, callPolicy, null, login, password );
+        
+    }
+
+    /**
+     * 
+     * @param url
+     * @param proxyInfo
+     * @param poolInfo
+     * @param callPolicy applied to all the calls, login included. It can be null
+     * @param listeners notified of all the calls, login included. It can be null
+     * @param login
+     * @param password
+     * @return
+     * @throws MalformedURLException
+     * @throws SwizzleException
+     * @throws URISyntaxException 
+     */
+    public static Confluence createInstanceDetectingVersion( String url, Confluence.ProxyInfo proxyInfo, Confluence.ConnectionPoolInfo poolInfo, CallPolicy callPolicy, Iterable<? extends CallListener> listeners, String login, String password ) throws MalformedURLException, SwizzleException, URISyntaxException {
+        
+        Confluence c = new Confluence(url, proxyInfo, poolInfo);
+        c.setCallPolicy(callPolicy);
+        if( listeners != null ) {
+            for( CallListener l : listeners ) {
+                c.addCallListener(l);
+            }
+        }
+        try {
+            c.login(login, password);
+
+            ServerInfo info = c.getServerInfo();
+
+            return ( info.getMajorVersion() < 4  ) ? c : new Confluence2( c );
+        }
+        catch( SwizzleException e ) {
+            c.releaseConnectionPool();
+            throw e;
+        }
+        catch( RuntimeException e ) {
+            c.releaseConnectionPool();
+            throw e;
+        }
+        
+    }
+
+    /**
+     * the page tree is read through the REST API, the writes through XML-RPC (confluence 5.5+)
+     *
+     * @param url
+     * @param proxyInfo
+     * @param poolInfo
+     * @param callPolicy applied to all the calls, login included. It can be null
+     * @param listeners notified of all the calls, login included. It can be null
+     * @param login
+     * @param password
+     * @return
+     * @throws MalformedURLException
+     * @throws SwizzleException
+     * @throws URISyntaxException 
+     * @see ConfluenceRest
+     */
+    public static Confluence createInstanceRest( String url, Confluence.ProxyInfo proxyInfo, Confluence.ConnectionPoolInfo poolInfo, CallPolicy callPolicy, Iterable<? extends CallListener> listeners, String login, String password ) throws MalformedURLException, SwizzleException, URISyntaxException {
+        
+        Confluence c = new ConfluenceRest(url, proxyInfo, poolInfo);
+        c.setCallPolicy(callPolicy);
+        if( listeners != null ) {
+            for( CallListener l : listeners ) {
+                c.addCallListener(l);
+            }
+        }
+        try {
+            c.login(login, password);
+        }
+        catch( SwizzleException e ) {
+            c.releaseConnectionPool();
+            throw e;
+        }
+        catch( RuntimeException e ) {
+            c.releaseConnectionPool();
+            throw e;
+        }
+
+        return c;
         
     }
 }
@@ -0,0 +1,454 @@
+package org.codehaus.swizzle.confluence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcHttpTransportException;
+import org.bsc.json.Json;
+
+/**
+ * Confluence 5.5+ client that reads the page tree through the REST content API
+ * (<code>/rest/api/content</code>).
+ *
+ * A page is read together with its version and storage body (<code>expand</code>), and the
+ * listings (children, descendents, space pages) are paginated, so a whole tree level costs
+ * a single request (see {@link #getChildrenPages(String)}) instead of a call per page.
+ *
+ * The writes (store/remove page, attachments, labels, ...) and the server info are still
+ * made through XML-RPC, they have no page-per-call cost.
+ *
+ * The REST calls go through the same {@link CallPolicy} and {@link CallListener}s
+ * of the XML-RPC ones, with the <code>rest.</code> service prefix.
+ */
+public class ConfluenceRest extends Confluence2 {
+
+    protected static final String SERVICE_PREFIX_REST = "rest.";
+
+    /**
+     * default number of results requested for each page of a listing
+     */
+    public static final int DEFAULT_LIMIT = 100;
+
+    private static final String PAGE_EXPAND = "space,version,body.storage,ancestors";
+
+    private final String baseURL;
+    private final String restURL;
+    /**
+     * path of the REST API url, the requests are relative to the host of the client (see {@link Confluence#setHost})
+     */
+    private final String restPath;
+    private final HttpClient httpClient;
+
+    private int limit = DEFAULT_LIMIT;
+
+    /**
+     *
+     * @param endpoint confluence url, with or without the <code>/rpc/xmlrpc</code> suffix
+     * @param proxyInfo
+     * @param poolInfo if not null the REST calls share the keep-alive connection pool of the XML-RPC ones
+     */
+    protected ConfluenceRest(String endpoint, ProxyInfo proxyInfo, ConnectionPoolInfo poolInfo) throws MalformedURLException, URISyntaxException {
+        super(endpoint, proxyInfo, poolInfo);
+
+        String base = endpoint;
+        if( base.endsWith("/") ) {
+            base = base.substring(0, base.length() - 1);
+        }
+        if( base.endsWith("/rpc/xmlrpc") ) {
+            base = base.substring(0, base.length() - "/rpc/xmlrpc".length());
+        }
+        baseURL = base;
+        restURL = base + "/rest/api";
+
+        final java.net.URI serviceURI = new java.net.URI(restURL);
+        restPath = serviceURI.getRawPath();
+
+        httpClient = ( getConnectionPool() != null )
+                ? getConnectionPool().newHttpClient()
+                : new HttpClient(new MultiThreadedHttpConnectionManager());
+
+        setHost(httpClient, serviceURI);
+
+        if( isProxyEnabled(proxyInfo, serviceURI) ) {
+            httpClient.getHostConfiguration().setProxy(proxyInfo.host, proxyInfo.port);
+
+            if (!isNullOrEmpty(proxyInfo.userName) && !isNullOrEmpty(proxyInfo.password)) {
+                httpClient.getState().setProxyCredentials(AuthScope.ANY,
+                        new UsernamePasswordCredentials(proxyInfo.userName, proxyInfo.password));
+            }
+        }
+    }
+
+    /**
+     *
+     * @return base url of the REST API
+     */
+    public String getRestURL() {
+        return restURL;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     *
+     * @param limit results requested for each page of a listing. The server can return less
+     */
+    public void setLimit(int limit) {
+        if( limit <= 0 ) {
+            throw new IllegalArgumentException("limit must be greater than 0!");
+        }
+        this.limit = limit;
+    }
+
+    /**
+     * the XML-RPC login, the credentials are also used for the REST calls (basic authentication)
+     */
+    @Override
+    public void login(String username, String password) throws SwizzleException, ConfluenceException {
+        super.login(username, password);
+
+        if( !isNullOrEmpty(username) ) {
+            httpClient.getParams().setAuthenticationPreemptive(true);
+            httpClient.getState().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
+        }
+    }
+
+    @Override
+    public boolean logout() throws SwizzleException, ConfluenceException {
+        httpClient.getState().clearCredentials();
+
+        return super.logout();
+    }
+
+    @Override
+    public Page getPage(String pageId) throws SwizzleException, ConfluenceException {
+        final Map<String,Object> content = get("getPage", "/content/" + encode(pageId), "expand", PAGE_EXPAND);
+
+        return new Page(toPageData(content, null));
+    }
+
+    @Override
+    public Page getPage(String spaceKey, String pageTitle) throws SwizzleException, ConfluenceException {
+        final Map<String,Object> result = get("getPage", "/content",
+                "type", "page",
+                "spaceKey", spaceKey,
+                "title", pageTitle,
+                "expand", PAGE_EXPAND);
+
+        final List<?> results = (List<?>) result.get("results");
+
+        if( results == null || results.isEmpty() ) {
+            throw new ConfluenceException(String.format("page [%s] not found in space [%s]", pageTitle, spaceKey));
+        }
+        return new Page(toPageData((Map<String,Object>) results.get(0), null));
+    }
+
+    @Override
+    public List getChildren(final String pageId) throws SwizzleException, ConfluenceException {
+        final List<PageSummary> result = new ArrayList<PageSummary>();
+
+        list("getChildren", "/content/" + encode(pageId) + "/child/page", new ResultHandler<Map<String,Object>>() {
+
+            @Override
+            public boolean handle(Map<String,Object> content) throws Exception {
+                return result.add(new PageSummary(toPageData(content, pageId)));
+            }
+        }, "expand", "space");
+
+        return result;
+    }
+
+    /**
+     * the children with version and content, read in a single (paginated) listing
+     */
+    @Override
+    public List<Page> getChildrenPages(final String pageId) throws SwizzleException, ConfluenceException {
+        final List<Page> result = new ArrayList<Page>();
+
+        list("getChildrenPages", "/content/" + encode(pageId) + "/child/page", new ResultHandler<Map<String,Object>>() {
+
+            @Override
+            public boolean handle(Map<String,Object> content) throws Exception {
+                return result.add(new Page(toPageData(content, pageId)));
+            }
+        }, "expand", "space,version,body.storage");
+
+        return result;
+    }
+
+    @Override
+    public List getDescendents(String pageId) throws SwizzleException, ConfluenceException {
+        final List<PageSummary> result = new ArrayList<PageSummary>();
+
+        getDescendents(pageId, new ResultHandler<PageSummary>() {
+
+            @Override
+            public boolean handle(PageSummary element) throws Exception {
+                return result.add(element);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void getDescendents(String pageId, ResultHandler<? super PageSummary> handler) throws SwizzleException, ConfluenceException {
+        list("getDescendents", "/content/" + encode(pageId) + "/descendant/page", summaries(handler), "expand", "space,version,ancestors");
+    }
+
+    @Override
+    public List getPages(String spaceKey) throws SwizzleException, ConfluenceException {
+        final List<PageSummary> result = new ArrayList<PageSummary>();
+
+        getPages(spaceKey, new ResultHandler<PageSummary>() {
+
+            @Override
+            public boolean handle(PageSummary element) throws Exception {
+                return result.add(element);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void getPages(String spaceKey, ResultHandler<? super PageSummary> handler) throws SwizzleException, ConfluenceException {
+        list("getPages", "/content", summaries(handler), "type", "page", "spaceKey", spaceKey, "expand", "space,version,ancestors");
+    }
+
+    private ResultHandler<Map<String,Object>> summaries( final ResultHandler<? super PageSummary> handler ) {
+        if (handler == null) {
+            throw new IllegalArgumentException("handler is null!");
+        }
+        return new ResultHandler<Map<String,Object>>() {
+
+            @Override
+            public boolean handle(Map<String,Object> content) throws Exception {
+                return handler.handle(new PageSummary(toPageData(content, null)));
+            }
+        };
+    }
+
+    /**
+     * map a REST content to the fields of the XML-RPC page, so it can be stored again through XML-RPC
+     *
+     * @param content
+     * @param parentId if null it is the last ancestor, if any
+     * @return
+     */
+    private Map<String,Object> toPageData( Map<String,Object> content, String parentId ) {
+        final Map<String,Object> data = new HashMap<String,Object>();
+
+        data.put("id", content.get("id"));
+        data.put("title", content.get("title"));
+
+        final Map<String,Object> space = (Map<String,Object>) content.get("space");
+        if( space != null ) {
+            data.put("space", space.get("key"));
+        }
+
+        if( parentId == null ) {
+            final List<?> ancestors = (List<?>) content.get("ancestors");
+
+            parentId = ( ancestors == null || ancestors.isEmpty() )
+                    ? "0"
+                    : (String) ((Map<String,Object>) ancestors.get(ancestors.size() - 1)).get("id");
+        }
+        data.put("parentId", parentId);
+
+        final Map<String,Object> version = (Map<String,Object>) content.get("version");
+        if( version != null ) {
+            data.put("version", String.valueOf(version.get("number")));
+        }
+
+        final Map<String,Object> body = (Map<String,Object>) content.get("body");
+        if( body != null && body.get("storage") != null ) {
+            data.put("content", ((Map<String,Object>) body.get("storage")).get("value"));
+        }
+
+        final Object status = content.get("status");
+        if( status != null ) {
+            data.put("contentStatus", status);
+            data.put("current", String.valueOf("current".equals(status)));
+        }
+
+        final Map<String,Object> links = (Map<String,Object>) content.get("_links");
+        if( links != null && links.get("webui") != null ) {
+            final Object base = links.get("base");
+            data.put("url", String.valueOf(base != null ? base : baseURL) + links.get("webui"));
+        }
+
+        return data;
+    }
+
+    /**
+     * read all the pages of a listing, following the <code>_links.next</code> of each page
+     *
+     * @param command name of the call, for the listeners
+     * @param path
+     * @param handler returns false to stop reading
+     * @param query
+     */
+    private void list( String command, String path, ResultHandler<Map<String,Object>> handler, String... query ) throws SwizzleException, ConfluenceException {
+
+        final String[] paging = new String[query.length + 4];
+        System.arraycopy(query, 0, paging, 0, query.length);
+        paging[query.length] = "start";
+        paging[query.length + 2] = "limit";
+        paging[query.length + 3] = String.valueOf(limit);
+
+        int start = 0;
+
+        while( true ) {
+            paging[query.length + 1] = String.valueOf(start);
+
+            final Map<String,Object> result = get(command, path, paging);
+
+            final List<?> results = (List<?>) result.get("results");
+
+            if( results == null || results.isEmpty() ) {
+                return;
+            }
+
+            for( Object content : results ) {
+                final boolean proceed;
+                try {
+                    proceed = handler.handle((Map<String,Object>) content);
+                } catch (SwizzleException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new SwizzleException(e.getMessage(), e);
+                }
+                if( !proceed ) {
+                    return;
+                }
+            }
+
+            final Map<String,Object> links = (Map<String,Object>) result.get("_links");
+
+            if( links == null || links.get("next") == null ) {
+                return;
+            }
+            start += results.size();
+        }
+    }
+
+    /**
+     *
+     * @param command name of the call, for the call policy and the listeners
+     * @param path relative to the REST API url
+     * @param query names and values of the query parameters
+     * @return the json object returned
+     */
+    private Map<String,Object> get( String command, String path, String... query ) throws SwizzleException, ConfluenceException {
+
+        final StringBuilder url = new StringBuilder(path);
+
+        for( int i = 0 ; i + 1 < query.length ; i += 2 ) {
+            url .append( i == 0 ? '?' : '&' )
+                .append( encode(query[i]) )
+                .append( '=' )
+                .append( encode(query[i + 1]) );
+        }
+
+        final String uri = restURL + url;
+        final String requestPath = restPath + url;
+
+        final CallPolicy.Call call = new CallPolicy.Call() {
+
+            @Override
+            public Object execute() throws XmlRpcException {
+                final GetMethod method = new GetMethod(requestPath);
+                method.setRequestHeader("Accept", "application/json");
+                if( getCompression() != null ) {
+                    method.setRequestHeader("Accept-Encoding", PayloadCompression.GZIP);
+                }
+                method.setDoAuthentication(true);
+
+                try {
+                    final int status = httpClient.executeMethod(method);
+
+                    if( status != HttpStatus.SC_OK ) {
+                        throw new XmlRpcHttpTransportException(status, method.getStatusText(),
+                                String.format("HTTP server returned unexpected status: %d %s", status, method.getStatusText()));
+                    }
+                    InputStream body = PayloadCounter.counting(method.getResponseBodyAsStream());
+
+                    final Header encoding = method.getResponseHeader("Content-Encoding");
+                    if( body != null && encoding != null && PayloadCompression.GZIP.equalsIgnoreCase(encoding.getValue()) ) {
+                        body = new GZIPInputStream(body);
+                    }
+                    return Json.parse(read(PayloadCounter.countingContent(body)));
+                } catch (IOException e) {
+                    throw new XmlRpcException(e.getMessage(), e);
+                } finally {
+                    method.releaseConnection();
+                }
+            }
+        };
+
+        final Object result;
+        try {
+            result = invoke(SERVICE_PREFIX_REST, command, true, call);
+        } catch (XmlRpcException e) {
+            // the listeners get the failure with the call event
+            throw new ConfluenceException(e.getMessage(), e);
+        } catch (IllegalArgumentException e) {
+            throw new SwizzleException(String.format("invalid response from [%s]", uri), e);
+        }
+
+        if( !(result instanceof Map) ) {
+            throw new SwizzleException(String.format("invalid response from [%s]", uri));
+        }
+        return (Map<String,Object>) result;
+    }
+
+    /**
+     *
+     * @param is
+     * @return the whole stream as UTF-8 text (the json encoding)
+     * @throws IOException
+     */
+    private static String read( InputStream is ) throws IOException {
+        if( is == null ) {
+            return "";
+        }
+        final ByteArrayOutputStream result = new ByteArrayOutputStream(8 * 1024);
+        final byte[] buffer = new byte[8 * 1024];
+
+        int n;
+        while( (n = is.read(buffer)) != -1 ) {
+            result.write(buffer, 0, n);
+        }
+        return result.toString("UTF-8");
+    }
+
+    private static String encode( String value ) {
+        if( value == null ) {
+            return "";
+        }
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+package org.codehaus.swizzle.confluence;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread safe parser of the dates returned as string by the server.
+ *
+ * The layout is chosen without trying all of them:
+ * <ol>
+ * <li>the last layout that parsed the same field</li>
+ * <li>the layout that parsed a value of the same <i>shape</i> (runs of digits and letters
+ * collapsed, e.g. <code>2016-05-10T10:20:30</code> is <code>9-9-9a9:9:9</code>)</li>
+ * <li>the layouts in order, the first one that consumes the whole value wins</li>
+ * </ol>
+ * No exception is thrown and caught to reject a layout. Each thread has its own
+ * {@link SimpleDateFormat} instances.
+ */
+final class DateParser {
+
+    static final String[] PATTERNS = {
+        "EEE MMM d HH:mm:ss z yyyy",
+        "EEE, d MMM yyyy HH:mm:ss Z",
+        "yyyy-MM-dd HH:mm:ss.S",
+        "yyyy-MM-dd HH:mm:ss.SZ",
+        "yyyy-MM-dd HH:mm:ssZ",
+        "yyyy-MM-dd HH:mm:ss",
+        "yyyy-MM-dd HH:mmZ",
+        "yyyy-MM-dd HH:mm",
+        // XML-RPC spec compliant iso8601 formats
+        "yyyy-MM-dd'T'HH:mm:ss.SZ",
+        "yyyy-MM-dd'T'HH:mm:ss.S",
+        "yyyy-MM-dd'T'HH:mm:ssZ",
+        "yyyy-MM-dd'T'HH:mm:ss",
+        "yyyy-MM-dd'T'HH:mmZ",
+        "yyyy-MM-dd'T'HH:mm",
+        "yyyy-MM-dd",
+        "yyyyMMdd"
+    };
+
+    /**
+     * max number of shapes remembered, so garbage values cannot grow the cache without limit
+     */
+    private static final int MAX_SHAPES = 256;
+
+    private static final Integer NONE = Integer.valueOf(-1);
+
+    private final String[] patterns;
+
+    private final ThreadLocal<SimpleDateFormat[]> formats = new ThreadLocal<SimpleDateFormat[]>() {
+
+        @Override
+        protected SimpleDateFormat[] initialValue() {
+            return new SimpleDateFormat[patterns.length];
+        }
+    };
+
+    private final ConcurrentMap<String,Integer> layoutByField = new ConcurrentHashMap<String,Integer>();
+    private final ConcurrentMap<String,Integer> layoutByShape = new ConcurrentHashMap<String,Integer>();
+
+    DateParser() {
+        this(PATTERNS);
+    }
+
+    DateParser(String... patterns) {
+        if( patterns == null || patterns.length == 0 ) {
+            throw new IllegalArgumentException("patterns is empty!");
+        }
+        this.patterns = patterns.clone();
+    }
+
+    private SimpleDateFormat format( int layout ) {
+        final SimpleDateFormat[] f = formats.get();
+
+        if( f[layout] == null ) {
+            f[layout] = new SimpleDateFormat(patterns[layout], Locale.US);
+        }
+        return f[layout];
+    }
+
+    /**
+     *
+     * @param value
+     * @return the value in the first layout
+     */
+    String format( Date value ) {
+        return format(0).format(value);
+    }
+
+    /**
+     *
+     * @param layout
+     * @param value
+     * @param complete if true the whole value must be consumed
+     * @return the date or null
+     */
+    private Date parse( int layout, String value, boolean complete ) {
+        final ParsePosition pos = new ParsePosition(0);
+
+        final Date result = format(layout).parse(value, pos);
+
+        if( result == null || (complete && pos.getIndex() != value.length()) ) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @param value
+     * @return the value with digit and letter runs collapsed to <code>9</code> and <code>a</code>
+     */
+    static String shapeOf( String value ) {
+        final StringBuilder sb = new StringBuilder(16);
+        char last = 0;
+
+        for( int i = 0 ; i < value.length() ; ++i ) {
+            final char c = value.charAt(i);
+            final char s = Character.isDigit(c) ? '9' : Character.isLetter(c) ? 'a' : c;
+
+            if( s != last || (s != '9' && s != 'a') ) {
+                sb.append(s);
+            }
+            last = s;
+        }
+        return sb.toString();
+    }
+
+    /**
+     *
+     * @param field name of the field, used to remember its layout. It can be null
+     * @param value
+     * @return the parsed date or null if no layout matches
+     */
+    Date parse( String field, String value ) {
+        if( value == null ) {
+            return null;
+        }
+
+        final Integer fieldLayout = ( field != null ) ? layoutByField.get(field) : null;
+
+        if( fieldLayout != null ) {
+            final Date result = parse(fieldLayout.intValue(), value, true);
+            if( result != null ) {
+                return result;
+            }
+        }
+
+        final String shape = shapeOf(value);
+        final Integer shapeLayout = layoutByShape.get(shape);
+
+        if( shapeLayout != null ) {
+            if( shapeLayout.equals(NONE) ) {
+                return null;
+            }
+            final Date result = parse(shapeLayout.intValue(), value, true);
+            if( result != null ) {
+                remember(field, shape, shapeLayout);
+                return result;
+            }
+        }
+
+        for( int i = 0 ; i < patterns.length ; ++i ) {
+            final Date result = parse(i, value, true);
+            if( result != null ) {
+                remember(field, shape, Integer.valueOf(i));
+                return result;
+            }
+        }
+
+        // as the former parser, accept the first layout that matches the beginning of the value
+        for( int i = 0 ; i < patterns.length ; ++i ) {
+            final Date result = parse(i, value, false);
+            if( result != null ) {
+                return result;
+            }
+        }
+
+        if( layoutByShape.size() < MAX_SHAPES ) {
+            layoutByShape.put(shape, NONE);
+        }
+        return null;
+    }
+
+    private void remember( String field, String shape, Integer layout ) {
+        if( field != null ) {
+            layoutByField.put(field, layout);
+        }
+        if( layoutByShape.size() < MAX_SHAPES ) {
+            layoutByShape.put(shape, layout);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package org.codehaus.swizzle.confluence;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcCommonsTransportFactory;
+import org.apache.xmlrpc.client.XmlRpcTransport;
+
+/**
+ * Keep-alive connection pool shared by all the {@link Confluence} instances
+ * created with the same {@link Confluence.ConnectionPoolInfo}.
+ *
+ * Connections are kept open between calls so only the first request
+ * towards a host pays the TCP/TLS setup.
+ *
+ * The pool is shut down when the last lease ({@link #acquire(Confluence.ConnectionPoolInfo)})
+ * is released, a {@link Confluence} instance release its own on logout.
+ */
+public class HttpConnectionPool {
+
+    private static final java.util.Map<Confluence.ConnectionPoolInfo,HttpConnectionPool> _POOLS =
+            new java.util.HashMap<Confluence.ConnectionPoolInfo,HttpConnectionPool>();
+
+    /**
+     * pool statistics snapshot
+     */
+    public static class Statistics {
+        final public int connectionsInPool;
+        final public int maxConnectionsPerHost;
+        final public int maxTotalConnections;
+        final public long requests;
+
+        Statistics(int connectionsInPool, int maxConnectionsPerHost, int maxTotalConnections, long requests) {
+            this.connectionsInPool = connectionsInPool;
+            this.maxConnectionsPerHost = maxConnectionsPerHost;
+            this.maxTotalConnections = maxTotalConnections;
+            this.requests = requests;
+        }
+
+        /**
+         *
+         * @param start an earlier snapshot of the same pool
+         * @return the current snapshot with the requests served since the given one
+         */
+        public Statistics since( Statistics start ) {
+            if( start == null ) {
+                return this;
+            }
+            return new Statistics(connectionsInPool, maxConnectionsPerHost, maxTotalConnections, requests - start.requests);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("connection pool: requests [%d] connections in pool [%d] max per host [%d] max total [%d]",
+                    requests,
+                    connectionsInPool,
+                    maxConnectionsPerHost,
+                    maxTotalConnections);
+        }
+
+    }
+
+    /**
+     * Transport factory that count the requests served by the pool
+     */
+    class TransportFactory extends CommonsTransportFactory {
+
+        TransportFactory(XmlRpcClient pClient) {
+            super(pClient);
+        }
+
+        @Override
+        public XmlRpcTransport getTransport() {
+            requests.incrementAndGet();
+            return super.getTransport();
+        }
+
+    }
+
+    /**
+     *
+     * @param info
+     * @return the pool shared by all the clients that use the same settings
+     */
+    public static synchronized HttpConnectionPool getInstance( Confluence.ConnectionPoolInfo info ) {
+        if( info == null ) {
+            throw new IllegalArgumentException("info is null!");
+        }
+
+        HttpConnectionPool result = _POOLS.get(info);
+
+        if( result == null ) {
+            result = new HttpConnectionPool(info);
+            _POOLS.put(info, result);
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @param info
+     * @return the pool shared by all the clients that use the same settings, kept open until the lease is released
+     * @see #release()
+     */
+    public static synchronized HttpConnectionPool acquire( Confluence.ConnectionPoolInfo info ) {
+        final HttpConnectionPool result = getInstance(info);
+
+        ++result.leases;
+        return result;
+    }
+
+    /**
+     * close all the pooled connections and stop the idle connection evictors
+     */
+    public static synchronized void shutdownAll() {
+
+        for( HttpConnectionPool pool : _POOLS.values() ) {
+            pool.shutdown();
+        }
+        _POOLS.clear();
+    }
+
+    private final Confluence.ConnectionPoolInfo info;
+    private final MultiThreadedHttpConnectionManager connectionManager;
+    private final IdleConnectionTimeoutThread evictor;
+    private final AtomicLong requests = new AtomicLong();
+    private int leases = 0;
+
+    private HttpConnectionPool( Confluence.ConnectionPoolInfo info ) {
+        this.info = info;
+
+        connectionManager = new MultiThreadedHttpConnectionManager();
+
+        final HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(info.maxConnectionsPerHost);
+        params.setMaxTotalConnections(info.maxTotalConnections);
+        params.setConnectionTimeout(info.connectionTimeout);
+        params.setSoTimeout(info.socketTimeout);
+        params.setStaleCheckingEnabled(true);
+
+        if( info.idleTimeout > 0 ) {
+            evictor = new IdleConnectionTimeoutThread();
+            evictor.setConnectionTimeout(info.idleTimeout);
+            evictor.setTimeoutInterval(Math.max(1000L, info.idleTimeout / 2));
+            evictor.addConnectionManager(connectionManager);
+            evictor.start();
+        }
+        else {
+            evictor = null;
+        }
+    }
+
+    public Confluence.ConnectionPoolInfo getInfo() {
+        return info;
+    }
+
+    /**
+     *
+     * @return a new client that lease its connections from this pool
+     */
+    public HttpClient newHttpClient() {
+        return new HttpClient(connectionManager);
+    }
+
+    /**
+     *
+     * @param client
+     * @return a transport factory that use the given pooled http client
+     */
+    XmlRpcCommonsTransportFactory newTransportFactory( XmlRpcClient client, HttpClient httpClient ) {
+        final TransportFactory result = new TransportFactory(client);
+        result.setHttpClient(httpClient);
+        return result;
+    }
+
+    /**
+     *
+     * @return current pool statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(  connectionManager.getConnectionsInPool(),
+                                info.maxConnectionsPerHost,
+                                info.maxTotalConnections,
+                                requests.get());
+    }
+
+    /**
+     *
+     * @param hostConfiguration
+     * @return number of connections currently opened towards the given host
+     */
+    public int getConnectionsInPool( HostConfiguration hostConfiguration ) {
+        return connectionManager.getConnectionsInPool(hostConfiguration);
+    }
+
+    /**
+     * release a lease taken with {@link #acquire(Confluence.ConnectionPoolInfo)}. The last one
+     * close the pooled connections and stop the idle connection evictor
+     */
+    public void release() {
+        synchronized( HttpConnectionPool.class ) {
+            if( leases == 0 || --leases > 0 ) {
+                return;
+            }
+            if( _POOLS.get(info) == this ) {
+                _POOLS.remove(info);
+            }
+            shutdown();
+        }
+    }
+
+    /**
+     *
+     * @return true if the pool has been shut down
+     */
+    public boolean isShutdown() {
+        synchronized( HttpConnectionPool.class ) {
+            return _POOLS.get(info) != this;
+        }
+    }
+
+    private void shutdown() {
+        if( evictor != null ) {
+            evictor.shutdown();
+        }
+        connectionManager.shutdown();
+    }
+
+}
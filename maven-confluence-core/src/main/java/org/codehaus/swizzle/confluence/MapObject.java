@@ -16,43 +16,120 @@
  */
 package org.codehaus.swizzle.confluence;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * @version $Revision$ $Date$
  */
 public class MapObject {
 
-    private static final SimpleDateFormat[] formats;
-
-    static {
-        formats = new SimpleDateFormat[] { new SimpleDateFormat("EEE MMM d HH:mm:ss z yyyy", Locale.US), new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z", Locale.US),
-                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S", Locale.US), new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SZ", Locale.US), new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.S", Locale.US),
-                new SimpleDateFormat("yyyy-MM-dd HH:mm:ssZ", Locale.US), new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US),
-                new SimpleDateFormat("yyyy-MM-dd HH:mmZ", Locale.US),
-                new SimpleDateFormat("yyyy-MM-dd HH:mm", Locale.US),
-                // XML-RPC spec compliant iso8601 formats
-                new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SZ", Locale.US), new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.S", Locale.US), new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US),
-                new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US), new SimpleDateFormat("yyyy-MM-dd'T'HH:mmZ", Locale.US), new SimpleDateFormat("yyyy-MM-dd'T'HH:mm", Locale.US),
-                new SimpleDateFormat("yyyy-MM-dd", Locale.US), new SimpleDateFormat("yyyyMMdd", Locale.US) };
-    }
+    private static final DateParser dates = new DateParser();
 
+    /**
+     * fields of the object. Until the first write they are the map given to the constructor
+     */
     protected final Map fields;
 
+    /**
+     * typed values parsed from the string fields (e.g. int, boolean, date)
+     */
+    private Map parsed = null;
+
     protected MapObject() {
         this(new HashMap());
     }
 
+    /**
+     * the data isn't copied until the first change, so it must not be modified by the caller afterwards
+     *
+     * @param data
+     */
     protected MapObject(Map data) {
-        fields = new HashMap(data);
+        fields = new Fields(data);
+    }
+
+    /**
+     * Copy on write view of the data. Each change discards the parsed value of the field
+     */
+    private final class Fields extends AbstractMap {
+
+        private Map data;
+        private boolean copied = false;
+
+        Fields(Map data) {
+            this.data = data;
+        }
+
+        private Map writable() {
+            if (!copied) {
+                data = new HashMap(data);
+                copied = true;
+            }
+            return data;
+        }
+
+        private void invalidate(Object key) {
+            if (parsed != null) {
+                parsed.remove(key);
+            }
+        }
+
+        public int size() {
+            return data.size();
+        }
+
+        public boolean containsKey(Object key) {
+            return data.containsKey(key);
+        }
+
+        public Object get(Object key) {
+            return data.get(key);
+        }
+
+        public Object put(Object key, Object value) {
+            invalidate(key);
+            return writable().put(key, value);
+        }
+
+        public Object remove(Object key) {
+            if (!data.containsKey(key)) {
+                return null;
+            }
+            invalidate(key);
+            return writable().remove(key);
+        }
+
+        public void clear() {
+            parsed = null;
+            writable().clear();
+        }
+
+        /**
+         * read only, the changes must go through put/remove to keep the parsed values in sync
+         */
+        public Set entrySet() {
+            return Collections.unmodifiableMap(data).entrySet();
+        }
+    }
+
+    private Object getParsed(String key) {
+        return (parsed == null) ? null : parsed.get(key);
+    }
+
+    private void setParsed(String key, Object value) {
+        if (parsed == null) {
+            parsed = new HashMap(4);
+        }
+        parsed.put(key, value);
     }
 
     protected String getString(String key) {
@@ -76,11 +153,11 @@ public class MapObject {
     }
 
     protected void setInt(String key, int value) {
-        fields.put(key, new Integer(value));
+        fields.put(key, Integer.valueOf(value));
     }
 
     protected void setInt(String key, String value) {
-        fields.put(key, new Integer(value));
+        fields.put(key, Integer.valueOf(value));
     }
 
     protected int getInt(String key) {
@@ -91,8 +168,12 @@ public class MapObject {
         }
 
         if (o instanceof String) {
-            setInt(key, (String) o);
-            return getInt(key);
+            Integer value = (Integer) getParsed(key);
+            if (value == null) {
+                value = Integer.valueOf((String) o);
+                setParsed(key, value);
+            }
+            return value.intValue();
         }
 
         if (o == null) return 0;
@@ -101,12 +182,15 @@ public class MapObject {
     }
 
     protected void setBoolean(String key, boolean value) {
-        fields.put(key, new Boolean(value));
+        fields.put(key, Boolean.valueOf(value));
     }
 
     protected void setBoolean(String key, String value) {
-        boolean b = (value.equalsIgnoreCase("true") || value.equals("1") || value.equalsIgnoreCase("yes"));
-        setBoolean(key, b);
+        setBoolean(key, toBoolean(value));
+    }
+
+    private static boolean toBoolean(String value) {
+        return (value.equalsIgnoreCase("true") || value.equals("1") || value.equalsIgnoreCase("yes"));
     }
 
     protected boolean getBoolean(String key) {
@@ -117,8 +201,7 @@ public class MapObject {
         }
 
         if (o instanceof String) {
-            setBoolean(key, (String) o);
-            return getBoolean(key);
+            return toBoolean((String) o);
         }
 
         if (o == null) return false;
@@ -131,7 +214,7 @@ public class MapObject {
     }
 
     protected void setDate(String key, String value) {
-        fields.put(key, toDate(value));
+        fields.put(key, toDate(key, value));
     }
 
     protected Date getDate(String key) {
@@ -142,8 +225,12 @@ public class MapObject {
         }
 
         if (o instanceof String) {
-            setDate(key, (String) o);
-            return getDate(key);
+            Date value = (Date) getParsed(key);
+            if (value == null) {
+                value = toDate(key, (String) o);
+                setParsed(key, value);
+            }
+            return value;
         }
 
         if (o == null) return null;
@@ -152,23 +239,21 @@ public class MapObject {
     }
 
     private String fromDate(Date value) {
-        return formats[0].format(value);
+        return dates.format(value);
     }
 
-    private Date toDate(String value) {
+    /**
+     *
+     * @param key field name, to remember the layout of its values
+     * @param value
+     * @return the parsed date, or now if the value is empty or it doesn't match any layout
+     */
+    private Date toDate(String key, String value) {
         if (value == null || value.equals("")) return new Date();
 
-        ParseException notParsable = null;
-        for (int i = 0; i < formats.length; i++) {
-            try {
-                return formats[i].parse(value);
-            } catch (ParseException e) {
-                notParsable = e;
-            }
-        }
+        final Date result = dates.parse(key, value);
 
-        notParsable.printStackTrace();
-        return new Date();
+        return (result != null) ? result : new Date();
     }
 
     /*
@@ -255,13 +340,56 @@ public class MapObject {
         throw new IllegalStateException("Field '" + key + "' is of unknown type: " + object.getClass().getName());
     }
 
+    /**
+     * the returned map is a read only view, each value is converted to string when it is read.
+     * So the struct sent to the server is built without copying the fields
+     *
+     * @return the fields as strings
+     */
     public Map toMap() {
-        HashMap map = new HashMap(fields.size());
-        for (Iterator i = fields.keySet().iterator(); i.hasNext();) {
-            String key = (String) i.next();
-            map.put(key, getString(key));
-        }
-        return map;
+        return new AbstractMap() {
+
+            public int size() {
+                return fields.size();
+            }
+
+            public boolean containsKey(Object key) {
+                return fields.containsKey(key);
+            }
+
+            public Object get(Object key) {
+                return (key instanceof String) ? getString((String) key) : null;
+            }
+
+            public Set entrySet() {
+                return new AbstractSet() {
+
+                    public int size() {
+                        return fields.size();
+                    }
+
+                    public Iterator iterator() {
+                        final Iterator i = fields.keySet().iterator();
+
+                        return new Iterator() {
+
+                            public boolean hasNext() {
+                                return i.hasNext();
+                            }
+
+                            public Object next() {
+                                final String key = (String) i.next();
+                                return new SimpleImmutableEntry(key, getString(key));
+                            }
+
+                            public void remove() {
+                                throw new UnsupportedOperationException();
+                            }
+                        };
+                    }
+                };
+            }
+        };
     }
 
     public Map toRawMap() {
@@ -0,0 +1,147 @@
+package org.codehaus.swizzle.confluence;
+
+import java.lang.reflect.Constructor;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates the typed object that wraps a raw XML-RPC struct.
+ *
+ * The factories of the confluence types are registered up front, so converting
+ * a result doesn't need reflection. Other types can be registered through
+ * {@link #register(Class, MapObjectFactory)}; a type not registered is created
+ * through its <code>(Map)</code> constructor, looked up once.
+ */
+public abstract class MapObjectFactory<T> {
+
+    private static final ConcurrentMap<Class<?>,MapObjectFactory<?>> _FACTORIES =
+            new ConcurrentHashMap<Class<?>,MapObjectFactory<?>>();
+
+    static {
+        register( Attachment.class, new MapObjectFactory<Attachment>() {
+            @Override
+            public Attachment newInstance(Map data) {
+                return new Attachment(data);
+            }
+        });
+        register( BlogEntrySummary.class, new MapObjectFactory<BlogEntrySummary>() {
+            @Override
+            public BlogEntrySummary newInstance(Map data) {
+                return new BlogEntrySummary(data);
+            }
+        });
+        register( Comment.class, new MapObjectFactory<Comment>() {
+            @Override
+            public Comment newInstance(Map data) {
+                return new Comment(data);
+            }
+        });
+        register( Label.class, new MapObjectFactory<Label>() {
+            @Override
+            public Label newInstance(Map data) {
+                return new Label(data);
+            }
+        });
+        register( PageHistorySummary.class, new MapObjectFactory<PageHistorySummary>() {
+            @Override
+            public PageHistorySummary newInstance(Map data) {
+                return new PageHistorySummary(data);
+            }
+        });
+        register( PageSummary.class, new MapObjectFactory<PageSummary>() {
+            @Override
+            public PageSummary newInstance(Map data) {
+                return new PageSummary(data);
+            }
+        });
+        register( Permission.class, new MapObjectFactory<Permission>() {
+            @Override
+            public Permission newInstance(Map data) {
+                return new Permission(data);
+            }
+        });
+        register( SearchResult.class, new MapObjectFactory<SearchResult>() {
+            @Override
+            public SearchResult newInstance(Map data) {
+                return new SearchResult(data);
+            }
+        });
+        register( Space.class, new MapObjectFactory<Space>() {
+            @Override
+            public Space newInstance(Map data) {
+                return new Space(data);
+            }
+        });
+        register( SpaceSummary.class, new MapObjectFactory<SpaceSummary>() {
+            @Override
+            public SpaceSummary newInstance(Map data) {
+                return new SpaceSummary(data);
+            }
+        });
+    }
+
+    /**
+     *
+     * @param data raw XML-RPC struct
+     * @return the typed object
+     */
+    public abstract T newInstance( Map data );
+
+    /**
+     *
+     * @param type
+     * @param factory replaces the one already registered for the type
+     */
+    public static <T> void register( Class<T> type, MapObjectFactory<T> factory ) {
+        if( type == null ) {
+            throw new IllegalArgumentException("type is null!");
+        }
+        if( factory == null ) {
+            throw new IllegalArgumentException("factory is null!");
+        }
+        _FACTORIES.put(type, factory);
+    }
+
+    /**
+     *
+     * @param type
+     * @return the factory of the type
+     * @throws SwizzleException if the type isn't registered and has no <code>(Map)</code> constructor
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> MapObjectFactory<T> of( Class<T> type ) throws SwizzleException {
+        if( type == null ) {
+            throw new IllegalArgumentException("type is null!");
+        }
+
+        final MapObjectFactory<T> result = (MapObjectFactory<T>) _FACTORIES.get(type);
+
+        if( result != null ) {
+            return result;
+        }
+
+        final Constructor<T> constructor;
+        try {
+            constructor = type.getConstructor(Map.class);
+        } catch (NoSuchMethodException e) {
+            throw new SwizzleException(e);
+        }
+
+        final MapObjectFactory<T> factory = new MapObjectFactory<T>() {
+
+            @Override
+            public T newInstance(Map data) {
+                try {
+                    return constructor.newInstance(data);
+                } catch (Exception e) {
+                    throw new IllegalStateException( String.format("error creating [%s]", constructor.getDeclaringClass().getName()), e);
+                }
+            }
+        };
+
+        final MapObjectFactory<?> previous = _FACTORIES.putIfAbsent(type, factory);
+
+        return ( previous != null ) ? (MapObjectFactory<T>) previous : factory;
+    }
+}
@@ -0,0 +1,74 @@
+package org.codehaus.swizzle.confluence;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * List of the typed objects returned by a call.
+ *
+ * The raw XML-RPC structs are kept as they are and each one is wrapped the
+ * first time its element is read, so iterating over part of a large result
+ * (e.g. all the pages of a space) pays only for the elements actually used.
+ *
+ * Like {@link ArrayList} it isn't thread safe.
+ */
+class MapObjectList<T> extends AbstractList<T> implements RandomAccess {
+
+    private final MapObjectFactory<T> factory;
+    private final ArrayList<Object> elements;
+
+    /**
+     *
+     * @param vector raw XML-RPC structs
+     * @param factory
+     */
+    MapObjectList( Object[] vector, MapObjectFactory<T> factory ) {
+        if( factory == null ) {
+            throw new IllegalArgumentException("factory is null!");
+        }
+        this.factory = factory;
+        this.elements = new ArrayList<Object>( Arrays.asList(vector) );
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        final Object e = elements.get(index);
+
+        if( e instanceof Map ) {
+            final T result = factory.newInstance( (Map) e );
+            elements.set(index, result);
+            return result;
+        }
+        return (T) e;
+    }
+
+    @Override
+    public int size() {
+        return elements.size();
+    }
+
+    @Override
+    public T set(int index, T element) {
+        final T result = get(index);
+        elements.set(index, element);
+        return result;
+    }
+
+    @Override
+    public void add(int index, T element) {
+        elements.add(index, element);
+        ++modCount;
+    }
+
+    @Override
+    public T remove(int index) {
+        final T result = get(index);
+        elements.remove(index);
+        ++modCount;
+        return result;
+    }
+}
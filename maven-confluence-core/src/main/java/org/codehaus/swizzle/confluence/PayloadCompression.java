@@ -0,0 +1,310 @@
+package org.codehaus.swizzle.confluence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip negotiation of the transports.
+ *
+ * The responses are requested gzip encoded (<code>Accept-Encoding</code>), the requests
+ * larger than the threshold are sent gzip encoded (<code>Content-Encoding</code>).
+ *
+ * The compression ratio is tracked per command and direction: when it doesn't pay
+ * (the compressed payload is more than {@link #MAX_RATIO} of the original one) the command is sent
+ * and asked plain, with a probe every {@link #PROBE_INTERVAL} calls in case the payloads change.
+ * The switches are reported as notices of the call ({@link CallEvent#getNotices()}).
+ */
+final class PayloadCompression {
+
+    static final String GZIP = "gzip";
+
+    /**
+     * compressed/original size over which the compression is switched off
+     */
+    static final double MAX_RATIO = 0.9;
+
+    /**
+     * number of payloads measured before deciding
+     */
+    static final int MIN_SAMPLES = 4;
+
+    /**
+     * every how many calls a switched off command is tried compressed again
+     */
+    static final int PROBE_INTERVAL = 50;
+
+    /**
+     * weight of the last sample in the ratio average
+     */
+    static final double WEIGHT = 0.25;
+
+    /**
+     * compression ratio of a command in a direction
+     */
+    static class Ratio {
+        private int samples = 0;
+        private double average = 1.0;
+        private int skipped = 0;
+
+        synchronized boolean isPaying() {
+            if( samples < MIN_SAMPLES || average <= MAX_RATIO ) {
+                return true;
+            }
+            if( ++skipped >= PROBE_INTERVAL ) {
+                skipped = 0;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return true if the compression has been just switched off
+         */
+        synchronized boolean record( long original, long compressed ) {
+            if( original <= 0 ) {
+                return false;
+            }
+            final boolean paying = samples < MIN_SAMPLES || average <= MAX_RATIO;
+            final double ratio = (double) compressed / original;
+
+            average = ( samples == 0 ) ? ratio : average + WEIGHT * (ratio - average);
+            ++samples;
+
+            return paying && samples >= MIN_SAMPLES && average > MAX_RATIO;
+        }
+
+        synchronized double getAverage() {
+            return average;
+        }
+    }
+
+    /**
+     * output stream that counts the bytes written
+     */
+    static class CountingOutputStream extends FilterOutputStream {
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            ++count;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * input stream that counts the bytes read
+     */
+    static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int result = super.read();
+            if( result != -1 ) {
+                ++count;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int result = super.read(b, off, len);
+            if( result > 0 ) {
+                count += result;
+            }
+            return result;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    private final int threshold;
+    private final ConcurrentMap<String,Ratio> requests = new ConcurrentHashMap<String,Ratio>();
+    private final ConcurrentMap<String,Ratio> responses = new ConcurrentHashMap<String,Ratio>();
+
+    private volatile boolean requestRefused = false;
+
+    /**
+     *
+     * @param threshold min size (bytes) of a compressed request. If negative only the responses are compressed
+     */
+    PayloadCompression( int threshold ) {
+        this.threshold = threshold;
+    }
+
+    int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     *
+     * @param methodName
+     * @return command without the service prefix
+     */
+    static String commandOf( String methodName ) {
+        if( methodName == null ) {
+            return "";
+        }
+        return methodName.substring( methodName.lastIndexOf('.') + 1 );
+    }
+
+    private static Ratio ratioOf( ConcurrentMap<String,Ratio> ratios, String command ) {
+        Ratio result = ratios.get(command);
+        if( result == null ) {
+            final Ratio r = new Ratio();
+            result = ratios.putIfAbsent(command, r);
+            if( result == null ) {
+                result = r;
+            }
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @param command
+     * @return true if the response should be asked gzip encoded
+     */
+    boolean isAcceptingGzip( String command ) {
+        return ratioOf(responses, command).isPaying();
+    }
+
+    /**
+     *
+     * @param command
+     * @param length request size or -1 if it isn't known (streamed request)
+     * @return true if the request should be sent gzip encoded
+     */
+    boolean isCompressing( String command, long length ) {
+        if( threshold < 0 || requestRefused ) {
+            return false;
+        }
+        if( length >= 0 && length < threshold ) {
+            return false;
+        }
+        return ratioOf(requests, command).isPaying();
+    }
+
+    /**
+     *
+     * @param command
+     * @return average compressed/original size of the requests
+     */
+    double getRequestRatio( String command ) {
+        return ratioOf(requests, command).getAverage();
+    }
+
+    /**
+     *
+     * @param command
+     * @return average compressed/original size of the responses
+     */
+    double getResponseRatio( String command ) {
+        return ratioOf(responses, command).getAverage();
+    }
+
+    void requestSent( String command, long original, long compressed ) {
+        if( ratioOf(requests, command).record(original, compressed) ) {
+            CallNotices.add(String.format("gzip doesn't pay for [%s] requests - compression switched off", command));
+        }
+    }
+
+    void responseReceived( String command, long original, long compressed ) {
+        if( ratioOf(responses, command).record(original, compressed) ) {
+            CallNotices.add(String.format("gzip doesn't pay for [%s] responses - compression switched off", command));
+        }
+    }
+
+    /**
+     * the server doesn't accept gzip encoded requests, don't compress them anymore
+     *
+     * @param reason
+     */
+    void requestRefused( String reason ) {
+        if( !requestRefused ) {
+            requestRefused = true;
+            CallNotices.add(String.format("gzip encoded request refused - request compression switched off. %s", reason));
+        }
+    }
+
+    /**
+     *
+     * @param command
+     * @param xml request
+     * @return the gzip encoded request or null if it should be sent as is
+     * @throws IOException
+     */
+    byte[] compress( String command, ByteArrayOutputStream xml ) throws IOException {
+        if( !isCompressing(command, xml.size()) ) {
+            return null;
+        }
+        final ByteArrayOutputStream result = new ByteArrayOutputStream( Math.max(32, xml.size() / 4) );
+        final GZIPOutputStream gz = new GZIPOutputStream(result);
+        xml.writeTo(gz);
+        gz.close();
+
+        requestSent(command, xml.size(), result.size());
+
+        return result.toByteArray();
+    }
+
+    /**
+     *
+     * @param command
+     * @param os
+     * @return stream that gzip encodes a streamed request on the given stream
+     * @throws IOException
+     */
+    OutputStream compressing( final String command, OutputStream os ) throws IOException {
+        final CountingOutputStream wire = new CountingOutputStream(os);
+
+        return new GZIPOutputStream(wire, 8 * 1024) {
+            private long original = 0;
+            private boolean closed = false;
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) throws IOException {
+                super.write(b, off, len);
+                original += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if( closed ) {
+                    return;
+                }
+                closed = true;
+                finish();
+                requestSent(command, original, wire.getCount());
+                super.close();
+            }
+        };
+    }
+}
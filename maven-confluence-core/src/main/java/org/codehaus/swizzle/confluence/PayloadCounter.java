@@ -0,0 +1,149 @@
+package org.codehaus.swizzle.confluence;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Bytes sent and received on the wire by the call in progress on the current thread,
+ * and the same payloads before the compression (content bytes).
+ *
+ * The transports run on the thread that makes the call, so they add the bytes
+ * to the counter opened by {@link Confluence} for that call.
+ */
+class PayloadCounter {
+
+    private static final ThreadLocal<long[]> _CURRENT = new ThreadLocal<long[]>();
+
+    private static final int SENT = 0;
+    private static final int RECEIVED = 1;
+    private static final int CONTENT_SENT = 2;
+    private static final int CONTENT_RECEIVED = 3;
+
+    private static final int SIZE = 4;
+
+    private PayloadCounter() {
+    }
+
+    /**
+     * start counting on the current thread
+     */
+    static void begin() {
+        _CURRENT.set( new long[SIZE] );
+    }
+
+    /**
+     * stop counting on the current thread
+     *
+     * @return bytes sent, received, content sent and content received since {@link #begin()}
+     */
+    static long[] end() {
+        final long[] result = _CURRENT.get();
+        _CURRENT.remove();
+        return ( result == null ) ? new long[SIZE] : result;
+    }
+
+    private static void add( int slot, long bytes ) {
+        final long[] c = _CURRENT.get();
+        if( c != null ) {
+            c[slot] += bytes;
+        }
+    }
+
+    static void sent( long bytes ) {
+        add(SENT, bytes);
+    }
+
+    static void received( long bytes ) {
+        add(RECEIVED, bytes);
+    }
+
+    static void contentSent( long bytes ) {
+        add(CONTENT_SENT, bytes);
+    }
+
+    static void contentReceived( long bytes ) {
+        add(CONTENT_RECEIVED, bytes);
+    }
+
+    /**
+     *
+     * @param os
+     * @return stream that counts the bytes written on the wire
+     */
+    static OutputStream counting( OutputStream os ) {
+        return counting(os, SENT);
+    }
+
+    /**
+     *
+     * @param os
+     * @return stream that counts the bytes of the request before the compression
+     */
+    static OutputStream countingContent( OutputStream os ) {
+        return counting(os, CONTENT_SENT);
+    }
+
+    /**
+     *
+     * @param is
+     * @return stream that counts the bytes read from the wire
+     */
+    static InputStream counting( InputStream is ) {
+        return counting(is, RECEIVED);
+    }
+
+    /**
+     *
+     * @param is
+     * @return stream that counts the bytes of the response after the decompression
+     */
+    static InputStream countingContent( InputStream is ) {
+        return counting(is, CONTENT_RECEIVED);
+    }
+
+    private static OutputStream counting( OutputStream os, final int slot ) {
+        return new FilterOutputStream(os) {
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                add(slot, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                add(slot, len);
+            }
+        };
+    }
+
+    private static InputStream counting( InputStream is, final int slot ) {
+        if( is == null ) {
+            return null;
+        }
+        return new FilterInputStream(is) {
+
+            @Override
+            public int read() throws IOException {
+                final int result = super.read();
+                if( result != -1 ) {
+                    add(slot, 1);
+                }
+                return result;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final int result = super.read(b, off, len);
+                if( result > 0 ) {
+                    add(slot, result);
+                }
+                return result;
+            }
+        };
+    }
+}
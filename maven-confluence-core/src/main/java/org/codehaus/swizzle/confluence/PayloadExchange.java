@@ -0,0 +1,158 @@
+package org.codehaus.swizzle.confluence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.client.XmlRpcHttpTransportException;
+
+/**
+ * Payloads of a request sent by a transport: the bytes sent and received are reported to
+ * {@link PayloadCounter} and, if a {@link PayloadCompression} is set, the payloads are negotiated gzip encoded.
+ *
+ * The transports extend different base classes of the XML-RPC client, so they delegate to it.
+ * An instance belongs to a single transport and isn't thread safe.
+ */
+final class PayloadExchange {
+
+    private final PayloadCompression compression;
+    private String command = "";
+    private boolean compressed = false;
+    private PayloadCompression.CountingInputStream wire;
+    private PayloadCompression.CountingInputStream content;
+
+    /**
+     *
+     * @param compression gzip negotiation. If null the payloads are sent and asked plain
+     */
+    PayloadExchange( PayloadCompression compression ) {
+        this.compression = compression;
+    }
+
+    /**
+     *
+     * @return true if the payloads are negotiated gzip encoded
+     */
+    boolean isNegotiating() {
+        return compression != null;
+    }
+
+    /**
+     * start a new request
+     *
+     * @param request
+     */
+    void start( XmlRpcRequest request ) {
+        command = PayloadCompression.commandOf(request.getMethodName());
+        compressed = false;
+        wire = null;
+        content = null;
+    }
+
+    /**
+     *
+     * @return true if the response should be asked gzip encoded (<code>Accept-Encoding</code>)
+     */
+    boolean isAcceptingGzip() {
+        return compression != null && compression.isAcceptingGzip(command);
+    }
+
+    /**
+     *
+     * @return true if the request is sent gzip encoded (<code>Content-Encoding</code>)
+     */
+    boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * decide the encoding of a streamed request
+     *
+     * @return true if it is sent gzip encoded
+     */
+    boolean startStreamed() {
+        compressed = compression != null && compression.isCompressing(command, -1);
+        return compressed;
+    }
+
+    /**
+     *
+     * @param os request stream
+     * @return stream of the streamed request content
+     * @throws IOException
+     */
+    OutputStream requestContent( OutputStream os ) throws IOException {
+        return PayloadCounter.countingContent( compressed ? compression.compressing(command, os) : os );
+    }
+
+    /**
+     * encode a buffered request
+     *
+     * @param xml request content
+     * @return the body to send, gzip encoded if {@link #isCompressed()}
+     * @throws IOException
+     */
+    byte[] requestBody( ByteArrayOutputStream xml ) throws IOException {
+        final byte[] gzip = ( compression != null ) ? compression.compress(command, xml) : null;
+        compressed = ( gzip != null );
+
+        return compressed ? gzip : xml.toByteArray();
+    }
+
+    /**
+     *
+     * @param is response stream, as read from the connection
+     * @return stream that counts the response bytes
+     */
+    InputStream responseWire( InputStream is ) {
+        wire = ( is != null ) ? new PayloadCompression.CountingInputStream(is) : null;
+
+        return PayloadCounter.counting(wire);
+    }
+
+    /**
+     *
+     * @param is response content, decoded
+     * @param gzip true if the response is gzip encoded
+     * @return stream that counts the response content
+     */
+    InputStream responseContent( InputStream is, boolean gzip ) {
+        if( compression == null || wire == null || !gzip ) {
+            content = null;
+            return PayloadCounter.countingContent(is);
+        }
+        content = new PayloadCompression.CountingInputStream(PayloadCounter.countingContent(is));
+        return content;
+    }
+
+    /**
+     * the response has been read: record its compression ratio
+     */
+    void responseRead() {
+        if( content != null ) {
+            compression.responseReceived(command, content.getCount(), wire.getCount());
+        }
+    }
+
+    /**
+     * the request has failed: if the server refused its encoding don't compress the next ones.
+     * Other failures (e.g. 429, 5xx) are retried by {@link CallPolicy} and don't change the negotiation
+     *
+     * @param e
+     */
+    void failed( XmlRpcHttpTransportException e ) {
+        if( compressed && isGzipRefused(e.getStatusCode()) ) {
+            compression.requestRefused(e.getMessage());
+        }
+    }
+
+    /**
+     *
+     * @param status HTTP status
+     * @return true if the status answers a content encoding the server doesn't support
+     */
+    static boolean isGzipRefused( int status ) {
+        return status == 415 /* Unsupported Media Type */ || status == 400 /* Bad Request */;
+    }
+}
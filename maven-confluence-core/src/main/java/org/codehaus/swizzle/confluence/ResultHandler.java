@@ -0,0 +1,15 @@
+package org.codehaus.swizzle.confluence;
+
+/**
+ * Receives the elements of a list result as soon as they are decoded from the response.
+ */
+public interface ResultHandler<T> {
+
+    /**
+     *
+     * @param element
+     * @return false to stop reading the response
+     * @throws Exception aborts the call
+     */
+    boolean handle(T element) throws Exception;
+}
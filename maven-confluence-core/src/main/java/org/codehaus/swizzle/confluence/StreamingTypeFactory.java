@@ -0,0 +1,253 @@
+package org.codehaus.swizzle.confluence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.ws.commons.util.Base64;
+import org.apache.ws.commons.util.NamespaceContextImpl;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.common.TypeFactory;
+import org.apache.xmlrpc.common.TypeFactoryImpl;
+import org.apache.xmlrpc.common.XmlRpcController;
+import org.apache.xmlrpc.common.XmlRpcStreamConfig;
+import org.apache.xmlrpc.parser.RecursiveTypeParserImpl;
+import org.apache.xmlrpc.parser.TypeParser;
+import org.apache.xmlrpc.serializer.ByteArraySerializer;
+import org.apache.xmlrpc.serializer.ObjectArraySerializer;
+import org.apache.xmlrpc.serializer.TypeSerializer;
+import org.apache.xmlrpc.serializer.TypeSerializerImpl;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Type factory that serializes an {@link InputStream} argument as a base64 value
+ * encoded on the fly, so the data is never held in memory as a whole.
+ *
+ * The stream is read (not closed) while the request is written.
+ *
+ * On the response side, when an {@link ArraySink} is attached to the current thread
+ * the elements of the returned array are handed to it as soon as they are parsed,
+ * instead of being collected.
+ */
+class StreamingTypeFactory extends TypeFactoryImpl {
+
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final ThreadLocal<ArraySink> _SINK = new ThreadLocal<ArraySink>();
+    private static final ThreadLocal<Boolean> _STOPPED = new ThreadLocal<Boolean>();
+
+    /**
+     * receives the elements of the array returned by the call
+     */
+    interface ArraySink {
+
+        /**
+         *
+         * @param element
+         * @return false to stop parsing
+         * @throws Exception
+         */
+        boolean element(Object element) throws Exception;
+    }
+
+    /**
+     * raised to stop reading the response once the sink doesn't want more elements
+     */
+    static class Stopped extends XmlRpcException {
+
+        Stopped() {
+            super("response reading stopped");
+        }
+    }
+
+    /**
+     * like {@link org.apache.xmlrpc.parser.ObjectArrayParser} but the values are passed to the sink
+     * and the result is an empty array
+     */
+    static class StreamingArrayParser extends RecursiveTypeParserImpl {
+
+        private final ArraySink sink;
+        private int level = 0;
+
+        StreamingArrayParser(XmlRpcStreamConfig pConfig, NamespaceContextImpl pContext, TypeFactory pFactory, ArraySink sink) {
+            super(pConfig, pContext, pFactory);
+            this.sink = sink;
+        }
+
+        @Override
+        public void startDocument() throws SAXException {
+            level = 0;
+            super.startDocument();
+        }
+
+        @Override
+        protected void addResult(Object pResult) throws SAXException {
+            final boolean more;
+            try {
+                more = sink.element(pResult);
+            } catch (SAXException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new SAXException(e);
+            }
+            if( !more ) {
+                _STOPPED.set(Boolean.TRUE);
+                throw new SAXException(new Stopped());
+            }
+        }
+
+        @Override
+        public void endElement(String pURI, String pLocalName, String pQName) throws SAXException {
+            switch (--level) {
+                case 0:
+                    setResult(new Object[0]);
+                    break;
+                case 1:
+                    break;
+                case 2:
+                    endValueTag();
+                    break;
+                default:
+                    super.endElement(pURI, pLocalName, pQName);
+            }
+        }
+
+        @Override
+        public void startElement(String pURI, String pLocalName, String pQName, Attributes pAttrs) throws SAXException {
+            switch (level++) {
+                case 0:
+                    expect(pURI, pLocalName, ObjectArraySerializer.ARRAY_TAG);
+                    break;
+                case 1:
+                    expect(pURI, pLocalName, ObjectArraySerializer.DATA_TAG);
+                    break;
+                case 2:
+                    expect(pURI, pLocalName, ObjectArraySerializer.VALUE_TAG);
+                    startValueTag();
+                    break;
+                default:
+                    super.startElement(pURI, pLocalName, pQName, pAttrs);
+            }
+        }
+
+        private void expect(String pURI, String pLocalName, String tag) throws SAXException {
+            if( !"".equals(pURI) || !tag.equals(pLocalName) ) {
+                throw new SAXParseException( String.format("Expected %s element, got %s", tag, pLocalName), getDocumentLocator());
+            }
+        }
+    }
+
+    /**
+     * the first array parsed on the current thread will be passed to the sink
+     *
+     * @param sink
+     */
+    static void attach( ArraySink sink ) {
+        _SINK.set(sink);
+    }
+
+    /**
+     *
+     * @return true if a sink is waiting for an array on the current thread
+     */
+    static boolean isAttached() {
+        return _SINK.get() != null;
+    }
+
+    static void detach() {
+        _SINK.remove();
+        _STOPPED.remove();
+    }
+
+    /**
+     *
+     * @return true if the parsing on the current thread has been stopped before the end of the response,
+     * so the connection cannot be reused
+     */
+    static boolean isStopped() {
+        return _STOPPED.get() != null;
+    }
+
+    /**
+     *
+     * @param e
+     * @return true if the call failed only because the sink stopped the parsing
+     */
+    static boolean isStopped( Throwable e ) {
+        for( int depth = 0 ; e != null && depth < 10 ; ++depth ) {
+            if( e instanceof Stopped ) {
+                return true;
+            }
+            if( e instanceof XmlRpcException && ((XmlRpcException)e).linkedException != null ) {
+                e = ((XmlRpcException)e).linkedException;
+            }
+            else if( e instanceof SAXException && ((SAXException)e).getException() != null ) {
+                e = ((SAXException)e).getException();
+            }
+            else {
+                e = e.getCause();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * write the stream content as &lt;base64&gt; value
+     */
+    static class InputStreamSerializer extends TypeSerializerImpl {
+
+        @Override
+        public void write(ContentHandler pHandler, Object pObject) throws SAXException {
+
+            pHandler.startElement("", VALUE_TAG, VALUE_TAG, ZERO_ATTRIBUTES);
+            pHandler.startElement("", ByteArraySerializer.BASE_64_TAG, ByteArraySerializer.BASE_64_TAG, ZERO_ATTRIBUTES);
+
+            final InputStream is = (InputStream) pObject;
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            final Base64.Encoder encoder = new Base64.SAXEncoder(new char[BUFFER_SIZE], 0, null, pHandler);
+
+            try {
+                int len;
+                while( (len = is.read(buffer)) != -1 ) {
+                    encoder.write(buffer, 0, len);
+                }
+                encoder.flush();
+            } catch (Base64.SAXIOException e) {
+                throw e.getSAXException();
+            } catch (IOException e) {
+                throw new SAXException(e);
+            }
+
+            pHandler.endElement("", ByteArraySerializer.BASE_64_TAG, ByteArraySerializer.BASE_64_TAG);
+            pHandler.endElement("", VALUE_TAG, VALUE_TAG);
+        }
+
+    }
+
+    StreamingTypeFactory(XmlRpcController pController) {
+        super(pController);
+    }
+
+    @Override
+    public TypeSerializer getSerializer(XmlRpcStreamConfig pConfig, Object pObject) throws SAXException {
+        if( pObject instanceof InputStream ) {
+            return new InputStreamSerializer();
+        }
+        return super.getSerializer(pConfig, pObject);
+    }
+
+    @Override
+    public TypeParser getParser(XmlRpcStreamConfig pConfig, NamespaceContextImpl pContext, String pURI, String pLocalName) {
+        if( "".equals(pURI) && ObjectArraySerializer.ARRAY_TAG.equals(pLocalName) ) {
+            final ArraySink sink = _SINK.get();
+
+            if( sink != null ) {
+                _SINK.remove(); // the nested arrays are parsed as usual
+                return new StreamingArrayParser(pConfig, pContext, this, sink);
+            }
+        }
+        return super.getParser(pConfig, pContext, pURI, pLocalName);
+    }
+
+}
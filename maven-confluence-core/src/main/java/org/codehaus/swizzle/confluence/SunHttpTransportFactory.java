@@ -0,0 +1,175 @@
+package org.codehaus.swizzle.confluence;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URLConnection;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.XmlRpcRequest;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.apache.xmlrpc.client.XmlRpcClientException;
+import org.apache.xmlrpc.client.XmlRpcHttpClientConfig;
+import org.apache.xmlrpc.client.XmlRpcHttpTransportException;
+import org.apache.xmlrpc.client.XmlRpcSunHttpTransport;
+import org.apache.xmlrpc.client.XmlRpcSunHttpTransportFactory;
+import org.apache.xmlrpc.client.XmlRpcTransport;
+import org.apache.xmlrpc.common.XmlRpcStreamRequestConfig;
+import org.xml.sax.SAXException;
+
+/**
+ * Default (not pooled) transport factory.
+ *
+ * When the request isn't buffered to compute its length (content length optional)
+ * the connection is switched to chunked streaming mode, otherwise {@link HttpURLConnection}
+ * would buffer the whole body in memory anyway.
+ *
+ * The bytes sent and received are reported to {@link PayloadCounter}.
+ * If a {@link PayloadCompression} is set the payloads are negotiated gzip encoded (see {@link PayloadExchange}).
+ */
+class SunHttpTransportFactory extends XmlRpcSunHttpTransportFactory {
+
+    static final int CHUNK_SIZE = 32 * 1024;
+
+    static class Transport extends XmlRpcSunHttpTransport {
+
+        private final PayloadExchange payload;
+        private boolean streaming = false;
+
+        Transport(XmlRpcClient pClient, PayloadCompression compression) {
+            super(pClient);
+            this.payload = new PayloadExchange(compression);
+        }
+
+        @Override
+        public Object sendRequest(XmlRpcRequest pRequest) throws XmlRpcException {
+            streaming = !isUsingByteArrayOutput((XmlRpcHttpClientConfig) pRequest.getConfig());
+            payload.start(pRequest);
+            try {
+                return super.sendRequest(pRequest);
+            } catch (XmlRpcHttpTransportException e) {
+                payload.failed(e);
+                throw e;
+            }
+        }
+
+        @Override
+        protected void initHttpHeaders(XmlRpcRequest pRequest) throws XmlRpcClientException {
+            super.initHttpHeaders(pRequest);
+
+            final URLConnection c = getURLConnection();
+
+            if( streaming && c instanceof HttpURLConnection ) {
+                ((HttpURLConnection)c).setChunkedStreamingMode(CHUNK_SIZE);
+            }
+            if( payload.isAcceptingGzip() ) {
+                setRequestHeader("Accept-Encoding", PayloadCompression.GZIP);
+            }
+        }
+
+        @Override
+        protected ReqWriter newReqWriter(XmlRpcRequest pRequest) throws XmlRpcException, IOException, SAXException {
+            if( !payload.isNegotiating() ) {
+                final ReqWriter w = super.newReqWriter(pRequest);
+
+                return new ReqWriter() {
+
+                    @Override
+                    public void write(OutputStream pStream) throws XmlRpcException, IOException, SAXException {
+                        w.write(PayloadCounter.countingContent(pStream));
+                    }
+                };
+            }
+
+            final ReqWriter xml = new ReqWriterImpl(pRequest) {};
+
+            if( !isUsingByteArrayOutput((XmlRpcHttpClientConfig) pRequest.getConfig()) ) {
+                if( payload.startStreamed() ) {
+                    setRequestHeader("Content-Encoding", PayloadCompression.GZIP);
+                }
+                return new ReqWriter() {
+
+                    @Override
+                    public void write(OutputStream pStream) throws XmlRpcException, IOException, SAXException {
+                        xml.write(payload.requestContent(pStream));
+                    }
+                };
+            }
+
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            xml.write(content);
+
+            final byte[] body = payload.requestBody(content);
+            final int length = content.size();
+
+            if( payload.isCompressed() ) {
+                setRequestHeader("Content-Encoding", PayloadCompression.GZIP);
+            }
+            setContentLength(body.length);
+
+            return new ReqWriter() {
+
+                @Override
+                public void write(OutputStream pStream) throws XmlRpcException, IOException, SAXException {
+                    try {
+                        pStream.write(body);
+                        PayloadCounter.contentSent(length);
+                    } finally {
+                        pStream.close();
+                    }
+                }
+            };
+        }
+
+        @Override
+        protected Object readResponse(XmlRpcStreamRequestConfig pConfig, InputStream pStream) throws XmlRpcException {
+            final Object result = super.readResponse(pConfig, payload.responseContent(pStream, isResponseGzipCompressed(pConfig)));
+
+            payload.responseRead();
+
+            return result;
+        }
+
+        @Override
+        protected void writeRequest(final ReqWriter pWriter) throws IOException, XmlRpcException, SAXException {
+            super.writeRequest(new ReqWriter() {
+
+                @Override
+                public void write(OutputStream pStream) throws XmlRpcException, IOException, SAXException {
+                    pWriter.write(PayloadCounter.counting(pStream));
+                }
+            });
+        }
+
+        @Override
+        protected InputStream getInputStream() throws XmlRpcException {
+            return payload.responseWire(super.getInputStream());
+        }
+
+    }
+
+    private volatile PayloadCompression compression;
+
+    SunHttpTransportFactory(XmlRpcClient pClient) {
+        super(pClient);
+    }
+
+    /**
+     *
+     * @param compression gzip negotiation of the next requests. If null the payloads are sent and asked plain
+     */
+    void setCompression(PayloadCompression compression) {
+        this.compression = compression;
+    }
+
+    PayloadCompression getCompression() {
+        return compression;
+    }
+
+    @Override
+    public XmlRpcTransport getTransport() {
+        return new Transport(getClient(), compression);
+    }
+
+}
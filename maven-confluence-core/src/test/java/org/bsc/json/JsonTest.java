@@ -0,0 +1,53 @@
+package org.bsc.json;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JsonTest {
+
+    @Test
+    public void roundTrip() {
+
+        final Map<String,Object> value = new LinkedHashMap<String,Object>();
+        value.put("id", "12345");
+        value.put("version", 3);
+        value.put("labels", Arrays.asList("a", "b \"quoted\""));
+        value.put("empty", null);
+        value.put("multiline", "line1\nline2\ttab");
+
+        final String json = Json.stringify(value);
+
+        Assert.assertThat( json, Is.is("{\"id\":\"12345\",\"version\":3,\"labels\":[\"a\",\"b \\\"quoted\\\"\"],\"empty\":null,\"multiline\":\"line1\\nline2\\ttab\"}"));
+
+        final Map<String,Object> parsed = (Map<String,Object>) Json.parse(json);
+
+        Assert.assertThat( parsed.get("id"), Is.is((Object)"12345") );
+        Assert.assertThat( parsed.get("version"), Is.is((Object)3L) );
+        Assert.assertThat( ((List)parsed.get("labels")).get(1), Is.is((Object)"b \"quoted\"") );
+        Assert.assertThat( parsed.get("empty"), IsNull.nullValue() );
+        Assert.assertThat( parsed.get("multiline"), Is.is((Object)"line1\nline2\ttab") );
+    }
+
+    @Test
+    public void parse() {
+
+        final Object value = Json.parse(" { \"a\" : [ 1, 2.5, true, false, {} , [] ], \"u\":\"\\u0041\" } ");
+
+        final Map<String,Object> map = (Map<String,Object>) value;
+
+        Assert.assertThat( ((List)map.get("a")).size(), Is.is(6) );
+        Assert.assertThat( ((List)map.get("a")).get(1), Is.is((Object)2.5) );
+        Assert.assertThat( map.get("u"), Is.is((Object)"A") );
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalid() {
+        Json.parse("{\"a\":1,}");
+    }
+}
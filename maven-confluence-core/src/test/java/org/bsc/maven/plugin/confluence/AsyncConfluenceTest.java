@@ -0,0 +1,95 @@
+package org.bsc.maven.plugin.confluence;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.codehaus.swizzle.confluence.AsyncConfluence;
+import org.codehaus.swizzle.confluence.Confluence;
+import org.codehaus.swizzle.confluence.ConfluenceException;
+import org.codehaus.swizzle.confluence.Page;
+import org.codehaus.swizzle.confluence.SwizzleException;
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsInstanceOf;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncConfluenceTest {
+
+    static class FakeConfluence extends Confluence {
+
+        FakeConfluence() {
+            super(new XmlRpcClient());
+        }
+
+        @Override
+        public Page getPage(String pageId) throws SwizzleException, ConfluenceException {
+            if( "missing".equals(pageId) ) {
+                throw new ConfluenceException("page not found");
+            }
+            final Page result = new Page(new java.util.HashMap());
+            result.setId(pageId);
+            result.setTitle("title of ".concat(pageId));
+            return result;
+        }
+
+        @Override
+        public Page storePage(Page page) throws SwizzleException, ConfluenceException {
+            page.setTitle( page.getTitle().concat(" - stored") );
+            return page;
+        }
+
+    }
+
+    AsyncConfluence async;
+
+    @Before
+    public void create() {
+        async = new AsyncConfluence( new FakeConfluence(), 2 );
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        async.shutdown(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void chainCalls() throws Exception {
+
+        final AsyncConfluence.Result<Page> page = async.getPage("1");
+
+        final AsyncConfluence.Result<Page> stored = async.then( page, new AsyncConfluence.Task<Page,Page>() {
+
+            @Override
+            public Page execute(Confluence confluence, Page p) throws Exception {
+                return confluence.storePage(p);
+            }
+        });
+
+        Assert.assertThat( stored.get(10, TimeUnit.SECONDS).getTitle(), Is.is("title of 1 - stored") );
+    }
+
+    @Test
+    public void failurePropagation() throws Exception {
+
+        final AsyncConfluence.Result<Page> page = async.getPage("missing");
+
+        final AsyncConfluence.Result<Page> stored = async.then( page, new AsyncConfluence.Task<Page,Page>() {
+
+            @Override
+            public Page execute(Confluence confluence, Page p) throws Exception {
+                Assert.fail("task must not be executed");
+                return null;
+            }
+        });
+
+        try {
+            stored.get(10, TimeUnit.SECONDS);
+            Assert.fail("exception expected");
+        }
+        catch( ExecutionException e ) {
+            Assert.assertThat( e.getCause(), IsInstanceOf.instanceOf(ConfluenceException.class));
+        }
+    }
+}
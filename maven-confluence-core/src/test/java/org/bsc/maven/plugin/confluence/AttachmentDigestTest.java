@@ -0,0 +1,63 @@
+package org.bsc.maven.plugin.confluence;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Random;
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsNull;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AttachmentDigestTest {
+
+    @Test
+    public void fileAndStream() throws Exception {
+
+        // bigger than the buffer and not a multiple of it
+        final byte[] data = new byte[ AttachmentDigest.BUFFER_SIZE * 3 + 123 ];
+        new Random(1).nextBytes(data);
+
+        final File file = File.createTempFile("attachment", ".bin");
+        file.deleteOnExit();
+
+        final FileOutputStream os = new FileOutputStream(file);
+        try {
+            os.write(data);
+        }
+        finally {
+            os.close();
+        }
+
+        final AttachmentDigest fromFile = AttachmentDigest.of(file);
+        final AttachmentDigest fromStream = AttachmentDigest.of(new ByteArrayInputStream(data));
+        final AttachmentDigest fromUri = AttachmentDigest.of(file.toURI());
+
+        Assert.assertThat( fromFile.getSize(), Is.is((long)data.length) );
+        Assert.assertThat( fromFile.getValue().length(), Is.is(64) );
+        Assert.assertThat( fromStream.getValue(), Is.is(fromFile.getValue()) );
+        Assert.assertThat( fromUri.getValue(), Is.is(fromFile.getValue()) );
+
+        file.delete();
+    }
+
+    @Test
+    public void comment() throws Exception {
+
+        final String d1 = AttachmentDigest.of(new ByteArrayInputStream(new byte[] {1})).getValue();
+        final String d2 = AttachmentDigest.of(new ByteArrayInputStream(new byte[] {2})).getValue();
+
+        Assert.assertThat( AttachmentDigest.fromComment(null), IsNull.nullValue() );
+        Assert.assertThat( AttachmentDigest.fromComment("attached by maven-confluence-plugin"), IsNull.nullValue() );
+
+        final String c1 = AttachmentDigest.toComment("attached by maven-confluence-plugin", d1);
+
+        Assert.assertThat( c1, Is.is("attached by maven-confluence-plugin [sha256:" + d1 + "]") );
+        Assert.assertThat( AttachmentDigest.fromComment(c1), Is.is(d1) );
+
+        final String c2 = AttachmentDigest.toComment(c1, d2);
+
+        Assert.assertThat( c2, Is.is("attached by maven-confluence-plugin [sha256:" + d2 + "]") );
+        Assert.assertThat( AttachmentDigest.toComment(null, d1), Is.is("[sha256:" + d1 + "]") );
+    }
+}
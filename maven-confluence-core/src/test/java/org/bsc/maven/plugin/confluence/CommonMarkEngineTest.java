@@ -0,0 +1,117 @@
+package org.bsc.maven.plugin.confluence;
+
+import java.io.IOException;
+import org.bsc.markdown.CommonMarkEngine;
+import org.bsc.markdown.MarkdownToWikiEngine;
+import org.bsc.markdown.MarkdownToWikiEngines;
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CommonMarkEngineTest extends MarkdownToWikiConformance {
+
+    @Override
+    protected MarkdownToWikiEngine newEngine() {
+        return new CommonMarkEngine();
+    }
+
+    @Test
+    public void lookup() {
+        Assert.assertThat( MarkdownToWikiEngines.get("CommonMark", 2000).getName(), Is.is(CommonMarkEngine.NAME) );
+        Assert.assertThat( MarkdownToWikiEngines.get(MarkdownToWikiEngines.DEFAULT, 2000).getName(), Is.is("pegdown") );
+
+        try {
+            MarkdownToWikiEngines.get("unknown", 2000);
+            Assert.fail("unknown engine has been found!");
+        }
+        catch( IllegalArgumentException e ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void commonMarkRules() throws IOException {
+        // not supported by pegdown
+        Assert.assertThat( toWiki("auto <http://x.com> link"), Is.is("auto [http://x.com] link\n") );
+        Assert.assertThat( toWiki("[ref][1] and [1]\n\n[1]: http://x.com 'title'"), Is.is("[ref|http://x.com|title] and [1|http://x.com|title]\n") );
+
+        // a list interrupts a paragraph, unclosed emphasis is text
+        Assert.assertThat( toWiki("para\n* item"), Is.is("para\n\n* item\n\n") );
+        Assert.assertThat( toWiki("**unclosed"), Is.is("**unclosed\n") );
+        Assert.assertThat( toWiki("***\n---"), Is.is("\n\n") );
+    }
+
+    @Test
+    public void linearTime() throws IOException {
+        // pegdown backtracks on the unclosed brackets until its max parsing time
+        final StringBuilder sb = new StringBuilder();
+        for( int i = 0 ; i < 20000 ; ++i ) {
+            sb.append("[*_`<");
+        }
+
+        final long start = System.currentTimeMillis();
+        final String wiki = toWiki(sb.toString());
+
+        Assert.assertThat( wiki.length() > 0, Is.is(true) );
+        Assert.assertThat( System.currentTimeMillis() - start < 2000, Is.is(true) );
+    }
+
+    @Test
+    public void nestedBrackets() throws IOException {
+        final int n = 40000;
+        final StringBuilder nested = new StringBuilder();
+        final StringBuilder links = new StringBuilder();
+        for( int i = 0 ; i < n ; ++i ) {
+            nested.append('[');
+            links.append("[ ");
+        }
+        for( int i = 0 ; i < n ; ++i ) {
+            nested.append(']');
+            links.append("[a](b)");
+        }
+
+        final long start = System.currentTimeMillis();
+
+        Assert.assertThat( toWiki(nested.toString()), Is.is(nested.toString() + "\n") );
+        Assert.assertThat( toWiki(links.toString()).length() > 0, Is.is(true) );
+        Assert.assertThat( System.currentTimeMillis() - start < 2000, Is.is(true) );
+    }
+
+    static String repeat( String s, int n ) {
+        final StringBuilder sb = new StringBuilder();
+        for( int i = 0 ; i < n ; ++i ) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void nestedContainers() throws IOException {
+        final int n = 10000;
+
+        final long start = System.currentTimeMillis();
+
+        // the markers deeper than the max nesting are text
+        for( String marker : new String[] { "> ", "- ", "1. ", "  - " } ) {
+            Assert.assertThat( toWiki(repeat(marker, n) + "x").contains(marker.trim() + " x"), Is.is(true) );
+        }
+
+        final StringBuilder lines = new StringBuilder();
+        for( int i = 0 ; i < 1000 ; ++i ) {
+            lines.append(repeat("  ", i)).append("- x\n");
+        }
+        Assert.assertThat( toWiki(lines.toString()).length() > 0, Is.is(true) );
+        Assert.assertThat( System.currentTimeMillis() - start < 2000, Is.is(true) );
+    }
+
+    @Test
+    public void longLines() throws IOException {
+        final int n = 10000;
+
+        for( String marker : new String[] { "-", "_", "*", "- ", "* " } ) {
+            Assert.assertThat( toWiki(repeat(marker, n)), Is.is("\n") );
+        }
+        Assert.assertThat( toWiki("a|b\n" + repeat("|-", n) + "|").length() > 0, Is.is(true) );
+        Assert.assertThat( toWiki("<a" + repeat(" b", n) + ">").length() > 0, Is.is(true) );
+    }
+}
@@ -0,0 +1,81 @@
+package org.bsc.maven.plugin.confluence;
+
+import org.codehaus.swizzle.confluence.Confluence;
+import org.codehaus.swizzle.confluence.ConfluenceFactory;
+import org.codehaus.swizzle.confluence.HttpConnectionPool;
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsNot;
+import org.hamcrest.core.IsNull;
+import org.hamcrest.core.IsSame;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+
+    @After
+    public void shutdown() {
+        HttpConnectionPool.shutdownAll();
+    }
+
+    @Test
+    public void sharedPool() throws Exception {
+
+        final Confluence.ConnectionPoolInfo poolInfo = new Confluence.ConnectionPoolInfo(4, 4, 1000, 1000, 1000);
+
+        final Confluence c1 = ConfluenceFactory.createInstanceVersion3x("http://localhost:8090", null, poolInfo);
+        final Confluence c2 = ConfluenceFactory.createInstanceVersion4x("http://localhost:8090",
+                                    null,
+                                    new Confluence.ConnectionPoolInfo(4, 4, 1000, 1000, 1000));
+
+        Assert.assertThat( c1.getConnectionPool(), IsNull.notNullValue());
+        Assert.assertThat( c2.getConnectionPool(), IsSame.sameInstance(c1.getConnectionPool()));
+
+        final HttpConnectionPool.Statistics stats = c1.getConnectionPool().getStatistics();
+
+        Assert.assertThat( stats.connectionsInPool, Is.is(0));
+        Assert.assertThat( stats.maxConnectionsPerHost, Is.is(4));
+        Assert.assertThat( stats.requests, Is.is(0L));
+    }
+
+    @Test
+    public void releasedOnLogout() throws Exception {
+
+        final Confluence.ConnectionPoolInfo poolInfo = new Confluence.ConnectionPoolInfo(4, 4, 1000, 1000, 1000);
+
+        final Confluence c1 = ConfluenceFactory.createInstanceVersion3x("http://localhost:8090", null, poolInfo);
+        final Confluence c2 = ConfluenceFactory.createInstanceVersion4x("http://localhost:8090", null, poolInfo);
+
+        final HttpConnectionPool pool = c1.getConnectionPool();
+
+        logout(c1);
+        Assert.assertThat( pool.isShutdown(), Is.is(false));
+
+        logout(c1); // the lease is released once
+        Assert.assertThat( pool.isShutdown(), Is.is(false));
+
+        logout(c2);
+        Assert.assertThat( pool.isShutdown(), Is.is(true));
+
+        final Confluence c3 = ConfluenceFactory.createInstanceVersion3x("http://localhost:8090", null, poolInfo);
+
+        Assert.assertThat( c3.getConnectionPool(), IsNot.not(IsSame.sameInstance(pool)));
+        Assert.assertThat( c3.getConnectionPool().isShutdown(), Is.is(false));
+    }
+
+    private static void logout( Confluence c ) {
+        try {
+            c.logout();
+        } catch (Exception e) {
+            // no server, the pool is released anyway
+        }
+    }
+
+    @Test
+    public void notPooled() throws Exception {
+
+        final Confluence c = ConfluenceFactory.createInstanceVersion3x("http://localhost:8090", null);
+
+        Assert.assertThat( c.getConnectionPool(), IsNull.nullValue());
+    }
+}
@@ -0,0 +1,27 @@
+package org.bsc.maven.plugin.confluence;
+
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsNot;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ContentDigestTest {
+
+    @Test
+    public void normalize() {
+
+        Assert.assertThat( ContentDigest.normalize("h1. title  \r\n\r\ntext\t\r\n\r\n"), Is.is("h1. title\n\ntext") );
+        Assert.assertThat( ContentDigest.normalize(null), Is.is("") );
+    }
+
+    @Test
+    public void digest() {
+
+        final String d = ContentDigest.digest("h1. title\n\ntext");
+
+        Assert.assertThat( d.length(), Is.is(64) );
+        Assert.assertThat( ContentDigest.digest("h1. title \r\n\r\ntext\r\n"), Is.is(d) );
+        Assert.assertThat( ContentDigest.digest("h1. title\n\ntext changed"), IsNot.not(d) );
+    }
+
+}
@@ -0,0 +1,108 @@
+package org.bsc.maven.plugin.confluence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.codehaus.swizzle.confluence.Confluence;
+import org.codehaus.swizzle.confluence.ConfluenceException;
+import org.codehaus.swizzle.confluence.Label;
+import org.codehaus.swizzle.confluence.SwizzleException;
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LabelSynchronizerTest {
+
+    /**
+     * in memory labels of a single page
+     */
+    static class FakeConfluence extends Confluence {
+
+        final Set<String> labels = Collections.synchronizedSet(new TreeSet<String>());
+        final AtomicInteger reads = new AtomicInteger();
+        final AtomicInteger writes = new AtomicInteger();
+
+        FakeConfluence( String... labels ) {
+            super(new XmlRpcClient());
+            this.labels.addAll(Arrays.asList(labels));
+        }
+
+        @Override
+        public List getLabelsById(long objectId) throws SwizzleException, ConfluenceException {
+            reads.incrementAndGet();
+            final List<Label> result = new ArrayList<Label>();
+            synchronized( labels ) {
+                for( String l : labels ) {
+                    final Label label = new Label();
+                    label.setName(l);
+                    result.add(label);
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public boolean addLabelByName(String labelName, long objectId) throws SwizzleException, ConfluenceException {
+            writes.incrementAndGet();
+            return labels.add(labelName.toLowerCase());
+        }
+
+        @Override
+        public boolean removeLabelByName(String labelName, long objectId) throws SwizzleException, ConfluenceException {
+            writes.incrementAndGet();
+            return labels.remove(labelName);
+        }
+    }
+
+    @Test
+    public void diff() {
+
+        final LabelSynchronizer.Delta delta = LabelSynchronizer.diff(
+                Arrays.asList("a", "b", "manual"),
+                Arrays.asList("B", " c ", ""),
+                Arrays.asList("a", "b", "gone"));
+
+        Assert.assertThat( delta.getToAdd(), Is.is((Set<String>)new TreeSet<String>(Arrays.asList("c"))) );
+        Assert.assertThat( delta.getToRemove(), Is.is((Set<String>)new TreeSet<String>(Arrays.asList("a"))) );
+    }
+
+    @Test
+    public void unchangedCostsNoWrite() throws Exception {
+
+        final FakeConfluence confluence = new FakeConfluence("doc", "maven");
+
+        final LabelSynchronizer.Delta delta = new LabelSynchronizer(confluence)
+                .synchronize("1", Arrays.asList("Maven", "doc"), null);
+
+        Assert.assertThat( delta.isEmpty(), Is.is(true) );
+        Assert.assertThat( confluence.reads.get(), Is.is(1) );
+        Assert.assertThat( confluence.writes.get(), Is.is(0) );
+    }
+
+    @Test
+    public void concurrentDelta() throws Exception {
+
+        final FakeConfluence confluence = new FakeConfluence("old", "manual");
+
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            final LabelSynchronizer sync = new LabelSynchronizer(confluence, executor);
+
+            sync.synchronize("1", Arrays.asList("a", "b", "c"), Arrays.asList("old"));
+
+            Assert.assertThat( confluence.labels, Is.is((Set<String>)new TreeSet<String>(Arrays.asList("a", "b", "c", "manual"))) );
+            Assert.assertThat( sync.getLabelsAdded(), Is.is(3) );
+            Assert.assertThat( sync.getLabelsRemoved(), Is.is(1) );
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.bsc.maven.plugin.confluence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.apache.commons.io.IOUtils;
+import org.bsc.markdown.MarkdownToWikiEngine;
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Conformance suite of the markdown engines: each engine must write the same wiki
+ * for the documents of {@link PegdownTest} and for the snippets below
+ */
+public abstract class MarkdownToWikiConformance {
+
+    protected abstract MarkdownToWikiEngine newEngine();
+
+    protected String toWiki( String markdown ) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        newEngine().toWiki(markdown.toCharArray(), "test.md", sb);
+        return sb.toString();
+    }
+
+    private static String loadResource( String name ) throws IOException {
+        final InputStream is = MarkdownToWikiConformance.class.getClassLoader().getResourceAsStream(name);
+        try {
+            return IOUtils.toString(is, "UTF-8");
+        }
+        finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    private void document( String name ) throws IOException {
+        final String expected = loadResource(name + ".wiki");
+
+        Assert.assertThat( toWiki(loadResource(name + ".md")), Is.is(expected) );
+    }
+
+    @Test
+    public void test1() throws IOException {
+        document("TEST1");
+    }
+
+    @Test
+    public void gettingStarted() throws IOException {
+        document("getting_started");
+    }
+
+    @Test
+    public void readme() throws IOException {
+        document("README");
+    }
+
+    @Test
+    public void headings() throws IOException {
+        Assert.assertThat( toWiki("# H1 #\n## H2 ##  \n### *em* head"), Is.is("h1. H1\nh2. H2\nh3. *em* head\n") );
+        Assert.assertThat( toWiki("Setext\n======\n\nTwo\n---"), Is.is("h1. Setext\nh2. Two\n") );
+    }
+
+    @Test
+    public void paragraphs() throws IOException {
+        Assert.assertThat( toWiki("line one\nline two"), Is.is("line one line two\n") );
+        Assert.assertThat( toWiki("a   b  \nc"), Is.is("a b\nc\n") );
+        Assert.assertThat( toWiki("text\n\n---\n\ntext"), Is.is("text\n\ntext\n") );
+    }
+
+    @Test
+    public void inlines() throws IOException {
+        Assert.assertThat( toWiki("*em* and _em_ and **st** and __st__ and ~~del~~"), Is.is("*em* and _em_ and *st* and *st* and -del-\n") );
+        Assert.assertThat( toWiki("snake_case_word and a * b"), Is.is("snake_case_word and a * b\n") );
+        Assert.assertThat( toWiki("`a` `` b ` c ``"), Is.is("{{a}}\n {{b ` c}}\n\n") );
+        Assert.assertThat( toWiki("a \\* b \\_ c \\[ d \\]"), Is.is("a * b _ c \\[ d \\]\n") );
+        Assert.assertThat( toWiki("text <b>bold</b> end"), Is.is("text bold end\n") );
+    }
+
+    @Test
+    public void links() throws IOException {
+        Assert.assertThat( toWiki("[a](http://x.com \"t\") [b](/rel) [c] {jira:[KPOR-555]}"),
+                Is.is("[a|http://x.com|t] [b|/rel|] [c] {jira:[KPOR-555]}\n") );
+        Assert.assertThat( toWiki("![i](img.png) ![i](http://h/img.png \"t\")"), Is.is("!i! !http://h/img.png!\n") );
+    }
+
+    @Test
+    public void lists() throws IOException {
+        Assert.assertThat( toWiki("* a\n    * b\n    * c\n* d"), Is.is("\n* a\n* b\n* c\n\n\n* d\n\n") );
+        Assert.assertThat( toWiki("1. one\n2. two\n\npara"), Is.is("\n# one\n# two\n\npara\n") );
+        Assert.assertThat( toWiki("* a\n\n* b"), Is.is("\n* a\n\n* b\n\n\n") );
+    }
+
+    @Test
+    public void code() throws IOException {
+        Assert.assertThat( toWiki("    indented code\n    more"), Is.is("{noformat}\nindented code\nmore\n\n{noformat}\n") );
+        Assert.assertThat( toWiki("```\nx\n```"), Is.is("{noformat}x\n{noformat}\n") );
+        Assert.assertThat( toWiki("~~~java\nx\ny\n~~~"), Is.is("{code:java}\nx\ny\n\n{code}\n") );
+    }
+
+    @Test
+    public void quotes() throws IOException {
+        Assert.assertThat( toWiki("> a\nlazy"), Is.is("\nbq. a lazy\n\n") );
+        Assert.assertThat( toWiki("> a\n\n> b"), Is.is("\n{quote}\na\nb\n\n{quote}\n") );
+        Assert.assertThat( toWiki("> # head\n> * a\n> * b"), Is.is("\n{quote}\nh1. head\n\n* a\n* b\n\n\n{quote}\n") );
+    }
+
+    @Test
+    public void specialPanels() throws IOException {
+        Assert.assertThat( toWiki("> **Note:** title here\n>> body line\n>> second"), Is.is("{note:title=title here}body line second\n{note}\n") );
+        Assert.assertThat( toWiki("> **warning:**\n>> body"), Is.is("{warning:title=}body\n{warning}\n") );
+        Assert.assertThat( toWiki("> **Note: inline**\n>> body"), Is.is("\n{quote}\n*Note: inline*\n\nbq. body\n\n\n{quote}\n") );
+    }
+
+    @Test
+    public void tables() throws IOException {
+        Assert.assertThat( toWiki("a | b\n--|--\n1 | 2"), Is.is("||a ||b||\n|1 |2|\n") );
+        Assert.assertThat( toWiki("| a | b |\n|:--|--:|\n| **x** |  |\nafter"), Is.is("||a ||b ||\n|*x* | |\nafter\n") );
+    }
+}
@@ -0,0 +1,13 @@
+package org.bsc.maven.plugin.confluence;
+
+import org.bsc.markdown.MarkdownToWikiEngine;
+import org.bsc.markdown.PegDownEngine;
+
+public class PegDownEngineTest extends MarkdownToWikiConformance {
+
+    @Override
+    protected MarkdownToWikiEngine newEngine() {
+        return new PegDownEngine();
+    }
+
+}
@@ -0,0 +1,87 @@
+package org.bsc.maven.plugin.confluence;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.bsc.markdown.PegDownProcessorPool;
+import org.bsc.markdown.ToConfluenceSerializer;
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Test;
+import org.pegdown.ast.HeaderNode;
+import org.pegdown.ast.RootNode;
+
+public class PegDownProcessorPoolTest {
+
+    @Test
+    public void reuse() throws Exception {
+        final PegDownProcessorPool pool = new PegDownProcessorPool(ToConfluenceSerializer.extensions(), 2000);
+
+        pool.warmUp(1);
+        Assert.assertThat( pool.getCreated(), Is.is(1) );
+
+        for( int i = 0 ; i < 3 ; ++i ) {
+            final RootNode root = pool.parse("# title\n\ntext".toCharArray(), "test.md");
+            Assert.assertThat( root.getChildren().get(0) instanceof HeaderNode, Is.is(true) );
+        }
+        Assert.assertThat( pool.getCreated(), Is.is(1) );
+
+        Assert.assertThat( PegDownProcessorPool.shared(ToConfluenceSerializer.extensions(), 2000),
+                Is.is(PegDownProcessorPool.shared(ToConfluenceSerializer.extensions(), 2000)) );
+    }
+
+    @Test
+    public void concurrent() throws Exception {
+        final PegDownProcessorPool pool = new PegDownProcessorPool(ToConfluenceSerializer.extensions(), 2000);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<RootNode>> results = new ArrayList<Future<RootNode>>();
+            for( int i = 0 ; i < 16 ; ++i ) {
+                final String source = "# page " + i + "\n\n* item **" + i + "**\n";
+                results.add( executor.submit(new Callable<RootNode>() {
+
+                    @Override
+                    public RootNode call() throws Exception {
+                        return pool.parse(source.toCharArray(), "page.md");
+                    }
+                }));
+            }
+            for( Future<RootNode> r : results ) {
+                Assert.assertThat( r.get().getChildren().size(), Is.is(2) );
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        Assert.assertThat( pool.getCreated() <= 4, Is.is(true) );
+    }
+
+    @Test
+    public void maxParsingTime() throws Exception {
+        final PegDownProcessorPool pool = new PegDownProcessorPool(ToConfluenceSerializer.extensions(), 100);
+        pool.warmUp(1);
+
+        // unclosed brackets make pegdown backtrack exponentially
+        final StringBuilder sb = new StringBuilder();
+        for( int i = 0 ; i < 30 ; ++i ) {
+            sb.append('[');
+        }
+
+        try {
+            pool.parse(sb.toString().toCharArray(), "big.md");
+            Assert.fail("expected exception");
+        }
+        catch( IOException e ) {
+            Assert.assertThat( e.getMessage().startsWith("markdown [big.md] has not been parsed within [100] ms!"), Is.is(true) );
+        }
+
+        // the processor is still usable
+        Assert.assertThat( pool.parse("text".toCharArray(), "small.md").getChildren().size(), Is.is(1) );
+        Assert.assertThat( pool.getCreated(), Is.is(1) );
+    }
+}
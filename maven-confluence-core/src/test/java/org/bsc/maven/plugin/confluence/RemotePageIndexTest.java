@@ -0,0 +1,168 @@
+package org.bsc.maven.plugin.confluence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.codehaus.swizzle.confluence.Confluence;
+import org.codehaus.swizzle.confluence.ConfluenceException;
+import org.codehaus.swizzle.confluence.Page;
+import org.codehaus.swizzle.confluence.PageSummary;
+import org.codehaus.swizzle.confluence.SwizzleException;
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsNull;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RemotePageIndexTest {
+
+    /**
+     * in memory confluence that count the remote calls
+     */
+    static class FakeConfluence extends Confluence {
+
+        final Map<String,Page> pages = new HashMap<String,Page>();
+        final Map<String,Integer> calls = new HashMap<String,Integer>();
+        int nextId = 100;
+
+        FakeConfluence() {
+            super(new XmlRpcClient());
+        }
+
+        void called( String method ) {
+            final Integer n = calls.get(method);
+            calls.put(method, (n==null) ? 1 : n+1 );
+        }
+
+        int calls( String method ) {
+            final Integer n = calls.get(method);
+            return (n==null) ? 0 : n;
+        }
+
+        Page add( String id, String parentId, String title ) {
+            final Page p = new Page(new HashMap());
+            p.setId(id);
+            p.setParentId(parentId);
+            p.setSpace("TEST");
+            p.setTitle(title);
+            pages.put(id, p);
+            return p;
+        }
+
+        @Override
+        public List getDescendents(String pageId) throws SwizzleException, ConfluenceException {
+            called("getDescendents");
+            final List<PageSummary> result = new ArrayList<PageSummary>();
+            collect(pageId, result);
+            return result;
+        }
+
+        private void collect( String pageId, List<PageSummary> result ) {
+            for( Page p : pages.values() ) {
+                if( pageId.equals(p.getParentId())) {
+                    final PageSummary s = new PageSummary(p.toRawMap());
+                    result.add(s);
+                    collect(p.getId(), result);
+                }
+            }
+        }
+
+        @Override
+        public List getChildren(String pageId) throws SwizzleException, ConfluenceException {
+            called("getChildren");
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Page getPage(String pageId) throws SwizzleException, ConfluenceException {
+            called("getPage");
+            return new Page(pages.get(pageId).toRawMap());
+        }
+
+        @Override
+        public Page getPage(String spaceKey, String pageTitle) throws SwizzleException, ConfluenceException {
+            called("getPage");
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Page storePage(Page page) throws SwizzleException, ConfluenceException {
+            called("storePage");
+            if( page.getId() == null ) {
+                page.setId( String.valueOf(nextId++) );
+            }
+            pages.put(page.getId(), page);
+            return new Page(page.toRawMap());
+        }
+
+        @Override
+        public void removePage(String pageId) throws SwizzleException, ConfluenceException {
+            called("removePage");
+            final Page removed = pages.remove(pageId);
+            for( Page p : pages.values() ) {
+                if( pageId.equals(p.getParentId())) {
+                    p.setParentId(removed.getParentId());
+                }
+            }
+        }
+
+    }
+
+    FakeConfluence confluence;
+    Page root;
+
+    @Before
+    public void setup() {
+        confluence = new FakeConfluence();
+        root = confluence.add("1", "0", "Home");
+        confluence.add("2", "1", "Home - A");
+        confluence.add("3", "1", "Home - B");
+        confluence.add("4", "3", "Home - B1");
+    }
+
+    @Test
+    public void lookupFromMemory() throws Exception {
+
+        final RemotePageIndex index = RemotePageIndex.load(confluence, root);
+
+        Assert.assertThat( index.size(), Is.is(4) );
+        Assert.assertThat( confluence.calls("getDescendents"), Is.is(1) );
+
+        Assert.assertThat( index.findPageByTitle("3", "Home - B1").getId(), Is.is("4") );
+        Assert.assertThat( index.findPageByTitle("1", "Home - B1"), IsNull.nullValue() );
+
+        final Page existing = index.getOrCreatePage("Home", "Home - A");
+        Assert.assertThat( existing.getId(), Is.is("2") );
+
+        final Page created = index.getOrCreatePage("Home - B", "Home - B2");
+        Assert.assertThat( created.getId(), IsNull.nullValue() );
+        Assert.assertThat( created.getParentId(), Is.is("3") );
+
+        // only the existing page has been fetched
+        Assert.assertThat( confluence.calls("getPage"), Is.is(1) );
+        Assert.assertThat( confluence.calls("getChildren"), Is.is(0) );
+    }
+
+    @Test
+    public void updateOnStoreAndRemove() throws Exception {
+
+        final RemotePageIndex index = RemotePageIndex.load(confluence, root);
+
+        final Page stored = index.storePage( index.getOrCreatePage("Home - B", "Home - B2") );
+
+        Assert.assertThat( index.findPageByTitle("3", "Home - B2").getId(), Is.is(stored.getId()) );
+        Assert.assertThat( index.size(), Is.is(5) );
+
+        Assert.assertThat( index.removePage("Home", "Home - B"), Is.is(true) );
+        Assert.assertThat( index.removePage("Home", "Home - B"), Is.is(false) );
+        Assert.assertThat( confluence.calls("removePage"), Is.is(1) );
+
+        Assert.assertThat( index.getPageByTitle("Home - B"), IsNull.nullValue() );
+        // children moved under the parent of the removed page
+        Assert.assertThat( index.findPageByTitle("1", "Home - B1").getId(), Is.is("4") );
+        Assert.assertThat( index.findPageByTitle("1", "Home - B2").getId(), Is.is(stored.getId()) );
+    }
+
+}
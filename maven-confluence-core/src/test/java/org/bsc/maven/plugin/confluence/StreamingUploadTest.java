@@ -0,0 +1,120 @@
+package org.bsc.maven.plugin.confluence;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.ws.commons.util.Base64;
+import org.codehaus.swizzle.confluence.Attachment;
+import org.codehaus.swizzle.confluence.Confluence;
+import org.codehaus.swizzle.confluence.ConfluenceFactory;
+import org.codehaus.swizzle.confluence.HttpConnectionPool;
+import org.hamcrest.core.Is;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingUploadTest {
+
+    static final Pattern BASE64 = Pattern.compile("<base64>([^<]*)</base64>");
+
+    static final String RESPONSE =
+            "<?xml version=\"1.0\"?><methodResponse><params><param><value><struct>" +
+            "<member><name>id</name><value>100</value></member>" +
+            "<member><name>fileName</name><value>data.bin</value></member>" +
+            "</struct></value></param></params></methodResponse>";
+
+    HttpServer server;
+
+    volatile String transferEncoding;
+    volatile byte[] received;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/rpc/xmlrpc", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                transferEncoding = exchange.getRequestHeaders().getFirst("Transfer-Encoding");
+
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                final InputStream is = exchange.getRequestBody();
+                final byte[] buffer = new byte[4096];
+                int len;
+                while( (len = is.read(buffer)) != -1 ) {
+                    body.write(buffer, 0, len);
+                }
+
+                final Matcher m = BASE64.matcher(body.toString("UTF-8"));
+                received = ( m.find() ) ? Base64.decode(m.group(1).replaceAll("\\s", "")) : null;
+
+                final byte[] response = RESPONSE.getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "text/xml");
+                exchange.sendResponseHeaders(200, response.length);
+                final OutputStream os = exchange.getResponseBody();
+                os.write(response);
+                os.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        HttpConnectionPool.shutdownAll();
+    }
+
+    String getUrl() {
+        return String.format("http://localhost:%d", server.getAddress().getPort());
+    }
+
+    byte[] newData( int size ) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    void upload( Confluence confluence ) throws Exception {
+
+        // not a multiple of the encoder buffer, to check the last partial block
+        final byte[] data = newData( 1024 * 1024 + 17 );
+
+        final Attachment a = new Attachment();
+        a.setFileName("data.bin");
+        a.setContentType("application/octet-stream");
+
+        final Attachment result = confluence.addAttachment(10L, a, new ByteArrayInputStream(data));
+
+        Assert.assertThat( result.getId(), Is.is("100") );
+        Assert.assertThat( transferEncoding, Is.is("chunked") );
+        Assert.assertThat( received != null, Is.is(true) );
+        Assert.assertThat( received.length, Is.is(data.length) );
+        Assert.assertThat( Arrays.equals(received, data), Is.is(true) );
+    }
+
+    @Test
+    public void streamingUpload() throws Exception {
+
+        upload( ConfluenceFactory.createInstanceVersion3x(getUrl(), null) );
+    }
+
+    @Test
+    public void streamingUploadPooled() throws Exception {
+
+        upload( ConfluenceFactory.createInstanceVersion3x(getUrl(), null,
+                    new Confluence.ConnectionPoolInfo(2, 2, 1000, 5000, 5000)) );
+    }
+
+}
@@ -0,0 +1,238 @@
+package org.codehaus.swizzle.confluence;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.xmlrpc.XmlRpcException;
+import org.apache.xmlrpc.client.XmlRpcHttpTransportException;
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CallPolicyTest {
+
+    /**
+     * call that fails the given number of times
+     */
+    static class FailingCall implements CallPolicy.Call {
+        final AtomicInteger attempts = new AtomicInteger();
+        final int failures;
+        final Exception error;
+
+        FailingCall(int failures, Exception error) {
+            this.failures = failures;
+            this.error = error;
+        }
+
+        @Override
+        public Object execute() throws XmlRpcException {
+            if( attempts.incrementAndGet() <= failures ) {
+                if( error instanceof XmlRpcException ) {
+                    throw (XmlRpcException) error;
+                }
+                throw new XmlRpcException("transport failure", error);
+            }
+            return "ok";
+        }
+    }
+
+    @Test
+    public void retryIdempotent() throws Exception {
+
+        final CallPolicy policy = new CallPolicy(0, 0, 3, 1, 10, 0, 0);
+        final FailingCall call = new FailingCall(2, new SocketTimeoutException("Read timed out"));
+
+        Assert.assertThat( policy.execute(call, true, true), Is.is((Object)"ok") );
+        Assert.assertThat( call.attempts.get(), Is.is(3) );
+        Assert.assertThat( policy.getRetries(), Is.is(2L) );
+    }
+
+    @Test
+    public void noRetryOfProcessedWrites() throws Exception {
+
+        final CallPolicy policy = new CallPolicy(0, 0, 3, 1, 10, 0, 0);
+
+        final FailingCall readTimeout = new FailingCall(1, new SocketTimeoutException("Read timed out"));
+        try {
+            policy.execute(readTimeout, false, true);
+            Assert.fail("exception expected");
+        }
+        catch( XmlRpcException e ) {
+            Assert.assertThat( readTimeout.attempts.get(), Is.is(1) );
+        }
+
+        final FailingCall refused = new FailingCall(1, new ConnectException("Connection refused"));
+        Assert.assertThat( policy.execute(refused, false, true), Is.is((Object)"ok") );
+
+        final FailingCall unavailable = new FailingCall(1, new XmlRpcHttpTransportException(503, "Service Unavailable"));
+        Assert.assertThat( policy.execute(unavailable, false, true), Is.is((Object)"ok") );
+
+        final FailingCall streamed = new FailingCall(1, new ConnectException("Connection refused"));
+        try {
+            policy.execute(streamed, true, false);
+            Assert.fail("exception expected");
+        }
+        catch( XmlRpcException e ) {
+            Assert.assertThat( streamed.attempts.get(), Is.is(1) );
+        }
+    }
+
+    @Test
+    public void noRetryOfFaults() throws Exception {
+
+        final CallPolicy policy = new CallPolicy(0, 0, 3, 1, 10, 0, 0);
+        final FailingCall fault = new FailingCall(1, new XmlRpcException(0, "page doesn't exist"));
+
+        try {
+            policy.execute(fault, true, true);
+            Assert.fail("exception expected");
+        }
+        catch( XmlRpcException e ) {
+            Assert.assertThat( fault.attempts.get(), Is.is(1) );
+        }
+    }
+
+    @Test
+    public void circuitBreakerPauses() throws Exception {
+
+        final long openTime = 300;
+        final CallPolicy policy = new CallPolicy(0, 0, 2, 1, 1, 2, openTime);
+
+        // two failures open the circuit, the retry waits for the trial
+        final FailingCall call = new FailingCall(2, new IOException("Connection reset"));
+
+        final long start = System.currentTimeMillis();
+
+        Assert.assertThat( policy.execute(call, true, true), Is.is((Object)"ok") );
+
+        Assert.assertThat( System.currentTimeMillis() - start >= openTime - 20, Is.is(true) );
+        Assert.assertThat( policy.getCircuitOpenings(), Is.is(1L) );
+    }
+
+    /**
+     * open the circuit and wait the end of the pause
+     */
+    private static void openCircuit( CallPolicy policy, long openTime ) throws Exception {
+        try {
+            policy.execute(new FailingCall(1, new IOException("Connection reset")), true, false);
+            Assert.fail("exception expected");
+        }
+        catch( XmlRpcException e ) {
+            Assert.assertThat( policy.getCircuitOpenings(), Is.is(1L) );
+        }
+        Thread.sleep( openTime + 20 );
+    }
+
+    /**
+     *
+     * @return true if a call has completed within the timeout
+     */
+    private static boolean callCompletes( final CallPolicy policy, long timeout ) throws Exception {
+        final AtomicInteger done = new AtomicInteger();
+        final Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    policy.execute(new FailingCall(0, null), true, true);
+                    done.incrementAndGet();
+                } catch (XmlRpcException e) {
+                    // not completed
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+        t.join(timeout);
+        return done.get() == 1;
+    }
+
+    @Test
+    public void circuitBreakerTrialInterrupted() throws Exception {
+
+        final long openTime = 50;
+        final CallPolicy policy = new CallPolicy(0, 1, 0, 0, 0, 1, openTime);
+
+        openCircuit(policy, openTime);
+
+        // the trial is interrupted waiting the in-flight permit
+        Thread.currentThread().interrupt();
+        try {
+            policy.execute(new FailingCall(0, null), true, true);
+            Assert.fail("exception expected");
+        }
+        catch( XmlRpcException e ) {
+            Assert.assertThat( Thread.interrupted(), Is.is(true) );
+        }
+
+        Assert.assertThat( callCompletes(policy, 2000), Is.is(true) );
+    }
+
+    @Test
+    public void circuitBreakerTrialError() throws Exception {
+
+        final long openTime = 50;
+        final CallPolicy policy = new CallPolicy(0, 0, 0, 0, 0, 1, openTime);
+
+        openCircuit(policy, openTime);
+
+        try {
+            policy.execute(new CallPolicy.Call() {
+                @Override
+                public Object execute() throws XmlRpcException {
+                    throw new OutOfMemoryError("test");
+                }
+            }, true, true);
+            Assert.fail("error expected");
+        }
+        catch( OutOfMemoryError e ) {
+            // the outcome of the trial is unknown
+        }
+
+        Assert.assertThat( callCompletes(policy, 2000), Is.is(true) );
+    }
+
+    @Test
+    public void rateLimiter() throws Exception {
+
+        final CallPolicy policy = new CallPolicy(20, 1, 0, 0, 0, 0, 0);
+
+        final long start = System.currentTimeMillis();
+
+        for( int i = 0 ; i < 30 ; ++i ) {
+            policy.execute(new FailingCall(0, null), true, true);
+        }
+
+        // burst of 20 then 10 more at 20/s
+        Assert.assertThat( System.currentTimeMillis() - start >= 400, Is.is(true) );
+        Assert.assertThat( policy.getThrottled() > 0, Is.is(true) );
+    }
+
+    @Test
+    public void countersSince() throws Exception {
+
+        final CallPolicy policy = new CallPolicy(0, 0, 3, 1, 10, 0, 0);
+        policy.execute(new FailingCall(1, new SocketTimeoutException("Read timed out")), true, true);
+
+        final CallPolicy.Counters start = policy.getCounters();
+        policy.execute(new FailingCall(0, null), true, true);
+
+        final CallPolicy.Counters since = policy.getCounters().since(start);
+        Assert.assertThat( since.calls, Is.is(1L) );
+        Assert.assertThat( since.retries, Is.is(0L) );
+        Assert.assertThat( policy.getCounters().calls, Is.is(3L) );
+    }
+
+    @Test
+    public void backoff() {
+
+        final CallPolicy policy = new CallPolicy(0, 0, 5, 100, 1000, 0, 0);
+
+        for( int attempt = 0 ; attempt < 6 ; ++attempt ) {
+            final long expected = Math.min(1000, 100L << attempt);
+            final long b = policy.backoff(attempt);
+
+            Assert.assertThat( b >= expected / 2 && b <= expected, Is.is(true) );
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package org.codehaus.swizzle.confluence;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bsc.json.Json;
+import org.hamcrest.core.Is;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CallStatisticsTest {
+
+    static final String RESPONSE =
+            "<?xml version=\"1.0\"?><methodResponse><params><param><value><struct>" +
+            "<member><name>id</name><value>1</value></member>" +
+            "<member><name>title</name><value>Home</value></member>" +
+            "</struct></value></param></params></methodResponse>";
+
+    HttpServer server;
+
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicLong requestBytes = new AtomicLong();
+    final AtomicLong responseBytes = new AtomicLong();
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/rpc/xmlrpc", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final InputStream is = exchange.getRequestBody();
+                final byte[] buffer = new byte[4096];
+                int len;
+                while( (len = is.read(buffer)) != -1 ) {
+                    requestBytes.addAndGet(len);
+                }
+
+                if( requests.incrementAndGet() == 3 ) {
+                    exchange.sendResponseHeaders(500, -1);
+                    exchange.close();
+                    return;
+                }
+
+                final byte[] response = RESPONSE.getBytes("UTF-8");
+                responseBytes.addAndGet(response.length);
+                exchange.getResponseHeaders().add("Content-Type", "text/xml");
+                exchange.sendResponseHeaders(200, response.length);
+                final OutputStream os = exchange.getResponseBody();
+                os.write(response);
+                os.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        HttpConnectionPool.shutdownAll();
+    }
+
+    String getUrl() {
+        return String.format("http://localhost:%d", server.getAddress().getPort());
+    }
+
+    CallEvent event( String command, long millis ) {
+        return new CallEvent("confluence1.", command, millis * 1000000L, 10, 20, null);
+    }
+
+    @Test
+    public void histogram() {
+
+        for( long v = 0 ; v < 100000 ; v += 7 ) {
+            final int index = CallStatistics.Histogram.indexOf(v);
+            Assert.assertThat( CallStatistics.Histogram.upperBoundOf(index) >= v, Is.is(true) );
+            Assert.assertThat( CallStatistics.Histogram.upperBoundOf(index) <= v + v / 16, Is.is(true) );
+        }
+        Assert.assertThat( CallStatistics.Histogram.indexOf(Long.MAX_VALUE) < new CallStatistics.Histogram().counts.length, Is.is(true) );
+    }
+
+    @Test
+    public void percentiles() {
+
+        final CallStatistics stats = new CallStatistics();
+
+        for( int i = 1 ; i <= 100 ; ++i ) {
+            stats.callCompleted( event("getPage", i) );
+        }
+        stats.callCompleted( event("storePage", 1000) );
+
+        final List<CallStatistics.Command> commands = stats.getCommands();
+
+        Assert.assertThat( commands.size(), Is.is(2) );
+
+        final CallStatistics.Command getPage = commands.get(0);
+
+        Assert.assertThat( getPage.getName(), Is.is("getPage") );
+        Assert.assertThat( getPage.getCount(), Is.is(100L) );
+        Assert.assertEquals( 50.0, getPage.getLatency(50), 50.0 / 16 );
+        Assert.assertEquals( 95.0, getPage.getLatency(95), 95.0 / 16 );
+        Assert.assertEquals( 99.0, getPage.getLatency(99), 99.0 / 16 );
+        Assert.assertEquals( 100.0, getPage.getMaxLatency(), 0.001 );
+
+        final CallStatistics.Command total = stats.getTotal();
+
+        Assert.assertThat( total.getCount(), Is.is(101L) );
+        Assert.assertThat( total.getRequestBytes(), Is.is(1010L) );
+        Assert.assertThat( total.getResponseBytes(), Is.is(2020L) );
+        Assert.assertEquals( 1000.0, total.getMaxLatency(), 0.001 );
+    }
+
+    @Test
+    public void writeJson() throws Exception {
+
+        final CallStatistics stats = new CallStatistics();
+        stats.callCompleted( event("getPage", 5) );
+
+        final StringBuilder sb = new StringBuilder();
+        stats.writeJson(sb);
+
+        final Map<?,?> root = (Map<?,?>) Json.parse(sb);
+        final Map<?,?> getPage = (Map<?,?>) root.get("getPage");
+
+        Assert.assertThat( root.containsKey(CallStatistics.TOTAL), Is.is(true) );
+        Assert.assertThat( ((Number)getPage.get("calls")).longValue(), Is.is(1L) );
+        Assert.assertThat( ((Number)getPage.get("requestBytes")).longValue(), Is.is(10L) );
+    }
+
+    void countPayload( Confluence confluence ) throws Exception {
+
+        final CallStatistics stats = new CallStatistics();
+        confluence.addCallListener(stats);
+
+        confluence.getPage("1");
+        confluence.getPage("1");
+        try {
+            confluence.getPage("1");
+            Assert.fail("expected error");
+        }
+        catch( SwizzleException e ) {
+            // expected
+        }
+
+        final CallStatistics.Command getPage = stats.getCommands().get(0);
+
+        Assert.assertThat( getPage.getName(), Is.is("getPage") );
+        Assert.assertThat( getPage.getCount(), Is.is(3L) );
+        Assert.assertThat( getPage.getErrors(), Is.is(1L) );
+        Assert.assertThat( getPage.getRequestBytes(), Is.is(requestBytes.get()) );
+        Assert.assertThat( getPage.getResponseBytes(), Is.is(responseBytes.get()) );
+    }
+
+    @Test
+    public void countPayload() throws Exception {
+
+        countPayload( ConfluenceFactory.createInstanceVersion3x(getUrl(), null) );
+    }
+
+    @Test
+    public void countPayloadPooled() throws Exception {
+
+        countPayload( ConfluenceFactory.createInstanceVersion3x(getUrl(), null,
+                    new Confluence.ConnectionPoolInfo(2, 2, 1000, 5000, 5000)) );
+    }
+}
@@ -0,0 +1,250 @@
+package org.codehaus.swizzle.confluence;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.hamcrest.core.Is;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * the stub server decodes the gzip requests and answers gzip encoded if asked.
+ * If {@link #refuse} is set the gzip requests are refused with {@link #refuseStatus}
+ */
+public class CompressionTest {
+
+    static final String CONTENT;
+
+    static {
+        final StringBuilder sb = new StringBuilder();
+        for( int i = 0 ; i < 200 ; ++i ) {
+            sb.append("<p>lorem ipsum dolor sit amet ").append(i % 10).append("</p>");
+        }
+        CONTENT = sb.toString();
+    }
+
+    HttpServer server;
+
+    final AtomicInteger gzipRequests = new AtomicInteger();
+    final AtomicInteger gzipResponses = new AtomicInteger();
+    volatile boolean refuse = false;
+    volatile int refuseStatus = 415;
+
+    static byte[] read( InputStream is ) throws IOException {
+        final ByteArrayOutputStream result = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int n;
+        while( (n = is.read(buffer)) != -1 ) {
+            result.write(buffer, 0, n);
+        }
+        return result.toByteArray();
+    }
+
+    static String escape( String value ) {
+        return value.replace("&", "&amp;").replace("<", "&lt;");
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/rpc/xmlrpc", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream is = exchange.getRequestBody();
+
+                if( "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding")) ) {
+                    gzipRequests.incrementAndGet();
+                    if( refuse ) {
+                        read(is);
+                        exchange.sendResponseHeaders(refuseStatus, -1);
+                        exchange.close();
+                        return;
+                    }
+                    is = new GZIPInputStream(is);
+                }
+                read(is);
+
+                final String result = "<?xml version=\"1.0\"?><methodResponse><params><param><value><struct>" +
+                        "<member><name>id</name><value>10</value></member>" +
+                        "<member><name>content</name><value>" + escape(CONTENT) + "</value></member>" +
+                        "</struct></value></param></params></methodResponse>";
+
+                byte[] data = result.getBytes("UTF-8");
+
+                final String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+
+                if( accept != null && accept.contains("gzip") ) {
+                    gzipResponses.incrementAndGet();
+
+                    final ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+                    final OutputStream os = new GZIPOutputStream(gzip);
+                    os.write(data);
+                    os.close();
+                    data = gzip.toByteArray();
+                    exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                }
+                exchange.getResponseHeaders().add("Content-Type", "text/xml");
+                exchange.sendResponseHeaders(200, data.length);
+                exchange.getResponseBody().write(data);
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    String getUrl() {
+        return String.format("http://localhost:%d", server.getAddress().getPort());
+    }
+
+    static Page newPage() {
+        final Map<String,Object> data = new HashMap<String,Object>();
+        data.put("space", "DOC");
+        data.put("title", "compressed");
+        data.put("content", CONTENT);
+        return new Page(data);
+    }
+
+    void compressPayloads( Confluence confluence ) throws Exception {
+        final CallStatistics stats = new CallStatistics();
+        confluence.addCallListener(stats);
+        confluence.enableCompression(512);
+
+        Assert.assertThat( confluence.storePage(newPage()).getContent(), Is.is(CONTENT) );
+        Assert.assertThat( gzipRequests.get(), Is.is(1) );
+        Assert.assertThat( gzipResponses.get(), Is.is(1) );
+
+        // request under the threshold
+        Assert.assertThat( confluence.getPage("10").getContent(), Is.is(CONTENT) );
+        Assert.assertThat( gzipRequests.get(), Is.is(1) );
+        Assert.assertThat( gzipResponses.get(), Is.is(2) );
+
+        for( CallStatistics.Command c : stats.getCommands() ) {
+            Assert.assertThat( c.getResponseBytes() < c.getResponseContentBytes() / 2, Is.is(true) );
+
+            if( "storePage".equals(c.getName()) ) {
+                Assert.assertThat( c.getRequestBytes() < c.getRequestContentBytes() / 2, Is.is(true) );
+            }
+            else {
+                Assert.assertThat( c.getRequestBytes(), Is.is(c.getRequestContentBytes()) );
+            }
+        }
+
+        confluence.disableCompression();
+
+        Assert.assertThat( confluence.storePage(newPage()).getContent(), Is.is(CONTENT) );
+        Assert.assertThat( gzipRequests.get(), Is.is(1) );
+        Assert.assertThat( gzipResponses.get(), Is.is(2) );
+    }
+
+    @Test
+    public void compressPayloads() throws Exception {
+
+        compressPayloads( ConfluenceFactory.createInstanceVersion3x(getUrl(), null) );
+    }
+
+    @Test
+    public void compressPayloadsPooled() throws Exception {
+
+        compressPayloads( ConfluenceFactory.createInstanceVersion3x(getUrl(), null,
+                    new Confluence.ConnectionPoolInfo(2, 2, 1000, 5000, 5000)) );
+    }
+
+    @Test
+    public void gzipRequestRefused() throws Exception {
+        refuse = true;
+
+        final Confluence confluence = ConfluenceFactory.createInstanceVersion3x(getUrl(), null);
+        confluence.enableCompression(512);
+
+        final List<String> notices = new CopyOnWriteArrayList<String>();
+        confluence.addCallListener(new CallListener() {
+
+            @Override
+            public void callCompleted(CallEvent event) {
+                notices.addAll(event.getNotices());
+            }
+        });
+
+        try {
+            confluence.storePage(newPage());
+            Assert.fail("expected exception");
+        }
+        catch( ConfluenceException e ) {
+            Assert.assertThat( gzipRequests.get(), Is.is(1) );
+            Assert.assertThat( notices.size(), Is.is(1) );
+        }
+
+        Assert.assertThat( confluence.storePage(newPage()).getContent(), Is.is(CONTENT) );
+        Assert.assertThat( gzipRequests.get(), Is.is(1) );
+        Assert.assertThat( gzipResponses.get(), Is.is(1) );
+    }
+
+    @Test
+    public void gzipRequestUnavailable() throws Exception {
+        refuse = true;
+        refuseStatus = 503;
+
+        final Confluence confluence = ConfluenceFactory.createInstanceVersion3x(getUrl(), null);
+        confluence.enableCompression(512);
+
+        try {
+            confluence.storePage(newPage());
+            Assert.fail("expected exception");
+        }
+        catch( ConfluenceException e ) {
+            Assert.assertThat( gzipRequests.get() >= 1, Is.is(true) );
+        }
+
+        // a transient failure doesn't switch off the request compression
+        refuse = false;
+        final int sent = gzipRequests.get();
+
+        Assert.assertThat( confluence.storePage(newPage()).getContent(), Is.is(CONTENT) );
+        Assert.assertThat( gzipRequests.get(), Is.is(sent + 1) );
+    }
+
+    @Test
+    public void switchOffWhenNotPaying() throws Exception {
+
+        final PayloadCompression compression = new PayloadCompression(100);
+
+        for( int i = 0 ; i < PayloadCompression.MIN_SAMPLES ; ++i ) {
+            Assert.assertThat( compression.isCompressing("addAttachment", 1000), Is.is(true) );
+            compression.requestSent("addAttachment", 1000, 980);
+        }
+        Assert.assertThat( compression.isCompressing("storePage", 1000), Is.is(true) );
+
+        for( int i = 1 ; i < PayloadCompression.PROBE_INTERVAL ; ++i ) {
+            Assert.assertThat( compression.isCompressing("addAttachment", 1000), Is.is(false) );
+        }
+        // probe
+        Assert.assertThat( compression.isCompressing("addAttachment", 1000), Is.is(true) );
+
+        // the payloads became compressible
+        for( int i = 0 ; i < 8 ; ++i ) {
+            compression.requestSent("addAttachment", 1000, 200);
+        }
+        Assert.assertThat( compression.isCompressing("addAttachment", 1000), Is.is(true) );
+        Assert.assertThat( compression.isCompressing("addAttachment", 50), Is.is(false) );
+    }
+}
@@ -0,0 +1,261 @@
+package org.codehaus.swizzle.confluence;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bsc.json.Json;
+import org.bsc.maven.plugin.confluence.RemotePageIndex;
+import org.hamcrest.core.Is;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * REST backend against a local stub of the content API: root page <code>1</code>
+ * with {@link #CHILDREN} children
+ */
+public class ConfluenceRestTest {
+
+    static final int CHILDREN = 250;
+
+    HttpServer server;
+    Confluence confluence;
+
+    final ConcurrentMap<String,AtomicInteger> requests = new ConcurrentHashMap<String,AtomicInteger>();
+    final List<String> authorizations = Collections.synchronizedList(new ArrayList<String>());
+
+    static Map<String,Object> content( int id, boolean full ) {
+        final Map<String,Object> result = new LinkedHashMap<String,Object>();
+        result.put("id", String.valueOf(id));
+        result.put("type", "page");
+        result.put("status", "current");
+        result.put("title", id == 1 ? "Home" : "Page " + id);
+        result.put("space", Collections.singletonMap("key", "DOC"));
+        result.put("ancestors", id == 1
+                ? Collections.emptyList()
+                : Collections.singletonList(Collections.singletonMap("id", "1")));
+        if( full ) {
+            result.put("version", Collections.singletonMap("number", 2));
+            result.put("body", Collections.singletonMap("storage",
+                    Collections.singletonMap("value", "<p>content " + id + "</p>")));
+        }
+        result.put("_links", Collections.singletonMap("webui", "/display/DOC/" + id));
+        return result;
+    }
+
+    static Map<String,String> query( HttpExchange exchange ) throws IOException {
+        final Map<String,String> result = new LinkedHashMap<String,String>();
+        final String q = exchange.getRequestURI().getRawQuery();
+        if( q != null ) {
+            for( String p : q.split("&") ) {
+                final int i = p.indexOf('=');
+                result.put(URLDecoder.decode(p.substring(0, i), "UTF-8"), URLDecoder.decode(p.substring(i + 1), "UTF-8"));
+            }
+        }
+        return result;
+    }
+
+    static void send( HttpExchange exchange, int status, String body ) throws IOException {
+        final byte[] data = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, data.length);
+        final OutputStream os = exchange.getResponseBody();
+        os.write(data);
+        os.close();
+    }
+
+    static void discard( HttpExchange exchange ) throws IOException {
+        final InputStream is = exchange.getRequestBody();
+        final byte[] buffer = new byte[4096];
+        while( is.read(buffer) != -1 ) {
+            // discard
+        }
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/rpc/xmlrpc", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                discard(exchange);
+
+                final byte[] data = "<?xml version=\"1.0\"?><methodResponse><params><param><value>token</value></param></params></methodResponse>".getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "text/xml");
+                exchange.sendResponseHeaders(200, data.length);
+                exchange.getResponseBody().write(data);
+                exchange.close();
+            }
+        });
+        server.createContext("/rest/api/content", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                discard(exchange);
+
+                final String path = exchange.getRequestURI().getPath().substring("/rest/api/content".length());
+                final Map<String,String> query = query(exchange);
+                final boolean full = String.valueOf(query.get("expand")).contains("body.storage");
+
+                final String key = path.replaceAll("/[0-9]+", "/{id}");
+                requests.putIfAbsent(key, new AtomicInteger());
+                requests.get(key).incrementAndGet();
+                authorizations.add(exchange.getRequestHeaders().getFirst("Authorization"));
+
+                if( path.startsWith("/1/child/page") || path.startsWith("/1/descendant/page") ) {
+                    final int start = Integer.parseInt(query.get("start"));
+                    final int limit = Integer.parseInt(query.get("limit"));
+
+                    final List<Object> results = new ArrayList<Object>();
+                    for( int i = start ; i < Math.min(CHILDREN, start + limit) ; ++i ) {
+                        results.add(content(100 + i, full));
+                    }
+                    final Map<String,Object> result = new LinkedHashMap<String,Object>();
+                    result.put("results", results);
+                    result.put("start", start);
+                    result.put("limit", limit);
+                    result.put("size", results.size());
+                    if( start + limit < CHILDREN ) {
+                        result.put("_links", Collections.singletonMap("next", path + "?start=" + (start + limit)));
+                    }
+                    send(exchange, 200, Json.stringify(result));
+                    return;
+                }
+                if( path.matches("/[0-9]+") ) {
+                    final int id = Integer.parseInt(path.substring(1));
+
+                    if( id != 1 && (id < 100 || id >= 100 + CHILDREN) ) {
+                        send(exchange, 404, "{\"statusCode\":404}");
+                        return;
+                    }
+                    send(exchange, 200, Json.stringify(content(id, full)));
+                    return;
+                }
+                if( path.isEmpty() ) {
+                    final List<Object> results = new ArrayList<Object>();
+                    if( "Home".equals(query.get("title")) ) {
+                        results.add(content(1, full));
+                    }
+                    send(exchange, 200, Json.stringify(Collections.singletonMap("results", results)));
+                    return;
+                }
+                send(exchange, 404, "{\"statusCode\":404}");
+            }
+        });
+        server.start();
+
+        confluence = ConfluenceFactory.createInstanceRest(
+                String.format("http://localhost:%d/rpc/xmlrpc", server.getAddress().getPort()),
+                null, null, null, null, "admin", "secret");
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    int requests( String key ) {
+        final AtomicInteger result = requests.get(key);
+        return ( result == null ) ? 0 : result.get();
+    }
+
+    @Test
+    public void getPage() throws Exception {
+
+        final Page page = confluence.getPage("150");
+
+        Assert.assertThat( page.getTitle(), Is.is("Page 150") );
+        Assert.assertThat( page.getSpace(), Is.is("DOC") );
+        Assert.assertThat( page.getParentId(), Is.is("1") );
+        Assert.assertThat( page.getVersion(), Is.is(2) );
+        Assert.assertThat( page.getContent(), Is.is("<p>content 150</p>") );
+        Assert.assertThat( page.isCurrent(), Is.is(true) );
+        Assert.assertThat( page.getUrl().endsWith("/display/DOC/150"), Is.is(true) );
+
+        final Page home = confluence.getPage("DOC", "Home");
+
+        Assert.assertThat( home.getId(), Is.is("1") );
+        Assert.assertThat( home.getParentId(), Is.is("0") );
+
+        // basic authentication with the login credentials
+        Assert.assertThat( authorizations.get(0), Is.is("Basic YWRtaW46c2VjcmV0") );
+    }
+
+    @Test(expected = ConfluenceException.class)
+    public void pageNotFound() throws Exception {
+        confluence.getPage("DOC", "Missing");
+    }
+
+    @Test(expected = ConfluenceException.class)
+    public void pageIdNotFound() throws Exception {
+        confluence.getPage("99");
+    }
+
+    @Test
+    public void childrenPages() throws Exception {
+
+        final List<Page> children = confluence.getChildrenPages("1");
+
+        Assert.assertThat( children.size(), Is.is(CHILDREN) );
+        Assert.assertThat( children.get(CHILDREN - 1).getTitle(), Is.is("Page " + (100 + CHILDREN - 1)) );
+        Assert.assertThat( children.get(0).getParentId(), Is.is("1") );
+        Assert.assertThat( children.get(0).getContent(), Is.is("<p>content 100</p>") );
+
+        // paginated: 100 + 100 + 50
+        Assert.assertThat( requests("/{id}/child/page"), Is.is(3) );
+        Assert.assertThat( requests("/{id}"), Is.is(0) );
+    }
+
+    @Test
+    public void descendentsStopEarly() throws Exception {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        confluence.getDescendents("1", new ResultHandler<PageSummary>() {
+
+            @Override
+            public boolean handle(PageSummary element) throws Exception {
+                return count.incrementAndGet() < 10;
+            }
+        });
+
+        Assert.assertThat( count.get(), Is.is(10) );
+        Assert.assertThat( requests("/{id}/descendant/page"), Is.is(1) );
+
+        Assert.assertThat( confluence.getDescendents("1").size(), Is.is(CHILDREN) );
+    }
+
+    @Test
+    public void indexLookupPerLevel() throws Exception {
+
+        final RemotePageIndex index = RemotePageIndex.load(confluence, confluence.getPage("1"));
+
+        Assert.assertThat( index.size(), Is.is(CHILDREN + 1) );
+
+        for( int i = 0 ; i < CHILDREN ; ++i ) {
+            final Page page = index.getOrCreatePage("Home", "Page " + (100 + i));
+
+            Assert.assertThat( page.getId(), Is.is(String.valueOf(100 + i)) );
+            Assert.assertThat( page.getVersion(), Is.is(2) );
+        }
+
+        // the root page only, the children are read by level
+        Assert.assertThat( requests("/{id}"), Is.is(1) );
+        Assert.assertThat( requests("/{id}/child/page"), Is.is(3) );
+    }
+}
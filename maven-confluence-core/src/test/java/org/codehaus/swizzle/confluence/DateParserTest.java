@@ -0,0 +1,106 @@
+package org.codehaus.swizzle.confluence;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DateParserTest {
+
+    static Date date( String pattern, String value ) throws Exception {
+        return new SimpleDateFormat(pattern, Locale.US).parse(value);
+    }
+
+    @Test
+    public void shape() {
+        Assert.assertThat( DateParser.shapeOf("2016-05-10T10:20:30"), Is.is("9-9-9a9:9:9") );
+        Assert.assertThat( DateParser.shapeOf("Tue, 10 May 2016 10:20:30 +0200"), Is.is("a, 9 a 9 9:9:9 +9") );
+    }
+
+    @Test
+    public void layouts() throws Exception {
+
+        final DateParser parser = new DateParser();
+
+        Assert.assertThat( parser.parse("created", "2016-05-10T10:20:30"),
+                            Is.is(date("yyyy-MM-dd'T'HH:mm:ss", "2016-05-10T10:20:30")) );
+        Assert.assertThat( parser.parse("created", "2016-05-10 10:20:30.5+0200"),
+                            Is.is(date("yyyy-MM-dd HH:mm:ss.SZ", "2016-05-10 10:20:30.5+0200")) );
+        Assert.assertThat( parser.parse("created", "Tue, 10 May 2016 10:20:30 +0200"),
+                            Is.is(date("EEE, d MMM yyyy HH:mm:ss Z", "Tue, 10 May 2016 10:20:30 +0200")) );
+        Assert.assertThat( parser.parse(null, "20160510"),
+                            Is.is(date("yyyyMMdd", "20160510")) );
+        Assert.assertThat( parser.parse(null, "2016-05-10"),
+                            Is.is(date("yyyy-MM-dd", "2016-05-10")) );
+        Assert.assertThat( parser.parse(null, "not a date"), Is.is((Date)null) );
+        Assert.assertThat( parser.parse(null, "not a date"), Is.is((Date)null) );
+    }
+
+    @Test
+    public void format() throws Exception {
+
+        final DateParser parser = new DateParser();
+        final Date now = new Date( (System.currentTimeMillis() / 1000) * 1000 );
+
+        final String value = parser.format(now);
+
+        Assert.assertThat( parser.parse(null, value), Is.is(now) );
+    }
+
+    @Test
+    public void concurrent() throws Exception {
+
+        final DateParser parser = new DateParser();
+
+        final SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+        final SimpleDateFormat rfc = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z", Locale.US);
+        rfc.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        final List<String> values = new ArrayList<String>();
+        final List<Date> expected = new ArrayList<Date>();
+
+        for( int i = 0 ; i < 200 ; ++i ) {
+            final Date d = new Date( 1400000000000L + i * 86400000L * 7 + i * 1000L );
+            values.add( (i % 2 == 0) ? iso.format(d) : rfc.format(d) );
+            expected.add( d );
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+
+            for( int t = 0 ; t < 8 ; ++t ) {
+                results.add( executor.submit( new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() throws Exception {
+                        int errors = 0;
+                        for( int n = 0 ; n < 20 ; ++n ) {
+                            for( int i = 0 ; i < values.size() ; ++i ) {
+                                if( !expected.get(i).equals(parser.parse("created", values.get(i))) ) {
+                                    ++errors;
+                                }
+                            }
+                        }
+                        return errors;
+                    }
+                }));
+            }
+            for( Future<Integer> f : results ) {
+                Assert.assertThat( f.get(), Is.is(0) );
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.codehaus.swizzle.confluence;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsSame;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MapObjectListTest {
+
+    public static class Custom extends MapObject {
+
+        public Custom(Map data) {
+            super(data);
+        }
+
+        public String getName() {
+            return getString("name");
+        }
+    }
+
+    static Object[] newVector( int size ) {
+        final Object[] result = new Object[size];
+        for( int i = 0 ; i < size ; ++i ) {
+            final Map<String,Object> data = new HashMap<String,Object>();
+            data.put("id", String.valueOf(i));
+            data.put("title", "Page " + i);
+            data.put("name", "name" + i);
+            result[i] = data;
+        }
+        return result;
+    }
+
+    @Test
+    public void lazyWrapping() throws Exception {
+
+        final AtomicInteger created = new AtomicInteger();
+        final MapObjectFactory<PageSummary> factory = MapObjectFactory.of(PageSummary.class);
+
+        final List<PageSummary> list = new MapObjectList<PageSummary>( newVector(100), new MapObjectFactory<PageSummary>() {
+            @Override
+            public PageSummary newInstance(Map data) {
+                created.incrementAndGet();
+                return factory.newInstance(data);
+            }
+        });
+
+        Assert.assertThat( list.size(), Is.is(100) );
+        Assert.assertThat( created.get(), Is.is(0) );
+
+        final PageSummary p = list.get(10);
+
+        Assert.assertThat( p.getTitle(), Is.is("Page 10") );
+        Assert.assertThat( list.get(10), IsSame.sameInstance(p) );
+        Assert.assertThat( created.get(), Is.is(1) );
+    }
+
+    @Test
+    public void mutable() throws Exception {
+
+        final List<PageSummary> list = new MapObjectList<PageSummary>( newVector(3), MapObjectFactory.of(PageSummary.class) );
+
+        final PageSummary added = new PageSummary();
+        added.setTitle("added");
+
+        list.add(0, added);
+        Assert.assertThat( list.get(0), IsSame.sameInstance(added) );
+        Assert.assertThat( list.remove(1).getTitle(), Is.is("Page 0") );
+        Assert.assertThat( list.size(), Is.is(3) );
+        Assert.assertThat( list.get(2).getTitle(), Is.is("Page 2") );
+    }
+
+    @Test
+    public void unregisteredType() throws Exception {
+
+        final List<Custom> list = new MapObjectList<Custom>( newVector(2), MapObjectFactory.of(Custom.class) );
+
+        Assert.assertThat( list.get(1).getName(), Is.is("name1") );
+        Assert.assertThat( MapObjectFactory.of(Custom.class), IsSame.sameInstance(MapObjectFactory.of(Custom.class)) );
+    }
+
+    @Test(expected = SwizzleException.class)
+    public void typeWithoutMapConstructor() throws Exception {
+
+        MapObjectFactory.of(String.class);
+    }
+}
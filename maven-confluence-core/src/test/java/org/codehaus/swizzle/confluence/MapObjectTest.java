@@ -0,0 +1,96 @@
+package org.codehaus.swizzle.confluence;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsSame;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class MapObjectTest {
+
+    static Map<String,Object> newData() {
+        final Map<String,Object> data = new HashMap<String,Object>();
+        data.put("id", "100");
+        data.put("title", "Home");
+        data.put("content", "h1. Home page content");
+        data.put("version", "3");
+        data.put("current", "true");
+        data.put("created", "2016-05-10T10:20:30");
+        return data;
+    }
+
+    @Test
+    public void copyOnWrite() {
+
+        final Map<String,Object> data = newData();
+        final Page page = new Page(data);
+
+        Assert.assertThat( page.getVersion(), Is.is(3) );
+        Assert.assertThat( page.isCurrent(), Is.is(true) );
+        Assert.assertThat( page.getContent(), IsSame.sameInstance(data.get("content")) );
+
+        // reads don't change the server data
+        Assert.assertThat( data.get("version"), Is.is((Object)"3") );
+
+        page.setTitle("Changed");
+        page.setVersion(4);
+
+        Assert.assertThat( page.getTitle(), Is.is("Changed") );
+        Assert.assertThat( page.getVersion(), Is.is(4) );
+        Assert.assertThat( data.get("title"), Is.is((Object)"Home") );
+        Assert.assertThat( data.get("version"), Is.is((Object)"3") );
+    }
+
+    @Test
+    public void parsedValues() {
+
+        final Page page = new Page(newData());
+
+        final Date created = page.getCreated();
+
+        Assert.assertThat( created != null, Is.is(true) );
+        Assert.assertThat( page.getCreated(), IsSame.sameInstance(created) );
+
+        page.setCreated( new Date(0) );
+
+        Assert.assertThat( page.getCreated(), Is.is(new Date(0)) );
+    }
+
+    @Test
+    public void toMap() {
+
+        final Map<String,Object> data = newData();
+        final Page page = new Page(data);
+
+        page.setVersion(5);
+
+        final Map map = page.toMap();
+
+        Assert.assertThat( map.size(), Is.is(data.size()) );
+        Assert.assertThat( map.get("version"), Is.is((Object)"5") );
+        Assert.assertThat( map.get("current"), Is.is((Object)"true") );
+        Assert.assertThat( map.get("content"), IsSame.sameInstance(data.get("content")) );
+        Assert.assertThat( new HashMap(map).get("id"), Is.is((Object)"100") );
+
+        try {
+            map.put("id", "1");
+            Assert.fail("toMap must be read only");
+        }
+        catch( UnsupportedOperationException e ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void toRawMap() {
+
+        final Page page = new Page(newData());
+
+        final Map raw = page.toRawMap();
+        raw.put("title", "Other");
+
+        Assert.assertThat( page.getTitle(), Is.is("Home") );
+    }
+}
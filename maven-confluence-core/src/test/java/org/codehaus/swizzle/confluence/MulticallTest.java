@@ -0,0 +1,242 @@
+package org.codehaus.swizzle.confluence;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.hamcrest.core.Is;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * stub server that answers <code>getPage</code> (a missing page is a fault) and,
+ * if enabled, <code>system.multicall</code>
+ */
+public class MulticallTest {
+
+    static final int THREADS = 8;
+
+    HttpServer server;
+    Confluence confluence;
+
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger multicalls = new AtomicInteger();
+
+    static List<Element> children( Node node, String name ) {
+        final List<Element> result = new ArrayList<Element>();
+        final NodeList nodes = node.getChildNodes();
+        for( int i = 0 ; i < nodes.getLength() ; ++i ) {
+            if( nodes.item(i) instanceof Element && name.equals(nodes.item(i).getNodeName()) ) {
+                result.add((Element) nodes.item(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param value xml-rpc <code>value</code> element holding an array
+     * @return the array values
+     */
+    static List<Element> values( Element value ) {
+        final Element array = children(value, "array").get(0);
+        return children(children(array, "data").get(0), "value");
+    }
+
+    static String page( String id ) {
+        if( "missing".equals(id) ) {
+            return "<value><struct><member><name>faultCode</name><value><int>0</int></value></member>" +
+                   "<member><name>faultString</name><value>page not found</value></member></struct></value>";
+        }
+        return "<value><array><data><value><struct><member><name>id</name><value>" + id +
+               "</value></member></struct></value></data></array></value>";
+    }
+
+    void start( final boolean multicall ) throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/rpc/xmlrpc", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+
+                final StringBuilder result = new StringBuilder("<?xml version=\"1.0\"?><methodResponse>");
+
+                try {
+                    final Document request = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(exchange.getRequestBody());
+                    final Element call = request.getDocumentElement();
+                    final String method = children(call, "methodName").get(0).getTextContent().trim();
+                    final Element params = children(call, "params").get(0);
+
+                    if( "system.multicall".equals(method) && multicall ) {
+                        multicalls.incrementAndGet();
+                        result.append("<params><param><value><array><data>");
+
+                        final Element calls = children(children(params, "param").get(0), "value").get(0);
+
+                        for( Element c : values(calls) ) {
+                            final Element struct = children(c, "struct").get(0);
+                            String id = null;
+                            for( Element member : children(struct, "member") ) {
+                                if( "params".equals(children(member, "name").get(0).getTextContent()) ) {
+                                    final List<Element> args = values(children(member, "value").get(0));
+                                    id = ( args.size() > 1 ) ? args.get(1).getTextContent() : "0";
+                                }
+                            }
+                            result.append(page(id));
+                        }
+                        result.append("</data></array></value></param></params>");
+                    }
+                    else if( method.endsWith(".getPage") ) {
+                        final String id = children(children(params, "param").get(1), "value").get(0).getTextContent();
+                        final String value = page(id);
+
+                        if( value.contains("faultCode") ) {
+                            result.append("<fault>").append(value).append("</fault>");
+                        }
+                        else {
+                            result.append("<params><param><value><struct><member><name>id</name><value>")
+                                  .append(id)
+                                  .append("</value></member></struct></value></param></params>");
+                        }
+                    }
+                    else {
+                        result.append("<fault><value><struct><member><name>faultCode</name><value><int>0</int></value></member>")
+                              .append("<member><name>faultString</name><value>No such handler: ").append(method)
+                              .append("</value></member></struct></value></fault>");
+                    }
+                }
+                catch( Exception e ) {
+                    throw new IOException(e);
+                }
+                result.append("</methodResponse>");
+
+                final byte[] data = result.toString().getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "text/xml");
+                exchange.sendResponseHeaders(200, data.length);
+                exchange.getResponseBody().write(data);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        confluence = ConfluenceFactory.createInstanceVersion3x(
+                String.format("http://localhost:%d", server.getAddress().getPort()), null);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    List<Future<Object>> getPages( ExecutorService executor, final String... ids ) throws Exception {
+        final List<Future<Object>> result = new ArrayList<Future<Object>>();
+
+        for( final String id : ids ) {
+            result.add( executor.submit(new Callable<Object>() {
+
+                @Override
+                public Object call() throws Exception {
+                    try {
+                        return confluence.getPage(id).getId();
+                    }
+                    catch( ConfluenceException e ) {
+                        return e;
+                    }
+                }
+            }));
+        }
+        return result;
+    }
+
+    @Test
+    public void batchConcurrentCalls() throws Exception {
+        start(true);
+
+        Assert.assertThat( confluence.enableMulticall(THREADS, 2000), Is.is(true) );
+
+        requests.set(0);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Object>> results = getPages(executor, "1", "2", "3", "missing", "5", "6", "7", "8");
+
+            for( int i = 0 ; i < THREADS ; ++i ) {
+                final Object r = results.get(i).get();
+                if( i == 3 ) {
+                    Assert.assertThat( r instanceof ConfluenceException, Is.is(true) );
+                    Assert.assertThat( ((ConfluenceException) r).getMessage(), Is.is("page not found") );
+                }
+                else {
+                    Assert.assertThat( r, Is.is((Object) String.valueOf(i + 1)) );
+                }
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        // the window is closed by the 8th call
+        Assert.assertThat( requests.get(), Is.is(1) );
+    }
+
+    @Test
+    public void singleCallIsSentAlone() throws Exception {
+        start(true);
+
+        Assert.assertThat( confluence.enableMulticall(THREADS, 10), Is.is(true) );
+
+        multicalls.set(0);
+
+        Assert.assertThat( confluence.getPage("10").getId(), Is.is("10") );
+        Assert.assertThat( multicalls.get(), Is.is(0) );
+    }
+
+    @Test
+    public void fallbackToSingleCalls() throws Exception {
+        start(false);
+
+        Assert.assertThat( confluence.enableMulticall(THREADS, 10), Is.is(false) );
+        Assert.assertThat( confluence.isMulticallEnabled(), Is.is(false) );
+
+        // the reason is reported with the next call
+        final List<String> notices = new CopyOnWriteArrayList<String>();
+        confluence.addCallListener(new CallListener() {
+
+            @Override
+            public void callCompleted(CallEvent event) {
+                notices.addAll(event.getNotices());
+            }
+        });
+        Assert.assertThat( confluence.getPage("10").getId(), Is.is("10") );
+        Assert.assertThat( notices.size(), Is.is(1) );
+        Assert.assertThat( notices.get(0).startsWith("multicall is not supported"), Is.is(true) );
+
+        requests.set(0);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for( Future<Object> r : getPages(executor, "1", "2", "3") ) {
+                Assert.assertThat( r.get() instanceof String, Is.is(true) );
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        Assert.assertThat( requests.get(), Is.is(3) );
+    }
+}
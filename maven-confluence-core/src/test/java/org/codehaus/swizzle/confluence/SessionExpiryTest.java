@@ -0,0 +1,161 @@
+package org.codehaus.swizzle.confluence;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hamcrest.core.Is;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * the server expires the session token when {@link #expire} is set
+ */
+public class SessionExpiryTest {
+
+    static final String FAULT = "<?xml version=\"1.0\"?><methodResponse><fault><value><struct>" +
+            "<member><name>faultCode</name><value><int>0</int></value></member>" +
+            "<member><name>faultString</name><value>java.lang.Exception: com.atlassian.confluence.rpc.InvalidSessionException: " +
+            "User not authenticated or session expired. Call login() to open a new session</value></member>" +
+            "</struct></value></fault></methodResponse>";
+
+    HttpServer server;
+    Confluence confluence;
+
+    final AtomicInteger logins = new AtomicInteger();
+    final AtomicInteger calls = new AtomicInteger();
+    volatile boolean expire = false;
+
+    static String response( String value ) {
+        return "<?xml version=\"1.0\"?><methodResponse><params><param><value>" + value + "</value></param></params></methodResponse>";
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/rpc/xmlrpc", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final InputStream is = exchange.getRequestBody();
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                final byte[] buffer = new byte[4096];
+                int n;
+                while( (n = is.read(buffer)) != -1 ) {
+                    body.write(buffer, 0, n);
+                }
+                final String request = body.toString("UTF-8");
+
+                final String result;
+
+                if( request.contains("confluence1.login") ) {
+                    result = response("token" + logins.incrementAndGet());
+                    expire = false;
+                }
+                else if( request.contains("confluence1.logout") ) {
+                    result = response("<boolean>1</boolean>");
+                    expire = true;
+                }
+                else {
+                    calls.incrementAndGet();
+                    result = ( expire || !request.contains("token" + logins.get()) )
+                            ? FAULT
+                            : response("<struct><member><name>id</name><value>10</value></member></struct>");
+                }
+
+                final byte[] data = result.getBytes("UTF-8");
+                exchange.getResponseHeaders().add("Content-Type", "text/xml");
+                exchange.sendResponseHeaders(200, data.length);
+                exchange.getResponseBody().write(data);
+                exchange.close();
+            }
+        });
+        server.start();
+
+        confluence = ConfluenceFactory.createInstanceVersion3x(
+                String.format("http://localhost:%d", server.getAddress().getPort()), null);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void loginAgain() throws Exception {
+
+        final List<String> notices = new CopyOnWriteArrayList<String>();
+        confluence.addCallListener(new CallListener() {
+
+            @Override
+            public void callCompleted(CallEvent event) {
+                if( "login".equals(event.getCommand()) ) {
+                    notices.addAll(event.getNotices());
+                }
+            }
+        });
+
+        confluence.login("admin", "secret");
+
+        Assert.assertThat( confluence.getPage("10").getId(), Is.is("10") );
+        Assert.assertThat( notices.isEmpty(), Is.is(true) );
+
+        expire = true;
+
+        Assert.assertThat( confluence.getPage("10").getId(), Is.is("10") );
+        Assert.assertThat( logins.get(), Is.is(2) );
+        Assert.assertThat( calls.get(), Is.is(3) );
+        Assert.assertThat( notices.size(), Is.is(1) );
+    }
+
+    @Test
+    public void notLoggedIn() throws Exception {
+
+        final List<CallEvent> failed = new CopyOnWriteArrayList<CallEvent>();
+        confluence.addCallListener(new CallListener() {
+
+            @Override
+            public void callCompleted(CallEvent event) {
+                if( event.isFailed() ) {
+                    failed.add(event);
+                }
+            }
+        });
+
+        expire = true;
+        try {
+            confluence.getPage("10");
+            Assert.fail("expected exception");
+        }
+        catch( ConfluenceException e ) {
+            Assert.assertThat( logins.get(), Is.is(0) );
+        }
+
+        // the failure is reported to the listeners
+        Assert.assertThat( failed.size(), Is.is(1) );
+        Assert.assertThat( failed.get(0).getCommand(), Is.is("getPage") );
+    }
+
+    @Test
+    public void loggedOut() throws Exception {
+
+        confluence.login("admin", "secret");
+        confluence.logout();
+
+        try {
+            confluence.getPage("10");
+            Assert.fail("expected exception");
+        }
+        catch( ConfluenceException e ) {
+            Assert.assertThat( logins.get(), Is.is(1) );
+        }
+    }
+}
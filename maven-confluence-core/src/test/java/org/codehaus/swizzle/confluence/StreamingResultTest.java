@@ -0,0 +1,151 @@
+package org.codehaus.swizzle.confluence;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hamcrest.core.Is;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingResultTest {
+
+    static final int PAGES = 20000;
+
+    HttpServer server;
+    Confluence confluence;
+
+    @Before
+    public void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/rpc/xmlrpc", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                final InputStream is = exchange.getRequestBody();
+                final byte[] buffer = new byte[4096];
+                while( is.read(buffer) != -1 ) {
+                    // discard
+                }
+
+                exchange.getResponseHeaders().add("Content-Type", "text/xml");
+                exchange.sendResponseHeaders(200, 0);
+
+                final Writer w = new OutputStreamWriter(exchange.getResponseBody(), "UTF-8");
+                try {
+                    w.write("<?xml version=\"1.0\"?><methodResponse><params><param><value><array><data>");
+                    for( int i = 0 ; i < PAGES ; ++i ) {
+                        w.write("<value><struct>");
+                        w.write(String.format("<member><name>id</name><value>%d</value></member>", i));
+                        w.write(String.format("<member><name>title</name><value>Page %d</value></member>", i));
+                        w.write("<member><name>labels</name><value><array><data><value>a</value><value>b</value></data></array></value></member>");
+                        w.write("</struct></value>");
+                    }
+                    w.write("</data></array></value></param></params></methodResponse>");
+                    w.close();
+                }
+                catch( IOException e ) {
+                    // client stopped reading
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+
+        confluence = ConfluenceFactory.createInstanceVersion3x(
+                String.format("http://localhost:%d", server.getAddress().getPort()), null);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        HttpConnectionPool.shutdownAll();
+    }
+
+    @Test
+    public void streamAll() throws Exception {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        confluence.getPages("DOC", new ResultHandler<PageSummary>() {
+
+            @Override
+            public boolean handle(PageSummary element) throws Exception {
+                Assert.assertThat( element.getTitle(), Is.is("Page " + count.getAndIncrement()) );
+                return true;
+            }
+        });
+
+        Assert.assertThat( count.get(), Is.is(PAGES) );
+
+        // the nested arrays and the next calls are parsed as usual
+        final List pages = confluence.getPages("DOC");
+
+        Assert.assertThat( pages.size(), Is.is(PAGES) );
+    }
+
+    @Test
+    public void stopEarly() throws Exception {
+        stopEarly(confluence);
+    }
+
+    @Test
+    public void stopEarlyPooled() throws Exception {
+
+        final Confluence pooled = ConfluenceFactory.createInstanceVersion3x(
+                String.format("http://localhost:%d", server.getAddress().getPort()), null,
+                new Confluence.ConnectionPoolInfo(1, 1, 1000, 5000, 5000));
+
+        stopEarly(pooled);
+        stopEarly(pooled);
+    }
+
+    void stopEarly( Confluence confluence ) throws Exception {
+
+        final List<PageSummary> found = new ArrayList<PageSummary>();
+
+        confluence.getDescendents("1", new ResultHandler<PageSummary>() {
+
+            @Override
+            public boolean handle(PageSummary element) throws Exception {
+                if( "Page 10".equals(element.getTitle()) ) {
+                    found.add(element);
+                    return false;
+                }
+                return true;
+            }
+        });
+
+        Assert.assertThat( found.size(), Is.is(1) );
+        Assert.assertThat( found.get(0).getId(), Is.is("10") );
+    }
+
+    @Test
+    public void handlerError() throws Exception {
+
+        final IllegalStateException error = new IllegalStateException("handler error");
+
+        try {
+            confluence.getPages("DOC", new ResultHandler<PageSummary>() {
+
+                @Override
+                public boolean handle(PageSummary element) throws Exception {
+                    throw error;
+                }
+            });
+            Assert.fail("expected exception");
+        }
+        catch( SwizzleException e ) {
+            Assert.assertThat( e.getCause(), Is.is((Throwable)error) );
+        }
+    }
+}
@@ -1,15 +1,32 @@
 package org.bsc.maven.confluence.plugin;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.ServiceLoader;
 import org.bsc.ssl.SSLCertificateInfo;
+import java.util.concurrent.Callable;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
 import org.apache.maven.settings.Proxy;
 import org.apache.maven.settings.Server;
 import org.bsc.maven.plugin.confluence.ConfluenceUtils;
+import org.codehaus.swizzle.confluence.CallEvent;
+import org.codehaus.swizzle.confluence.CallListener;
+import org.codehaus.swizzle.confluence.CallPolicy;
+import org.codehaus.swizzle.confluence.CallStatistics;
 import org.codehaus.swizzle.confluence.Confluence;
 import org.codehaus.swizzle.confluence.ConfluenceFactory;
+import org.codehaus.swizzle.confluence.HttpConnectionPool;
 import org.sonatype.plexus.components.sec.dispatcher.DefaultSecDispatcher;
 import org.sonatype.plexus.components.sec.dispatcher.SecDispatcher;
 import org.sonatype.plexus.components.sec.dispatcher.SecDispatcherException;
@@ -102,6 +119,183 @@ public abstract class AbstractBaseConfluenceMojo extends AbstractMojo {
     @Parameter
     protected SSLCertificateInfo sslCertificate = new SSLCertificateInfo();
 
+    /**
+     * if true all the confluence calls share a pool of keep-alive connections,
+     * otherwise a new connection (and TLS handshake) is opened for each call
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.connectionPool", defaultValue = "false")
+    private boolean connectionPool;
+
+    /**
+     * max number of pooled connections towards the confluence host
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.maxConnectionsPerHost", defaultValue = "8")
+    private int maxConnectionsPerHost = 8;
+
+    /**
+     * time (millis) after that an idle pooled connection is closed. 0 disable the eviction
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.idleConnectionTimeout", defaultValue = "30000")
+    private long idleConnectionTimeout = 30000;
+
+    /**
+     * connect timeout (millis) of the pooled connections. 0 means infinite
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.connectionTimeout", defaultValue = "30000")
+    private int connectionTimeout = 30000;
+
+    /**
+     * socket read timeout (millis) of the pooled connections. 0 means infinite
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.socketTimeout", defaultValue = "0")
+    private int socketTimeout = 0;
+
+    /**
+     * max confluence calls per second. 0 means unlimited
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.requestsPerSecond", defaultValue = "0")
+    private double requestsPerSecond = 0;
+
+    /**
+     * max concurrent confluence calls. 0 means unlimited
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.maxInFlight", defaultValue = "0")
+    private int maxInFlight = 0;
+
+    /**
+     * max retries of a call failed for a transport error (I/O error, timeout, HTTP 5xx).
+     * Reads are always retried, writes only if the request didn't reach the server.
+     * 0 disable the retry
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.maxRetries", defaultValue = "3")
+    private int maxRetries = 3;
+
+    /**
+     * backoff (millis) before the first retry. It doubles (with jitter) at each retry
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.retryBackoff", defaultValue = "500")
+    private long retryBackoff = 500;
+
+    /**
+     * max backoff (millis) between retries
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.maxRetryBackoff", defaultValue = "10000")
+    private long maxRetryBackoff = 10000;
+
+    /**
+     * consecutive transport failures after that the calls are paused (circuit open).
+     * 0 disable the circuit breaker
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.circuitFailureThreshold", defaultValue = "5")
+    private int circuitFailureThreshold = 5;
+
+    /**
+     * time (millis) the calls are paused once the circuit is open
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.circuitOpenTime", defaultValue = "30000")
+    private long circuitOpenTime = 30000;
+
+    /**
+     * formats of the per command call statistics (count, errors, latency percentiles, bytes)
+     * written at the end of the execution: <code>json</code>, <code>csv</code> or <code>json,csv</code>.
+     * If not set the statistics are only logged
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.callStatisticsFormat")
+    private String callStatisticsFormat;
+
+    /**
+     * call statistics file, without extension (it is given by the format)
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.callStatistics", defaultValue = "${project.build.directory}/confluence-call-statistics")
+    private File callStatistics;
+
+    /**
+     * API used to read the pages: <code>xmlrpc</code> or <code>rest</code> (confluence 5.5+).
+     * With <code>rest</code> a page is read with its version and content in one request and
+     * the children of a page are read in a single listing. The writes always use XML-RPC
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.backend", defaultValue = "xmlrpc")
+    private String backend = "xmlrpc";
+
+    /**
+     * share the confluence session (login, version detection) among all the modules of the
+     * reactor build. The logout is done once, when the last module of the reactor ends.
+     * With a parallel build (<code>-T</code>) or if the last module doesn't run the goal,
+     * the logout is done at JVM exit
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.reuseSession", defaultValue = "false")
+    private boolean reuseSession = false;
+
+    /**
+     * max number of concurrent calls sent together in a <code>system.multicall</code> request.
+     * 0 disables the batching, that is also disabled if the server doesn't support multicall
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.multicallBatchSize", defaultValue = "0")
+    private int multicallBatchSize = 0;
+
+    /**
+     * max time (millis) a call waits for other calls to be sent with
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.multicallWindow", defaultValue = "5")
+    private long multicallWindow = 5;
+
+    /**
+     * ask the responses gzip encoded. The commands whose responses don't shrink enough
+     * are switched back to plain responses
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.compression", defaultValue = "false")
+    private boolean compression = false;
+
+    /**
+     * min size (bytes) of a request sent gzip encoded, if the compression is enabled.
+     * A negative value doesn't compress the requests (not every server decodes them)
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.compressionThreshold", defaultValue = "-1")
+    private int compressionThreshold = -1;
+
+    @Parameter(defaultValue = "${session}", readonly = true)
+    protected MavenSession mavenSession;
+
     /**
      *
      */
@@ -128,6 +322,138 @@ public abstract class AbstractBaseConfluenceMojo extends AbstractMojo {
         return password;
     }
 
+    /**
+     *
+     * @return connection pool settings or null if the pool is disabled
+     */
+    protected Confluence.ConnectionPoolInfo getConnectionPoolInfo() {
+        if( !connectionPool ) {
+            return null;
+        }
+        return newConnectionPoolInfo(maxConnectionsPerHost);
+    }
+
+    /**
+     *
+     * @param maxConnections
+     * @return connection pool settings with the configured timeouts and the given max connections
+     */
+    protected final Confluence.ConnectionPoolInfo newConnectionPoolInfo( int maxConnections ) {
+        return new Confluence.ConnectionPoolInfo(
+                            maxConnections,
+                            maxConnections,
+                            idleConnectionTimeout,
+                            connectionTimeout,
+                            socketTimeout);
+    }
+
+    /**
+     *
+     * @return rate limiting, retry and circuit breaker settings of the calls
+     */
+    protected CallPolicy getCallPolicy() {
+        return new CallPolicy(
+                            requestsPerSecond,
+                            maxInFlight,
+                            maxRetries,
+                            retryBackoff,
+                            maxRetryBackoff,
+                            circuitFailureThreshold,
+                            circuitOpenTime);
+    }
+
+    /**
+     * the call statistics, the log of the client notices and of the failed calls (debug), plus the {@link CallListener} registered as service
+     * (<code>META-INF/services/org.codehaus.swizzle.confluence.CallListener</code>)
+     * in the plugin classpath
+     *
+     * @param statistics
+     * @return listeners of the confluence calls
+     */
+    protected List<CallListener> getCallListeners( CallStatistics statistics ) {
+        final List<CallListener> result = new ArrayList<CallListener>();
+
+        result.add(statistics);
+        result.add( new CallListener() {
+
+            @Override
+            public void callCompleted(CallEvent event) {
+                for( String notice : event.getNotices() ) {
+                    getLog().info( notice );
+                }
+                if( event.isFailed() && getLog().isDebugEnabled() ) {
+                    getLog().debug( String.format("RPC ERROR - %s [%s]: %s", event.getServicePrefix(), event.getCommand(), event.getError().getMessage()) );
+                }
+            }
+        });
+
+        for( CallListener l : ServiceLoader.load(CallListener.class, getClass().getClassLoader()) ) {
+            getLog().debug( String.format("call listener [%s]", l.getClass().getName()) );
+            result.add(l);
+        }
+        return result;
+    }
+
+    /**
+     * log the statistics and write them in the configured formats
+     *
+     * @param statistics
+     */
+    private void reportCallStatistics( CallStatistics statistics ) {
+
+        if( statistics.getCommands().isEmpty() ) {
+            return;
+        }
+
+        getLog().info("confluence calls");
+        for( String line : statistics.toTable().split("\\r?\\n") ) {
+            getLog().info(line);
+        }
+
+        if( callStatisticsFormat == null || callStatistics == null ) {
+            return;
+        }
+
+        for( String f : callStatisticsFormat.split("[,\\s]+") ) {
+
+            final String format = f.toLowerCase(Locale.ENGLISH);
+
+            if( format.length() == 0 ) {
+                continue;
+            }
+            if( !"json".equals(format) && !"csv".equals(format) ) {
+                getLog().warn( String.format("call statistics format [%s] is not supported!", format));
+                continue;
+            }
+
+            final File file = new File( callStatistics.getPath() + "." + format );
+
+            try {
+                final File dir = file.getParentFile();
+                if( dir != null && !dir.exists() && !dir.mkdirs() ) {
+                    throw new IOException( String.format("unable to create folder [%s]", dir));
+                }
+
+                final Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+                try {
+                    if( "json".equals(format) ) {
+                        statistics.writeJson(w);
+                    }
+                    else {
+                        statistics.writeCsv(w);
+                    }
+                }
+                finally {
+                    w.close();
+                }
+                getLog().info( String.format("call statistics written to [%s]", file));
+
+            } catch (IOException e) {
+                getLog().warn( String.format("error writing call statistics to [%s]", file), e);
+            }
+        }
+    }
+
     /**
      *
      * @param confluence
@@ -163,6 +489,16 @@ public abstract class AbstractBaseConfluenceMojo extends AbstractMojo {
         }
 
         Confluence confluence = null;
+        // a shared session and the connection pool count the calls of all the modules
+        HttpConnectionPool.Statistics poolStart = null;
+        CallPolicy.Counters policyStart = null;
+
+        final CallStatistics statistics = new CallStatistics();
+        final List<CallListener> listeners = getCallListeners(statistics);
+
+        final ConfluenceSessions reactorSessions = ( reuseSession && mavenSession != null )
+                ? ConfluenceSessions.of(mavenSession.getRequest())
+                : null;
 
         try {
 
@@ -182,7 +518,31 @@ public abstract class AbstractBaseConfluenceMojo extends AbstractMojo {
                         );
             }
 
-            confluence = ConfluenceFactory.createInstanceDetectingVersion(getEndPoint(), proxyInfo, getUsername(), getPassword());
+            final Confluence.ProxyInfo proxy = proxyInfo;
+            final Callable<Confluence> factory = new Callable<Confluence>() {
+
+                @Override
+                public Confluence call() throws Exception {
+                    return newConfluence(proxy, (reactorSessions != null) ? null : listeners);
+                }
+            };
+
+            if( reactorSessions != null ) {
+                confluence = reactorSessions.acquire( newSessionKey(proxyInfo), factory );
+                for( CallListener l : listeners ) {
+                    confluence.addCallListener(l);
+                }
+            }
+            else {
+                confluence = factory.call();
+            }
+
+            if( confluence.getConnectionPool() != null ) {
+                poolStart = confluence.getConnectionPool().getStatistics();
+            }
+            if( confluence.getCallPolicy() != null ) {
+                policyStart = confluence.getCallPolicy().getCounters();
+            }
 
             getLog().info(ConfluenceUtils.getVersion(confluence));
 
@@ -194,9 +554,108 @@ public abstract class AbstractBaseConfluenceMojo extends AbstractMojo {
 
             throw new MojoExecutionException("has been imposssible connect to confluence due exception", e);
         } finally {
-            confluenceLogout(confluence);
+            if( reactorSessions != null ) {
+                if( confluence != null ) {
+                    for( CallListener l : listeners ) {
+                        confluence.removeCallListener(l);
+                    }
+                }
+                reactorSessions.release( isLastProject(), getLog() );
+            }
+            else {
+                confluenceLogout(confluence);
+            }
+
+            if( confluence != null && confluence.getConnectionPool() != null ) {
+                getLog().info( String.valueOf(confluence.getConnectionPool().getStatistics().since(poolStart)) );
+            }
+            if( confluence != null && confluence.getCallPolicy() != null ) {
+                getLog().info( String.valueOf(confluence.getCallPolicy().getCounters().since(policyStart)) );
+            }
+            reportCallStatistics(statistics);
+        }
+
+    }
+
+    /**
+     *
+     * @param proxyInfo
+     * @param listeners
+     * @return a new logged in confluence client
+     * @throws Exception
+     */
+    private Confluence newConfluence( Confluence.ProxyInfo proxyInfo, List<CallListener> listeners ) throws Exception {
+
+        final Confluence result;
+
+        if( "rest".equalsIgnoreCase(backend) ) {
+            result = ConfluenceFactory.createInstanceRest(getEndPoint(), proxyInfo, getConnectionPoolInfo(), getCallPolicy(), listeners, getUsername(), getPassword());
+        }
+        else if( backend == null || "xmlrpc".equalsIgnoreCase(backend) ) {
+            result = ConfluenceFactory.createInstanceDetectingVersion(getEndPoint(), proxyInfo, getConnectionPoolInfo(), getCallPolicy(), listeners, getUsername(), getPassword());
+        }
+        else {
+            throw new MojoExecutionException(String.format("backend [%s] is not supported! Valid values are: xmlrpc, rest", backend));
+        }
+
+        if( compression ) {
+            result.enableCompression(compressionThreshold);
+
+            getLog().info( (compressionThreshold < 0)
+                    ? "gzip compression enabled for the responses"
+                    : String.format("gzip compression enabled for the responses and the requests over %d bytes", compressionThreshold) );
         }
 
+        if( multicallBatchSize > 1 ) {
+            if( result.enableMulticall(multicallBatchSize, multicallWindow) ) {
+                getLog().info( String.format("multicall enabled (batch size %d, window %d ms)", multicallBatchSize, multicallWindow) );
+            }
+            else {
+                getLog().warn("multicall is not supported by the server, calls are sent one by one");
+            }
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @param proxyInfo
+     * @return what identifies a reusable session
+     */
+    private ConfluenceSessions.Key newSessionKey( Confluence.ProxyInfo proxyInfo ) {
+        return new ConfluenceSessions.Key(
+                getEndPoint(),
+                getUsername(),
+                ConfluenceSessions.Key.secret(getPassword()),
+                String.valueOf(backend).toLowerCase(Locale.ENGLISH),
+                getConnectionPoolInfo(),
+                multicallBatchSize,
+                multicallWindow,
+                compression,
+                compressionThreshold,
+                requestsPerSecond,
+                maxInFlight,
+                maxRetries,
+                retryBackoff,
+                maxRetryBackoff,
+                circuitFailureThreshold,
+                circuitOpenTime,
+                (proxyInfo != null) ? proxyInfo.host : null,
+                (proxyInfo != null) ? proxyInfo.port : null,
+                (proxyInfo != null) ? proxyInfo.userName : null );
+    }
+
+    /**
+     *
+     * @return true if the current project is the last one of the reactor build
+     */
+    private boolean isLastProject() {
+        final List<MavenProject> projects = mavenSession.getProjects();
+
+        if( projects == null || projects.isEmpty() ) {
+            return true;
+        }
+        return projects.get(projects.size() - 1).equals(mavenSession.getCurrentProject());
     }
 
     /**
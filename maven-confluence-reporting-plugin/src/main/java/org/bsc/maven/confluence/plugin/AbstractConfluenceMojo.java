@@ -4,11 +4,19 @@ import biz.source_code.miniTemplator.MiniTemplator;
 import biz.source_code.miniTemplator.MiniTemplator.VariableNotDefinedException;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
+import org.bsc.markdown.MarkdownToWikiEngine;
+import org.bsc.markdown.MarkdownToWikiEngines;
+import org.bsc.markdown.PegDownProcessorPool;
 import org.bsc.maven.plugin.confluence.ConfluenceUtils;
+import org.bsc.maven.plugin.confluence.ContentDigest;
+import org.bsc.maven.plugin.confluence.LabelSynchronizer;
+import org.bsc.maven.plugin.confluence.RemotePageIndex;
 import org.bsc.maven.reporting.model.ProcessUriException;
 import org.bsc.maven.reporting.model.Site;
 import org.codehaus.swizzle.confluence.Confluence;
+import org.codehaus.swizzle.confluence.Confluence2;
 import org.codehaus.swizzle.confluence.Page;
+import org.codehaus.swizzle.confluence.PageSummary;
 
 import java.io.File;
 import java.io.IOException;
@@ -18,6 +26,7 @@ import java.nio.charset.UnsupportedCharsetException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author bsorrentino
@@ -90,6 +99,77 @@ public abstract class AbstractConfluenceMojo extends AbstractBaseConfluenceMojo
   @Parameter(property = "encoding", defaultValue = "${project.build.sourceEncoding}")
   private String encoding;
 
+  /**
+   * if true the pages whose generated content has not changed are not stored again.
+   * The content is compared with the remote one (wiki format, confluence 3.x)
+   * or with the digest recorded by the last deploy in the deploy manifest.
+   *
+   * Pages recorded in the (validated) manifest are not even fetched if unchanged and
+   * their remote version is still the recorded one. The remote versions are listed
+   * only by the REST backend (<code>backend=rest</code>): the XML-RPC page summaries have
+   * no version, so with the default backend each existing page is still fetched and compared
+   *
+   * @since 4.6.1
+   */
+  @Parameter(property = "confluence.incremental", defaultValue = "false")
+  private boolean incremental = false;
+
+  /**
+   * deploy manifest. It records, for each deployed page, the remote id, version,
+   * content digest, labels and attachment digests so the next deploy can avoid the
+   * remote lookups. It can be moved in a shared location to be reused between builds
+   *
+   * @since 4.6.1
+   */
+  @Parameter(property = "confluence.deployState", defaultValue = "${project.build.directory}/confluence-deploy-state.json")
+  private java.io.File deployState;
+
+  /**
+   * file where the digests of the deployed pages were kept between builds.
+   * If set the deploy manifest is kept in it, a digest file of a previous release is replaced
+   *
+   * @deprecated use deployState
+   * @since 4.6.1
+   */
+  @Deprecated
+  @Parameter(property = "confluence.deployCache")
+  private java.io.File deployCache;
+
+  /**
+   * max time in milliseconds to parse a markdown page with the pegdown engine. A page that takes
+   * longer fails with an error naming it, instead of keeping the build busy on a pathological input
+   *
+   * @since 4.6.1
+   */
+  @Parameter(property = "confluence.maxParsingTime", defaultValue = "2000")
+  private long maxParsingTime = PegDownProcessorPool.DEFAULT_MAX_PARSING_TIME;
+
+  /**
+   * engine that converts the markdown pages in wiki:
+   * <ul>
+   * <li>pegdown: the historical parser. Its max parsing time is <code>maxParsingTime</code></li>
+   * <li>commonmark: linear time parser, suggested for large sets of documents</li>
+   * </ul>
+   * Other engines can be plugged in the plugin dependencies through <code>META-INF/services/org.bsc.markdown.MarkdownToWikiEngine</code>
+   *
+   * @since 4.6.1
+   */
+  @Parameter(property = "confluence.markdownEngine", defaultValue = MarkdownToWikiEngines.DEFAULT)
+  private String markdownEngine = MarkdownToWikiEngines.DEFAULT;
+
+  private MarkdownToWikiEngine markdownToWikiEngine;
+
+  private final Object snapshotLock = new Object();
+
+  private DeployManifest deployManifest;
+  private boolean deployManifestLoaded = false;
+
+  private final AtomicInteger pagesCreated = new AtomicInteger();
+  private final AtomicInteger pagesUpdated = new AtomicInteger();
+  private final AtomicInteger pagesSkipped = new AtomicInteger();
+  private final AtomicInteger labelsAdded = new AtomicInteger();
+  private final AtomicInteger labelsRemoved = new AtomicInteger();
+
   /**
    *
    */
@@ -183,6 +263,22 @@ public abstract class AbstractConfluenceMojo extends AbstractBaseConfluenceMojo
 
   }
 
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  /**
+   * @return the engine selected by <code>markdownEngine</code>
+   * @throws IllegalArgumentException if the engine is not supported
+   */
+  protected final synchronized MarkdownToWikiEngine getMarkdownEngine() {
+    if (markdownToWikiEngine == null) {
+      markdownToWikiEngine = MarkdownToWikiEngines.get(markdownEngine, maxParsingTime);
+      getLog().debug(String.format("markdown engine [%s]", markdownToWikiEngine));
+    }
+    return markdownToWikiEngine;
+  }
+
   public List<String> getLabels() {
 
     if (labels == null) {
@@ -238,6 +334,21 @@ public abstract class AbstractConfluenceMojo extends AbstractBaseConfluenceMojo
 
   protected <T extends Site.Page> Page generateChild(Confluence confluence, T child, String spaceKey,
                                                      String parentPageTitle, String titlePrefix) {
+    return generateChild(confluence, null, child, spaceKey, parentPageTitle, titlePrefix);
+  }
+
+  /**
+   * @param confluence
+   * @param index      index of the remote tree used to lookup/store the page. If null the lookups are remote
+   * @param child
+   * @param spaceKey
+   * @param parentPageTitle
+   * @param titlePrefix
+   *
+   * @return the stored page or null if an error occurred
+   */
+  protected <T extends Site.Page> Page generateChild(Confluence confluence, RemotePageIndex index, T child, String spaceKey,
+                                                     String parentPageTitle, String titlePrefix) {
 
     java.net.URI source = child.getUri(getProject(), getFileExt());
 
@@ -247,22 +358,28 @@ public abstract class AbstractConfluenceMojo extends AbstractBaseConfluenceMojo
 
       if (!isSnapshot() && isRemoveSnapshots()) {
         final String snapshot = titlePrefix.concat("-SNAPSHOT");
-        boolean deleted = ConfluenceUtils.removePage(confluence, spaceKey, parentPageTitle, snapshot);
 
-        if (deleted) {
-          getLog().info(String.format("Page [%s] has been removed!", snapshot));
+        // siblings could be published concurrently
+        synchronized (snapshotLock) {
+          boolean deleted = (index != null) ?
+            index.removePage(parentPageTitle, snapshot) :
+            ConfluenceUtils.removePage(confluence, spaceKey, parentPageTitle, snapshot);
+
+          if (deleted) {
+            getLog().info(String.format("Page [%s] has been removed!", snapshot));
+          }
         }
       }
 
       final String pageName = String.format("%s - %s", titlePrefix, child.getName());
 
-      Page p = ConfluenceUtils.getOrCreatePage(confluence, spaceKey, parentPageTitle, pageName);
+      String content = null;
 
       if (source != null /*&& source.isFile() && source.exists() */) {
 
         final MiniTemplator t = new MiniTemplator.Builder()
           .setSkipUndefinedVars(true)
-          .build(Site.processUri(source), getCharset());
+          .build(Site.processUri(source, getCharset(), getMarkdownEngine()), getCharset());
 
         if (!child.isIgnoreVariables()) {
 
@@ -271,16 +388,22 @@ public abstract class AbstractConfluenceMojo extends AbstractBaseConfluenceMojo
           t.setVariableOpt("childTitle", pageName);
         }
 
-        p.setContent(t.generateOutput());
+        content = t.generateOutput();
       }
 
-      p = confluence.storePage(p);
+      Page p = findUnchangedPage(index, parentPageTitle, pageName, content);
+
+      if (p == null) {
 
-      for (String label : child.getComputedLabels()) {
+        p = (index != null) ?
+          index.getOrCreatePage(parentPageTitle, pageName) :
+          ConfluenceUtils.getOrCreatePage(confluence, spaceKey, parentPageTitle, pageName);
 
-        confluence.addLabelByName(label, Long.parseLong(p.getId()));
+        p = storePage(confluence, index, p, content);
       }
 
+      addLabels(confluence, p, child.getComputedLabels());
+
       child.setName(pageName);
 
       return p;
@@ -295,6 +418,279 @@ public abstract class AbstractConfluenceMojo extends AbstractBaseConfluenceMojo
 
   }
 
+  /**
+   * store the page unless the incremental mode is enabled and its content has not changed
+   *
+   * @param confluence
+   * @param index      index of the remote tree. If null the page is stored directly
+   * @param page       page to store (either fetched or new)
+   * @param content    new content. If null the current one is kept
+   *
+   * @return the stored page or the given one if the store has been skipped
+   *
+   * @throws Exception
+   */
+  protected Page storePage(Confluence confluence, RemotePageIndex index, Page page, String content) throws Exception {
+
+    final boolean exists = (page.getId() != null);
+    final String digest = ContentDigest.digest((content != null) ? content : page.getContent());
+
+    if (exists && isIncremental() && isUnchanged(confluence, page, digest)) {
+
+      getLog().info(String.format("page [%s] is unchanged. store skipped!", page.getTitle()));
+      pagesSkipped.incrementAndGet();
+
+      return page;
+    }
+
+    if (content != null) {
+      page.setContent(content);
+    }
+
+    final Page result = (index != null) ? index.storePage(page) : confluence.storePage(page);
+
+    if (exists) {
+      pagesUpdated.incrementAndGet();
+    } else {
+      pagesCreated.incrementAndGet();
+    }
+
+    final DeployManifest manifest = getDeployManifest();
+    if (manifest != null) {
+      manifest.putPage(result, digest);
+    }
+
+    return result;
+  }
+
+  /**
+   * @param confluence
+   * @param page       remote page (before the update)
+   * @param digest     digest of the new content
+   *
+   * @return true if the new content is the same of the remote one
+   */
+  private boolean isUnchanged(Confluence confluence, Page page, String digest) {
+
+    // confluence 4+ returns the content in storage format, it can't be compared with the generated wiki
+    if (!(confluence instanceof Confluence2) && digest.equals(ContentDigest.digest(page.getContent()))) {
+      return true;
+    }
+
+    final DeployManifest manifest = getDeployManifest();
+
+    if (manifest == null) {
+      return false;
+    }
+
+    final DeployManifest.PageState state = manifest.get(page.getTitle());
+
+    // a different version means that the page has been modified after the last deploy
+    return (state != null &&
+      page.getId().equals(state.getId()) &&
+      page.getVersion() == state.getVersion() &&
+      digest.equals(state.getDigest()));
+  }
+
+  /**
+   * lookup the page in the validated deploy manifest. No remote call is made.
+   * A page modified remotely after the last deploy (or whose remote version is unknown) is not skipped
+   *
+   * @param index
+   * @param parentPageTitle
+   * @param title
+   * @param content generated content
+   *
+   * @return the page recorded in manifest if the incremental mode is enabled and
+   * the content has not changed from the last deploy, otherwise null
+   */
+  private Page findUnchangedPage(RemotePageIndex index, String parentPageTitle, String title, String content) {
+
+    if (!isIncremental() || index == null || content == null) {
+      return null;
+    }
+
+    final DeployManifest manifest = getDeployManifest();
+
+    if (manifest == null) {
+      return null;
+    }
+
+    final DeployManifest.PageState state = manifest.get(title);
+
+    if (state == null || !state.isCurrent() || !ContentDigest.digest(content).equals(state.getDigest())) {
+      return null;
+    }
+
+    final PageSummary summary = index.getPageById(state.getId());
+    final PageSummary parent = index.getPageByTitle(parentPageTitle);
+
+    if (summary == null || parent == null || !parent.getId().equals(summary.getParentId())) {
+      return null;
+    }
+
+    final Page result = new Page(Collections.EMPTY_MAP);
+    result.setId(summary.getId());
+    result.setSpace(summary.getSpace());
+    result.setParentId(summary.getParentId());
+    result.setTitle(summary.getTitle());
+    result.setUrl(summary.getUrl());
+    result.setVersion(state.getVersion());
+
+    getLog().info(String.format("page [%s] is unchanged since last deploy. store skipped!", title));
+    pagesSkipped.incrementAndGet();
+
+    return result;
+  }
+
+  /**
+   * make the page labels match the given ones. The remote labels are read once and only the
+   * difference is applied (see {@link LabelSynchronizer}), so a label removed by hand is restored.
+   * The labels removed from the site since the last deploy of the same page are removed from the page too
+   *
+   * @param confluence
+   * @param page
+   * @param labels
+   *
+   * @throws Exception
+   */
+  protected void addLabels(Confluence confluence, Page page, java.util.Collection<String> labels) throws Exception {
+
+    final DeployManifest manifest = getDeployManifest();
+
+    final java.util.Collection<String> managed = (manifest != null) ? manifest.getLabels(page.getTitle(), page.getId()) : null;
+
+    final LabelSynchronizer.Delta delta = new LabelSynchronizer(confluence).synchronize(page.getId(), labels, managed);
+
+    if (!delta.isEmpty()) {
+      getLog().info(String.format("page [%s] labels %s", page.getTitle(), delta));
+
+      labelsAdded.addAndGet(delta.getToAdd().size());
+      labelsRemoved.addAndGet(delta.getToRemove().size());
+    }
+
+    if (manifest != null) {
+      manifest.putLabels(page.getTitle(), labels);
+    }
+  }
+
+  /**
+   * record the digest of the uploaded attachment in the deploy manifest
+   *
+   * @param page
+   * @param name
+   * @param digest
+   */
+  protected void putAttachmentDigest(Page page, String name, String digest) {
+
+    final DeployManifest manifest = getDeployManifest();
+
+    if (manifest != null) {
+      manifest.putAttachment(page.getTitle(), name, digest);
+    }
+  }
+
+  /**
+   * @param page
+   * @param name attachment name
+   *
+   * @return the digest of the attachment uploaded by the last deploy, or null if the
+   * manifest entry of the page is missing or it doesn't match the given page
+   */
+  protected String getAttachmentDigest(Page page, String name) {
+
+    final DeployManifest manifest = getDeployManifest();
+
+    if (manifest == null) {
+      return null;
+    }
+
+    final DeployManifest.PageState state = manifest.get(page.getTitle());
+
+    if (state == null || !state.isTrusted() || page.getId() == null || !page.getId().equals(state.getId())) {
+      return null;
+    }
+
+    return manifest.getAttachmentDigest(page.getTitle(), name);
+  }
+
+  /**
+   * @return the state of the last deploy or null if it is not available
+   */
+  private synchronized DeployManifest getDeployManifest() {
+
+    if (deployManifestLoaded) {
+      return deployManifest;
+    }
+    deployManifestLoaded = true;
+
+    final boolean legacy = (deployCache != null);
+
+    if (legacy) {
+      getLog().warn("parameter deployCache is deprecated, use deployState");
+    }
+
+    final java.io.File file = (legacy) ? deployCache : deployState;
+
+    if (file == null) {
+      return null;
+    }
+
+    try {
+      deployManifest = DeployManifest.load(file, getEndPoint(), getSpaceKey());
+    } catch (IOException e) {
+      if (legacy) { // digest file of a previous release
+        getLog().info(String.format("deploy cache [%s] replaced by the deploy manifest", file));
+        deployManifest = DeployManifest.create(file, getEndPoint(), getSpaceKey());
+      } else {
+        getLog().warn(String.format("error loading deploy manifest [%s]: %s", file, e.getMessage()));
+      }
+    }
+    return deployManifest;
+  }
+
+  /**
+   * trust the entries of deploy manifest that match the remote tree
+   *
+   * @param index
+   */
+  protected void validateDeployManifest(RemotePageIndex index) {
+
+    final DeployManifest manifest = getDeployManifest();
+
+    if (manifest == null || index == null) {
+      return;
+    }
+
+    final int discarded = manifest.validate(index);
+
+    getLog().info(String.format("deploy manifest entries [%d] discarded [%d]", manifest.size(), discarded));
+  }
+
+  /**
+   * save the deploy manifest and log the deploy statistics
+   */
+  protected void saveDeployState() {
+
+    getLog().info(String.format("pages created [%d] updated [%d] skipped [%d]",
+      pagesCreated.get(),
+      pagesUpdated.get(),
+      pagesSkipped.get()));
+    getLog().info(String.format("labels added [%d] removed [%d]",
+      labelsAdded.get(),
+      labelsRemoved.get()));
+
+    final DeployManifest manifest = getDeployManifest();
+
+    if (manifest != null) {
+      try {
+        manifest.save();
+      } catch (IOException e) {
+        getLog().warn(String.format("error saving deploy manifest [%s]: %s", manifest.getFile(), e.getMessage()));
+      }
+    }
+  }
+
   /**
    * Issue 46
    **/
@@ -343,7 +739,7 @@ public abstract class AbstractConfluenceMojo extends AbstractBaseConfluenceMojo
 
     try {
       getLog().info("Processing URI");
-      return toString(Site.processUri(uri), charset);
+      return toString(Site.processUri(uri, charset, getMarkdownEngine()), charset);
     } catch (Exception ex) {
       throw new ProcessUriException("error reading content!", ex);
     }
@@ -7,13 +7,24 @@ package org.bsc.maven.confluence.plugin;
 import java.io.File;
 import java.io.FileFilter;
 import java.net.URISyntaxException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
+import org.apache.commons.io.input.CountingInputStream;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.bsc.maven.plugin.confluence.AttachmentDigest;
 import org.bsc.maven.plugin.confluence.ConfluenceUtils;
+import org.bsc.maven.plugin.confluence.ContentDigest;
+import org.bsc.maven.plugin.confluence.RemotePageIndex;
 import org.bsc.maven.reporting.model.Site;
 import org.bsc.maven.reporting.model.SiteFactory;
+import org.codehaus.swizzle.confluence.AsyncConfluence;
 import org.codehaus.swizzle.confluence.Attachment;
 import org.codehaus.swizzle.confluence.Confluence;
 import org.codehaus.swizzle.confluence.Page;
@@ -31,6 +42,26 @@ public abstract class AbstractConfluenceSiteMojo extends AbstractConfluenceMojo
     @Parameter(defaultValue = "${basedir}/src/site/confluence/site.xml")
     protected java.io.File siteDescriptor;
 
+    /**
+     * number of pages/attachments published concurrently. If greater than 1 the
+     * site tree is published in parallel: a page is stored before its children,
+     * sibling pages are stored concurrently and attachments are uploaded as soon
+     * as their page exists.
+     *
+     * It implies the connection pool, sized at least as the number of threads
+     *
+     * @since 4.6.1
+     */
+    @Parameter(property = "confluence.publishThreads", defaultValue = "1")
+    private int publishThreads = 1;
+
+    private volatile AttachmentDigests attachmentDigests;
+
+    private final AtomicInteger attachmentsUploaded = new AtomicInteger();
+    private final AtomicInteger attachmentsSkipped = new AtomicInteger();
+    private final AtomicLong bytesUploaded = new AtomicLong();
+    private final AtomicLong bytesSkipped = new AtomicLong();
+
     /**
      * 
      * @return 
@@ -43,6 +74,34 @@ public abstract class AbstractConfluenceSiteMojo extends AbstractConfluenceMojo
     protected boolean isSiteDescriptorValid() {
         return ( siteDescriptor!=null  && siteDescriptor.exists() && siteDescriptor.isFile());   
     }
+
+    public int getPublishThreads() {
+        return publishThreads;
+    }
+
+    /**
+     * parallel publishing requires pooled connections, at least one per thread
+     *
+     * @return
+     */
+    @Override
+    protected Confluence.ConnectionPoolInfo getConnectionPoolInfo() {
+        final Confluence.ConnectionPoolInfo result = super.getConnectionPoolInfo();
+
+        if( publishThreads <= 1 ) {
+            return result;
+        }
+        if( result == null ) {
+            getLog().info(String.format("publishThreads [%d] connection pool enabled", publishThreads));
+            return newConnectionPoolInfo(publishThreads);
+        }
+        if( result.maxConnectionsPerHost < publishThreads ) {
+            getLog().warn(String.format("maxConnectionsPerHost [%d] is less than publishThreads [%d]. It will be raised to [%d]",
+                    result.maxConnectionsPerHost, publishThreads, publishThreads));
+            return newConnectionPoolInfo(publishThreads);
+        }
+        return result;
+    }
     
     /**
      * 
@@ -78,18 +137,92 @@ public abstract class AbstractConfluenceSiteMojo extends AbstractConfluenceMojo
 
         getLog().info(String.format("generateAttachments pageId [%s]", confluencePage.getId()));
 
+        final long uploaded = bytesUploaded.get();
+        final long skipped = bytesSkipped.get();
+
         for( Site.Attachment attachment : page.getAttachments() ) {
 
-            Attachment confluenceAttachment = null;
+            generateAttachment(attachment, confluence, confluencePage);
+        }
 
-            try {
-                confluenceAttachment = confluence.getAttachment(confluencePage.getId(), attachment.getName(), attachment.getVersion());
-            } catch (Exception e) {
-                getLog().warn(String.format("Error getting attachment [%s] from confluence: [%s]", attachment.getName(), e.getMessage()));
-            }
+        if( !page.getAttachments().isEmpty() ) {
+            getLog().info(String.format("generateAttachments pageId [%s] bytes uploaded [%d] skipped [%d]",
+                    confluencePage.getId(),
+                    bytesUploaded.get() - uploaded,
+                    bytesSkipped.get() - skipped));
+        }
+    }
+
+    /**
+     * 
+     * @param attachment
+     * @return digest of the local attachment or null if it cannot be computed
+     */
+    private AttachmentDigest getLocalDigest( Site.Attachment attachment ) {
+        try {
+            final AttachmentDigests digests = attachmentDigests;
+
+            return ( digests != null ) ? digests.get(attachment) : AttachmentDigest.of(attachment.getUri());
+
+        } catch (Exception e) {
+            getLog().warn(String.format("Error computing digest of attachment [%s]: [%s]", attachment.getName(), e.getMessage()));
+            return null;
+        }
+    }
+
+    private void attachmentSkipped( AttachmentDigest digest ) {
+        attachmentsSkipped.incrementAndGet();
+        bytesSkipped.addAndGet(digest.getSize());
+    }
 
-            if (confluenceAttachment != null) {
+    /**
+     * The attachment is uploaded only if its content has changed. The SHA-256
+     * of the local content is compared with:
+     * <ol>
+     * <li>the digest recorded in the deploy manifest (no remote call)</li>
+     * <li>the digest recorded in the comment of the remote attachment</li>
+     * </ol>
+     * If neither is available the last modified date is compared with the
+     * remote creation date.
+     *
+     * @param attachment
+     * @param confluence
+     * @param confluencePage 
+     */
+    private void generateAttachment( Site.Attachment attachment,  Confluence confluence, Page confluencePage) /*throws MavenReportException*/ {
+
+        final AttachmentDigest localDigest = getLocalDigest(attachment);
 
+        if (localDigest != null && localDigest.getValue().equals(getAttachmentDigest(confluencePage, attachment.getName()))) {
+            getLog().info(String.format("attachment [%s] skipped! unchanged since last deploy", attachment.getName()));
+            attachmentSkipped(localDigest);
+            return;
+        }
+
+        Attachment confluenceAttachment = null;
+
+        try {
+            confluenceAttachment = confluence.getAttachment(confluencePage.getId(), attachment.getName(), attachment.getVersion());
+        } catch (Exception e) {
+            getLog().warn(String.format("Error getting attachment [%s] from confluence: [%s]", attachment.getName(), e.getMessage()));
+        }
+
+        if (confluenceAttachment != null) {
+
+            final String remoteDigest = AttachmentDigest.fromComment(confluenceAttachment.getComment());
+
+            if (localDigest != null && remoteDigest != null) {
+
+                if (localDigest.getValue().equals(remoteDigest)) {
+                    getLog().info(String.format("attachment [%s] skipped! content unchanged", confluenceAttachment.getFileName()));
+                    putAttachmentDigest(confluencePage, attachment.getName(), remoteDigest);
+                    attachmentSkipped(localDigest);
+                    return;
+                }
+
+                getLog().info(String.format("attachment [%s] content has changed. It will be replaced! ", confluenceAttachment.getFileName()));
+
+            } else {
 
                 java.util.Date date = confluenceAttachment.getCreated();
 
@@ -100,30 +233,156 @@ public abstract class AbstractConfluenceSiteMojo extends AbstractConfluenceMojo
                         getLog().info(String.format("attachment [%s] is more recent than the remote one. It will be replaced! ", confluenceAttachment.getFileName()));
                     } else {
                         getLog().info(String.format("attachment [%s] skipped! no updated detected", confluenceAttachment.getFileName()));
-                        continue;
+                        if (localDigest != null) {
+                            attachmentSkipped(localDigest);
+                        }
+                        return;
 
                     }
                 }
-            } else {
-                confluenceAttachment = new Attachment();
-                confluenceAttachment.setFileName(attachment.getName());
-                confluenceAttachment.setContentType(attachment.getContentType());
+            }
+        } else {
+            confluenceAttachment = new Attachment();
+            confluenceAttachment.setFileName(attachment.getName());
+            confluenceAttachment.setContentType(attachment.getContentType());
+
+        }
+
+        confluenceAttachment.setComment( AttachmentDigest.toComment(attachment.getComment(), 
+                                            (localDigest != null) ? localDigest.getValue() : null));
+
+        try {
+            final MessageDigest md = MessageDigest.getInstance(ContentDigest.ALGORITHM);
+            final CountingInputStream is = new CountingInputStream( 
+                                                new DigestInputStream(attachment.getUri().toURL().openStream(), md));
 
+            try {
+                ConfluenceUtils.addAttchment(confluence, confluencePage, confluenceAttachment, is );
+            }
+            finally {
+                is.close();
             }
 
-            confluenceAttachment.setComment( attachment.getComment());
-            
+            putAttachmentDigest(confluencePage, attachment.getName(), ContentDigest.toHex(md.digest()));
+
+            attachmentsUploaded.incrementAndGet();
+            bytesUploaded.addAndGet(is.getByteCount());
+
+        } catch (Exception e) {
+            getLog().error(String.format("Error uploading attachment [%s] ", attachment.getName()), e);
+        }
+
+    }
+
+    /**
+     * Publish a site tree concurrently.
+     *
+     * Each page and each attachment is a unit of work. The children and the
+     * attachments of a page are submitted as soon as the page has been stored,
+     * so the publishing ends when no unit of work is pending anymore.
+     */
+    private class ConcurrentPublisher {
+
+        final AsyncConfluence async;
+        final RemotePageIndex index;
+        final String spaceKey;
+        final String titlePrefix;
+        final AtomicInteger pending = new AtomicInteger(1);
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        ConcurrentPublisher(Confluence confluence, RemotePageIndex index, String spaceKey, String titlePrefix) {
+            this.async = new AsyncConfluence(confluence, publishThreads);
+            this.index = index;
+            this.spaceKey = spaceKey;
+            this.titlePrefix = titlePrefix;
+        }
+
+        /**
+         * publish the whole tree under the given (already stored) page and wait for the completion
+         *
+         * @param parentPage
+         * @param confluenceParentPage
+         */
+        void publish( Site.Page parentPage, Page confluenceParentPage ) {
             try {
-                ConfluenceUtils.addAttchment(confluence, confluencePage, confluenceAttachment, attachment.getUri().toURL() );
-            } catch (Exception e) {
-                getLog().error(String.format("Error uploading attachment [%s] ", attachment.getName()), e);
+                publishChildren(parentPage, confluenceParentPage);
+            }
+            finally {
+                done();
             }
 
+            try {
+                completed.await();
+                async.shutdown(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                getLog().warn("publishing has been interrupted!");
+                Thread.currentThread().interrupt();
+            }
         }
 
+        void publishChildren( final Site.Page parentPage, final Page confluenceParentPage ) {
+
+            getLog().info(String.format("generateChildren # [%d]", parentPage.getChildren().size()));
+
+            for( final Site.Attachment attachment : parentPage.getAttachments() ) {
+
+                submit( new AsyncConfluence.Task<Void,Void>() {
+
+                    @Override
+                    public Void execute(Confluence confluence, Void p) throws Exception {
+                        generateAttachment(attachment, confluence, confluenceParentPage);
+                        return null;
+                    }
+                });
+            }
+
+            for( final Site.Page child : parentPage.getChildren() ) {
+
+                submit( new AsyncConfluence.Task<Void,Void>() {
+
+                    @Override
+                    public Void execute(Confluence confluence, Void p) throws Exception {
+                        final Page confluencePage = generateChild(confluence, index, child, spaceKey, parentPage.getName(), titlePrefix);
+
+                        if( confluencePage != null  ) {
+
+                            publishChildren(child, confluencePage);
+                        }
+                        return null;
+                    }
+                });
+            }
+        }
+
+        private void submit( final AsyncConfluence.Task<Void,Void> task ) {
+
+            pending.incrementAndGet();
+
+            async.submit( new AsyncConfluence.Task<Void,Void>() {
+
+                @Override
+                public Void execute(Confluence confluence, Void p) throws Exception {
+                    try {
+                        return task.execute(confluence, p);
+                    }
+                    catch( Exception e ) {
+                        getLog().error("error publishing page", e);
+                        throw e;
+                    }
+                    finally {
+                        done();
+                    }
+                }
+            });
+        }
+
+        private void done() {
+            if( pending.decrementAndGet() == 0 ) {
+                completed.countDown();
+            }
+        }
     }
-    
-    
+
     /**
      * 
      * @param confluence
@@ -140,6 +399,60 @@ public abstract class AbstractConfluenceSiteMojo extends AbstractConfluenceMojo
                                         final String parentPageTitle, 
                                         final String titlePrefix) 
     {
+        RemotePageIndex index = null;
+
+        try {
+            index = RemotePageIndex.load(confluence, confluenceParentPage);
+
+            getLog().info(String.format("remote page index loaded # [%d]", index.size()));
+
+            validateDeployManifest(index);
+
+        } catch (Exception e) {
+            getLog().warn(String.format("error loading remote page index: [%s]. Pages will be looked up remotely", e.getMessage()));
+        }
+
+        attachmentDigests = new AttachmentDigests( Runtime.getRuntime().availableProcessors() );
+        attachmentDigests.submit(parentPage);
+
+        try {
+            if( publishThreads > 1 ) {
+
+                new ConcurrentPublisher(confluence, index, spaceKey, titlePrefix).publish(parentPage, confluenceParentPage);
+            }
+            else {
+
+                generateChildren(confluence, index, parentPage, confluenceParentPage, spaceKey, titlePrefix);
+            }
+        }
+        finally {
+            attachmentDigests.shutdown();
+            attachmentDigests = null;
+        }
+
+        getLog().info(String.format("attachments uploaded [%d] bytes [%d] skipped [%d] bytes [%d]",
+                attachmentsUploaded.get(),
+                bytesUploaded.get(),
+                attachmentsSkipped.get(),
+                bytesSkipped.get()));
+    }
+
+    /**
+     * 
+     * @param confluence
+     * @param index
+     * @param parentPage
+     * @param confluenceParentPage
+     * @param spaceKey
+     * @param titlePrefix 
+     */
+    private void generateChildren(  final Confluence confluence, 
+                                    final RemotePageIndex index,
+                                    final Site.Page parentPage,
+                                    final Page confluenceParentPage,  
+                                    final String spaceKey, 
+                                    final String titlePrefix) 
+    {
 
         getLog().info(String.format("generateChildren # [%d]", parentPage.getChildren().size()));
 
@@ -148,11 +461,11 @@ public abstract class AbstractConfluenceSiteMojo extends AbstractConfluenceMojo
         
         for( Site.Page child : parentPage.getChildren() ) {
 
-            final Page confluencePage = generateChild(confluence, child, spaceKey, parentPage.getName(), titlePrefix);
+            final Page confluencePage = generateChild(confluence, index, child, spaceKey, parentPage.getName(), titlePrefix);
             
             if( confluencePage != null  ) {
 
-                generateChildren(confluence, child, confluencePage, spaceKey, child.getName(), titlePrefix );    
+                generateChildren(confluence, index, child, confluencePage, spaceKey, titlePrefix );    
             }
             
         }
@@ -0,0 +1,132 @@
+package org.bsc.maven.confluence.plugin;
+
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bsc.maven.plugin.confluence.AttachmentDigest;
+import org.bsc.maven.reporting.model.Site;
+
+/**
+ * Digests of the site attachments, computed in parallel.
+ *
+ * All the attachments of the site tree are submitted up front, so the hashing
+ * overlaps the publishing of the pages; {@link #get(Site.Attachment)} waits only
+ * for the attachment it needs.
+ */
+class AttachmentDigests {
+
+    private final ConcurrentMap<URI,Future<AttachmentDigest>> digests = new ConcurrentHashMap<URI,Future<AttachmentDigest>>();
+
+    private final ExecutorService executor;
+
+    /**
+     *
+     * @param threads number of files hashed concurrently
+     */
+    AttachmentDigests( int threads ) {
+        if( threads < 1 ) {
+            throw new IllegalArgumentException("threads must be greater than 0!");
+        }
+
+        final AtomicInteger count = new AtomicInteger();
+
+        executor = Executors.newFixedThreadPool( threads, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, String.format("confluence-digest-%d", count.incrementAndGet()));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * start hashing the attachments of the page and of its descendants
+     *
+     * @param page
+     */
+    void submit( Site.Page page ) {
+        if( page == null ) {
+            return;
+        }
+        for( Site.Attachment a : page.getAttachments() ) {
+            final URI uri = a.getUri();
+            if( uri != null ) {
+                future(uri, true);
+            }
+        }
+        for( Site.Page child : page.getChildren() ) {
+            submit( child );
+        }
+    }
+
+    private Future<AttachmentDigest> future( final URI uri, boolean async ) {
+
+        Future<AttachmentDigest> result = digests.get(uri);
+
+        if( result != null ) {
+            return result;
+        }
+
+        final FutureTask<AttachmentDigest> task = new FutureTask<AttachmentDigest>( new Callable<AttachmentDigest>() {
+
+            @Override
+            public AttachmentDigest call() throws Exception {
+                return AttachmentDigest.of(uri);
+            }
+        });
+
+        result = digests.putIfAbsent(uri, task);
+
+        if( result != null ) {
+            return result;
+        }
+
+        if( async ) {
+            executor.execute(task);
+        }
+        else {
+            task.run();
+        }
+        return task;
+    }
+
+    /**
+     *
+     * @param attachment
+     * @return digest of the attachment content (computed now if it hasn't been submitted)
+     * @throws Exception
+     */
+    AttachmentDigest get( Site.Attachment attachment ) throws Exception {
+        if( attachment == null ) {
+            throw new IllegalArgumentException("attachment is null!");
+        }
+
+        final URI uri = attachment.getUri();
+
+        if( uri == null ) {
+            throw new IllegalStateException("uri is null");
+        }
+
+        try {
+            return future(uri, false).get();
+        }
+        catch( ExecutionException e ) {
+            final Throwable cause = e.getCause();
+            throw ( cause instanceof Exception ) ? (Exception)cause : e;
+        }
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -278,7 +278,7 @@ public class ConfluenceDeployMojo extends AbstractConfluenceSiteMojo {
     try {
       t = new MiniTemplator.Builder()
         .setSkipUndefinedVars(true)
-        .build(Site.processUri(site.getHome().getUri()), getCharset());
+        .build(Site.processUri(site.getHome().getUri(), getCharset(), getMarkdownEngine()), getCharset());
 
     } catch (Exception e) {
       final String msg = "error loading template";
@@ -457,17 +457,13 @@ public class ConfluenceDeployMojo extends AbstractConfluenceSiteMojo {
 
         Page confluencePage = ConfluenceUtils.getOrCreatePage(confluence, getSpaceKey(), getParentPageTitle(), title);
 
-        confluencePage.setContent(wiki);
+        confluencePage = storePage(confluence, null, confluencePage, wiki);
 
-        confluencePage = confluence.storePage(confluencePage);
-
-        for (String label : site.getHome().getComputedLabels()) {
-
-          confluence.addLabelByName(label, Long.parseLong(confluencePage.getId()));
-        }
+        addLabels(confluence, confluencePage, site.getHome().getComputedLabels());
 
         generateChildren(confluence, site.getHome(), confluencePage, getSpaceKey(), title, title);
 
+        saveDeployState();
       }
     });
 
@@ -638,9 +634,7 @@ public class ConfluenceDeployMojo extends AbstractConfluenceSiteMojo {
 
           generator.execute(outputDirectory, request);
 
-          for (String label : site.getHome().getComputedLabels()) {
-            confluence.addLabelByName(label, Long.parseLong(confluencePage.getId()));
-          }
+          addLabels(confluence, confluencePage, site.getHome().getComputedLabels());
 
           // Issue 32
           final String title = getTitle();
@@ -654,6 +648,8 @@ public class ConfluenceDeployMojo extends AbstractConfluenceSiteMojo {
             title);
           //generateChildren(confluence, getSpaceKey(), title, title);
 
+          saveDeployState();
+
         }
       });
 
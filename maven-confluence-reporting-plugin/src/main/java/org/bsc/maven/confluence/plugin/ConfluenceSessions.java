@@ -0,0 +1,187 @@
+package org.bsc.maven.confluence.plugin;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import org.apache.maven.plugin.logging.Log;
+import org.bsc.maven.plugin.confluence.ContentDigest;
+import org.codehaus.swizzle.confluence.Confluence;
+
+/**
+ * Confluence sessions shared by the mojo executions of a reactor build.
+ *
+ * A session is created (login and version detection) by the first execution that
+ * needs it and then reused by the following modules, so each of them doesn't pay
+ * a login, a <code>getServerInfo</code> and a logout. The sessions are closed (logout)
+ * once, when the last module of the reactor releases them, or at JVM exit.
+ */
+final class ConfluenceSessions {
+
+    /**
+     * what identifies a session: endpoint, credentials, proxy and client settings.
+     * The secrets are kept as a digest (see {@link #secret(String)})
+     */
+    static final class Key {
+        private final List<Object> values;
+
+        Key( Object... values ) {
+            this.values = Arrays.asList(values);
+        }
+
+        /**
+         *
+         * @param value e.g. a password
+         * @return hex encoded SHA-256 of the value or null
+         */
+        static String secret( String value ) {
+            if( value == null ) {
+                return null;
+            }
+            try {
+                final MessageDigest md = MessageDigest.getInstance("SHA-256");
+
+                return ContentDigest.toHex( md.digest(value.getBytes("UTF-8")) );
+
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof Key) && values.equals(((Key)o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return values.hashCode();
+        }
+    }
+
+    /**
+     * registry by build request, that is shared by the per-module copies of the maven session
+     */
+    private static final Map<Object,ConfluenceSessions> _REACTORS = new WeakHashMap<Object,ConfluenceSessions>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook( new Thread("confluence-logout") {
+
+            @Override
+            public void run() {
+                final List<ConfluenceSessions> reactors;
+                synchronized( ConfluenceSessions.class ) {
+                    reactors = new ArrayList<ConfluenceSessions>(_REACTORS.values());
+                    _REACTORS.clear();
+                }
+                for( ConfluenceSessions r : reactors ) {
+                    r.close(null);
+                }
+            }
+        });
+    }
+
+    /**
+     *
+     * @param build identity of the reactor build (e.g. the maven execution request)
+     * @return the sessions of the given build
+     */
+    static synchronized ConfluenceSessions of( Object build ) {
+        if( build == null ) {
+            throw new IllegalArgumentException("build is null!");
+        }
+        ConfluenceSessions result = _REACTORS.get(build);
+
+        if( result == null ) {
+            result = new ConfluenceSessions();
+            _REACTORS.put(build, result);
+        }
+        return result;
+    }
+
+    private final Map<Key,Confluence> sessions = new HashMap<Key,Confluence>();
+    private int inUse = 0;
+    private boolean closing = false;
+
+    ConfluenceSessions() {
+    }
+
+    /**
+     *
+     * @param key
+     * @param factory creates and logs in the session if there isn't one for the key
+     * @return the shared session
+     * @throws Exception
+     */
+    synchronized Confluence acquire( Key key, Callable<Confluence> factory ) throws Exception {
+        if( key == null ) {
+            throw new IllegalArgumentException("key is null!");
+        }
+        if( factory == null ) {
+            throw new IllegalArgumentException("factory is null!");
+        }
+        Confluence result = sessions.get(key);
+
+        if( result == null ) {
+            result = factory.call();
+            sessions.put(key, result);
+        }
+        ++inUse;
+        closing = false;
+
+        return result;
+    }
+
+    /**
+     *
+     * @param last true if the reactor build is at its last module
+     * @param log
+     */
+    synchronized void release( boolean last, Log log ) {
+        if( inUse > 0 ) {
+            --inUse;
+        }
+        closing |= last;
+
+        if( closing && inUse == 0 ) {
+            close(log);
+        }
+    }
+
+    /**
+     *
+     * @return number of open sessions
+     */
+    synchronized int size() {
+        return sessions.size();
+    }
+
+    /**
+     * logout of all the sessions
+     *
+     * @param log if null the errors are ignored
+     */
+    synchronized void close( Log log ) {
+        for( Confluence confluence : sessions.values() ) {
+            try {
+                if( !confluence.logout() && log != null ) {
+                    log.warn("confluence logout has failed!");
+                }
+            } catch (Exception e) {
+                if( log != null ) {
+                    log.warn("confluence logout has failed due exception ", e);
+                }
+            }
+        }
+        sessions.clear();
+        closing = false;
+    }
+}
@@ -0,0 +1,355 @@
+package org.bsc.maven.confluence.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.bsc.json.Json;
+import org.bsc.maven.plugin.confluence.RemotePageIndex;
+import org.codehaus.swizzle.confluence.Page;
+import org.codehaus.swizzle.confluence.PageSummary;
+
+/**
+ * State of the last deploy: remote id, version, content digest, labels and
+ * attachment digests of each deployed page.
+ *
+ * Pages are keyed by title, that is unique within the space and is derived from
+ * the {@link org.bsc.maven.reporting.model.Site.Page} path.
+ *
+ * The manifest is trusted only after that it has been checked against the remote
+ * page tree (see {@link #validate(RemotePageIndex)}). Entries that don't match
+ * anymore are discarded and their pages are looked up remotely.
+ * An entry is current only if the remote version is known and it is still the recorded one,
+ * a page edited remotely after the last deploy is fetched and compared again.
+ */
+class DeployManifest {
+
+    private static final int FORMAT = 1;
+
+    static class PageState {
+        final String id;
+        final int version;
+        final String digest;
+        final Set<String> labels = new TreeSet<String>();
+        final Map<String,String> attachments = new TreeMap<String,String>();
+        boolean trusted = false;
+        boolean current = false;
+
+        PageState(String id, int version, String digest) {
+            this.id = id;
+            this.version = version;
+            this.digest = digest;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        /**
+         *
+         * @return true if the entry has been checked against the remote tree
+         */
+        public boolean isTrusted() {
+            return trusted;
+        }
+
+        /**
+         *
+         * @return true if the remote page has not been modified since it has been recorded
+         */
+        public boolean isCurrent() {
+            return current;
+        }
+
+    }
+
+    private final File file;
+    private final String endPoint;
+    private final String spaceKey;
+    private final Map<String,PageState> pages = new TreeMap<String,PageState>();
+    private boolean modified = false;
+
+    /**
+     *
+     * @param file
+     * @param endPoint
+     * @param spaceKey
+     * @return an empty manifest that will be saved in the given file, its content (if any) is replaced
+     */
+    static DeployManifest create( File file, String endPoint, String spaceKey ) {
+        if( file == null ) {
+            throw new IllegalArgumentException("file is null!");
+        }
+        return new DeployManifest(file, endPoint, spaceKey);
+    }
+
+    /**
+     *
+     * @param file
+     * @param endPoint
+     * @param spaceKey
+     * @return the manifest loaded from the given file. It is empty if the file doesn't
+     * exist or it refers to a different confluence/space
+     * @throws IOException
+     */
+    @SuppressWarnings("unchecked")
+    static DeployManifest load( File file, String endPoint, String spaceKey ) throws IOException {
+        if( file == null ) {
+            throw new IllegalArgumentException("file is null!");
+        }
+
+        final DeployManifest result = new DeployManifest(file, endPoint, spaceKey);
+
+        if( !file.isFile() ) {
+            return result;
+        }
+
+        final StringBuilder text = new StringBuilder( (int)file.length() );
+        final Reader r = new InputStreamReader( new FileInputStream(file), "UTF-8");
+        try {
+            final char[] buffer = new char[4096];
+            int len;
+            while( (len = r.read(buffer)) != -1 ) {
+                text.append(buffer, 0, len);
+            }
+        }
+        finally {
+            r.close();
+        }
+
+        final Map<String,Object> root;
+        try {
+            root = (Map<String,Object>) Json.parse(text);
+        }
+        catch( Exception e ) {
+            throw new IOException( String.format("invalid deploy manifest [%s]: %s", file, e.getMessage()));
+        }
+
+        if( !equals(root.get("endPoint"), endPoint) || !equals(root.get("spaceKey"), spaceKey) ) {
+            return result;
+        }
+
+        final Map<String,Object> pages = (Map<String,Object>) root.get("pages");
+
+        if( pages == null ) {
+            return result;
+        }
+
+        for( Map.Entry<String,Object> e : pages.entrySet() ) {
+
+            final Map<String,Object> p = (Map<String,Object>) e.getValue();
+
+            final PageState state = new PageState(
+                    (String)p.get("id"),
+                    ((Number)p.get("version")).intValue(),
+                    (String)p.get("digest"));
+
+            final List<String> labels = (List<String>) p.get("labels");
+            if( labels != null ) {
+                state.labels.addAll(labels);
+            }
+            final Map<String,String> attachments = (Map<String,String>) p.get("attachments");
+            if( attachments != null ) {
+                state.attachments.putAll(attachments);
+            }
+
+            result.pages.put(e.getKey(), state);
+        }
+
+        return result;
+    }
+
+    private static boolean equals( Object a, Object b ) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+
+    private DeployManifest( File file, String endPoint, String spaceKey ) {
+        this.file = file;
+        this.endPoint = endPoint;
+        this.spaceKey = spaceKey;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    synchronized int size() {
+        return pages.size();
+    }
+
+    /**
+     * check the entries against the remote tree. The entries whose page has been
+     * renamed or recreated are discarded, the matching ones become trusted.
+     * The trusted ones whose remote version is the recorded one become current
+     *
+     * @param index
+     * @return number of discarded entries
+     */
+    synchronized int validate( RemotePageIndex index ) {
+
+        int result = 0;
+
+        final Iterator<Map.Entry<String,PageState>> i = pages.entrySet().iterator();
+
+        while( i.hasNext() ) {
+            final Map.Entry<String,PageState> e = i.next();
+
+            PageSummary remote = index.getPageById(e.getValue().id);
+
+            if( remote == null ) {
+                remote = index.getPageByTitle(e.getKey());
+
+                if( remote == null ) {
+                    continue; // page outside the indexed tree
+                }
+            }
+
+            if( e.getKey().equals(remote.getTitle()) && e.getValue().id.equals(remote.getId()) ) {
+                e.getValue().trusted = true;
+                e.getValue().current = ( index.getVersion(remote.getId()) == e.getValue().version );
+            }
+            else { // renamed or recreated
+                i.remove();
+                modified = true;
+                ++result;
+            }
+        }
+
+        return result;
+    }
+
+    synchronized PageState get( String title ) {
+        return pages.get(title);
+    }
+
+    /**
+     * record the stored page. Labels and attachments are kept if it is the same page
+     *
+     * @param stored
+     * @param digest
+     */
+    synchronized void putPage( Page stored, String digest ) {
+
+        final PageState previous = pages.get(stored.getTitle());
+        final PageState state = new PageState(stored.getId(), stored.getVersion(), digest);
+
+        if( previous != null && previous.id != null && previous.id.equals(stored.getId()) ) {
+            state.labels.addAll(previous.labels);
+            state.attachments.putAll(previous.attachments);
+        }
+        state.trusted = true;
+        state.current = true;
+
+        pages.put(stored.getTitle(), state);
+        modified = true;
+    }
+
+    /**
+     *
+     * @param title
+     * @param pageId remote page
+     * @return labels set by the last deploy on the given page (empty if unknown or the page has been recreated)
+     */
+    synchronized Set<String> getLabels( String title, String pageId ) {
+        final PageState state = pages.get(title);
+
+        if( state == null || state.id == null || !state.id.equals(pageId) ) {
+            return new TreeSet<String>();
+        }
+        return new TreeSet<String>(state.labels);
+    }
+
+    synchronized void putLabels( String title, Collection<String> labels ) {
+        final PageState state = pages.get(title);
+        if( state == null ) {
+            return;
+        }
+        state.labels.clear();
+        state.labels.addAll(labels);
+        modified = true;
+    }
+
+    /**
+     *
+     * @param title page title
+     * @param name attachment name
+     * @return digest of the attachment uploaded by the last deploy or null
+     */
+    synchronized String getAttachmentDigest( String title, String name ) {
+        final PageState state = pages.get(title);
+
+        return ( state == null ) ? null : state.attachments.get(name);
+    }
+
+    synchronized void putAttachment( String title, String name, String digest ) {
+        final PageState state = pages.get(title);
+        if( state == null || digest == null ) {
+            return;
+        }
+        state.attachments.put(name, digest);
+        modified = true;
+    }
+
+    /**
+     * write the manifest if it has been modified
+     *
+     * @throws IOException
+     */
+    synchronized void save() throws IOException {
+        if( !modified ) {
+            return;
+        }
+
+        final Map<String,Object> root = new LinkedHashMap<String,Object>();
+        root.put("format", FORMAT);
+        root.put("endPoint", endPoint);
+        root.put("spaceKey", spaceKey);
+
+        final Map<String,Object> _pages = new LinkedHashMap<String,Object>();
+        for( Map.Entry<String,PageState> e : pages.entrySet() ) {
+            final PageState state = e.getValue();
+            final Map<String,Object> p = new LinkedHashMap<String,Object>();
+            p.put("id", state.id);
+            p.put("version", state.version);
+            p.put("digest", state.digest);
+            p.put("labels", state.labels);
+            p.put("attachments", state.attachments);
+            _pages.put(e.getKey(), p);
+        }
+        root.put("pages", _pages);
+
+        final File parent = file.getParentFile();
+        if( parent != null ) {
+            parent.mkdirs();
+        }
+
+        final Writer w = new OutputStreamWriter( new FileOutputStream(file), "UTF-8");
+        try {
+            Json.write(root, w);
+        }
+        finally {
+            w.close();
+        }
+        modified = false;
+    }
+}
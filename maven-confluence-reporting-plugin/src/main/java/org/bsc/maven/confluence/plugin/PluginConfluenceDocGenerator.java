@@ -94,9 +94,7 @@ public class PluginConfluenceDocGenerator implements Generator {
                 
                 writer.flush();
                 
-                result.setContent(writer.toString());
-                
-                result  = confluence.storePage(result);
+                result  = mojo.storePage(confluence, null, result, writer.toString());
                 
                 return result;
                 
@@ -371,9 +369,7 @@ public class PluginConfluenceDocGenerator implements Generator {
                 .append('\n')
                 .append(t.generateOutput());
 
-        page.setContent(wiki.toString());
-
-        page = confluence.storePage(page);
+        page = mojo.storePage(confluence, null, page, wiki.toString());
 
         // GENERATE GOAL
         for( Goal goal : goals ) {
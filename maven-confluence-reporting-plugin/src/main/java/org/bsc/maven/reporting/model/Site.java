@@ -6,10 +6,8 @@ package org.bsc.maven.reporting.model;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.maven.project.MavenProject;
-import org.bsc.markdown.ToConfluenceSerializer;
-import org.pegdown.PegDownProcessor;
-import org.pegdown.ast.Node;
-import org.pegdown.ast.RootNode;
+import org.bsc.markdown.MarkdownToWikiEngine;
+import org.bsc.markdown.PegDownEngine;
 
 import javax.xml.bind.annotation.XmlAttribute;
 import javax.xml.bind.annotation.XmlElement;
@@ -18,6 +16,7 @@ import javax.xml.bind.annotation.XmlTransient;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.Charset;
 import java.util.List;
 
 /**
@@ -32,47 +31,172 @@ public class Site {
   protected static final java.util.Stack<Site> _SITE = new java.util.Stack<Site>();
 
   /**
-   * @param is
-   *
-   * @return
+   * markdown converted in wiki on the first read. Its source is released after the parsing.
+   * The conversion isn't streamed: the engine writes the whole wiki at once, so it is buffered
+   * (encoded in the given charset) until the stream is read
    */
-  public static java.io.InputStream processMarkdown(final java.io.InputStream is) throws IOException {
-    System.out.println("Processing markdown file");
+  private static final class MarkdownInputStream extends java.io.InputStream {
 
-    final char[] contents = new String(IOUtils.toCharArray(is)).replace("\\[", "\\\\[").replace("\\]", "\\\\]")
-                                                               .toCharArray();
+    /**
+     * gives its buffer to the input stream without copies
+     */
+    private static final class Buffer extends java.io.ByteArrayOutputStream {
 
-    final PegDownProcessor p = new PegDownProcessor(ToConfluenceSerializer.extensions());
+      Buffer(int size) {
+        super(size);
+      }
 
-    final RootNode root = p.parseMarkdown(contents);
+      java.io.InputStream toInputStream() {
+        return new java.io.ByteArrayInputStream(buf, 0, count);
+      }
+    }
 
-    ToConfluenceSerializer ser = new ToConfluenceSerializer() {
+    private java.io.InputStream source;
+    private final Charset charset;
+    private final MarkdownToWikiEngine engine;
+    private final String name;
+    private java.io.InputStream wiki;
 
-      @Override
-      protected void notImplementedYet(Node node) {
+    MarkdownInputStream(java.io.InputStream source, Charset charset, MarkdownToWikiEngine engine, String name) {
+      this.source = source;
+      this.charset = charset;
+      this.engine = engine;
+      this.name = name;
+    }
 
-        final int lc[] = ToConfluenceSerializer.lineAndColFromNode(new String(contents), node);
-        throw new UnsupportedOperationException(String.format("Node [%s] not supported yet. line=[%d] col=[%d]",
-          node.getClass().getSimpleName(),
-          lc[0],
-          lc[1]));
+    private java.io.InputStream wiki() throws IOException {
+      if (wiki == null) {
+        if (source == null) {
+          throw new IOException("stream is closed!");
+        }
+        try {
+          wiki = toWiki(IOUtils.toCharArray(source, charset.name()));
+        } finally {
+          source.close();
+          source = null;
+        }
       }
+      return wiki;
+    }
+
+    private java.io.InputStream toWiki(final char[] contents) throws IOException {
+      // the wiki is about as long as the markdown
+      final Buffer buffer = new Buffer(contents.length + contents.length / 4 + 64);
+      final java.io.Writer w = new java.io.OutputStreamWriter(buffer, charset);
+
+      engine.toWiki(contents, name, w);
+      w.close();
+
+      return buffer.toInputStream();
+    }
+
+    @Override
+    public int read() throws IOException {
+      return wiki().read();
+    }
 
-    };
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return wiki().read(b, off, len);
+    }
 
-    root.accept(ser);
+    @Override
+    public int available() throws IOException {
+      return (wiki == null) ? 0 : wiki.available();
+    }
 
-    return new java.io.ByteArrayInputStream(ser.toString().getBytes());
+    @Override
+    public void close() throws IOException {
+      if (source != null) {
+        source.close();
+        source = null;
+      }
+    }
+  }
+
+  /**
+   * @param is
+   *
+   * @return the wiki encoded in the default charset
+   */
+  public static java.io.InputStream processMarkdown(final java.io.InputStream is) throws IOException {
+    return processMarkdown(is, Charset.defaultCharset());
+  }
+
+  /**
+   * @param is markdown source
+   * @param charset charset of both the markdown and the wiki
+   *
+   * @return the wiki. The markdown is converted on the first read
+   */
+  public static java.io.InputStream processMarkdown(final java.io.InputStream is, final Charset charset) throws IOException {
+    return processMarkdown(is, charset, defaultEngine(), "<stream>");
+  }
+
+  /**
+   * @param is markdown source
+   * @param charset charset of both the markdown and the wiki
+   * @param engine engine that converts the markdown
+   * @param name name of the source, used in the errors
+   *
+   * @return the wiki. The markdown is converted on the first read
+   */
+  public static java.io.InputStream processMarkdown(final java.io.InputStream is,
+                                                    final Charset charset,
+                                                    final MarkdownToWikiEngine engine,
+                                                    final String name) throws IOException {
+    if (is == null) {
+      throw new IllegalArgumentException("is is null!");
+    }
+    if (charset == null) {
+      throw new IllegalArgumentException("charset is null!");
+    }
+    if (engine == null) {
+      throw new IllegalArgumentException("engine is null!");
+    }
+    return new MarkdownInputStream(is, charset, engine, name);
+  }
+
+  /**
+   * @return pegdown with the pool shared by the build and the default max parsing time
+   */
+  private static MarkdownToWikiEngine defaultEngine() {
+    return new PegDownEngine();
   }
 
   /**
    * @param uri
    *
-   * @return
+   * @return the content. Markdown is converted in wiki encoded in the default charset
    *
    * @throws Exception
    */
   public static java.io.InputStream processUri(java.net.URI uri) throws /*ProcessUri*/Exception {
+    return processUri(uri, Charset.defaultCharset());
+  }
+
+  /**
+   * @param uri
+   * @param charset charset of the sources
+   *
+   * @return the content. Markdown is converted in wiki on the first read
+   *
+   * @throws Exception
+   */
+  public static java.io.InputStream processUri(java.net.URI uri, Charset charset) throws /*ProcessUri*/Exception {
+    return processUri(uri, charset, defaultEngine());
+  }
+
+  /**
+   * @param uri
+   * @param charset charset of the sources
+   * @param engine engine that converts the markdown
+   *
+   * @return the content. Markdown is converted in wiki on the first read
+   *
+   * @throws Exception
+   */
+  public static java.io.InputStream processUri(java.net.URI uri, Charset charset, MarkdownToWikiEngine engine) throws /*ProcessUri*/Exception {
     if (uri == null) {
       throw new IllegalArgumentException("uri is null!");
     }
@@ -95,23 +219,23 @@ public class Site {
     if ("classpath".equalsIgnoreCase(scheme)) {
       ClassLoader cl = Thread.currentThread().getContextClassLoader();
 
-      result = cl.getResourceAsStream(source);
+      java.io.InputStream is = cl.getResourceAsStream(source);
 
-      if (result == null) {
+      if (is == null) {
         //getLog().warn(String.format("resource [%s] doesn't exist in context classloader", source));
 
         cl = Site.class.getClassLoader();
 
-        final java.io.InputStream is = cl.getResourceAsStream(source);
+        is = cl.getResourceAsStream(source);
 
-        result = (isMarkdown) ? processMarkdown(is) : is;
-
-        if (result == null) {
+        if (is == null) {
           throw new /*ProcessUri*/Exception(String.format("resource [%s] doesn't exist in classloader", source));
         }
 
       }
 
+      result = (isMarkdown) ? processMarkdown(is, charset, engine, String.valueOf(uri)) : is;
+
     } else {
 
       try {
@@ -119,7 +243,7 @@ public class Site {
 
         final java.io.InputStream is = url.openStream();
 
-        result = (isMarkdown) ? processMarkdown(is) : is;
+        result = (isMarkdown) ? processMarkdown(is, charset, engine, String.valueOf(uri)) : is;
 
       } catch (IOException e) {
         throw new /*ProcessUri*/Exception(String.format("error opening url [%s]!", source), e);
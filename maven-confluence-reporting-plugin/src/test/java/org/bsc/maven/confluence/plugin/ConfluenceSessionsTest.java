@@ -0,0 +1,91 @@
+package org.bsc.maven.confluence.plugin;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.codehaus.swizzle.confluence.Confluence;
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsNot;
+import org.hamcrest.core.IsSame;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConfluenceSessionsTest {
+
+    final AtomicInteger logins = new AtomicInteger();
+    final AtomicInteger logouts = new AtomicInteger();
+
+    final Callable<Confluence> factory = new Callable<Confluence>() {
+
+        @Override
+        public Confluence call() throws Exception {
+            logins.incrementAndGet();
+
+            return new Confluence("http://localhost:8090", null) {
+
+                @Override
+                public boolean logout() {
+                    logouts.incrementAndGet();
+                    return true;
+                }
+            };
+        }
+    };
+
+    @Test
+    public void reuseAcrossModules() throws Exception {
+
+        final ConfluenceSessions sessions = ConfluenceSessions.of(new Object());
+        final ConfluenceSessions.Key key = new ConfluenceSessions.Key("http://localhost:8090", "admin", "secret", null);
+
+        final Confluence first = sessions.acquire(key, factory);
+        sessions.release(false, null);
+
+        final Confluence second = sessions.acquire(new ConfluenceSessions.Key("http://localhost:8090", "admin", "secret", null), factory);
+        sessions.release(false, null);
+
+        Assert.assertThat( second, IsSame.sameInstance(first) );
+        Assert.assertThat( logins.get(), Is.is(1) );
+        Assert.assertThat( logouts.get(), Is.is(0) );
+
+        final Confluence other = sessions.acquire(new ConfluenceSessions.Key("http://localhost:8090", "guest", "guest", null), factory);
+        sessions.release(false, null);
+
+        Assert.assertThat( other, IsNot.not(IsSame.sameInstance(first)) );
+        Assert.assertThat( sessions.size(), Is.is(2) );
+
+        sessions.acquire(key, factory);
+        sessions.release(true, null);
+
+        Assert.assertThat( logouts.get(), Is.is(2) );
+        Assert.assertThat( sessions.size(), Is.is(0) );
+    }
+
+    @Test
+    public void lastModuleWhileOthersRunning() throws Exception {
+
+        final ConfluenceSessions sessions = ConfluenceSessions.of(new Object());
+        final ConfluenceSessions.Key key = new ConfluenceSessions.Key("http://localhost:8090");
+
+        sessions.acquire(key, factory);
+        sessions.acquire(key, factory);
+
+        // the last module ends before the other one (parallel build)
+        sessions.release(true, null);
+        Assert.assertThat( logouts.get(), Is.is(0) );
+
+        sessions.release(false, null);
+        Assert.assertThat( logouts.get(), Is.is(1) );
+    }
+
+    @Test
+    public void secretNotKept() {
+
+        final String secret = ConfluenceSessions.Key.secret("secret");
+
+        Assert.assertThat( secret, IsNot.not("secret") );
+        Assert.assertThat( secret, Is.is(ConfluenceSessions.Key.secret("secret")) );
+        Assert.assertThat( secret, IsNot.not(ConfluenceSessions.Key.secret("secret2")) );
+        Assert.assertThat( new ConfluenceSessions.Key("http://localhost:8090", "admin", secret),
+                Is.is(new ConfluenceSessions.Key("http://localhost:8090", "admin", ConfluenceSessions.Key.secret("secret"))) );
+    }
+}
@@ -0,0 +1,174 @@
+package org.bsc.maven.confluence.plugin;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.xmlrpc.client.XmlRpcClient;
+import org.bsc.maven.plugin.confluence.RemotePageIndex;
+import org.codehaus.swizzle.confluence.Confluence;
+import org.codehaus.swizzle.confluence.ConfluenceException;
+import org.codehaus.swizzle.confluence.Page;
+import org.codehaus.swizzle.confluence.PageSummary;
+import org.codehaus.swizzle.confluence.SwizzleException;
+import org.hamcrest.core.Is;
+import org.hamcrest.core.IsNull;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DeployManifestTest {
+
+    final File file = new File("target/test/confluence-deploy-state.json");
+
+    @Before
+    public void clean() {
+        file.delete();
+    }
+
+    Page page( String id, String title, int version ) {
+        final Page result = new Page(new HashMap());
+        result.setId(id);
+        result.setTitle(title);
+        result.setVersion(version);
+        return result;
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+
+        final DeployManifest manifest = DeployManifest.load(file, "http://localhost:8090", "TEST");
+
+        Assert.assertThat( manifest.size(), Is.is(0) );
+
+        manifest.putPage( page("10", "Home - A", 2), "digestA");
+        manifest.putLabels("Home - A", Arrays.asList("doc", "api"));
+        manifest.putAttachment("Home - A", "image.png", "digestImage");
+        manifest.save();
+
+        final DeployManifest loaded = DeployManifest.load(file, "http://localhost:8090", "TEST");
+
+        final DeployManifest.PageState state = loaded.get("Home - A");
+
+        Assert.assertThat( state.getId(), Is.is("10") );
+        Assert.assertThat( state.getVersion(), Is.is(2) );
+        Assert.assertThat( state.getDigest(), Is.is("digestA") );
+        Assert.assertThat( state.isTrusted(), Is.is(false) );
+        Assert.assertThat( loaded.getLabels("Home - A", "10"), Is.is((Set<String>)new TreeSet<String>(Arrays.asList("api", "doc"))) );
+        Assert.assertThat( loaded.getLabels("Home - A", "11").isEmpty(), Is.is(true) );
+        Assert.assertThat( loaded.getAttachmentDigest("Home - A", "image.png"), Is.is("digestImage") );
+
+        // same page stored again keeps labels and attachments
+        loaded.putPage( page("10", "Home - A", 3), "digestA2");
+        Assert.assertThat( loaded.getAttachmentDigest("Home - A", "image.png"), Is.is("digestImage") );
+
+        // page recreated
+        loaded.putPage( page("11", "Home - A", 1), "digestA2");
+        Assert.assertThat( loaded.getAttachmentDigest("Home - A", "image.png"), IsNull.nullValue() );
+    }
+
+    @Test
+    public void otherSpace() throws Exception {
+
+        final DeployManifest manifest = DeployManifest.load(file, "http://localhost:8090", "TEST");
+        manifest.putPage( page("10", "Home - A", 2), "digestA");
+        manifest.save();
+
+        Assert.assertThat( DeployManifest.load(file, "http://localhost:8090", "OTHER").size(), Is.is(0) );
+    }
+
+    @Test
+    public void replaceDigestFile() throws Exception {
+
+        file.getParentFile().mkdirs();
+        final FileWriter w = new FileWriter(file);
+        w.write("10=digestA@2\n");
+        w.close();
+
+        try {
+            DeployManifest.load(file, "http://localhost:8090", "TEST");
+            Assert.fail("exception expected");
+        }
+        catch( IOException e ) {
+            // digest file of a previous release
+        }
+
+        final DeployManifest manifest = DeployManifest.create(file, "http://localhost:8090", "TEST");
+        manifest.putPage( page("10", "Home - A", 2), "digestA");
+        manifest.save();
+
+        Assert.assertThat( DeployManifest.load(file, "http://localhost:8090", "TEST").get("Home - A").getVersion(), Is.is(2) );
+    }
+
+    /**
+     *
+     * @param descendents pages under the root, as listed by the REST backend
+     * @return index of the remote tree
+     */
+    RemotePageIndex index( final Page... descendents ) throws Exception {
+
+        final Confluence confluence = new Confluence(new XmlRpcClient()) {
+
+            @Override
+            public List getDescendents(String pageId) throws SwizzleException, ConfluenceException {
+                final List<PageSummary> result = new ArrayList<PageSummary>();
+                for( Page p : descendents ) {
+                    result.add( new PageSummary(p.toRawMap()) );
+                }
+                return result;
+            }
+        };
+
+        final Page root = page("1", "Home", 1);
+        root.setSpace("TEST");
+
+        return RemotePageIndex.load(confluence, root);
+    }
+
+    @Test
+    public void remoteVersionMoved() throws Exception {
+
+        final DeployManifest manifest = DeployManifest.load(file, "http://localhost:8090", "TEST");
+        manifest.putPage( page("10", "Home - A", 2), "digestA");
+        manifest.putPage( page("11", "Home - B", 5), "digestB");
+        manifest.save();
+
+        final DeployManifest loaded = DeployManifest.load(file, "http://localhost:8090", "TEST");
+
+        // "Home - A" has been edited remotely after the deploy
+        Assert.assertThat( loaded.validate( index(page("10", "Home - A", 3), page("11", "Home - B", 5)) ), Is.is(0) );
+
+        Assert.assertThat( loaded.get("Home - A").isTrusted(), Is.is(true) );
+        Assert.assertThat( loaded.get("Home - A").isCurrent(), Is.is(false) );
+        Assert.assertThat( loaded.get("Home - B").isCurrent(), Is.is(true) );
+
+        // stored again
+        loaded.putPage( page("10", "Home - A", 4), "digestA");
+        Assert.assertThat( loaded.get("Home - A").isCurrent(), Is.is(true) );
+    }
+
+    @Test
+    public void remoteVersionUnknown() throws Exception {
+
+        final DeployManifest manifest = DeployManifest.load(file, "http://localhost:8090", "TEST");
+        manifest.putPage( page("10", "Home - A", 2), "digestA");
+        manifest.save();
+
+        final DeployManifest loaded = DeployManifest.load(file, "http://localhost:8090", "TEST");
+
+        // the XML-RPC listing has no version
+        final Page listed = new Page(new HashMap());
+        listed.setId("10");
+        listed.setTitle("Home - A");
+
+        Assert.assertThat( loaded.validate( index(listed) ), Is.is(0) );
+
+        Assert.assertThat( loaded.get("Home - A").isTrusted(), Is.is(true) );
+        Assert.assertThat( loaded.get("Home - A").isCurrent(), Is.is(false) );
+    }
+}
@@ -0,0 +1,83 @@
+package org.bsc.maven.plugin.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import org.apache.commons.io.IOUtils;
+import org.bsc.markdown.CommonMarkEngine;
+import org.bsc.maven.reporting.model.Site;
+import org.hamcrest.core.Is;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProcessMarkdownTest {
+
+    static class Source extends ByteArrayInputStream {
+        boolean read = false;
+        boolean closed = false;
+
+        Source(byte[] buf) {
+            super(buf);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            read = true;
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public synchronized int read() {
+            read = true;
+            return super.read();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    @Test
+    public void escapedBrackets() throws Exception {
+        final Charset utf8 = Charset.forName("UTF-8");
+
+        final InputStream is = Site.processMarkdown(new ByteArrayInputStream("\\[one\\] and `\\[two\\]`".getBytes(utf8)), utf8);
+
+        Assert.assertThat( IOUtils.toString(is, "UTF-8"), Is.is("\\[one\\] and {{\\[two\\]}}\n\n") );
+    }
+
+    @Test
+    public void charset() throws Exception {
+        final Charset latin1 = Charset.forName("ISO-8859-1");
+
+        final InputStream is = Site.processMarkdown(new ByteArrayInputStream("# caffè".getBytes(latin1)), latin1);
+
+        Assert.assertThat( IOUtils.toString(is, "ISO-8859-1"), Is.is("h1. caffè\n") );
+    }
+
+    @Test
+    public void engine() throws Exception {
+        final Charset utf8 = Charset.forName("UTF-8");
+
+        final InputStream is = Site.processMarkdown(new ByteArrayInputStream("# title\n\nsee <http://x.com>".getBytes(utf8)),
+                utf8,
+                new CommonMarkEngine(),
+                "test.md");
+
+        Assert.assertThat( IOUtils.toString(is, "UTF-8"), Is.is("h1. title\nsee [http://x.com]\n") );
+    }
+
+    @Test
+    public void lazy() throws Exception {
+        final Source source = new Source("*text*".getBytes("UTF-8"));
+
+        final InputStream is = Site.processMarkdown(source, Charset.forName("UTF-8"));
+
+        Assert.assertThat( source.read, Is.is(false) );
+
+        Assert.assertThat( is.read(), Is.is((int)'*') );
+        Assert.assertThat( source.read, Is.is(true) );
+        Assert.assertThat( source.closed, Is.is(true) );
+    }
+}
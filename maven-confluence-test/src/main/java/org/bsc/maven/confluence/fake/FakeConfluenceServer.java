@@ -0,0 +1,519 @@
+package org.bsc.maven.confluence.fake;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Embeddable stand-in of a Confluence server: an XML-RPC endpoint (<code>/rpc/xmlrpc</code>)
+ * that answers the <code>confluence1.</code> and <code>confluence2.</code> methods used by the plugin
+ * on top of a {@link FakeConfluenceStore}.
+ *
+ * To test and benchmark the client without a real server it can:
+ * <ul>
+ * <li>delay each request (latency)</li>
+ * <li>fail a share of the requests (HTTP 503) or the next calls of a command (fault)</li>
+ * <li>expire the sessions</li>
+ * <li>count the requests and the calls of each command</li>
+ * </ul>
+ *
+ * <pre>
+ * final FakeConfluenceServer server = new FakeConfluenceServer(0);
+ * server.start();
+ * server.getStore().addSpace("DOC", "Documentation");
+ * ...
+ * ConfluenceFactory.createInstanceDetectingVersion(server.getUrl(), null, "admin", "admin");
+ * ...
+ * server.stop();
+ * </pre>
+ */
+public class FakeConfluenceServer {
+
+    public static final String CONTEXT = "/rpc/xmlrpc";
+
+    static final String MULTICALL = "system.multicall";
+
+    static final String INVALID_SESSION = "java.lang.Exception: com.atlassian.confluence.rpc.InvalidSessionException: " +
+            "User not authenticated or session expired. Call login() to open a new session";
+
+    private final int port;
+    private final int threads;
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private FakeConfluenceStore store;
+
+    private volatile int[] version = { 5, 9, 1 };
+    private volatile long minLatency = 0;
+    private volatile long maxLatency = 0;
+    private volatile double errorRate = 0;
+    private volatile boolean multicallSupported = true;
+    private volatile boolean gzipResponses = false;
+
+    private final Random random = new Random();
+
+    private final Map<String,AtomicInteger> failures = new ConcurrentHashMap<String,AtomicInteger>();
+    private final Set<String> tokens = Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>());
+    private final AtomicLong nextToken = new AtomicLong();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final ConcurrentMap<String,AtomicLong> calls = new ConcurrentHashMap<String,AtomicLong>();
+
+    /**
+     *
+     * @param port 0 to use a free port
+     */
+    public FakeConfluenceServer(int port) {
+        this(port, 16);
+    }
+
+    /**
+     *
+     * @param port 0 to use a free port
+     * @param threads max number of requests served at the same time
+     */
+    public FakeConfluenceServer(int port, int threads) {
+        if( threads < 1 ) {
+            throw new IllegalArgumentException("threads must be greater than 0!");
+        }
+        this.port = port;
+        this.threads = threads;
+    }
+
+    /**
+     * bind the server. The store is created on the first start and kept across restarts
+     *
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+        if( server != null ) {
+            return;
+        }
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext(CONTEXT, new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    FakeConfluenceServer.this.handle(exchange);
+                }
+                finally {
+                    exchange.close();
+                }
+            }
+        });
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+
+        if( store == null ) {
+            store = new FakeConfluenceStore(getUrl());
+        }
+    }
+
+    public synchronized void stop() {
+        if( server == null ) {
+            return;
+        }
+        server.stop(0);
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        server = null;
+        executor = null;
+    }
+
+    /**
+     *
+     * @return the base url (e.g. http://localhost:8090)
+     */
+    public synchronized String getUrl() {
+        if( server == null ) {
+            throw new IllegalStateException("server is not started!");
+        }
+        return String.format("http://localhost:%d", server.getAddress().getPort());
+    }
+
+    /**
+     *
+     * @return the XML-RPC endpoint
+     */
+    public String getEndPoint() {
+        return getUrl() + CONTEXT;
+    }
+
+    /**
+     *
+     * @return the content of the server. It is available after {@link #start()}
+     */
+    public synchronized FakeConfluenceStore getStore() {
+        if( store == null ) {
+            throw new IllegalStateException("server is not started!");
+        }
+        return store;
+    }
+
+    /**
+     * the major version decides the service used by the client (confluence2 from 4)
+     */
+    public void setVersion( int major, int minor, int patchLevel ) {
+        this.version = new int[] { major, minor, patchLevel };
+    }
+
+    /**
+     * each request is delayed of a random time in the given range
+     *
+     * @param minMillis
+     * @param maxMillis
+     */
+    public void setLatency( long minMillis, long maxMillis ) {
+        if( minMillis < 0 || maxMillis < minMillis ) {
+            throw new IllegalArgumentException("invalid latency range!");
+        }
+        this.minLatency = minMillis;
+        this.maxLatency = maxMillis;
+    }
+
+    /**
+     *
+     * @param rate share (0-1) of the requests that fail with HTTP 503
+     */
+    public void setErrorRate( double rate ) {
+        if( rate < 0 || rate > 1 ) {
+            throw new IllegalArgumentException("rate must be between 0 and 1!");
+        }
+        this.errorRate = rate;
+    }
+
+    /**
+     *
+     * @param seed seed of latency and error rate, to repeat a run
+     */
+    public void setRandomSeed( long seed ) {
+        synchronized( random ) {
+            random.setSeed(seed);
+        }
+    }
+
+    /**
+     * the next calls of the command answer with a fault
+     *
+     * @param command command without the service prefix (e.g. storePage), or * for any command
+     * @param times
+     */
+    public void failNext( String command, int times ) {
+        if( command == null ) {
+            throw new IllegalArgumentException("command is null!");
+        }
+        failures.put(command, new AtomicInteger(times));
+    }
+
+    public void setMulticallSupported( boolean multicallSupported ) {
+        this.multicallSupported = multicallSupported;
+    }
+
+    /**
+     *
+     * @param gzipResponses true to answer gzip encoded when the client accepts it
+     */
+    public void setGzipResponses( boolean gzipResponses ) {
+        this.gzipResponses = gzipResponses;
+    }
+
+    /**
+     * invalidate all the tokens given by login
+     */
+    public void expireSessions() {
+        tokens.clear();
+    }
+
+    /**
+     *
+     * @return number of HTTP requests served
+     */
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     *
+     * @param command command without the service prefix, the calls of a multicall are counted one by one
+     * @return number of calls of the command
+     */
+    public long getCallCount( String command ) {
+        final AtomicLong result = calls.get(command);
+        return ( result != null ) ? result.get() : 0;
+    }
+
+    /**
+     *
+     * @return number of calls by command
+     */
+    public Map<String,Long> getCallCounts() {
+        final Map<String,Long> result = new TreeMap<String,Long>();
+        for( Map.Entry<String,AtomicLong> e : calls.entrySet() ) {
+            result.put(e.getKey(), e.getValue().get());
+        }
+        return result;
+    }
+
+    public void resetCounters() {
+        requests.set(0);
+        calls.clear();
+    }
+
+    private double nextDouble() {
+        synchronized( random ) {
+            return random.nextDouble();
+        }
+    }
+
+    private void handle( HttpExchange exchange ) throws IOException {
+        requests.incrementAndGet();
+
+        InputStream is = exchange.getRequestBody();
+        if( "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding")) ) {
+            is = new GZIPInputStream(is);
+        }
+
+        final XmlRpcCodec.Call call;
+        try {
+            call = XmlRpcCodec.parseCall(is);
+        }
+        catch( IOException e ) {
+            send(exchange, 400, e.getMessage().getBytes("UTF-8"));
+            return;
+        }
+
+        final long latency = minLatency + (long) ((maxLatency - minLatency) * nextDouble());
+        if( latency > 0 ) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        if( errorRate > 0 && nextDouble() < errorRate ) {
+            send(exchange, 503, "Service Unavailable".getBytes("UTF-8"));
+            return;
+        }
+
+        byte[] data;
+        try {
+            data = XmlRpcCodec.writeResponse( MULTICALL.equals(call.methodName)
+                    ? multicall(call.params)
+                    : execute(call.methodName, call.params) );
+        }
+        catch( FakeConfluenceStore.Fault e ) {
+            data = XmlRpcCodec.writeFault(0, e.getMessage());
+        }
+        catch( RuntimeException e ) {
+            data = XmlRpcCodec.writeFault(0, String.format("java.lang.Exception: %s", e));
+        }
+
+        final String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+
+        if( gzipResponses && accept != null && accept.contains("gzip") ) {
+            final ByteArrayOutputStream gzip = new ByteArrayOutputStream(data.length / 4 + 32);
+            final OutputStream os = new GZIPOutputStream(gzip);
+            os.write(data);
+            os.close();
+            data = gzip.toByteArray();
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().add("Content-Type", "text/xml");
+        send(exchange, 200, data);
+    }
+
+    private static void send( HttpExchange exchange, int status, byte[] data ) throws IOException {
+        exchange.sendResponseHeaders(status, data.length);
+        exchange.getResponseBody().write(data);
+    }
+
+    private Object multicall( Object[] params ) throws FakeConfluenceStore.Fault {
+        if( !multicallSupported ) {
+            throw new FakeConfluenceStore.Fault(String.format("No such handler: %s", MULTICALL));
+        }
+        final Object[] requests = (Object[]) params[0];
+        final Object[] result = new Object[requests.length];
+
+        for( int i = 0 ; i < requests.length ; ++i ) {
+            final Map<?,?> request = (Map<?,?>) requests[i];
+            try {
+                result[i] = new Object[] {
+                    execute( String.valueOf(request.get("methodName")), (Object[]) request.get("params") )
+                };
+            }
+            catch( FakeConfluenceStore.Fault e ) {
+                result[i] = XmlRpcCodec.fault(0, e.getMessage());
+            }
+            catch( RuntimeException e ) {
+                result[i] = XmlRpcCodec.fault(0, String.format("java.lang.Exception: %s", e));
+            }
+        }
+        return result;
+    }
+
+    private static String str( Object[] params, int index ) {
+        return ( index < params.length && params[index] != null ) ? String.valueOf(params[index]) : null;
+    }
+
+    private boolean failing( String key ) {
+        final AtomicInteger times = failures.get(key);
+        return times != null && times.getAndDecrement() > 0;
+    }
+
+    private Object execute( String methodName, Object[] params ) throws FakeConfluenceStore.Fault {
+        final int dot = methodName.indexOf('.');
+        final String prefix = ( dot < 0 ) ? "" : methodName.substring(0, dot);
+        final String command = methodName.substring(dot + 1);
+
+        if( !"confluence1".equals(prefix) && !"confluence2".equals(prefix) ) {
+            throw new FakeConfluenceStore.Fault(String.format("No such handler: %s", methodName));
+        }
+
+        calls.putIfAbsent(command, new AtomicLong());
+        calls.get(command).incrementAndGet();
+
+        if( failing(command) || failing("*") ) {
+            throw new FakeConfluenceStore.Fault(String.format("injected fault on [%s]", command));
+        }
+
+        if( "login".equals(command) ) {
+            final String token = String.format("token-%d", nextToken.incrementAndGet());
+            tokens.add(token);
+            return token;
+        }
+
+        final String token = str(params, 0);
+        if( token != null && token.length() > 0 && !tokens.contains(token) ) {
+            throw new FakeConfluenceStore.Fault(INVALID_SESSION);
+        }
+
+        final FakeConfluenceStore s = getStore();
+
+        if( "logout".equals(command) ) {
+            return tokens.remove(token);
+        }
+        if( "getServerInfo".equals(command) ) {
+            final int[] v = version;
+            final Map<String,Object> result = new HashMap<String,Object>();
+            result.put("majorVersion", String.valueOf(v[0]));
+            result.put("minorVersion", String.valueOf(v[1]));
+            result.put("patchLevel", String.valueOf(v[2]));
+            result.put("buildId", "fake");
+            result.put("developmentBuild", "false");
+            result.put("baseUrl", getUrl());
+            return result;
+        }
+        if( "getSpace".equals(command) ) {
+            return s.getSpace(str(params, 1));
+        }
+        if( "getSpaces".equals(command) ) {
+            return s.getSpaces();
+        }
+        if( "getPage".equals(command) ) {
+            return ( params.length > 2 ) ? s.getPage(str(params, 1), str(params, 2)) : s.getPage(str(params, 1));
+        }
+        if( "getPages".equals(command) ) {
+            return s.getPages(str(params, 1));
+        }
+        if( "getChildren".equals(command) ) {
+            return s.getChildren(str(params, 1));
+        }
+        if( "getDescendents".equals(command) ) {
+            return s.getDescendents(str(params, 1));
+        }
+        if( "getAncestors".equals(command) ) {
+            return s.getAncestors(str(params, 1));
+        }
+        if( "storePage".equals(command) || "updatePage".equals(command) ) {
+            return s.storePage((Map<?,?>) params[1]);
+        }
+        if( "removePage".equals(command) ) {
+            s.removePage(str(params, 1));
+            return Boolean.TRUE;
+        }
+        if( "getAttachments".equals(command) ) {
+            return s.getAttachments(str(params, 1));
+        }
+        if( "getAttachment".equals(command) ) {
+            return s.getAttachment(str(params, 1), str(params, 2));
+        }
+        if( "getAttachmentData".equals(command) ) {
+            return s.getAttachmentData(str(params, 1), str(params, 2));
+        }
+        if( "addAttachment".equals(command) ) {
+            return s.addAttachment(str(params, 1), (Map<?,?>) params[2], (byte[]) params[3]);
+        }
+        if( "removeAttachment".equals(command) ) {
+            return s.removeAttachment(str(params, 1), str(params, 2));
+        }
+        if( "getLabelsById".equals(command) ) {
+            return s.getLabels(str(params, 1));
+        }
+        if( "addLabelByName".equals(command) ) {
+            s.addLabels(str(params, 1), str(params, 2));
+            return Boolean.TRUE;
+        }
+        if( "removeLabelByName".equals(command) ) {
+            s.removeLabels(str(params, 1), str(params, 2));
+            return Boolean.TRUE;
+        }
+        if( "search".equals(command) ) {
+            final Object max = params[params.length - 1];
+            return s.search(str(params, 1), ( max instanceof Number ) ? ((Number) max).intValue() : Integer.MAX_VALUE);
+        }
+        throw new FakeConfluenceStore.Fault(String.format("No such handler: %s", methodName));
+    }
+
+    /**
+     * run a server until the process is stopped
+     *
+     * @param args [port] [space key]...
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        final FakeConfluenceServer server = new FakeConfluenceServer( ( args.length > 0 ) ? Integer.parseInt(args[0]) : 8090 );
+        server.start();
+
+        for( int i = 1 ; i < args.length ; ++i ) {
+            server.getStore().addSpace(args[i], args[i]);
+        }
+        System.out.println(String.format("fake confluence listening on %s", server.getEndPoint()));
+
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+
+            @Override
+            public void run() {
+                server.stop();
+            }
+        });
+        Thread.currentThread().join();
+    }
+}
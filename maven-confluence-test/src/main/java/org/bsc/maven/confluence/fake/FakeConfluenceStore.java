@@ -0,0 +1,477 @@
+package org.bsc.maven.confluence.fake;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In memory spaces, pages, attachments and labels of {@link FakeConfluenceServer}.
+ *
+ * The entities are given back as the maps of the XML-RPC API (ids and versions are strings).
+ * A missing entity or a conflicting update is reported as a {@link Fault}.
+ */
+public class FakeConfluenceStore {
+
+    /**
+     * a remote fault
+     */
+    public static class Fault extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        public Fault(String message) {
+            super(message);
+        }
+    }
+
+    private static class PageEntry {
+        final String id;
+        final String space;
+        final Date created = new Date();
+        String parentId = "0";
+        String title;
+        String content = "";
+        int version = 1;
+        Date modified = created;
+        String modifier;
+
+        PageEntry(String id, String space) {
+            this.id = id;
+            this.space = space;
+        }
+    }
+
+    private static class AttachmentEntry {
+        final String id;
+        final String pageId;
+        final String fileName;
+        final Date created = new Date();
+        String contentType;
+        String comment;
+        byte[] data;
+
+        AttachmentEntry(String id, String pageId, String fileName) {
+            this.id = id;
+            this.pageId = pageId;
+            this.fileName = fileName;
+        }
+    }
+
+    private final String baseUrl;
+
+    private final Map<String,Map<String,Object>> spaces = new LinkedHashMap<String,Map<String,Object>>();
+    private final Map<String,PageEntry> pages = new LinkedHashMap<String,PageEntry>();
+    private final Map<String,Map<String,AttachmentEntry>> attachments = new LinkedHashMap<String,Map<String,AttachmentEntry>>();
+    private final Map<String,Set<String>> labels = new LinkedHashMap<String,Set<String>>();
+
+    private long nextId = 1000;
+
+    /**
+     *
+     * @param baseUrl used to build the urls of spaces, pages and attachments
+     */
+    public FakeConfluenceStore(String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    private String newId() {
+        return String.valueOf(++nextId);
+    }
+
+    private static String str( Object value ) {
+        return ( value == null ) ? null : String.valueOf(value);
+    }
+
+    private static boolean isNullOrEmpty( String value ) {
+        return value == null || value.length() == 0;
+    }
+
+    /**
+     * create the space and its home page if it doesn't exist
+     *
+     * @param key
+     * @param name
+     * @return the space
+     */
+    public synchronized Map<String,Object> addSpace( String key, String name ) {
+        if( key == null ) {
+            throw new IllegalArgumentException("key is null!");
+        }
+        Map<String,Object> result = spaces.get(key);
+
+        if( result == null ) {
+            final PageEntry home = new PageEntry(newId(), key);
+            home.title = ( name != null ) ? name : key;
+            pages.put(home.id, home);
+
+            result = new LinkedHashMap<String,Object>();
+            result.put("key", key);
+            result.put("name", home.title);
+            result.put("url", String.format("%s/display/%s", baseUrl, key));
+            result.put("homePage", home.id);
+            result.put("type", "global");
+            spaces.put(key, result);
+        }
+        return new LinkedHashMap<String,Object>(result);
+    }
+
+    public synchronized Map<String,Object> getSpace( String key ) throws Fault {
+        final Map<String,Object> result = spaces.get(key);
+        if( result == null ) {
+            throw new Fault(String.format("No space found for space key: %s", key));
+        }
+        return new LinkedHashMap<String,Object>(result);
+    }
+
+    public synchronized List<Map<String,Object>> getSpaces() {
+        final List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
+        for( Map<String,Object> space : spaces.values() ) {
+            result.add( new LinkedHashMap<String,Object>(space) );
+        }
+        return result;
+    }
+
+    private PageEntry page( String id ) throws Fault {
+        final PageEntry result = pages.get(id);
+        if( result == null ) {
+            throw new Fault(String.format("You're not allowed to view that page, or it does not exist. id [%s]", id));
+        }
+        return result;
+    }
+
+    private PageEntry find( String space, String title ) {
+        for( PageEntry p : pages.values() ) {
+            if( p.space.equals(space) && p.title.equals(title) ) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    private Map<String,Object> toPage( PageEntry p ) {
+        final Map<String,Object> result = toSummary(p);
+        result.put("version", String.valueOf(p.version));
+        result.put("content", p.content);
+        result.put("created", p.created);
+        result.put("creator", "admin");
+        result.put("modified", p.modified);
+        result.put("modifier", ( p.modifier != null ) ? p.modifier : "admin");
+        result.put("homePage", String.valueOf( p.id.equals(spaces.get(p.space).get("homePage")) ));
+        result.put("contentStatus", "current");
+        result.put("current", "true");
+        return result;
+    }
+
+    private Map<String,Object> toSummary( PageEntry p ) {
+        final Map<String,Object> result = new LinkedHashMap<String,Object>();
+        result.put("id", p.id);
+        result.put("space", p.space);
+        result.put("parentId", p.parentId);
+        result.put("title", p.title);
+        result.put("url", String.format("%s/pages/viewpage.action?pageId=%s", baseUrl, p.id));
+        result.put("permissions", "0");
+        return result;
+    }
+
+    public synchronized Map<String,Object> getPage( String id ) throws Fault {
+        return toPage(page(id));
+    }
+
+    public synchronized Map<String,Object> getPage( String space, String title ) throws Fault {
+        final PageEntry result = find(space, title);
+        if( result == null ) {
+            throw new Fault(String.format("The page you are trying to access does not exist. space [%s] title [%s]", space, title));
+        }
+        return toPage(result);
+    }
+
+    public synchronized List<Map<String,Object>> getPages( String space ) throws Fault {
+        getSpace(space);
+
+        final List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
+        for( PageEntry p : pages.values() ) {
+            if( p.space.equals(space) ) {
+                result.add( toSummary(p) );
+            }
+        }
+        return result;
+    }
+
+    public synchronized List<Map<String,Object>> getChildren( String id ) throws Fault {
+        page(id);
+
+        final List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
+        for( PageEntry p : pages.values() ) {
+            if( p.parentId.equals(id) ) {
+                result.add( toSummary(p) );
+            }
+        }
+        return result;
+    }
+
+    public synchronized List<Map<String,Object>> getDescendents( String id ) throws Fault {
+        final List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
+
+        for( Map<String,Object> child : getChildren(id) ) {
+            result.add(child);
+            result.addAll( getDescendents(str(child.get("id"))) );
+        }
+        return result;
+    }
+
+    public synchronized List<Map<String,Object>> getAncestors( String id ) throws Fault {
+        final List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
+
+        for( PageEntry p = page(id) ; !"0".equals(p.parentId) ; ) {
+            p = page(p.parentId);
+            result.add( 0, toSummary(p) );
+        }
+        return result;
+    }
+
+    /**
+     * create a page (no id) or update it. The version of an update must be the current one
+     *
+     * @param data
+     * @return the stored page
+     * @throws Fault
+     */
+    public synchronized Map<String,Object> storePage( Map<?,?> data ) throws Fault {
+        final String id = str(data.get("id"));
+        final String title = str(data.get("title"));
+        final String parentId = str(data.get("parentId"));
+        final String content = str(data.get("content"));
+
+        final PageEntry p;
+
+        if( isNullOrEmpty(id) || "0".equals(id) ) {
+            final String space = str(data.get("space"));
+            getSpace(space);
+
+            if( isNullOrEmpty(title) ) {
+                throw new Fault("page title is required!");
+            }
+            if( find(space, title) != null ) {
+                throw new Fault(String.format("A page already exists with the title [%s] in space [%s]", title, space));
+            }
+            p = new PageEntry(newId(), space);
+            p.title = title;
+            pages.put(p.id, p);
+        }
+        else {
+            p = page(id);
+
+            final String version = str(data.get("version"));
+            if( !isNullOrEmpty(version) && Integer.parseInt(version) != p.version ) {
+                throw new Fault(String.format("You're trying to edit an outdated version [%s] of the page [%s]. Current version is [%d]", version, id, p.version));
+            }
+            if( !isNullOrEmpty(title) && !title.equals(p.title) ) {
+                final PageEntry other = find(p.space, title);
+                if( other != null && other != p ) {
+                    throw new Fault(String.format("A page already exists with the title [%s] in space [%s]", title, p.space));
+                }
+                p.title = title;
+            }
+            ++p.version;
+            p.modified = new Date();
+        }
+
+        if( !isNullOrEmpty(parentId) && !"0".equals(parentId) ) {
+            page(parentId);
+            p.parentId = parentId;
+        }
+        if( content != null ) {
+            p.content = content;
+        }
+        p.modifier = str(data.get("modifier"));
+
+        return toPage(p);
+    }
+
+    /**
+     * remove the page, its attachments and labels. The children are moved to its parent
+     *
+     * @param id
+     * @throws Fault
+     */
+    public synchronized void removePage( String id ) throws Fault {
+        final PageEntry p = page(id);
+
+        for( PageEntry child : pages.values() ) {
+            if( child.parentId.equals(id) ) {
+                child.parentId = p.parentId;
+            }
+        }
+        pages.remove(id);
+        attachments.remove(id);
+        labels.remove(id);
+    }
+
+    /**
+     *
+     * @return number of pages (home pages included)
+     */
+    public synchronized int getPageCount() {
+        return pages.size();
+    }
+
+    private Map<String,Object> toAttachment( AttachmentEntry a ) {
+        final Map<String,Object> result = new LinkedHashMap<String,Object>();
+        result.put("id", a.id);
+        result.put("pageId", a.pageId);
+        result.put("title", a.fileName);
+        result.put("fileName", a.fileName);
+        result.put("fileSize", String.valueOf(a.data.length));
+        result.put("contentType", ( a.contentType != null ) ? a.contentType : "application/octet-stream");
+        result.put("created", a.created);
+        result.put("creator", "admin");
+        result.put("url", String.format("%s/download/attachments/%s/%s", baseUrl, a.pageId, a.fileName));
+        result.put("comment", ( a.comment != null ) ? a.comment : "");
+        return result;
+    }
+
+    private AttachmentEntry attachment( String pageId, String fileName ) throws Fault {
+        final Map<String,AttachmentEntry> map = attachments.get(pageId);
+        final AttachmentEntry result = ( map != null ) ? map.get(fileName) : null;
+
+        if( result == null ) {
+            throw new Fault(String.format("No attachment on content with id [%s] and name [%s]", pageId, fileName));
+        }
+        return result;
+    }
+
+    public synchronized Map<String,Object> addAttachment( String pageId, Map<?,?> data, byte[] content ) throws Fault {
+        page(pageId);
+
+        final String fileName = str(data.get("fileName"));
+        if( isNullOrEmpty(fileName) ) {
+            throw new Fault("attachment fileName is required!");
+        }
+
+        Map<String,AttachmentEntry> map = attachments.get(pageId);
+        if( map == null ) {
+            map = new LinkedHashMap<String,AttachmentEntry>();
+            attachments.put(pageId, map);
+        }
+        AttachmentEntry a = map.get(fileName);
+        if( a == null ) {
+            a = new AttachmentEntry(newId(), pageId, fileName);
+            map.put(fileName, a);
+        }
+        a.contentType = str(data.get("contentType"));
+        a.comment = str(data.get("comment"));
+        a.data = ( content != null ) ? content : new byte[0];
+
+        return toAttachment(a);
+    }
+
+    public synchronized Map<String,Object> getAttachment( String pageId, String fileName ) throws Fault {
+        return toAttachment(attachment(pageId, fileName));
+    }
+
+    public synchronized byte[] getAttachmentData( String pageId, String fileName ) throws Fault {
+        return attachment(pageId, fileName).data.clone();
+    }
+
+    public synchronized List<Map<String,Object>> getAttachments( String pageId ) throws Fault {
+        page(pageId);
+
+        final List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
+        final Map<String,AttachmentEntry> map = attachments.get(pageId);
+
+        if( map != null ) {
+            for( AttachmentEntry a : map.values() ) {
+                result.add( toAttachment(a) );
+            }
+        }
+        return result;
+    }
+
+    public synchronized boolean removeAttachment( String pageId, String fileName ) throws Fault {
+        attachment(pageId, fileName);
+        return attachments.get(pageId).remove(fileName) != null;
+    }
+
+    public synchronized List<Map<String,Object>> getLabels( String contentId ) throws Fault {
+        page(contentId);
+
+        final List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
+        final Set<String> set = labels.get(contentId);
+
+        if( set != null ) {
+            for( String name : set ) {
+                final Map<String,Object> label = new LinkedHashMap<String,Object>();
+                label.put("name", name);
+                label.put("id", String.valueOf(Math.abs(name.hashCode())));
+                label.put("namespace", "global");
+                label.put("owner", "admin");
+                result.add(label);
+            }
+        }
+        return result;
+    }
+
+    /**
+     *
+     * @param names one or more names separated by spaces or commas
+     * @param contentId
+     * @throws Fault
+     */
+    public synchronized void addLabels( String names, String contentId ) throws Fault {
+        page(contentId);
+
+        Set<String> set = labels.get(contentId);
+        if( set == null ) {
+            set = new LinkedHashSet<String>();
+            labels.put(contentId, set);
+        }
+        for( String name : names.split("[\\s,]+") ) {
+            if( name.length() > 0 ) {
+                set.add( name.toLowerCase(Locale.ENGLISH) );
+            }
+        }
+    }
+
+    public synchronized void removeLabels( String names, String contentId ) throws Fault {
+        page(contentId);
+
+        final Set<String> set = labels.get(contentId);
+        if( set != null ) {
+            for( String name : names.split("[\\s,]+") ) {
+                set.remove( name.toLowerCase(Locale.ENGLISH) );
+            }
+        }
+    }
+
+    /**
+     *
+     * @param query text searched in titles and contents
+     * @param maxResults
+     * @return the matching pages
+     */
+    public synchronized List<Map<String,Object>> search( String query, int maxResults ) {
+        final List<Map<String,Object>> result = new ArrayList<Map<String,Object>>();
+        final String q = query.toLowerCase(Locale.ENGLISH);
+
+        for( PageEntry p : pages.values() ) {
+            if( result.size() >= maxResults ) {
+                break;
+            }
+            if( p.title.toLowerCase(Locale.ENGLISH).contains(q) || p.content.toLowerCase(Locale.ENGLISH).contains(q) ) {
+                final Map<String,Object> r = new LinkedHashMap<String,Object>();
+                r.put("id", p.id);
+                r.put("title", p.title);
+                r.put("type", "page");
+                r.put("url", String.format("%s/pages/viewpage.action?pageId=%s", baseUrl, p.id));
+                r.put("excerpt", p.content.substring(0, Math.min(100, p.content.length())));
+                result.add(r);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,347 @@
+package org.bsc.maven.confluence.fake;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * Minimal XML-RPC codec: parses a <code>methodCall</code> and writes a <code>methodResponse</code>.
+ *
+ * Values are mapped to String, Integer, Long (<code>ex:i8</code>), Double, Boolean, Date, byte[] (base64),
+ * Map (struct) and Object[] (array). The extension types are recognized by local name, whatever their prefix.
+ */
+final class XmlRpcCodec {
+
+    static final String DATE_FORMAT = "yyyyMMdd'T'HH:mm:ss";
+
+    /**
+     * a parsed <code>methodCall</code>
+     */
+    static class Call {
+        final String methodName;
+        final Object[] params;
+
+        Call(String methodName, Object[] params) {
+            this.methodName = methodName;
+            this.params = params;
+        }
+    }
+
+    private static final ThreadLocal<DocumentBuilder> _BUILDER = new ThreadLocal<DocumentBuilder>() {
+
+        @Override
+        protected DocumentBuilder initialValue() {
+            final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            try {
+                return factory.newDocumentBuilder();
+            } catch (ParserConfigurationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private XmlRpcCodec() {
+    }
+
+    private static String nameOf( Node node ) {
+        return ( node.getLocalName() != null ) ? node.getLocalName() : node.getNodeName();
+    }
+
+    private static List<Element> children( Node node ) {
+        final List<Element> result = new ArrayList<Element>();
+        final NodeList nodes = node.getChildNodes();
+        for( int i = 0 ; i < nodes.getLength() ; ++i ) {
+            if( nodes.item(i) instanceof Element ) {
+                result.add((Element) nodes.item(i));
+            }
+        }
+        return result;
+    }
+
+    private static Element child( Node node, String name ) {
+        for( Element e : children(node) ) {
+            if( name.equals(nameOf(e)) ) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     *
+     * @param is request body
+     * @return the call
+     * @throws IOException
+     */
+    static Call parseCall( InputStream is ) throws IOException {
+        final Document doc;
+        try {
+            final DocumentBuilder builder = _BUILDER.get();
+            builder.reset();
+            doc = builder.parse(is);
+        } catch (SAXException e) {
+            throw new IOException("invalid xml-rpc request", e);
+        }
+        final Element root = doc.getDocumentElement();
+
+        final Element methodName = child(root, "methodName");
+        if( methodName == null ) {
+            throw new IOException("methodName is missing!");
+        }
+
+        final List<Object> params = new ArrayList<Object>();
+        final Element p = child(root, "params");
+
+        if( p != null ) {
+            for( Element param : children(p) ) {
+                params.add( parseValue(child(param, "value")) );
+            }
+        }
+        return new Call( methodName.getTextContent().trim(), params.toArray() );
+    }
+
+    static Object parseValue( Element value ) throws IOException {
+        if( value == null ) {
+            return null;
+        }
+        final Element typed = children(value).isEmpty() ? null : children(value).get(0);
+
+        if( typed == null ) {
+            return value.getTextContent();
+        }
+        final String type = nameOf(typed);
+        final String text = typed.getTextContent();
+
+        if( "string".equals(type) ) {
+            return text;
+        }
+        if( "int".equals(type) || "i4".equals(type) || "i2".equals(type) || "i1".equals(type) ) {
+            return Integer.valueOf(text.trim());
+        }
+        if( "i8".equals(type) ) {
+            return Long.valueOf(text.trim());
+        }
+        if( "double".equals(type) || "float".equals(type) ) {
+            return Double.valueOf(text.trim());
+        }
+        if( "boolean".equals(type) ) {
+            return "1".equals(text.trim()) || "true".equalsIgnoreCase(text.trim());
+        }
+        if( "nil".equals(type) ) {
+            return null;
+        }
+        if( "base64".equals(type) ) {
+            return Base64.decode(text);
+        }
+        if( "dateTime.iso8601".equals(type) || "dateTime".equals(type) ) {
+            try {
+                return new SimpleDateFormat(DATE_FORMAT).parse(text.trim());
+            } catch (ParseException e) {
+                return text; // the value isn't used by the server
+            }
+        }
+        if( "struct".equals(type) ) {
+            final Map<String,Object> result = new LinkedHashMap<String,Object>();
+            for( Element member : children(typed) ) {
+                result.put( child(member, "name").getTextContent(), parseValue(child(member, "value")) );
+            }
+            return result;
+        }
+        if( "array".equals(type) ) {
+            final List<Object> result = new ArrayList<Object>();
+            final Element data = child(typed, "data");
+            if( data != null ) {
+                for( Element v : children(data) ) {
+                    result.add( parseValue(v) );
+                }
+            }
+            return result.toArray();
+        }
+        return text;
+    }
+
+    /**
+     *
+     * @param result
+     * @return a <code>methodResponse</code> with the given result
+     */
+    static byte[] writeResponse( Object result ) throws IOException {
+        final StringBuilder sb = new StringBuilder(1024);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodResponse><params><param>");
+        writeValue(sb, result);
+        sb.append("</param></params></methodResponse>");
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    /**
+     *
+     * @param code
+     * @param message
+     * @return a <code>methodResponse</code> with the given fault
+     */
+    static byte[] writeFault( int code, String message ) throws IOException {
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><methodResponse><fault>");
+        writeValue(sb, fault(code, message));
+        sb.append("</fault></methodResponse>");
+        return sb.toString().getBytes("UTF-8");
+    }
+
+    /**
+     *
+     * @param code
+     * @param message
+     * @return the fault struct
+     */
+    static Map<String,Object> fault( int code, String message ) {
+        final Map<String,Object> result = new LinkedHashMap<String,Object>(4);
+        result.put("faultCode", code);
+        result.put("faultString", message);
+        return result;
+    }
+
+    static void writeValue( StringBuilder sb, Object value ) {
+        sb.append("<value>");
+
+        if( value == null ) {
+            sb.append("<string></string>");
+        }
+        else if( value instanceof Integer || value instanceof Short || value instanceof Byte ) {
+            sb.append("<int>").append(value).append("</int>");
+        }
+        else if( value instanceof Long ) {
+            // confluence sends the ids as strings
+            sb.append("<string>").append(value).append("</string>");
+        }
+        else if( value instanceof Number ) {
+            sb.append("<double>").append(value).append("</double>");
+        }
+        else if( value instanceof Boolean ) {
+            sb.append("<boolean>").append( ((Boolean) value) ? "1" : "0" ).append("</boolean>");
+        }
+        else if( value instanceof Date ) {
+            sb.append("<dateTime.iso8601>")
+              .append( new SimpleDateFormat(DATE_FORMAT).format((Date) value) )
+              .append("</dateTime.iso8601>");
+        }
+        else if( value instanceof byte[] ) {
+            sb.append("<base64>").append( Base64.encode((byte[]) value) ).append("</base64>");
+        }
+        else if( value instanceof Map ) {
+            sb.append("<struct>");
+            for( Map.Entry<?,?> e : ((Map<?,?>) value).entrySet() ) {
+                sb.append("<member><name>");
+                escape(sb, String.valueOf(e.getKey()));
+                sb.append("</name>");
+                writeValue(sb, e.getValue());
+                sb.append("</member>");
+            }
+            sb.append("</struct>");
+        }
+        else if( value instanceof Object[] || value instanceof Collection ) {
+            final Object[] values = ( value instanceof Object[] ) ? (Object[]) value : ((Collection<?>) value).toArray();
+            sb.append("<array><data>");
+            for( Object v : values ) {
+                writeValue(sb, v);
+            }
+            sb.append("</data></array>");
+        }
+        else {
+            sb.append("<string>");
+            escape(sb, String.valueOf(value));
+            sb.append("</string>");
+        }
+        sb.append("</value>");
+    }
+
+    static void escape( StringBuilder sb, String value ) {
+        for( int i = 0 ; i < value.length() ; ++i ) {
+            final char c = value.charAt(i);
+            switch( c ) {
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '&': sb.append("&amp;"); break;
+                case '\r': sb.append("&#13;"); break;
+                default: sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * base64 without line breaks. The decoder skips the white spaces
+     */
+    static final class Base64 {
+        private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+        private static final int[] VALUES = new int[128];
+
+        static {
+            java.util.Arrays.fill(VALUES, -1);
+            for( int i = 0 ; i < ALPHABET.length ; ++i ) {
+                VALUES[ALPHABET[i]] = i;
+            }
+        }
+
+        private Base64() {
+        }
+
+        static String encode( byte[] data ) {
+            final StringBuilder sb = new StringBuilder( (data.length + 2) / 3 * 4 );
+
+            for( int i = 0 ; i < data.length ; i += 3 ) {
+                final int b0 = data[i] & 0xff;
+                final int b1 = ( i + 1 < data.length ) ? data[i + 1] & 0xff : 0;
+                final int b2 = ( i + 2 < data.length ) ? data[i + 2] & 0xff : 0;
+
+                sb.append( ALPHABET[b0 >> 2] );
+                sb.append( ALPHABET[((b0 & 0x03) << 4) | (b1 >> 4)] );
+                sb.append( ( i + 1 < data.length ) ? ALPHABET[((b1 & 0x0f) << 2) | (b2 >> 6)] : '=' );
+                sb.append( ( i + 2 < data.length ) ? ALPHABET[b2 & 0x3f] : '=' );
+            }
+            return sb.toString();
+        }
+
+        static byte[] decode( String text ) throws IOException {
+            final ByteArrayOutputStream result = new ByteArrayOutputStream( text.length() * 3 / 4 );
+            int buffer = 0;
+            int bits = 0;
+
+            for( int i = 0 ; i < text.length() ; ++i ) {
+                final char c = text.charAt(i);
+                if( c == '=' ) {
+                    break;
+                }
+                if( Character.isWhitespace(c) ) {
+                    continue;
+                }
+                final int v = ( c < 128 ) ? VALUES[c] : -1;
+                if( v < 0 ) {
+                    throw new IOException(String.format("invalid base64 character [%c]", c));
+                }
+                buffer = (buffer << 6) | v;
+                bits += 6;
+                if( bits >= 8 ) {
+                    bits -= 8;
+                    result.write( (buffer >> bits) & 0xff );
+                }
+            }
+            return result.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package org.bsc.maven.confluence.fake;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.codehaus.swizzle.confluence.Attachment;
+import org.codehaus.swizzle.confluence.Confluence;
+import org.codehaus.swizzle.confluence.ConfluenceException;
+import org.codehaus.swizzle.confluence.ConfluenceFactory;
+import org.codehaus.swizzle.confluence.Label;
+import org.codehaus.swizzle.confluence.Page;
+import org.hamcrest.core.Is;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FakeConfluenceServerTest {
+
+    FakeConfluenceServer server;
+    Confluence confluence;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new FakeConfluenceServer(0);
+        server.start();
+        server.getStore().addSpace("DOC", "Documentation");
+
+        confluence = ConfluenceFactory.createInstanceDetectingVersion(server.getUrl(), null, "admin", "admin");
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        confluence.logout();
+        server.stop();
+    }
+
+    static Page newPage( String title, String parentId, String content ) {
+        final Map<String,Object> data = new HashMap<String,Object>();
+        data.put("space", "DOC");
+        data.put("title", title);
+        data.put("parentId", parentId);
+        data.put("content", content);
+        return new Page(data);
+    }
+
+    @Test
+    public void pages() throws Exception {
+        final Page home = confluence.getPage("DOC", "Documentation");
+
+        final Page parent = confluence.storePage(newPage("parent", home.getId(), "<p>parent</p>"));
+        final Page child = confluence.storePage(newPage("child", parent.getId(), "<p>child &amp; more</p>"));
+
+        Assert.assertThat( confluence.getPage(child.getId()).getContent(), Is.is("<p>child &amp; more</p>") );
+        Assert.assertThat( confluence.getPage("DOC", "child").getParentId(), Is.is(parent.getId()) );
+        Assert.assertThat( confluence.getChildren(home.getId()).size(), Is.is(1) );
+        Assert.assertThat( confluence.getDescendents(home.getId()).size(), Is.is(2) );
+
+        child.setContent("<p>updated</p>");
+        final Page updated = confluence.storePage(child);
+        Assert.assertThat( updated.getVersion(), Is.is(2) );
+
+        // outdated version
+        try {
+            confluence.storePage(child);
+            Assert.fail("expected exception");
+        }
+        catch( ConfluenceException e ) {
+            Assert.assertThat( e.getMessage().contains("outdated"), Is.is(true) );
+        }
+
+        confluence.removePage(parent.getId());
+        Assert.assertThat( confluence.getPage(child.getId()).getParentId(), Is.is(home.getId()) );
+
+        Assert.assertThat( server.getCallCount("storePage"), Is.is(4L) );
+        Assert.assertThat( server.getCallCount("login"), Is.is(1L) );
+    }
+
+    @Test
+    public void attachmentsAndLabels() throws Exception {
+        final Page page = confluence.storePage(newPage("page", null, ""));
+        final long id = Long.parseLong(page.getId());
+
+        final Map<String,Object> data = new HashMap<String,Object>();
+        data.put("fileName", "data.bin");
+        data.put("contentType", "application/octet-stream");
+
+        final byte[] content = new byte[3000];
+        for( int i = 0 ; i < content.length ; ++i ) {
+            content[i] = (byte) i;
+        }
+        confluence.addAttachment(id, new Attachment(data), content);
+        Assert.assertThat( confluence.getAttachmentData(page.getId(), "data.bin", "0"), Is.is(content) );
+
+        // streamed upload
+        confluence.addAttachment(id, new Attachment(data), new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5 }));
+        Assert.assertThat( confluence.getAttachment(page.getId(), "data.bin", "0").getFileSize(), Is.is("5") );
+
+        confluence.addLabelByName("maven, site", id);
+        final List labels = confluence.getLabelsById(id);
+        Assert.assertThat( labels.size(), Is.is(2) );
+        Assert.assertThat( ((Label) labels.get(0)).getName(), Is.is("maven") );
+
+        confluence.removeLabelByName("maven", id);
+        Assert.assertThat( confluence.getLabelsById(id).size(), Is.is(1) );
+    }
+
+    @Test
+    public void faultsAndSessions() throws Exception {
+        server.failNext("getPage", 1);
+
+        try {
+            confluence.getPage("DOC", "Documentation");
+            Assert.fail("expected exception");
+        }
+        catch( ConfluenceException e ) {
+            Assert.assertThat( e.getMessage(), Is.is("injected fault on [getPage]") );
+        }
+        Assert.assertThat( confluence.getPage("DOC", "Documentation").getTitle(), Is.is("Documentation") );
+
+        server.expireSessions();
+
+        // login again
+        Assert.assertThat( confluence.getPage("DOC", "Documentation").getTitle(), Is.is("Documentation") );
+        Assert.assertThat( server.getCallCount("login"), Is.is(2L) );
+    }
+
+    @Test
+    public void latencyAndMulticall() throws Exception {
+        final String homeId = confluence.getPage("DOC", "Documentation").getId();
+
+        server.setLatency(100, 100);
+        Assert.assertThat( confluence.enableMulticall(4, 1000), Is.is(true) );
+        server.resetCounters();
+
+        final long start = System.currentTimeMillis();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<String>> results = new ArrayList<Future<String>>();
+            for( int i = 0 ; i < 4 ; ++i ) {
+                results.add( executor.submit(new Callable<String>() {
+
+                    @Override
+                    public String call() throws Exception {
+                        return confluence.getPage(homeId).getTitle();
+                    }
+                }));
+            }
+            for( Future<String> r : results ) {
+                Assert.assertThat( r.get(), Is.is("Documentation") );
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        Assert.assertThat( System.currentTimeMillis() - start >= 100, Is.is(true) );
+        Assert.assertThat( server.getRequestCount(), Is.is(1L) );
+        Assert.assertThat( server.getCallCount("getPage"), Is.is(4L) );
+    }
+}